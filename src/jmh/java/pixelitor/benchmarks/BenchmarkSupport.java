@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterAction;
+import pixelitor.filters.FilterUtils;
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.ImageLayer;
+import pixelitor.menus.MenuBar;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * The shared setup of the benchmarks: the synthetic
+ * images and the filters, without a GUI.
+ */
+class BenchmarkSupport {
+    private static boolean initialized = false;
+
+    private BenchmarkSupport() {
+    }
+
+    static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        // the filters report their progress to a test message
+        // handler, and the tools are replaced by mocks
+        TestHelper.setUnitTestingMode();
+        MenuBar.registerFilters();
+        initialized = true;
+    }
+
+    /**
+     * Returns the list names of the filters that can run without
+     * a dialog or an open image. The others (like Levels or the
+     * Random Filter) can't be benchmarked in this way.
+     */
+    static List<String> getBenchmarkableFilterNames() {
+        init();
+        List<String> names = new ArrayList<>();
+        for (FilterAction fa : FilterUtils.getAllFiltersSorted()) {
+            try {
+                fa.getFilter().transformImage(createImage("0.01MP", "ARGB"));
+                names.add(fa.getListName());
+            } catch (Throwable e) {
+                System.out.println("Skipping " + fa.getListName() + ": " + e);
+            }
+        }
+        return names;
+    }
+
+    static Filter getFilter(String listName) {
+        init();
+        for (FilterAction fa : FilterUtils.getAllFiltersSorted()) {
+            if (fa.getListName().equals(listName)) {
+                return fa.getFilter();
+            }
+        }
+        throw new IllegalArgumentException("filter not found: " + listName);
+    }
+
+    /**
+     * Creates a reproducible image of the given size ("1MP", "12MP"
+     * or "48MP") and type ("ARGB" or "GRAY" for masks), which
+     * has both smooth gradients and some noise, like a photo.
+     */
+    static BufferedImage createImage(String size, String type) {
+        int width;
+        int height;
+        switch (size) {
+            case "0.01MP":
+                width = 100;
+                height = 100;
+                break;
+            case "1MP":
+                width = 1000;
+                height = 1000;
+                break;
+            case "12MP":
+                width = 4000;
+                height = 3000;
+                break;
+            case "48MP":
+                width = 8000;
+                height = 6000;
+                break;
+            default:
+                throw new IllegalArgumentException("size = " + size);
+        }
+
+        int imageType;
+        if (type.equals("ARGB")) {
+            imageType = TYPE_INT_ARGB;
+        } else if (type.equals("GRAY")) {
+            imageType = TYPE_BYTE_GRAY;
+        } else {
+            throw new IllegalArgumentException("type = " + type);
+        }
+
+        BufferedImage img = new BufferedImage(width, height, imageType);
+        Random rand = new Random(42);
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / width;
+                int g = 255 * y / height;
+                int b = (r + g) / 2;
+                int noise = rand.nextInt(32) - 16;
+                pixels[x] = 0xFF_00_00_00
+                        | clamp(r + noise) << 16
+                        | clamp(g + noise) << 8
+                        | clamp(b + noise);
+            }
+            img.setRGB(0, y, width, 1, pixels, 0, width);
+        }
+        return img;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    /**
+     * Creates a composition with the given number of image
+     * layers, using the blending modes in turn
+     */
+    static Composition createComp(String size, int numLayers) {
+        init();
+        BufferedImage first = createImage(size, "ARGB");
+        Composition comp = Composition.createEmpty(first.getWidth(), first.getHeight());
+        comp.setName("Benchmark");
+
+        BlendingMode[] modes = BlendingMode.values();
+        for (int i = 0; i < numLayers; i++) {
+            BufferedImage img = i == 0 ? first : createImage(size, "ARGB");
+            var layer = new ImageLayer(comp, img, "layer " + i);
+            layer.setBlendingMode(modes[i % modes.length], false);
+            comp.addLayerInInitMode(layer);
+        }
+        return comp;
+    }
+}
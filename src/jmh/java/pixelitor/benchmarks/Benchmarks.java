@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+
+/**
+ * Runs the benchmarks, with the usual JMH command line options.
+ * Started by "mvn -P benchmarks verify", and the arguments can be
+ * given with -Dbenchmark.args="...", for example
+ * -Dbenchmark.args="FilterBenchmark -p filter=Invert -p size=1MP"
+ *
+ * The results are written into target/jmh-result.json (unless
+ * the -rf and -rff options say otherwise) so that they
+ * can be compared from release to release.
+ */
+public class Benchmarks {
+    private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+
+        if (!cmdOptions.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getParameter("filter").hasValue()) {
+            // the filter names are known only at runtime
+            List<String> filterNames = BenchmarkSupport.getBenchmarkableFilterNames();
+            options.param("filter", filterNames.toArray(new String[0]));
+        }
+
+        new Runner(options.build()).run();
+        System.exit(0);
+    }
+}
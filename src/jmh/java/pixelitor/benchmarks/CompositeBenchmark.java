@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Composition;
+import pixelitor.layers.BlendingMode;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static pixelitor.Composition.ImageChangeActions.INVALIDATE_CACHE;
+
+/**
+ * Measures the blending modes and the calculation
+ * of the composite image of a layer stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true", "-ea:pixelitor.utils.Utils"})
+public class CompositeBenchmark {
+    private static final int NUM_LAYERS = 10;
+
+    // all the blending modes are measured if not specified otherwise
+    @Param
+    private BlendingMode mode;
+
+    @Param({"1MP", "12MP", "48MP"})
+    private String size;
+
+    private BufferedImage top;
+    private BufferedImage bottom;
+    private Composition comp;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.init();
+        top = BenchmarkSupport.createImage(size, "ARGB");
+        bottom = BenchmarkSupport.createImage(size, "ARGB");
+        comp = BenchmarkSupport.createComp(size, NUM_LAYERS);
+    }
+
+    @Benchmark
+    public BufferedImage blend() {
+        Graphics2D g = bottom.createGraphics();
+        g.setComposite(mode.getComposite(0.8f));
+        g.drawImage(top, 0, 0, null);
+        g.dispose();
+        return bottom;
+    }
+
+    /**
+     * The single-threaded recalculation of the composite image
+     */
+    @Benchmark
+    public BufferedImage calculateCompositeImage() {
+        return comp.calculateCompositeImage();
+    }
+
+    /**
+     * The composite image as it is recalculated after an edit
+     */
+    @Benchmark
+    public BufferedImage getCompositeImage() {
+        comp.imageChanged(INVALIDATE_CACHE);
+        return comp.getCompositeImage();
+    }
+}
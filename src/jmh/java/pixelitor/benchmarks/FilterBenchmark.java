@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.filters.Filter;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the registered filters with their default settings. The
+ * "filter" parameter is filled with all the filters by {@link Benchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true", "-ea:pixelitor.utils.Utils"})
+public class FilterBenchmark {
+    @Param("Invert")
+    private String filter;
+
+    @Param({"1MP", "12MP", "48MP"})
+    private String size;
+
+    @Param({"ARGB", "GRAY"})
+    private String type;
+
+    private Filter filterInstance;
+    private BufferedImage src;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filterInstance = BenchmarkSupport.getFilter(filter);
+        src = BenchmarkSupport.createImage(size, type);
+    }
+
+    @Benchmark
+    public BufferedImage transform() {
+        return filterInstance.transformImage(src);
+    }
+}
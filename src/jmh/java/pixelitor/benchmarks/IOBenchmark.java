@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Composition;
+import pixelitor.io.OpenRaster;
+import pixelitor.io.PXCFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading back a layered
+ * composition in the PXC and OpenRaster formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true", "-ea:pixelitor.utils.Utils"})
+public class IOBenchmark {
+    private static final int NUM_LAYERS = 4;
+
+    @Param({"PXC", "ORA"})
+    private String format;
+
+    @Param({"1MP", "12MP", "48MP"})
+    private String size;
+
+    private Composition comp;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        comp = BenchmarkSupport.createComp(size, NUM_LAYERS);
+        file = File.createTempFile("benchmark", "." + format.toLowerCase());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Composition roundTrip() throws Exception {
+        Composition read;
+        if (format.equals("PXC")) {
+            PXCFormat.write(comp, file);
+            read = PXCFormat.read(file);
+        } else {
+            OpenRaster.write(comp, file, true);
+            read = OpenRaster.read(file);
+        }
+        // the PXC layers are loaded lazily
+        read.forEachDrawable(dr -> dr.getImage());
+        return read;
+    }
+}
@@ -35,6 +35,16 @@ public final class AddComposite extends RGBComposite {
             super(alpha, srcColorModel, dstColorModel);
         }
 
+        @Override
+        protected boolean hasPackedBlend() {
+            return true;
+        }
+
+        @Override
+        protected int blendPacked(int src, int dst) {
+            return addSaturated(dst, src);
+        }
+
         @Override
         public void composeRGB(int[] src, int[] dst, float alpha) {
             int w = src.length;
@@ -35,6 +35,19 @@ public final class MultiplyComposite extends RGBComposite {
             super(alpha, srcColorModel, dstColorModel);
         }
 
+        @Override
+        protected boolean hasPackedBlend() {
+            return true;
+        }
+
+        @Override
+        protected int blendPacked(int src, int dst) {
+            int r = multiply255((dst >> 16) & 0xFF, (src >> 16) & 0xFF);
+            int g = multiply255((dst >> 8) & 0xFF, (src >> 8) & 0xFF);
+            int b = multiply255(dst & 0xFF, src & 0xFF);
+            return r << 16 | g << 8 | b;
+        }
+
         @Override
         public void composeRGB(int[] src, int[] dst, float alpha) {
             int w = src.length;
@@ -19,7 +19,9 @@ package com.jhlabs.composite;
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 public abstract class RGBComposite implements Composite {
@@ -86,8 +88,33 @@ public abstract class RGBComposite implements Composite {
 
         public abstract void composeRGB(int[] src, int[] dst, float alpha);
 
+        /**
+         * Subclasses can return true if they implement {@link #blendPacked(int, int)}
+         * and their {@link #composeRGB(int[], int[], float)} uses the
+         * usual "a = alpha * sa / 255" interpolation between the
+         * blended and the destination colors.
+         */
+        protected boolean hasPackedBlend() {
+            return false;
+        }
+
+        /**
+         * Blends the RGB channels of an opaque source pixel with the
+         * destination pixel, both in packed ARGB format, with the same
+         * result as composeRGB at 100% opacity. The upper 8 bits of
+         * the returned value must be zero.
+         */
+        protected int blendPacked(int src, int dst) {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+            if (isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut)) {
+                composePacked(src, dstIn, dstOut);
+                return;
+            }
+
             float alpha = this.alpha;
 
             int[] srcPix = null;
@@ -111,5 +138,166 @@ public abstract class RGBComposite implements Composite {
                 dstOut.setPixels(x, y, w, 1, dstPix);
             }
         }
+
+        /**
+         * Returns true if the raster stores ARGB pixels in an int array,
+         * as in the case of TYPE_INT_ARGB and TYPE_INT_ARGB_PRE images
+         */
+        private static boolean isPackedARGB(Raster raster) {
+            if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                    || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+                return false;
+            }
+            int[] masks = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getBitMasks();
+            return masks.length == 4
+                    && masks[0] == 0x00_FF_00_00
+                    && masks[1] == 0x00_00_FF_00
+                    && masks[2] == 0x00_00_00_FF
+                    && masks[3] == 0xFF_00_00_00;
+        }
+
+        /**
+         * The same as the generic compose, but it works directly on the int arrays
+         * of the rasters, without the per-sample overhead of getPixels/setPixels.
+         * At 100% opacity, the modes with a packed blend don't even
+         * unpack the fully transparent and the opaque source pixels.
+         */
+        private void composePacked(Raster src, Raster dstIn, WritableRaster dstOut) {
+            float alpha = this.alpha;
+
+            int[] srcData = ((DataBufferInt) src.getDataBuffer()).getData();
+            int[] dstInData = ((DataBufferInt) dstIn.getDataBuffer()).getData();
+            int[] dstOutData = ((DataBufferInt) dstOut.getDataBuffer()).getData();
+
+            int x = dstOut.getMinX();
+            int w = dstOut.getWidth();
+            int y0 = dstOut.getMinY();
+            int y1 = y0 + dstOut.getHeight();
+
+            // at 100% opacity, most pixels can be blended without unpacking
+            boolean packedBlend = alpha == 1.0f && hasPackedBlend();
+            int[] srcPix = new int[packedBlend ? 4 : 4 * w];
+            int[] dstPix = new int[srcPix.length];
+
+            for (int y = y0; y < y1; y++) {
+                int srcIndex = getIndex(src, x, y);
+                int dstInIndex = getIndex(dstIn, x, y);
+                int dstOutIndex = getIndex(dstOut, x, y);
+
+                if (!packedBlend) {
+                    unpack(srcData, srcIndex, w, srcPix);
+                    unpack(dstInData, dstInIndex, w, dstPix);
+                    composeRGB(srcPix, dstPix, alpha);
+                    pack(dstPix, w, dstOutData, dstOutIndex);
+                    continue;
+                }
+
+                for (int i = 0; i < w; i++) {
+                    int s = srcData[srcIndex + i];
+                    int d = dstInData[dstInIndex + i];
+                    int sa = s >>> 24;
+                    if (sa == 0) {
+                        // the destination doesn't change
+                        dstOutData[dstOutIndex + i] = d;
+                    } else if (sa == 255) {
+                        dstOutData[dstOutIndex + i] = 0xFF_00_00_00 | blendPacked(s, d);
+                    } else {
+                        unpack(srcData, srcIndex + i, 1, srcPix);
+                        unpack(dstInData, dstInIndex + i, 1, dstPix);
+                        composeRGB(srcPix, dstPix, alpha);
+                        pack(dstPix, 1, dstOutData, dstOutIndex + i);
+                    }
+                }
+            }
+        }
+
+        // the index of the given pixel in the data array of a packed raster
+        private static int getIndex(Raster raster, int x, int y) {
+            var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            return raster.getDataBuffer().getOffset()
+                    + (y - raster.getSampleModelTranslateY()) * sampleModel.getScanlineStride()
+                    + x - raster.getSampleModelTranslateX();
+        }
+
+        // unpacks into R, G, B, A samples, in the same order as getPixels
+        private static void unpack(int[] data, int index, int numPixels, int[] samples) {
+            for (int i = 0, j = 0; i < numPixels; i++, j += 4) {
+                int p = data[index + i];
+                samples[j] = (p >>> 16) & 0xFF;
+                samples[j + 1] = (p >>> 8) & 0xFF;
+                samples[j + 2] = p & 0xFF;
+                samples[j + 3] = p >>> 24;
+            }
+        }
+
+        // the out of range samples are masked in the same way as in setPixels
+        private static void pack(int[] samples, int numPixels, int[] data, int index) {
+            for (int i = 0, j = 0; i < numPixels; i++, j += 4) {
+                data[index + i] = (samples[j] << 16) & 0x00_FF_00_00
+                        | (samples[j + 1] << 8) & 0x00_00_FF_00
+                        | samples[j + 2] & 0x00_00_00_FF
+                        | samples[j + 3] << 24;
+            }
+        }
+
+        // The following methods work on the three RGB bytes of two packed
+        // pixels at once. The red and blue channels are calculated together,
+        // with a spare bit above each of them, and the green one separately.
+
+        /**
+         * Returns 0xFF in the RGB channels where a >= b, and 0 elsewhere
+         */
+        static int greaterOrEqualMask(int a, int b) {
+            int rb = ((a & 0xFF_00_FF) | 0x1_00_01_00) - (b & 0xFF_00_FF);
+            int g = ((a & 0x00_FF_00) | 0x1_00_00) - (b & 0x00_FF_00);
+            int rbSpare = rb & 0x1_00_01_00;
+            int gSpare = g & 0x1_00_00;
+            return (rbSpare - (rbSpare >>> 8)) | (gSpare - (gSpare >>> 8));
+        }
+
+        static int min(int a, int b) {
+            int mask = greaterOrEqualMask(a, b);
+            return ((b & mask) | (a & ~mask)) & 0xFF_FF_FF;
+        }
+
+        static int max(int a, int b) {
+            int mask = greaterOrEqualMask(a, b);
+            return ((a & mask) | (b & ~mask)) & 0xFF_FF_FF;
+        }
+
+        // |a - b| in each channel
+        static int difference(int a, int b) {
+            // no borrows between the channels, because max >= min in each
+            return max(a, b) - min(a, b);
+        }
+
+        // a + b in each channel, clamped to 255
+        static int addSaturated(int a, int b) {
+            int rb = (a & 0xFF_00_FF) + (b & 0xFF_00_FF);
+            int g = (a & 0x00_FF_00) + (b & 0x00_FF_00);
+            int rbCarry = rb & 0x1_00_01_00;
+            int gCarry = g & 0x1_00_00;
+            rb = (rb | (rbCarry - (rbCarry >>> 8))) & 0xFF_00_FF;
+            g = (g | (gCarry - (gCarry >>> 8))) & 0x00_FF_00;
+            return rb | g;
+        }
+
+        // a - b in each channel, clamped to 0
+        static int subtractSaturated(int a, int b) {
+            int rb = ((a & 0xFF_00_FF) | 0x1_00_01_00) - (b & 0xFF_00_FF);
+            int g = ((a & 0x00_FF_00) | 0x1_00_00) - (b & 0x00_FF_00);
+            int rbSpare = rb & 0x1_00_01_00;
+            int gSpare = g & 0x1_00_00;
+            rb &= (rbSpare - (rbSpare >>> 8));
+            g &= (gSpare - (gSpare >>> 8));
+            return rb | g;
+        }
+
+        // (a + b) / 2 in each channel, rounded down
+        static int average(int a, int b) {
+            a &= 0xFF_FF_FF;
+            b &= 0xFF_FF_FF;
+            return (a & b) + (((a ^ b) >>> 1) & 0x7F_7F_7F);
+        }
     }
 }
@@ -35,6 +35,19 @@ public final class ScreenComposite extends RGBComposite {
             super(alpha, srcColorModel, dstColorModel);
         }
 
+        @Override
+        protected boolean hasPackedBlend() {
+            return true;
+        }
+
+        @Override
+        protected int blendPacked(int src, int dst) {
+            int r = 255 - multiply255(255 - ((dst >> 16) & 0xFF), 255 - ((src >> 16) & 0xFF));
+            int g = 255 - multiply255(255 - ((dst >> 8) & 0xFF), 255 - ((src >> 8) & 0xFF));
+            int b = 255 - multiply255(255 - (dst & 0xFF), 255 - (src & 0xFF));
+            return r << 16 | g << 8 | b;
+        }
+
         @Override
         public void composeRGB(int[] src, int[] dst, float alpha) {
             int w = src.length;
@@ -21,9 +21,10 @@ import com.jhlabs.math.Noise;
 import net.jafama.FastMath;
 import pixelitor.ThreadPool;
 import pixelitor.utils.CachedFloatRandom;
+import pixelitor.utils.PointGrid;
 
 import java.awt.Rectangle;
-import java.util.concurrent.Future;
+import java.util.Arrays;
 
 /**
  * A filter which produces an image with a cellular texture.
@@ -70,6 +71,14 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
 
     GridType gridType;
 
+    // the feature points of the cubes covering the image, so that they
+    // don't have to be recreated for each pixel (null if not cached)
+    private static final int MAX_CACHED_CUBES = 1 << 20;
+    private PointGrid cachedPoints;
+    private float[] cachedWeights;
+    private int cachedMinCubeX;
+    private int cachedMinCubeY;
+
     public CellularFilter(String filterName) {
         super(filterName);
 
@@ -327,7 +336,7 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
     enum GridType {
         RANDOM {
             @Override
-            float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            int createPoints(int cubeX, int cubeY, float randomness, float[] points) {
                 CachedFloatRandom random = randomTL.get();
                 random.setSeed(571 * cubeX + 23 * cubeY);
                 int randomIndex = random.nextInt() & 0x1fff;
@@ -336,13 +345,13 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
                 for (int i = 0; i < numPoints; i++) {
                     float px = random.nextFloat();
                     float py = random.nextFloat();
-                    insertionSort(x, y, cubeX, cubeY, results, px, py, weight);
+                    setPoint(points, i, px, py, weight);
                 }
-                return results[2].distance;
+                return numPoints;
             }
         }, SQUARE {
             @Override
-            float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            int createPoints(int cubeX, int cubeY, float randomness, float[] points) {
                 CachedFloatRandom random = randomTL.get();
                 random.setSeed(571 * cubeX + 23 * cubeY);
                 float weight = 1.0f;
@@ -352,12 +361,12 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
                     px = (float) (px + randomness * (random.nextFloat() - 0.5));
                     py = (float) (py + randomness * (random.nextFloat() - 0.5));
                 }
-                insertionSort(x, y, cubeX, cubeY, results, px, py, weight);
-                return results[2].distance;
+                setPoint(points, 0, px, py, weight);
+                return 1;
             }
         }, HEXAGONAL {
             @Override
-            float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            int createPoints(int cubeX, int cubeY, float randomness, float[] points) {
 //                random.setSeed(571 * cubeX + 23 * cubeY);
                 float px, py;
                 if ((cubeX & 1) == 0) {
@@ -371,12 +380,12 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
                     px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
                     py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
                 }
-                insertionSort(x, y, cubeX, cubeY, results, px, py, 1.0f);
-                return results[2].distance;
+                setPoint(points, 0, px, py, 1.0f);
+                return 1;
             }
         }, OCTAGONAL {
             @Override
-            float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            int createPoints(int cubeX, int cubeY, float randomness, float[] points) {
 //                random.setSeed(571 * cubeX + 23 * cubeY);
                 float weight = 1.0f;
                 for (int i = 0; i < 2; i++) {
@@ -397,13 +406,13 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
                         px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
                         py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
                     }
-                    insertionSort(x, y, cubeX, cubeY, results, px, py, weight);
+                    setPoint(points, i, px, py, weight);
                 }
-                return results[2].distance;
+                return 2;
             }
         }, TRIANGULAR {
             @Override
-            float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            int createPoints(int cubeX, int cubeY, float randomness, float[] points) {
 //                random.setSeed(571 * cubeX + 23 * cubeY);
                 float weight = 1.0f;
                 for (int i = 0; i < 2; i++) {
@@ -429,16 +438,41 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
                         px += randomness * Noise.noise2(271 * (cubeX + px), 271 * (cubeY + py));
                         py += randomness * Noise.noise2(271 * (cubeX + px) + 89, 271 * (cubeY + py) + 137);
                     }
-                    insertionSort(x, y, cubeX, cubeY, results, px, py, weight);
+                    setPoint(points, i, px, py, weight);
                 }
-                return results[2].distance;
+                return 2;
             }
         };
 
+        // the maximum number of points in a cube
+        static final int MAX_POINTS = 10;
+
         static final ThreadLocal<CachedFloatRandom> randomTL =
                 ThreadLocal.withInitial(CachedFloatRandom::new);
+        static final ThreadLocal<float[]> pointsTL =
+                ThreadLocal.withInitial(() -> new float[3 * MAX_POINTS]);
+
+        /**
+         * Stores the x, y and weight of each feature point of
+         * the given cube in the given array, and returns their number.
+         */
+        abstract int createPoints(int cubeX, int cubeY, float randomness, float[] points);
+
+        float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness) {
+            float[] points = pointsTL.get();
+            int numPoints = createPoints(cubeX, cubeY, randomness, points);
+            for (int i = 0; i < numPoints; i++) {
+                insertionSort(x, y, cubeX, cubeY, results,
+                        points[3 * i], points[3 * i + 1], points[3 * i + 2]);
+            }
+            return results[2].distance;
+        }
 
-        abstract float checkCube(float x, float y, int cubeX, int cubeY, Point[] results, float randomness);
+        static void setPoint(float[] points, int i, float px, float py, float weight) {
+            points[3 * i] = px;
+            points[3 * i + 1] = py;
+            points[3 * i + 2] = weight;
+        }
 
         static void insertionSort(float x, float y, int cubeX, int cubeY, Point[] results, float px, float py, float weight) {
             float dx = Math.abs(x - px);
@@ -488,6 +522,91 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
 
     }
 
+    private float checkCube(GridType type, float x, float y, int cubeX, int cubeY, Point[] results) {
+        PointGrid grid = cachedPoints;
+        if (grid != null) {
+            int col = cubeX - cachedMinCubeX;
+            int row = cubeY - cachedMinCubeY;
+            if (col >= 0 && col < grid.getCols() && row >= 0 && row < grid.getRows()) {
+                int cell = col + row * grid.getCols();
+                int end = grid.getCellEnd(cell);
+                for (int pos = grid.getCellStart(cell); pos < end; pos++) {
+                    GridType.insertionSort(x, y, cubeX, cubeY, results,
+                            grid.getX(pos), grid.getY(pos), cachedWeights[grid.getIndex(pos)]);
+                }
+                return results[2].distance;
+            }
+        }
+        return type.checkCube(x, y, cubeX, cubeY, results, randomness);
+    }
+
+    /**
+     * Creates the feature points of all the cubes that can be
+     * checked for the pixels of the image, unless there are
+     * so many cubes that they are not reused enough.
+     */
+    private void cachePoints(int width, int height) {
+        float minX = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 4; corner++) {
+            int x = (corner & 1) == 0 ? 0 : width;
+            int y = (corner & 2) == 0 ? 0 : height;
+            // the same transformation as in getPixel
+            float nx = (m00 * x + m01 * y) / scale + 1000;
+            float ny = (m10 * x + m11 * y) / (scale * stretch) + 1000;
+            minX = Math.min(minX, nx);
+            maxX = Math.max(maxX, nx);
+            minY = Math.min(minY, ny);
+            maxY = Math.max(maxY, ny);
+        }
+
+        // the neighbouring cubes are also checked
+        int minCubeX = (int) Math.floor(minX) - 2;
+        int minCubeY = (int) Math.floor(minY) - 2;
+        int cols = (int) Math.floor(maxX) + 3 - minCubeX;
+        int rows = (int) Math.floor(maxY) + 3 - minCubeY;
+        long numCubes = (long) cols * rows;
+        if (numCubes > MAX_CACHED_CUBES || numCubes > (long) width * height / 4) {
+            cachedPoints = null;
+            return;
+        }
+
+        int capacity = (int) numCubes * 2;
+        float[] xs = new float[capacity];
+        float[] ys = new float[capacity];
+        float[] weights = new float[capacity];
+        int[] cells = new int[capacity];
+        float[] cubePoints = new float[3 * GridType.MAX_POINTS];
+        int numPoints = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int n = gridType.createPoints(minCubeX + col, minCubeY + row, randomness, cubePoints);
+                if (numPoints + n > xs.length) {
+                    int newCapacity = Math.max(2 * xs.length, numPoints + n);
+                    xs = Arrays.copyOf(xs, newCapacity);
+                    ys = Arrays.copyOf(ys, newCapacity);
+                    weights = Arrays.copyOf(weights, newCapacity);
+                    cells = Arrays.copyOf(cells, newCapacity);
+                }
+                for (int i = 0; i < n; i++) {
+                    xs[numPoints] = cubePoints[3 * i];
+                    ys[numPoints] = cubePoints[3 * i + 1];
+                    weights[numPoints] = cubePoints[3 * i + 2];
+                    cells[numPoints] = col + row * cols;
+                    numPoints++;
+                }
+            }
+        }
+
+        cachedPoints = new PointGrid(cols, rows, Arrays.copyOf(cells, numPoints),
+                Arrays.copyOf(xs, numPoints), Arrays.copyOf(ys, numPoints));
+        cachedWeights = weights;
+        cachedMinCubeX = minCubeX;
+        cachedMinCubeY = minCubeY;
+    }
+
     @Override
     public float evaluate(float x, float y) {
         Point[] results = resultsTL.get();
@@ -503,29 +622,29 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
         GridType localGridType = gridType;
         // float localRandomness = randomness; // this one actually slows it down!?
 
-        float d = localGridType.checkCube(fx, fy, ix, iy, results, randomness);
+        float d = checkCube(localGridType, fx, fy, ix, iy, results);
         if (d > fy) {
-            d = localGridType.checkCube(fx, fy + 1, ix, iy - 1, results, randomness);
+            d = checkCube(localGridType, fx, fy + 1, ix, iy - 1, results);
         }
         if (d > 1 - fy) {
-            d = localGridType.checkCube(fx, fy - 1, ix, iy + 1, results, randomness);
+            d = checkCube(localGridType, fx, fy - 1, ix, iy + 1, results);
         }
         if (d > fx) {
-            localGridType.checkCube(fx + 1, fy, ix - 1, iy, results, randomness);
+            checkCube(localGridType, fx + 1, fy, ix - 1, iy, results);
             if (d > fy) {
-                d = localGridType.checkCube(fx + 1, fy + 1, ix - 1, iy - 1, results, randomness);
+                d = checkCube(localGridType, fx + 1, fy + 1, ix - 1, iy - 1, results);
             }
             if (d > 1 - fy) {
-                d = localGridType.checkCube(fx + 1, fy - 1, ix - 1, iy + 1, results, randomness);
+                d = checkCube(localGridType, fx + 1, fy - 1, ix - 1, iy + 1, results);
             }
         }
         if (d > 1 - fx) {
-            d = localGridType.checkCube(fx - 1, fy, ix + 1, iy, results, randomness);
+            d = checkCube(localGridType, fx - 1, fy, ix + 1, iy, results);
             if (d > fy) {
-                d = localGridType.checkCube(fx - 1, fy + 1, ix + 1, iy - 1, results, randomness);
+                d = checkCube(localGridType, fx - 1, fy + 1, ix + 1, iy - 1, results);
             }
             if (d > 1 - fy) {
-                d = localGridType.checkCube(fx - 1, fy - 1, ix + 1, iy + 1, results, randomness);
+                d = checkCube(localGridType, fx - 1, fy - 1, ix + 1, iy + 1, results);
             }
         }
 
@@ -604,18 +723,15 @@ public class CellularFilter extends WholeImageFilter implements Function2D {
         pt = createProgressTracker(height);
         int[] outPixels = new int[width * height];
 
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int index = width * finalY;
-                for (int x = 0; x < width; x++) {
-                    outPixels[index++] = getPixel(x, finalY, inPixels, width, height);
-                }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitFor(futures, pt);
+        cachePoints(width, height);
+        ThreadPool.processRows(height, y -> {
+            int index = width * y;
+            for (int x = 0; x < width; x++) {
+                outPixels[index++] = getPixel(x, y, inPixels, width, height);
+            }
+        }, pt);
+        cachedPoints = null;
+        cachedWeights = null;
 
         finishProgressTracker();
 
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import com.jhlabs.math.FFT;
+import pixelitor.ThreadPool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+import java.util.Arrays;
+
+/**
+ * A filter which applies a convolution kernel of any size in the
+ * frequency domain. Like {@link ConvolveFilter}, but the cost per pixel
+ * grows only with the logarithm of the kernel size.
+ *
+ * The image is processed in overlapping square tiles (the overlap-save
+ * method), and the tiles are processed in parallel. The spectrum of the
+ * kernel is calculated only once for a given tile size, so reusing the
+ * same instance makes the previews with the same kernel faster.
+ *
+ * The color channels are real, therefore two of them are transformed
+ * together as the real and imaginary parts of a single complex signal.
+ * Because the kernel is also real, the two results can be separated
+ * after the inverse transform without any extra work.
+ *
+ * By default the pixels outside the image are replaced by the nearest
+ * edge pixel. The CLAMP_EDGES of the {@link ConvolveFilter} replaces
+ * them by the pixel in the row or column of the center pixel instead,
+ * which can be matched with {@link #setConvolveFilterEdges(boolean)}:
+ * then the outside pixels are zeros in the tiles, and the contributions
+ * of the replaced pixels are added to the results near the edges.
+ */
+public class FFTConvolveFilter extends AbstractBufferedImageOp {
+    private static final int MIN_TILE_SIZE = 32;
+    private static final int MAX_TILE_SIZE = 2048;
+
+    // the kernel is applied in the same orientation as in ConvolveFilter
+    private float[] kernelData;
+    private int kernelWidth;
+    private int kernelHeight;
+
+    private boolean useAlpha = true;
+    private float[] colorLookup;
+    private boolean convolveFilterEdges;
+
+    // the sums of the kernel rows and columns before each index,
+    // used for the edges in the ConvolveFilter way
+    private float[] rowPrefixSums;
+    private float[] columnPrefixSums;
+
+    // the cached spectrum of the kernel
+    private int spectrumTileSize;
+    private float[] spectrumRe;
+    private float[] spectrumIm;
+
+    public FFTConvolveFilter(String filterName) {
+        super(filterName);
+    }
+
+    public void setKernel(Kernel kernel) {
+        setKernel(kernel.getKernelData(null), kernel.getWidth(), kernel.getHeight());
+    }
+
+    /**
+     * Sets the kernel as a row-major array of the given dimensions.
+     * The cached spectrum is kept if the kernel didn't change.
+     */
+    public void setKernel(float[] data, int width, int height) {
+        if (data.length != width * height) {
+            throw new IllegalArgumentException("data.length = " + data.length
+                    + ", width = " + width + ", height = " + height);
+        }
+        if (width == kernelWidth && height == kernelHeight
+                && Arrays.equals(data, kernelData)) {
+            return;
+        }
+        kernelData = data.clone();
+        kernelWidth = width;
+        kernelHeight = height;
+        spectrumRe = null;
+        spectrumIm = null;
+        calcPrefixSums();
+    }
+
+    private void calcPrefixSums() {
+        rowPrefixSums = new float[kernelHeight * (kernelWidth + 1)];
+        for (int y = 0; y < kernelHeight; y++) {
+            int offset = y * (kernelWidth + 1);
+            for (int x = 0; x < kernelWidth; x++) {
+                rowPrefixSums[offset + x + 1] = rowPrefixSums[offset + x]
+                        + kernelData[y * kernelWidth + x];
+            }
+        }
+        columnPrefixSums = new float[kernelWidth * (kernelHeight + 1)];
+        for (int x = 0; x < kernelWidth; x++) {
+            int offset = x * (kernelHeight + 1);
+            for (int y = 0; y < kernelHeight; y++) {
+                columnPrefixSums[offset + y + 1] = columnPrefixSums[offset + y]
+                        + kernelData[y * kernelWidth + x];
+            }
+        }
+    }
+
+    /**
+     * If false, the alpha channel is not convolved, and the result is opaque.
+     */
+    public void setUseAlpha(boolean useAlpha) {
+        this.useAlpha = useAlpha;
+    }
+
+    /**
+     * If true, the edges are handled the same way as in
+     * the {@link ConvolveFilter} with CLAMP_EDGES.
+     */
+    public void setConvolveFilterEdges(boolean convolveFilterEdges) {
+        this.convolveFilterEdges = convolveFilterEdges;
+    }
+
+    /**
+     * Sets a table with 256 entries which maps the red, green and blue
+     * values to the values that are actually convolved. The results
+     * are clamped to the 0..255 range. If null, the values are used as they are.
+     */
+    public void setColorLookup(float[] colorLookup) {
+        if (colorLookup != null && colorLookup.length != 256) {
+            throw new IllegalArgumentException("colorLookup.length = " + colorLookup.length);
+        }
+        this.colorLookup = colorLookup;
+    }
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        if (dst == null) {
+            dst = createCompatibleDestImage(src, null);
+        }
+
+        int[] inPixels = new int[width * height];
+        int[] outPixels = new int[width * height];
+        getRGB(src, 0, 0, width, height, inPixels);
+
+        convolve(inPixels, outPixels, width, height);
+
+        setRGB(dst, 0, 0, width, height, outPixels);
+        return dst;
+    }
+
+    /**
+     * Convolves the given pixels with the current kernel.
+     */
+    public void convolve(int[] inPixels, int[] outPixels, int width, int height) {
+        if (kernelData == null) {
+            throw new IllegalStateException("no kernel");
+        }
+        int tileSize = calcTileSize(width, height);
+        if (spectrumRe == null || spectrumTileSize != tileSize) {
+            calcKernelSpectrum(tileSize);
+        }
+
+        int blockWidth = tileSize - kernelWidth + 1;
+        int blockHeight = tileSize - kernelHeight + 1;
+        int tilesX = ceilDiv(width, blockWidth);
+        int tilesY = ceilDiv(height, blockHeight);
+        int numTiles = tilesX * tilesY;
+
+        FFT fft = new FFT(log2(tileSize));
+        float[] kernelRe = spectrumRe;
+        float[] kernelIm = spectrumIm;
+
+        pt = createProgressTracker(numTiles);
+        ThreadPool.processBands(numTiles, (fromTile, toTile) -> {
+            var tile = new Tile(fft, tileSize, kernelRe, kernelIm, convolveFilterEdges);
+            for (int t = fromTile; t < toTile; t++) {
+                int blockX = (t % tilesX) * blockWidth;
+                int blockY = (t / tilesX) * blockHeight;
+                tile.process(inPixels, outPixels, width, height, blockX, blockY);
+            }
+        }, pt);
+        finishProgressTracker();
+    }
+
+    /**
+     * Chooses the tile size which gives the lowest estimated running
+     * time: larger tiles waste less work on the overlaps, but they
+     * are slower to transform and may leave some cores idle.
+     */
+    private int calcTileSize(int width, int height) {
+        int maxKernelSize = Math.max(kernelWidth, kernelHeight);
+        int numCores = ThreadPool.getNumCores();
+
+        int bestSize = 0;
+        double bestCost = Double.MAX_VALUE;
+        int size = MIN_TILE_SIZE;
+        while (size < maxKernelSize) {
+            size *= 2;
+        }
+        while (true) {
+            int blockWidth = size - kernelWidth + 1;
+            int blockHeight = size - kernelHeight + 1;
+            int numTiles = ceilDiv(width, blockWidth) * ceilDiv(height, blockHeight);
+            double cost = ceilDiv(numTiles, numCores) * (double) size * size * log2(size);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSize = size;
+            }
+            if (numTiles == 1 || size >= MAX_TILE_SIZE) {
+                return bestSize;
+            }
+            size *= 2;
+        }
+    }
+
+    private void calcKernelSpectrum(int tileSize) {
+        float[] re = new float[tileSize * tileSize];
+        float[] im = new float[tileSize * tileSize];
+
+        // the convolution in the frequency domain needs the flipped kernel
+        for (int y = 0; y < kernelHeight; y++) {
+            for (int x = 0; x < kernelWidth; x++) {
+                int flippedIndex = (kernelHeight - 1 - y) * kernelWidth + (kernelWidth - 1 - x);
+                re[y * tileSize + x] = kernelData[flippedIndex];
+            }
+        }
+
+        FFT fft = new FFT(log2(tileSize));
+        float[] tmpRe = new float[tileSize];
+        float[] tmpIm = new float[tileSize];
+        transformRows(fft, re, im, tileSize, 0, tileSize, tmpRe, tmpIm, true);
+        fft.transformColumns(re, im, tileSize, tileSize, true);
+
+        spectrumRe = re;
+        spectrumIm = im;
+        spectrumTileSize = tileSize;
+    }
+
+    /**
+     * The buffers for processing one tile at a time.
+     */
+    private class Tile {
+        private final FFT fft;
+        private final int size;
+        private final float[] kernelRe;
+        private final float[] kernelIm;
+
+        // red + i * green and blue + i * alpha
+        private final float[] rgRe;
+        private final float[] rgIm;
+        private final float[] baRe;
+        private final float[] baIm;
+
+        private final float[] tmpRe;
+        private final float[] tmpIm;
+        private final int[] srcX;
+
+        private final boolean zeroEdges;
+
+        Tile(FFT fft, int size, float[] kernelRe, float[] kernelIm, boolean zeroEdges) {
+            this.fft = fft;
+            this.size = size;
+            this.kernelRe = kernelRe;
+            this.kernelIm = kernelIm;
+            this.zeroEdges = zeroEdges;
+
+            int numValues = size * size;
+            rgRe = new float[numValues];
+            rgIm = new float[numValues];
+            baRe = new float[numValues];
+            baIm = new float[numValues];
+            tmpRe = new float[size];
+            tmpIm = new float[size];
+            srcX = new int[size];
+        }
+
+        /**
+         * Calculates the output block starting at the given coordinates.
+         */
+        void process(int[] inPixels, int[] outPixels, int width, int height,
+                     int blockX, int blockY) {
+            // the tile starts above and to the left of the output block
+            // by the distance between the origin and the center of the kernel
+            int tileX = blockX - kernelWidth / 2;
+            int tileY = blockY - kernelHeight / 2;
+            for (int x = 0; x < size; x++) {
+                int sx = tileX + x;
+                if (zeroEdges) {
+                    srcX[x] = sx >= 0 && sx < width ? sx : -1;
+                } else {
+                    srcX[x] = ImageMath.clamp(sx, 0, width - 1);
+                }
+            }
+
+            for (int y = 0; y < size; y++) {
+                int sy = tileY + y;
+                int offset = y * size;
+                if (zeroEdges && (sy < 0 || sy >= height)) {
+                    Arrays.fill(rgRe, offset, offset + size, 0);
+                    Arrays.fill(rgIm, offset, offset + size, 0);
+                    Arrays.fill(baRe, offset, offset + size, 0);
+                    Arrays.fill(baIm, offset, offset + size, 0);
+                    continue;
+                }
+                int srcOffset = ImageMath.clamp(sy, 0, height - 1) * width;
+                for (int x = 0; x < size; x++) {
+                    int i = offset + x;
+                    if (srcX[x] < 0) {
+                        rgRe[i] = 0;
+                        rgIm[i] = 0;
+                        baRe[i] = 0;
+                        baIm[i] = 0;
+                    } else {
+                        setPixel(inPixels[srcOffset + srcX[x]], i);
+                    }
+                }
+            }
+
+            transformRows(fft, rgRe, rgIm, size, 0, size, tmpRe, tmpIm, true);
+            fft.transformColumns(rgRe, rgIm, size, size, true);
+            transformRows(fft, baRe, baIm, size, 0, size, tmpRe, tmpIm, true);
+            fft.transformColumns(baRe, baIm, size, size, true);
+
+            int numValues = size * size;
+            for (int i = 0; i < numValues; i++) {
+                float kr = kernelRe[i];
+                float ki = kernelIm[i];
+
+                float re = rgRe[i];
+                float im = rgIm[i];
+                rgRe[i] = re * kr - im * ki;
+                rgIm[i] = re * ki + im * kr;
+
+                re = baRe[i];
+                im = baIm[i];
+                baRe[i] = re * kr - im * ki;
+                baIm[i] = re * ki + im * kr;
+            }
+
+            // the rows that are affected by the wraparound
+            // of the circular convolution are not needed
+            int blockWidth = Math.min(size - kernelWidth + 1, width - blockX);
+            int blockHeight = Math.min(size - kernelHeight + 1, height - blockY);
+            int firstRow = kernelHeight - 1;
+            int lastRow = firstRow + blockHeight;
+            fft.transformColumns(rgRe, rgIm, size, size, false);
+            transformRows(fft, rgRe, rgIm, size, firstRow, lastRow, tmpRe, tmpIm, false);
+            fft.transformColumns(baRe, baIm, size, size, false);
+            transformRows(fft, baRe, baIm, size, firstRow, lastRow, tmpRe, tmpIm, false);
+
+            for (int y = 0; y < blockHeight; y++) {
+                int offset = (firstRow + y) * size + kernelWidth - 1;
+                int outOffset = (blockY + y) * width + blockX;
+                for (int x = 0; x < blockWidth; x++) {
+                    int i = offset + x;
+                    if (zeroEdges) {
+                        addOutsidePixels(inPixels, width, height, blockX + x, blockY + y, i);
+                    }
+                    int a = useAlpha ? PixelUtils.clamp(Math.round(baIm[i])) : 0xFF;
+                    int r = PixelUtils.clamp(Math.round(rgRe[i]));
+                    int g = PixelUtils.clamp(Math.round(rgIm[i]));
+                    int b = PixelUtils.clamp(Math.round(baRe[i]));
+                    outPixels[outOffset + x] = a << 24 | r << 16 | g << 8 | b;
+                }
+            }
+        }
+
+        /**
+         * Adds the contributions of the kernel values which fall outside
+         * the image at the given pixel. As in the ConvolveFilter, the
+         * outside rows are replaced by the row of the pixel, and the
+         * outside columns by its column, so their sums can be
+         * calculated from the prefix sums of the kernel.
+         */
+        private void addOutsidePixels(int[] inPixels, int width, int height,
+                                      int x, int y, int i) {
+            int centerX = kernelWidth / 2;
+            int centerY = kernelHeight / 2;
+
+            // the range of the kernel columns and rows that are inside the image
+            int fromCol = Math.max(0, centerX - x);
+            int toCol = Math.min(kernelWidth, centerX + width - x);
+            int fromRow = Math.max(0, centerY - y);
+            int toRow = Math.min(kernelHeight, centerY + height - y);
+            if (fromCol == 0 && toCol == kernelWidth && fromRow == 0 && toRow == kernelHeight) {
+                return;
+            }
+
+            float cornersSum = 0;
+            for (int row = 0; row < kernelHeight; row++) {
+                int offset = row * (kernelWidth + 1);
+                float outsideSum = rowPrefixSums[offset + kernelWidth]
+                        - rowPrefixSums[offset + toCol] + rowPrefixSums[offset + fromCol];
+                if (row < fromRow || row >= toRow) {
+                    cornersSum += outsideSum;
+                } else if (outsideSum != 0) {
+                    addPixel(inPixels[(y + row - centerY) * width + x], outsideSum, i);
+                }
+            }
+            if (fromRow != 0 || toRow != kernelHeight) {
+                int rowOffset = y * width + x - centerX;
+                for (int col = fromCol; col < toCol; col++) {
+                    int offset = col * (kernelHeight + 1);
+                    float outsideSum = columnPrefixSums[offset + kernelHeight]
+                            - columnPrefixSums[offset + toRow] + columnPrefixSums[offset + fromRow];
+                    if (outsideSum != 0) {
+                        addPixel(inPixels[rowOffset + col], outsideSum, i);
+                    }
+                }
+            }
+            if (cornersSum != 0) {
+                addPixel(inPixels[y * width + x], cornersSum, i);
+            }
+        }
+
+        private void setPixel(int rgb, int i) {
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            float[] lookup = colorLookup;
+            if (lookup == null) {
+                rgRe[i] = r;
+                rgIm[i] = g;
+                baRe[i] = b;
+            } else {
+                rgRe[i] = lookup[r];
+                rgIm[i] = lookup[g];
+                baRe[i] = lookup[b];
+            }
+            baIm[i] = useAlpha ? rgb >>> 24 : 0;
+        }
+
+        private void addPixel(int rgb, float weight, int i) {
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            float[] lookup = colorLookup;
+            if (lookup == null) {
+                rgRe[i] += weight * r;
+                rgIm[i] += weight * g;
+                baRe[i] += weight * b;
+            } else {
+                rgRe[i] += weight * lookup[r];
+                rgIm[i] += weight * lookup[g];
+                baRe[i] += weight * lookup[b];
+            }
+            if (useAlpha) {
+                baIm[i] += weight * (rgb >>> 24);
+            }
+        }
+    }
+
+    private static void transformRows(FFT fft, float[] re, float[] im, int size,
+                                      int fromRow, int toRow,
+                                      float[] tmpRe, float[] tmpIm, boolean forward) {
+        int logSize = log2(size);
+        for (int y = fromRow; y < toRow; y++) {
+            int offset = y * size;
+            System.arraycopy(re, offset, tmpRe, 0, size);
+            System.arraycopy(im, offset, tmpIm, 0, size);
+            fft.transform1D(tmpRe, tmpIm, logSize, size, forward);
+            System.arraycopy(tmpRe, 0, re, offset, size);
+            System.arraycopy(tmpIm, 0, im, offset, size);
+        }
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static int log2(int powerOfTwo) {
+        return Integer.numberOfTrailingZeros(powerOfTwo);
+    }
+
+    @Override
+    public String toString() {
+        return "Blur/FFT Convolve...";
+    }
+}
@@ -21,15 +21,22 @@ import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
-import java.util.concurrent.Future;
+import java.util.Arrays;
 
 /**
  * A filter which applies Gaussian blur to an image. This is a subclass of ConvolveFilter
  * which simply creates a kernel with a Gaussian distribution for blurring.
+ * For large radii a recursive approximation is used instead of the kernel,
+ * because its running time doesn't depend on the radius.
  *
  * @author Jerry Huxtable
  */
 public class GaussianFilter extends ConvolveFilter {
+    /**
+     * From this radius the blur is calculated with the recursive filter.
+     */
+    public static final float RECURSIVE_MIN_RADIUS = 10;
+
     /**
      * The blur radius.
      */
@@ -94,8 +101,7 @@ public class GaussianFilter extends ConvolveFilter {
         getRGB(src, 0, 0, width, height, inPixels);
 
         if (radius > 0) {
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
+            blur(inPixels, outPixels, width, height, pt);
         }
 
 //        dst.setRGB(0, 0, width, height, inPixels, 0, width);
@@ -106,6 +112,23 @@ public class GaussianFilter extends ConvolveFilter {
         return dst;
     }
 
+    /**
+     * Blurs the given pixels horizontally and vertically.
+     * The result is written back into inPixels, outPixels is used
+     * for the intermediate (transposed) result.
+     */
+    protected void blur(int[] inPixels, int[] outPixels, int width, int height, ProgressTracker pt) {
+        boolean premultiply = alpha && premultiplyAlpha;
+        if (radius >= RECURSIVE_MIN_RADIUS) {
+            RecursiveGaussian rg = new RecursiveGaussian(radius / 3);
+            rg.blurAndTranspose(inPixels, outPixels, width, height, alpha, premultiply, false, pt);
+            rg.blurAndTranspose(outPixels, inPixels, height, width, alpha, false, premultiply, pt);
+        } else {
+            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, false, CLAMP_EDGES, pt);
+            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, premultiply, CLAMP_EDGES, pt);
+        }
+    }
+
     /**
      * Blur and transpose a block of ARGB pixels.
      *
@@ -123,14 +146,7 @@ public class GaussianFilter extends ConvolveFilter {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        Future<?>[] resultLines = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, finalY);
-            resultLines[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitFor(resultLines, pt);
+        ThreadPool.processRows(height, y -> convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, y), pt);
     }
 
     private static void convolveAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction, float[] matrix, int cols2, int y) {
@@ -224,6 +240,157 @@ public class GaussianFilter extends ConvolveFilter {
         return new Kernel(rows, 1, matrix);
     }
 
+    /**
+     * The recursive (IIR) approximation of the Gaussian blur by
+     * Young and van Vliet, which needs a constant number of operations
+     * per pixel. A causal and an anti-causal third-order filter are run
+     * along each row. The edges are clamped by starting the causal filter
+     * from the steady state of the first pixel, and the anti-causal one
+     * from the state that the filters would reach for an infinite
+     * continuation of the last pixel (Triggs and Sdika).
+     */
+    static class RecursiveGaussian {
+        private final double b;
+        private final double a1;
+        private final double a2;
+        private final double a3;
+
+        // maps the last three causal outputs (minus the last pixel value)
+        // to the first three anti-causal outputs after the row end
+        private final double[][] m = new double[3][3];
+
+        RecursiveGaussian(double sigma) {
+            double q;
+            if (sigma >= 2.5) {
+                q = 0.98711 * sigma - 0.96330;
+            } else {
+                q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+            }
+            double q2 = q * q;
+            double q3 = q2 * q;
+            double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+            a1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+            a2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+            a3 = 0.422205 * q3 / b0;
+            b = 1 - (a1 + a2 + a3);
+
+            calcEndMatrix(sigma);
+        }
+
+        /**
+         * Calculates the matrix for the right edge by running the filters on
+         * the unit deviations from the steady state, until they fade away.
+         */
+        private void calcEndMatrix(double sigma) {
+            int length = Math.max(64, (int) (10 * sigma));
+            double[] causal = new double[length + 3];
+            double[] antiCausal = new double[length + 6];
+            for (int k = 0; k < 3; k++) {
+                Arrays.fill(causal, 0);
+                Arrays.fill(antiCausal, 0);
+                causal[2 - k] = 1;
+                for (int n = 3; n < length + 3; n++) {
+                    causal[n] = a1 * causal[n - 1] + a2 * causal[n - 2] + a3 * causal[n - 3];
+                }
+                for (int n = length + 2; n >= 3; n--) {
+                    antiCausal[n] = b * causal[n] + a1 * antiCausal[n + 1]
+                            + a2 * antiCausal[n + 2] + a3 * antiCausal[n + 3];
+                }
+                for (int i = 0; i < 3; i++) {
+                    m[i][k] = antiCausal[3 + i];
+                }
+            }
+        }
+
+        /**
+         * Blurs the rows of a block of ARGB pixels, and transposes
+         * the result, like {@link #convolveAndTranspose}.
+         */
+        void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height,
+                              boolean alpha, boolean premultiply, boolean unpremultiply,
+                              ProgressTracker pt) {
+            ThreadPool.processBands(height, (fromY, toY) -> {
+                // the 4 interleaved channels, with 3 extra pixels at both ends
+                double[] buf = new double[(width + 6) * 4];
+                for (int y = fromY; y < toY; y++) {
+                    blurAndTransposeLine(inPixels, outPixels, width, height, y,
+                            alpha, premultiply, unpremultiply, buf);
+                }
+            }, pt);
+        }
+
+        private void blurAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, int y,
+                                          boolean alpha, boolean premultiply, boolean unpremultiply,
+                                          double[] buf) {
+            int ioffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int rgb = inPixels[ioffset + x];
+                int pa = (rgb >> 24) & 0xff;
+                int pr = (rgb >> 16) & 0xff;
+                int pg = (rgb >> 8) & 0xff;
+                int pb = rgb & 0xff;
+                if (premultiply) {
+                    float a255 = pa * (1.0f / 255.0f);
+                    pr = (int) (pr * a255);
+                    pg = (int) (pg * a255);
+                    pb = (int) (pb * a255);
+                }
+                int i = (x + 3) * 4;
+                buf[i] = pa;
+                buf[i + 1] = pr;
+                buf[i + 2] = pg;
+                buf[i + 3] = pb;
+            }
+
+            int last = (width + 2) * 4;
+            for (int c = 0; c < 4; c++) {
+                double lastPixel = buf[last + c];
+
+                // the causal filter, starting from the steady state
+                double first = buf[12 + c];
+                buf[c] = first;
+                buf[4 + c] = first;
+                buf[8 + c] = first;
+                for (int i = 12 + c; i <= last + c; i += 4) {
+                    buf[i] = b * buf[i] + a1 * buf[i - 4] + a2 * buf[i - 8] + a3 * buf[i - 12];
+                }
+
+                // the anti-causal filter, starting after the row end
+                double u0 = buf[last + c] - lastPixel;
+                double u1 = buf[last - 4 + c] - lastPixel;
+                double u2 = buf[last - 8 + c] - lastPixel;
+                for (int k = 0; k < 3; k++) {
+                    buf[last + 4 * (k + 1) + c] = m[k][0] * u0 + m[k][1] * u1 + m[k][2] * u2 + lastPixel;
+                }
+                for (int i = last + c; i >= 12 + c; i -= 4) {
+                    buf[i] = b * buf[i] + a1 * buf[i + 4] + a2 * buf[i + 8] + a3 * buf[i + 12];
+                }
+            }
+
+            int index = y;
+            for (int x = 0; x < width; x++) {
+                int i = (x + 3) * 4;
+                double a = buf[i];
+                double r = buf[i + 1];
+                double g = buf[i + 2];
+                double bl = buf[i + 3];
+                if (unpremultiply && a != 0 && a != 255) {
+                    double f = 255.0 / a;
+                    r *= f;
+                    g *= f;
+                    bl *= f;
+                }
+                int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+
+                int ir = PixelUtils.clamp((int) (r + 0.5));
+                int ig = PixelUtils.clamp((int) (g + 0.5));
+                int ib = PixelUtils.clamp((int) (bl + 0.5));
+                outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+                index += height;
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "Blur/Gaussian Blur...";
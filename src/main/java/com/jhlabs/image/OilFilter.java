@@ -19,7 +19,7 @@ package com.jhlabs.image;
 import pixelitor.ThreadPool;
 
 import java.awt.Rectangle;
-import java.util.concurrent.Future;
+import java.util.Arrays;
 
 /**
  * A filter which produces a "oil-painting" effect.
@@ -70,90 +70,155 @@ public class OilFilter extends WholeImageFilter {
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
         int[] outPixels = new int[width * height];
 
-        pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calculateLine(width, height, inPixels, outPixels, finalY);
-            futures[y] = ThreadPool.submit(lineTask);
+        // the intensity bin of each pixel replaces its alpha
+        int[] binnedPixels = new int[inPixels.length];
+        for (int i = 0; i < inPixels.length; i++) {
+            int rgb = inPixels[i];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            int intensity = (r + g + b) / 3;
+            binnedPixels[i] = (intensity * levels / 256) << 24 | (rgb & 0xffffff);
         }
 
-        ThreadPool.waitFor(futures, pt);
+        pt = createProgressTracker(height);
+        ThreadPool.processBands(height, (fromY, toY) -> {
+            var window = new Window(binnedPixels, width);
+            for (int y = fromY; y < toY; y++) {
+                calculateLine(width, height, inPixels, outPixels, y, window);
+            }
+        }, pt);
         finishProgressTracker();
 
         return outPixels;
     }
 
-    private void calculateLine(int width, int height, int[] inPixels, int[] outPixels, int y) {
+    // The idea is that for each pixel the most frequently occuring
+    // intensity value in its neighborhood is found, and this will determine
+    // new value of the pixel.
+    // The histogram is not recalculated for each pixel: when moving to the
+    // next pixel, only the entering and leaving columns are updated.
+    private void calculateLine(int width, int height, int[] inPixels, int[] outPixels,
+                               int y, Window window) {
+        int minY = Math.max(0, y - rangeY);
+        int maxY = Math.min(height - 1, y + rangeY);
+
+        window.clear();
+        for (int x = 0; x <= rangeX && x < width; x++) {
+            window.addColumn(x, minY, maxY);
+        }
+
         int index = y * width;
-        int[] rTotal = new int[levels];
-        int[] gTotal = new int[levels];
-        int[] bTotal = new int[levels];
-        int[] histogram = new int[levels];
         for (int x = 0; x < width; x++) {
-            // The idea is that for each pixel the most frequently occuring
-            // intensity value in its neighborhood is found, and this will determine
-            // new value of the pixel
-            for (int i = 0; i < levels; i++) {
-                histogram[i] = rTotal[i] = gTotal[i] = bTotal[i] = 0;
-            }
-
-            // For each pixel, all pixels within the brush size will have to be examined.
-            for (int row = -rangeY; row <= rangeY; row++) {
-                int iy = y + row;
-                int ioffset;
-                if (0 <= iy && iy < height) {
-                    ioffset = iy * width;
-                    for (int col = -rangeX; col <= rangeX; col++) {
-                        int ix = x + col;
-                        if (0 <= ix && ix < width) {
-                            // examining each neighbor pixel which is within brush size
-                            int rgb = inPixels[ioffset + ix];
-                            int r = (rgb >> 16) & 0xff;
-                            int g = (rgb >> 8) & 0xff;
-
-                            int b = rgb & 0xff;
-                            int intensity = (r + g + b) / 3;
-                            // For each sub-pixel, calculate the intensity, and determine
-                            // which intensity bin that intensity number falls into
-                            int intensityI = intensity * levels / 256;
-                            histogram[intensityI]++;
-
-                            // Also maintain the total red, green, and blue values for each bin,
-                            // later these may be used to determine the final value of the pixel.
-                            rTotal[intensityI] += r;
-                            gTotal[intensityI] += g;
-                            bTotal[intensityI] += b;
-                        }
-                    }
+            if (x > 0) {
+                int addedX = x + rangeX;
+                if (addedX < width) {
+                    window.addColumn(addedX, minY, maxY);
                 }
-            }
-
-            // Determine which intensity bin has the most number of pixels in it.
-            int maxIndex = 0;
-            int curMax = 0;
-            for (int i = 0; i < levels; i++) {
-                if (histogram[i] > curMax) {
-                    curMax = histogram[i];
-                    maxIndex = i;
+                int removedX = x - rangeX - 1;
+                if (removedX >= 0) {
+                    window.removeColumn(removedX, minY, maxY);
                 }
             }
 
             // The final color of the pixel is the average of the colors
             // in the bin with the highest number of pixels
-            int r = rTotal[maxIndex] / curMax;
-            int g = gTotal[maxIndex] / curMax;
-            int b = bTotal[maxIndex] / curMax;
-
-//                r = PixelUtils.clamp(r);
-//                g = PixelUtils.clamp(g);
-//                b = PixelUtils.clamp(b);
+            int maxIndex = window.getMostFrequentBin();
+            int curMax = window.histogram[maxIndex];
+            int r = window.rTotal[maxIndex] / curMax;
+            int g = window.gTotal[maxIndex] / curMax;
+            int b = window.bTotal[maxIndex] / curMax;
 
             outPixels[index] = (inPixels[index] & 0xff000000) | (r << 16) | (g << 8) | b;
             index++;
         }
     }
 
+    /**
+     * The intensity histogram of the neighborhood of a pixel
+     */
+    private class Window {
+        private final int[] pixels;
+        private final int width;
+
+        private final int[] histogram = new int[levels];
+
+        // Also maintain the total red, green, and blue values for each bin,
+        // later these may be used to determine the final value of the pixel.
+        private final int[] rTotal = new int[levels];
+        private final int[] gTotal = new int[levels];
+        private final int[] bTotal = new int[levels];
+
+        // the lowest bin with the most pixels, valid only if not dirty
+        private int maxIndex;
+        private boolean dirty;
+
+        Window(int[] pixels, int width) {
+            this.pixels = pixels;
+            this.width = width;
+        }
+
+        void clear() {
+            Arrays.fill(histogram, 0);
+            Arrays.fill(rTotal, 0);
+            Arrays.fill(gTotal, 0);
+            Arrays.fill(bTotal, 0);
+            maxIndex = 0;
+            dirty = false;
+        }
+
+        void addColumn(int x, int minY, int maxY) {
+            for (int y = minY; y <= maxY; y++) {
+                int rgb = pixels[y * width + x];
+                int bin = rgb >>> 24;
+
+                histogram[bin]++;
+                rTotal[bin] += (rgb >> 16) & 0xff;
+                gTotal[bin] += (rgb >> 8) & 0xff;
+                bTotal[bin] += rgb & 0xff;
+
+                if (!dirty) {
+                    int count = histogram[bin];
+                    int max = histogram[maxIndex];
+                    if (count > max || (count == max && bin < maxIndex)) {
+                        maxIndex = bin;
+                    }
+                }
+            }
+        }
+
+        void removeColumn(int x, int minY, int maxY) {
+            for (int y = minY; y <= maxY; y++) {
+                int rgb = pixels[y * width + x];
+                int bin = rgb >>> 24;
+
+                histogram[bin]--;
+                rTotal[bin] -= (rgb >> 16) & 0xff;
+                gTotal[bin] -= (rgb >> 8) & 0xff;
+                bTotal[bin] -= rgb & 0xff;
+
+                // only decreasing the current maximum can change it
+                if (bin == maxIndex) {
+                    dirty = true;
+                }
+            }
+        }
+
+        int getMostFrequentBin() {
+            if (dirty) {
+                int curMax = 0;
+                for (int i = 0; i < levels; i++) {
+                    if (histogram[i] > curMax) {
+                        curMax = histogram[i];
+                        maxIndex = i;
+                    }
+                }
+                dirty = false;
+            }
+            return maxIndex;
+        }
+    }
+
     @Override
     public String toString() {
         return "Stylize/Oil...";
@@ -20,7 +20,6 @@ import pixelitor.ThreadPool;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
@@ -50,19 +49,12 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int[] outPixels = ImageUtils.getPixelsAsArray(dst);
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                for (int x = 0; x < width; x++) {
-                    int index = finalY * width + x;
-                    outPixels[index] = filterRGB(x, finalY, inPixels[index]);
-                }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-
-        ThreadPool.waitFor(futures, pt);
+        ThreadPool.processRows(height, y -> {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                outPixels[index] = filterRGB(x, y, inPixels[index]);
+            }
+        }, pt);
         finishProgressTracker();
 
         return dst;
@@ -73,20 +65,16 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int height = src.getHeight();
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int[] inPixels = new int[width];
-                src.getRGB(0, finalY, width, 1, inPixels, 0, width);
+        ThreadPool.processBands(height, (fromY, toY) -> {
+            int[] linePixels = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                src.getRGB(0, y, width, 1, linePixels, 0, width);
                 for (int x = 0; x < width; x++) {
-                    inPixels[x] = filterRGB(x, finalY, inPixels[x]);
+                    linePixels[x] = filterRGB(x, y, linePixels[x]);
                 }
-                dst.setRGB(0, finalY, width, 1, inPixels, 0, width);
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitFor(futures, pt);
+                dst.setRGB(0, y, width, 1, linePixels, 0, width);
+            }
+        }, pt);
         finishProgressTracker();
 
         return dst;
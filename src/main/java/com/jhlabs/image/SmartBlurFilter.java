@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
 import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
@@ -68,7 +69,7 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        for (int y = 0; y < height; y++) {
+        ThreadPool.processRows(height, y -> {
             int ioffset = y * width;
             int outIndex = y;
             for (int x = 0; x < width; x++) {
@@ -129,8 +130,7 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
                 outPixels[outIndex] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
                 outIndex += height;
             }
-            pt.unitDone();
-        }
+        }, pt);
     }
 
     /**
@@ -22,8 +22,6 @@ import pixelitor.ThreadPool;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
 
 /**
  * An abstract superclass for filters which distort images in some way. The subclass only needs to override
@@ -261,30 +259,22 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 
         pt = createProgressTracker(outHeight);
 
-        @SuppressWarnings("unchecked")
-        Future<int[]>[] resultLines = new Future[outHeight];
-
-        for (int y = 0; y < outHeight; y++) {
+        int[] outPixels = new int[outWidth * outHeight];
+        ThreadPool.processBands(outHeight, (fromY, toY) -> {
+            int srcX, srcY;
             float[] out = new float[2];
-            int finalY = y;
-            Callable<int[]> calculateLineTask = () -> {
-                int srcX, srcY;
-                int[] outPixels = new int[outWidth];
-
+            for (int y = fromY; y < toY; y++) {
+                int index = y * outWidth;
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
+                    transformInverse(x, y, out);
                     srcX = (int) out[0];
                     srcY = (int) out[1];
                     // int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
-                    outPixels[x] = getPixelNN(inPixels, srcWidth, srcHeight, srcX, srcY, out);
+                    outPixels[index++] = getPixelNN(inPixels, srcWidth, srcHeight, srcX, srcY, out);
                 }
-
-                return outPixels;
-
-            };
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
-        }
-        ThreadPool.waitFor2(resultLines, dst, width, pt);
+            }
+        }, pt);
+        setRGB(dst, 0, 0, outWidth, outHeight, outPixels);
         finishProgressTracker();
 
         return dst;
@@ -302,16 +292,13 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 
         pt = createProgressTracker(outHeight);
 
-        @SuppressWarnings("unchecked")
-        Future<int[]>[] resultLines = new Future[outHeight];
-
-        for (int y = 0; y < outHeight; y++) {
+        int[] outPixels = new int[outWidth * outHeight];
+        ThreadPool.processBands(outHeight, (fromY, toY) -> {
             float[] out = new float[2];
-            int finalY = y;
-            Callable<int[]> calculateLineTask = () -> {
-                int[] outPixels = new int[outWidth];
+            for (int y = fromY; y < toY; y++) {
+                int index = y * outWidth;
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
+                    transformInverse(x, y, out);
                     int srcX = (int) FastMath.floor(out[0]);
                     int srcY = (int) FastMath.floor(out[1]);
                     float xWeight = out[0] - srcX;
@@ -332,14 +319,11 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
                         sw = getPixelBL(inPixels, srcX, srcY + 1, srcWidth, srcHeight);
                         se = getPixelBL(inPixels, srcX + 1, srcY + 1, srcWidth, srcHeight);
                     }
-                    outPixels[x] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
+                    outPixels[index++] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
                 }
-                return outPixels;
-            };
-
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
-        }
-        ThreadPool.waitFor2(resultLines, dst, width, pt);
+            }
+        }, pt);
+        setRGB(dst, 0, 0, outWidth, outHeight, outPixels);
         finishProgressTracker();
 
         return dst;
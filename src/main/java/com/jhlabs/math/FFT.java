@@ -17,23 +17,20 @@ limitations under the License.
 package com.jhlabs.math;
 
 public class FFT {
-    // Weighting factors
-    protected final float[] w1;
-    protected final float[] w2;
-    protected final float[] w3;
+    // Weighting factors: cos and sin of -2*PI*i/N for the largest
+    // supported N. Reading them from a table is both faster and more
+    // accurate than calculating them with a recurrence at each stage.
+    protected final float[] cosTable;
+    protected final float[] sinTable;
 
     public FFT(int logN) {
-        // Prepare the weighting factors
-        w1 = new float[logN];
-        w2 = new float[logN];
-        w3 = new float[logN];
-        int N = 1;
-        for (int k = 0; k < logN; k++) {
-            N <<= 1;
-            double angle = -2.0 * Math.PI / N;
-            w1[k] = (float) Math.sin(0.5 * angle);
-            w2[k] = -2.0f * w1[k] * w1[k];
-            w3[k] = (float) Math.sin(angle);
+        int maxN = 1 << logN;
+        cosTable = new float[Math.max(1, maxN / 2)];
+        sinTable = new float[cosTable.length];
+        for (int i = 0; i < maxN / 2; i++) {
+            double angle = -2.0 * Math.PI * i / maxN;
+            cosTable[i] = (float) Math.cos(angle);
+            sinTable[i] = (float) Math.sin(angle);
         }
     }
 
@@ -61,31 +58,26 @@ public class FFT {
 
     private void butterflies(int n, int logN, int direction, float[] real, float[] imag) {
         int N = 1;
+        int maxN = 2 * cosTable.length;
 
         for (int k = 0; k < logN; k++) {
-            float w_re, w_im, wp_re, wp_im, temp_re, temp_im, wt;
             int half_N = N;
             N <<= 1;
-//            wt = direction * w1[k];
-            wp_re = w2[k];
-            wp_im = direction * w3[k];
-            w_re = 1.0f;
-            w_im = 0.0f;
+            int tableStep = maxN / N;
             for (int offset = 0; offset < half_N; offset++) {
+                float w_re = cosTable[offset * tableStep];
+                float w_im = direction * sinTable[offset * tableStep];
                 for (int i = offset; i < n; i += N) {
                     int j = i + half_N;
                     float re = real[j];
                     float im = imag[j];
-                    temp_re = (w_re * re) - (w_im * im);
-                    temp_im = (w_im * re) + (w_re * im);
+                    float temp_re = (w_re * re) - (w_im * im);
+                    float temp_im = (w_im * re) + (w_re * im);
                     real[j] = real[i] - temp_re;
                     real[i] += temp_re;
                     imag[j] = imag[i] - temp_im;
                     imag[i] += temp_im;
                 }
-                wt = w_re;
-                w_re = wt * wp_re - w_im * wp_im + w_re;
-                w_im = w_im * wp_re + wt * wp_im + w_im;
             }
         }
         if (direction == -1) {
@@ -102,6 +94,74 @@ public class FFT {
         butterflies(n, logN, forward ? 1 : -1, real, imag);
     }
 
+    /**
+     * Transforms all the columns of the given row-major arrays.
+     * The butterflies operate on whole rows, so that the memory
+     * is accessed sequentially, which is much faster for large
+     * arrays than copying out the columns one at a time.
+     */
+    public void transformColumns(float[] real, float[] imag, int cols, int rows, boolean forward) {
+        int logRows = log2(rows);
+        int direction = forward ? 1 : -1;
+        int maxN = 2 * cosTable.length;
+
+        // scramble the rows
+        int j = 0;
+        for (int i = 0; i < rows; i++) {
+            if (i > j) {
+                int rowI = i * cols;
+                int rowJ = j * cols;
+                for (int x = 0; x < cols; x++) {
+                    float t = real[rowJ + x];
+                    real[rowJ + x] = real[rowI + x];
+                    real[rowI + x] = t;
+                    t = imag[rowJ + x];
+                    imag[rowJ + x] = imag[rowI + x];
+                    imag[rowI + x] = t;
+                }
+            }
+            int m = rows >> 1;
+            while (j >= m && m >= 2) {
+                j -= m;
+                m >>= 1;
+            }
+            j += m;
+        }
+
+        int N = 1;
+        for (int k = 0; k < logRows; k++) {
+            int half_N = N;
+            N <<= 1;
+            int tableStep = maxN / N;
+            for (int offset = 0; offset < half_N; offset++) {
+                float w_re = cosTable[offset * tableStep];
+                float w_im = direction * sinTable[offset * tableStep];
+                for (int i = offset; i < rows; i += N) {
+                    int rowI = i * cols;
+                    int rowJ = (i + half_N) * cols;
+                    for (int x = 0; x < cols; x++) {
+                        float re = real[rowJ + x];
+                        float im = imag[rowJ + x];
+                        float temp_re = (w_re * re) - (w_im * im);
+                        float temp_im = (w_im * re) + (w_re * im);
+                        real[rowJ + x] = real[rowI + x] - temp_re;
+                        real[rowI + x] += temp_re;
+                        imag[rowJ + x] = imag[rowI + x] - temp_im;
+                        imag[rowI + x] += temp_im;
+                    }
+                }
+            }
+        }
+        if (direction == -1) {
+            float nr = 1.0f / rows;
+            int n = rows * cols;
+            for (int i = 0; i < n; i++) {
+                real[i] *= nr;
+                imag[i] *= nr;
+            }
+        }
+    }
+
     public void transform2D(float[] real, float[] imag, int cols, int rows, boolean forward) {
         int log2cols = log2(cols);
         int log2rows = log2(rows);
@@ -6,6 +6,8 @@
 
 package pd;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
@@ -15,6 +17,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Class AnimatedGifEncoder - Encodes a GIF file consisting of one or more
@@ -35,6 +44,10 @@ import java.io.OutputStream;
  * the associated LZWEncoder class. Please forward any corrections to
  * kweiner@fmsware.com.
  *
+ * Pixelitor changes: the frames are quantized and LZW-encoded in parallel
+ * (and written in order), and optionally a global palette, dithering
+ * and frame differencing can be used.
+ *
  * @author Kevin Weiner, FM Software
  * @version 1.03 November 2003
  */
@@ -47,8 +60,6 @@ public class AnimatedGifEncoder {
 
     private Color transparent = null; // transparent color if given
 
-    private int transIndex; // transparent index in color table
-
     private int repeat = -1; // no repeat
 
     private int delay = 0; // frame delay (hundredths)
@@ -57,18 +68,6 @@ public class AnimatedGifEncoder {
 
     private OutputStream out;
 
-    private BufferedImage image; // current frame
-
-    private byte[] pixels; // BGR byte array from frame
-
-    private byte[] indexedPixels; // converted frame indexed to palette
-
-    private int colorDepth; // number of bit planes
-
-    private byte[] colorTab; // RGB palette
-
-    private final boolean[] usedEntry = new boolean[256]; // active palette entries
-
     private int palSize = 7; // color table size (bits-1)
 
     private int dispose = -1; // disposal code (-1 = use default)
@@ -82,6 +81,33 @@ public class AnimatedGifEncoder {
     private int sample = 10; // default sample interval for quantizer
     private File file;
 
+    private boolean dither = false; // Floyd-Steinberg dithering
+
+    // if true, only the changed rectangle of a frame is written, and
+    // the unchanged pixels in it are transparent
+    private boolean frameDifferencing = false;
+
+    // the number of frames used for the global palette,
+    // or zero if each frame has its own palette
+    private int globalPaletteFrames = 0;
+    private NeuQuant globalQuant;
+    private byte[] globalColorTab; // RGB palette shared by all frames
+    private final List<byte[]> framesBeforePalette = new ArrayList<>();
+    private final List<Integer> delaysBeforePalette = new ArrayList<>();
+
+    private byte[] prevPixels; // BGR pixels of the previous frame
+
+    // the frames that are being encoded on other threads, in frame order
+    private final Deque<Future<EncodedFrame>> pendingFrames = new ArrayDeque<>();
+    private final int maxPendingFrames = 2 * ThreadPool.getNumCores();
+    private boolean failed = false;
+
+    // the LZW tables and the output buffer are reused by each thread
+    private static final ThreadLocal<LZWEncoder> lzwEncoders =
+            ThreadLocal.withInitial(LZWEncoder::new);
+    private static final ThreadLocal<ByteSink> lzwBuffers =
+            ThreadLocal.withInitial(ByteSink::new);
+
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
      * (applies to last frame added).
@@ -124,7 +150,8 @@ public class AnimatedGifEncoder {
      * frames. Since all colors are subject to modification in the quantization
      * process, the color in the final palette for each frame closest to the given
      * color becomes the transparent color for that frame. May be set to null to
-     * indicate no transparent color.
+     * indicate no transparent color. Frame differencing is not used if
+     * a transparent color is set.
      *
      * @param c Color to be treated as transparent on display.
      */
@@ -132,6 +159,36 @@ public class AnimatedGifEncoder {
         transparent = c;
     }
 
+    /**
+     * Sets whether Floyd-Steinberg dithering is used when the colors
+     * are mapped to the palette. Must be invoked before the first image is added.
+     */
+    public void setDither(boolean dither) {
+        this.dither = dither;
+    }
+
+    /**
+     * Sets whether only the changed rectangle of each frame is written,
+     * with the unchanged pixels in it being transparent. This makes the file
+     * smaller if only parts of the image change. Must be invoked before
+     * the first image is added.
+     */
+    public void setFrameDifferencing(boolean frameDifferencing) {
+        this.frameDifferencing = frameDifferencing;
+    }
+
+    /**
+     * Sets the number of frames (at the beginning of the animation) whose
+     * colors are sampled for a single global palette, which is then used
+     * for all frames. Zero (the default) means that each frame has its own
+     * palette. A global palette is faster and gives smaller files, but it
+     * can't adapt to new colors in the later frames. Must be invoked
+     * before the first image is added.
+     */
+    public void setGlobalPalette(int sampledFrames) {
+        globalPaletteFrames = Math.max(0, sampledFrames);
+    }
+
     /**
      * Adds next GIF frame. The frame is not written immediately, but is actually
      * deferred until the next frame is received so that timing data can be
@@ -139,42 +196,105 @@ public class AnimatedGifEncoder {
      * <code>setSize</code> was not invoked, the size of the first image is used
      * for all subsequent frames.
      *
+     * The color quantization and the encoding run on other threads,
+     * the given image is not used after this method returns.
+     *
      * @param im BufferedImage containing frame to write.
-     * @return true if successful.
+     * @return true if successful (so far).
      */
     public boolean addFrame(BufferedImage im) {
         if ((im == null) || !started) {
             return false;
         }
-        boolean ok = true;
-        try {
-            if (!sizeSet) {
-                // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
+        if (!sizeSet) {
+            // use first frame's size
+            setSize(im.getWidth(), im.getHeight());
+        }
+        byte[] pixels = getImagePixels(im); // convert to correct format if necessary
+
+        if (globalPaletteFrames > 0 && globalQuant == null) {
+            // wait until enough frames are available for the palette
+            framesBeforePalette.add(pixels);
+            delaysBeforePalette.add(delay);
+            if (framesBeforePalette.size() == globalPaletteFrames) {
+                submitFramesBeforePalette();
             }
-            image = im;
-            getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
-            if (firstFrame) {
-                writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
-                if (repeat >= 0) {
-                    // use NS app extension to indicate reps
-                    writeNetscapeExt();
+        } else {
+            submitFrame(pixels, delay);
+        }
+
+        writeFinishedFrames(maxPendingFrames);
+        return !failed;
+    }
+
+    private void submitFramesBeforePalette() {
+        createGlobalPalette();
+        for (int i = 0; i < framesBeforePalette.size(); i++) {
+            submitFrame(framesBeforePalette.get(i), delaysBeforePalette.get(i));
+        }
+        framesBeforePalette.clear();
+        delaysBeforePalette.clear();
+    }
+
+    /**
+     * Starts the quantization and encoding of a frame on another thread
+     */
+    private void submitFrame(byte[] pixels, int frameDelay) {
+        byte[] prev = prevPixels;
+        prevPixels = pixels;
+        int frameDispose = dispose;
+        Color frameTransparent = transparent;
+        pendingFrames.addLast(ThreadPool.submit2(() ->
+                encodeFrame(pixels, prev, frameDelay, frameDispose, frameTransparent)));
+    }
+
+    /**
+     * Writes the encoded frames in order, while more than
+     * the given number of frames are pending
+     */
+    private void writeFinishedFrames(int maxPending) {
+        while (pendingFrames.size() > maxPending) {
+            Future<EncodedFrame> future = pendingFrames.removeFirst();
+            try {
+                EncodedFrame frame = future.get();
+                if (!failed) {
+                    writeFrame(frame);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+                cancelPendingFrames();
+            } catch (ExecutionException | IOException e) {
+                failed = true;
             }
-            writeGraphicCtrlExt(); // write graphic control extension
-            writeImageDesc(); // image descriptor
-            if (!firstFrame) {
-                writePalette(); // local color table
-            }
-            writePixels(); // encode and write pixel data
-            firstFrame = false;
-        } catch (IOException e) {
-            ok = false;
         }
+    }
 
-        return ok;
+    private void cancelPendingFrames() {
+        for (Future<EncodedFrame> future : pendingFrames) {
+            future.cancel(true);
+        }
+        pendingFrames.clear();
+    }
+
+    private void writeFrame(EncodedFrame frame) throws IOException {
+        if (firstFrame) {
+            writeLSD(); // logical screen descriptior
+            // global color table
+            writePalette(globalColorTab != null ? globalColorTab : frame.colorTab);
+            if (repeat >= 0) {
+                // use NS app extension to indicate reps
+                writeNetscapeExt();
+            }
+        }
+        writeGraphicCtrlExt(frame); // write graphic control extension
+        boolean localPalette = !firstFrame && frame.colorTab != null;
+        writeImageDesc(frame, localPalette); // image descriptor
+        if (localPalette) {
+            writePalette(frame.colorTab); // local color table
+        }
+        out.write(frame.data); // encoded pixel data
+        firstFrame = false;
     }
 
     /**
@@ -185,7 +305,13 @@ public class AnimatedGifEncoder {
         if (!started) {
             return false;
         }
-        boolean ok = true;
+        if (!framesBeforePalette.isEmpty()) {
+            // there were fewer frames than the palette samples
+            submitFramesBeforePalette();
+        }
+        writeFinishedFrames(0);
+
+        boolean ok = !failed;
         started = false;
         try {
             out.write(0x3b); // gif trailer
@@ -198,19 +324,21 @@ public class AnimatedGifEncoder {
         }
 
         // reset for subsequent use
-        transIndex = 0;
         out = null;
-        image = null;
-        pixels = null;
-        indexedPixels = null;
-        colorTab = null;
+        prevPixels = null;
+        globalQuant = null;
+        globalColorTab = null;
         closeStream = false;
         firstFrame = true;
+        failed = false;
 
         return ok;
     }
 
     public void cancel() {
+        cancelPendingFrames();
+        framesBeforePalette.clear();
+        delaysBeforePalette.clear();
         if (finish()) {
             file.delete();
         }
@@ -309,44 +437,235 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Analyzes image colors and creates color map.
+     * Whether a palette entry must be reserved for the unchanged pixels
      */
-    private void analyzePixels() {
-        int len = pixels.length;
-        int nPix = len / 3;
-        indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
-        // initialize quantizer
-        colorTab = nq.process(); // create reduced palette
-        // convert map from BGR to RGB
+    private boolean usesDifferencing(Color frameTransparent) {
+        return frameDifferencing && frameTransparent == null;
+    }
+
+    /**
+     * Creates the global palette from the samples of the frames
+     * received so far. The number of sampled pixels is about the
+     * number of pixels in one frame.
+     */
+    private void createGlobalPalette() {
+        int numFrames = framesBeforePalette.size();
+        int numPixels = width * height;
+        byte[] samples = new byte[3 * ((numPixels + numFrames - 1) / numFrames) * numFrames];
+        int len = 0;
+        for (int f = 0; f < numFrames; f++) {
+            byte[] pixels = framesBeforePalette.get(f);
+            // different offsets in each frame
+            for (int i = f % numFrames; i < numPixels; i += numFrames) {
+                samples[len++] = pixels[3 * i];
+                samples[len++] = pixels[3 * i + 1];
+                samples[len++] = pixels[3 * i + 2];
+            }
+        }
+        int netSize = usesDifferencing(transparent) ? 255 : 256;
+        globalQuant = new NeuQuant(samples, len, sample, netSize);
+        globalColorTab = toRGB(globalQuant.process());
+    }
+
+    /**
+     * Converts a palette from BGR to RGB
+     */
+    private static byte[] toRGB(byte[] colorTab) {
         for (int i = 0; i < colorTab.length; i += 3) {
             byte temp = colorTab[i];
             colorTab[i] = colorTab[i + 2];
             colorTab[i + 2] = temp;
-            usedEntry[i / 3] = false;
         }
-        // map image pixels to new palette
-        int k = 0;
-        for (int i = 0; i < nPix; i++) {
-            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
-            usedEntry[index] = true;
-            indexedPixels[i] = (byte) index;
-        }
-        pixels = null;
-        colorDepth = 8;
-        palSize = 7;
-        // get closest match to transparent color if specified
-        if (transparent != null) {
-            transIndex = findClosest(transparent);
+        return colorTab;
+    }
+
+    /**
+     * Quantizes and encodes a frame. Runs on a thread pool thread.
+     */
+    private EncodedFrame encodeFrame(byte[] pixels, byte[] prev, int frameDelay,
+                                     int frameDispose, Color frameTransparent) throws IOException {
+        // a global palette without a free entry can't have unchanged pixels
+        boolean differencing = prev != null && usesDifferencing(frameTransparent)
+                && (globalColorTab == null || globalColorTab.length < 3 * 256);
+
+        // find the rectangle of the changed pixels
+        int minX = 0;
+        int minY = 0;
+        int maxX = width - 1;
+        int maxY = height - 1;
+        if (differencing) {
+            minX = width;
+            minY = height;
+            maxX = -1;
+            maxY = -1;
+            for (int y = 0; y < height; y++) {
+                int rowStart = 3 * y * width;
+                int rowEnd = rowStart + 3 * width;
+                if (Arrays.mismatch(pixels, rowStart, rowEnd, prev, rowStart, rowEnd) < 0) {
+                    continue;
+                }
+                minY = Math.min(minY, y);
+                maxY = y;
+                for (int x = 0; x < width; x++) {
+                    if (isChanged(pixels, prev, 3 * (y * width + x))) {
+                        minX = Math.min(minX, x);
+                        maxX = Math.max(maxX, x);
+                    }
+                }
+            }
+            if (maxX < 0) {
+                // nothing changed, but at least one pixel is needed
+                minX = 0;
+                minY = 0;
+                maxX = 0;
+                maxY = 0;
+            }
+        }
+        int rectW = maxX - minX + 1;
+        int rectH = maxY - minY + 1;
+
+        byte[] rectPixels = pixels;
+        byte[] rectPrev = differencing ? prev : null;
+        if (rectW != width || rectH != height) {
+            rectPixels = copyRect(pixels, minX, minY, rectW, rectH);
+            if (rectPrev != null) {
+                rectPrev = copyRect(prev, minX, minY, rectW, rectH);
+            }
         }
+
+        NeuQuant nq;
+        byte[] colorTab;
+        byte[] frameColorTab;
+        if (globalQuant != null) {
+            nq = globalQuant;
+            colorTab = globalColorTab;
+            frameColorTab = null;
+        } else {
+            int netSize = usesDifferencing(frameTransparent) ? 255 : 256;
+            nq = new NeuQuant(rectPixels, rectPixels.length, sample, netSize);
+            colorTab = toRGB(nq.process());
+            frameColorTab = colorTab;
+        }
+
+        // the palette has at most 255 colors if differencing is used
+        int transIndex = differencing ? 255 : -1;
+        byte[] indexedPixels = mapPixels(rectPixels, rectPrev, rectW, rectH,
+                nq, colorTab, transIndex);
+
+        boolean hasTransparency = differencing;
+        if (frameTransparent != null) {
+            // get closest match to transparent color if specified
+            transIndex = findClosest(frameTransparent, colorTab, indexedPixels);
+            hasTransparency = true;
+        }
+
+        ByteSink buffer = lzwBuffers.get();
+        buffer.reset();
+        lzwEncoders.get().encode(rectW, rectH, indexedPixels, 8, buffer);
+
+        int disp;
+        if (frameDispose >= 0) {
+            disp = frameDispose & 7; // user override
+        } else if (differencing) {
+            disp = 1; // the unchanged pixels are drawn by the previous frames
+        } else if (frameTransparent != null) {
+            disp = 2; // force clear if using transparent color
+        } else {
+            disp = 0; // dispose = no action
+        }
+
+        return new EncodedFrame(minX, minY, rectW, rectH, frameColorTab,
+                hasTransparency ? transIndex : -1, frameDelay, disp, buffer.toByteArray());
+    }
+
+    private static boolean isChanged(byte[] pixels, byte[] prev, int i) {
+        return pixels[i] != prev[i]
+                || pixels[i + 1] != prev[i + 1]
+                || pixels[i + 2] != prev[i + 2];
+    }
+
+    private byte[] copyRect(byte[] pixels, int x, int y, int w, int h) {
+        byte[] rect = new byte[3 * w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(pixels, 3 * ((y + row) * width + x),
+                    rect, 3 * row * w, 3 * w);
+        }
+        return rect;
     }
 
     /**
-     * Returns index of palette color closest to c
+     * Maps the BGR pixels to palette indices. If prev is not null,
+     * then the pixels that are the same as in prev get the transparent index.
      */
-    private int findClosest(Color c) {
-        if (colorTab == null) {
-            return -1;
+    private byte[] mapPixels(byte[] pixels, byte[] prev, int w, int h,
+                             NeuQuant nq, byte[] colorTab, int transIndex) {
+        byte[] indexedPixels = new byte[w * h];
+        if (!dither) {
+            for (int i = 0, k = 0; i < indexedPixels.length; i++, k += 3) {
+                if (prev != null && !isChanged(pixels, prev, k)) {
+                    indexedPixels[i] = (byte) transIndex;
+                } else {
+                    indexedPixels[i] = (byte) nq.map(pixels[k] & 0xff,
+                            pixels[k + 1] & 0xff, pixels[k + 2] & 0xff);
+                }
+            }
+            return indexedPixels;
+        }
+
+        // Floyd-Steinberg dithering, the errors are multiplied by 16,
+        // and there is an extra pixel at both ends of the rows
+        int[] errors = new int[3 * (w + 2)];
+        int[] nextErrors = new int[3 * (w + 2)];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int i = y * w + x;
+                int k = 3 * i;
+                if (prev != null && !isChanged(pixels, prev, k)) {
+                    // the error is not diffused through the transparent pixels
+                    indexedPixels[i] = (byte) transIndex;
+                    continue;
+                }
+                int e = 3 * (x + 1);
+                int b = clamp((pixels[k] & 0xff) + errors[e] / 16);
+                int g = clamp((pixels[k + 1] & 0xff) + errors[e + 1] / 16);
+                int r = clamp((pixels[k + 2] & 0xff) + errors[e + 2] / 16);
+                int index = nq.map(b, g, r);
+                indexedPixels[i] = (byte) index;
+
+                // the palette is in RGB order
+                int eb = b - (colorTab[3 * index + 2] & 0xff);
+                int eg = g - (colorTab[3 * index + 1] & 0xff);
+                int er = r - (colorTab[3 * index] & 0xff);
+                diffuse(errors, e + 3, eb, eg, er, 7);
+                diffuse(nextErrors, e - 3, eb, eg, er, 3);
+                diffuse(nextErrors, e, eb, eg, er, 5);
+                diffuse(nextErrors, e + 3, eb, eg, er, 1);
+            }
+            int[] tmp = errors;
+            errors = nextErrors;
+            nextErrors = tmp;
+            Arrays.fill(nextErrors, 0);
+        }
+        return indexedPixels;
+    }
+
+    private static void diffuse(int[] errors, int e, int eb, int eg, int er, int weight) {
+        errors[e] += eb * weight;
+        errors[e + 1] += eg * weight;
+        errors[e + 2] += er * weight;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /**
+     * Returns index of the used palette color closest to c
+     */
+    private static int findClosest(Color c, byte[] colorTab, byte[] indexedPixels) {
+        boolean[] usedEntry = new boolean[256]; // active palette entries
+        for (byte index : indexedPixels) {
+            usedEntry[index & 0xff] = true;
         }
         int r = c.getRed();
         int g = c.getGreen();
@@ -370,41 +689,27 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Extracts image pixels into byte array "pixels"
+     * Returns the image pixels as a new BGR byte array
      */
-    private void getImagePixels() {
-        int w = image.getWidth();
-        int h = image.getHeight();
-        int type = image.getType();
-        if ((w != width) || (h != height) || (type != BufferedImage.TYPE_3BYTE_BGR)) {
-            // create new image with right size/format
-            BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-            Graphics2D g = temp.createGraphics();
-            g.drawImage(image, 0, 0, null);
-            image = temp;
-        }
-        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    private byte[] getImagePixels(BufferedImage image) {
+        // always copied into a new image, because the
+        // pixels are used later on other threads
+        BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = temp.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return ((DataBufferByte) temp.getRaster().getDataBuffer()).getData();
     }
 
     /**
      * Writes Graphic Control Extension
      */
-    private void writeGraphicCtrlExt() throws IOException {
+    private void writeGraphicCtrlExt(EncodedFrame frame) throws IOException {
         out.write(0x21); // extension introducer
         out.write(0xf9); // GCE label
         out.write(4); // data block size
-        int transp, disp;
-        if (transparent == null) {
-            transp = 0;
-            disp = 0; // dispose = no action
-        } else {
-            transp = 1;
-            disp = 2; // force clear if using transparent color
-        }
-        if (dispose >= 0) {
-            disp = dispose & 7; // user override
-        }
-        disp <<= 2;
+        int transp = frame.transIndex >= 0 ? 1 : 0;
+        int disp = frame.dispose << 2;
 
         // packed fields
         out.write(0 | // 1:3 reserved
@@ -412,31 +717,31 @@ public class AnimatedGifEncoder {
                 0 | // 7 user input - 0 = none
                 transp); // 8 transparency flag
 
-        writeShort(delay); // delay x 1/100 sec
-        out.write(transIndex); // transparent color index
+        writeShort(frame.delay); // delay x 1/100 sec
+        out.write(Math.max(0, frame.transIndex)); // transparent color index
         out.write(0); // block terminator
     }
 
     /**
      * Writes Image Descriptor
      */
-    private void writeImageDesc() throws IOException {
+    private void writeImageDesc(EncodedFrame frame, boolean localPalette) throws IOException {
         out.write(0x2c); // image separator
-        writeShort(0); // image position x,y = 0,0
-        writeShort(0);
-        writeShort(width); // image size
-        writeShort(height);
+        writeShort(frame.x); // image position
+        writeShort(frame.y);
+        writeShort(frame.width); // image size
+        writeShort(frame.height);
         // packed fields
-        if (firstFrame) {
-            // no LCT - GCT is used for first (or only) frame
-            out.write(0);
-        } else {
+        if (localPalette) {
             // specify normal LCT
             out.write(0x80 | // 1 local color table 1=yes
                     0 | // 2 interlace - 0=no
                     0 | // 3 sorted - 0=no
                     0 | // 4-5 reserved
                     palSize); // 6-8 size of color table
+        } else {
+            // no LCT - GCT is used
+            out.write(0);
         }
     }
 
@@ -474,7 +779,7 @@ public class AnimatedGifEncoder {
     /**
      * Writes color table
      */
-    private void writePalette() throws IOException {
+    private void writePalette(byte[] colorTab) throws IOException {
         out.write(colorTab, 0, colorTab.length);
         int n = (3 * 256) - colorTab.length;
         for (int i = 0; i < n; i++) {
@@ -482,14 +787,6 @@ public class AnimatedGifEncoder {
         }
     }
 
-    /**
-     * Encodes and writes pixel data
-     */
-    private void writePixels() throws IOException {
-        LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-        encoder.encode(out);
-    }
-
     /**
      * Write 16-bit value to output stream, LSB first
      */
@@ -506,6 +803,67 @@ public class AnimatedGifEncoder {
             out.write((byte) s.charAt(i));
         }
     }
+
+    /**
+     * A quantized and LZW-encoded frame, ready to be written
+     */
+    private static class EncodedFrame {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final byte[] colorTab; // null if the global palette is used
+        private final int transIndex; // -1 if there is no transparency
+        private final int delay;
+        private final int dispose;
+        private final byte[] data;
+
+        EncodedFrame(int x, int y, int width, int height, byte[] colorTab,
+                     int transIndex, int delay, int dispose, byte[] data) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.colorTab = colorTab;
+            this.transIndex = transIndex;
+            this.delay = delay;
+            this.dispose = dispose;
+            this.data = data;
+        }
+    }
+
+    /**
+     * An unsynchronized, reusable byte array output stream
+     */
+    private static class ByteSink extends OutputStream {
+        private byte[] buf = new byte[1 << 16];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + len));
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
 }
 
 /*
@@ -532,7 +890,7 @@ public class AnimatedGifEncoder {
 // Ported to Java 12/00 K Weiner
 class NeuQuant {
 
-    private static final int netsize = 256; /* number of colours used */
+    private final int netsize; /* number of colours used, at most 256 */
 
     /* four primes near 500 - assume no image has a length so large */
     /* that it is divisible by all four primes */
@@ -560,7 +918,7 @@ class NeuQuant {
      * Network Definitions -------------------
      */
 
-    private static final int maxnetpos = (netsize - 1);
+    private final int maxnetpos;
 
     private static final int netbiasshift = 4; /* bias for colour values */
 
@@ -582,7 +940,7 @@ class NeuQuant {
     private static final int betagamma = (intbias << (gammashift - betashift));
 
     /* defs for decreasing radius factor */
-    private static final int initrad = (netsize >> 3); /*
+    private final int initrad; /*
      * for 256 cols, radius
      * starts
      */
@@ -591,7 +949,7 @@ class NeuQuant {
 
     private static final int radiusbias = (1 << radiusbiasshift);
 
-    private static final int initradius = (initrad * radiusbias); /*
+    private final int initradius; /*
      * and
      * decreases
      * by a
@@ -632,12 +990,12 @@ class NeuQuant {
 
     /* for network lookup - really 256 */
 
-    private final int[] bias = new int[netsize];
+    private final int[] bias;
 
     /* bias and freq arrays for learning */
-    private final int[] freq = new int[netsize];
+    private final int[] freq;
 
-    private final int[] radpower = new int[initrad];
+    private final int[] radpower;
 
     /* radpower for precomputation */
 
@@ -646,10 +1004,26 @@ class NeuQuant {
      * -----------------------------------------------------------------------
      */
     public NeuQuant(byte[] thepic, int len, int sample) {
+        this(thepic, len, sample, 256);
+    }
+
+    /*
+     * A network with fewer than 256 colours leaves the
+     * last palette entries free, for example for transparency
+     */
+    public NeuQuant(byte[] thepic, int len, int sample, int colors) {
 
         int i;
         int[] p;
 
+        netsize = colors;
+        maxnetpos = netsize - 1;
+        initrad = netsize >> 3;
+        initradius = initrad * radiusbias;
+        bias = new int[netsize];
+        freq = new int[netsize];
+        radpower = new int[initrad];
+
         thepicture = thepic;
         lengthcount = len;
         samplefac = sample;
@@ -1044,12 +1418,12 @@ class LZWEncoder {
 
     private static final int EOF = -1;
 
-    private final int imgW;
-    private final int imgH;
+    private int imgW;
+    private int imgH;
 
-    private final byte[] pixAry;
+    private byte[] pixAry;
 
-    private final int initCodeSize;
+    private int initCodeSize;
 
     private int remaining;
 
@@ -1144,11 +1518,8 @@ class LZWEncoder {
     private final byte[] accum = new byte[256];
 
     // ----------------------------------------------------------------------------
-    LZWEncoder(int width, int height, byte[] pixels, int color_depth) {
-        imgW = width;
-        imgH = height;
-        pixAry = pixels;
-        initCodeSize = Math.max(2, color_depth);
+    // The encoder can be reused for several images (but not by several threads)
+    LZWEncoder() {
     }
 
     // Add a character to the end of the current packet, and if it is 254
@@ -1254,15 +1625,23 @@ class LZWEncoder {
     }
 
     // ----------------------------------------------------------------------------
-    void encode(OutputStream os) throws IOException {
+    void encode(int width, int height, byte[] pixels, int color_depth, OutputStream os) throws IOException {
+        imgW = width;
+        imgH = height;
+        pixAry = pixels;
+        initCodeSize = Math.max(2, color_depth);
+
         os.write(initCodeSize); // write "initial code size" byte
 
         remaining = imgW * imgH; // reset navigation variables
         curPixel = 0;
+        cur_accum = 0;
+        cur_bits = 0;
 
         compress(initCodeSize + 1, os); // compress and write the pixel data
 
         os.write(0); // write block terminator
+        pixAry = null;
     }
 
     // Flush the packet to disk, and reset the accumulator
@@ -71,6 +71,12 @@ public class Canvas implements Serializable {
         width = newWidth;
         height = newHeight;
 
+        if (view == null) {
+            // processed without a GUI, there are
+            // no component space values to update
+            return;
+        }
+
         // also update the component space values
         recalcCoSize(view);
 
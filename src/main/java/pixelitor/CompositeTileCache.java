@@ -0,0 +1,557 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.ImageLayer;
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * The cached composite image of a {@link Composition}.
+ * The canvas is divided into square tiles, and after a local
+ * change (such as a brush stroke or a layer movement) only the
+ * tiles touching the changed area are blended again from the layers.
+ *
+ * If all the visible layers support it, then the regions are
+ * composited in parallel, each one into its own temporary image.
+ *
+ * The cached image is updated in place, therefore code that
+ * keeps a reference to it across changes has to copy it.
+ *
+ * When painting the view, only the visible tiles are blended, and
+ * at small zoom levels the image is painted from downsampled
+ * "mip levels", each having half the size of the previous one.
+ * They also use the tile grid of the full-size image.
+ */
+class CompositeTileCache {
+    static final int TILE_SIZE = 256;
+
+    // at most 1/64 of the original size
+    static final int MAX_MIP_LEVEL = 6;
+
+    private BufferedImage image;
+    private int numTilesX;
+    private int numTilesY;
+
+    // the tiles that must be blended again before the next use
+    private final BitSet dirtyTiles = new BitSet();
+    private boolean allDirty = true;
+
+    // the downsampled images, index 0 is unused, created when first needed
+    private final BufferedImage[] mipLevels = new BufferedImage[MAX_MIP_LEVEL + 1];
+
+    // the tiles that must be downsampled again, for each mip level
+    private final BitSet[] dirtyMipTiles = new BitSet[MAX_MIP_LEVEL + 1];
+
+    /**
+     * Marks all tiles as dirty
+     */
+    void invalidateAll() {
+        allDirty = true;
+        for (BitSet dirtyMip : dirtyMipTiles) {
+            if (dirtyMip != null) {
+                dirtyMip.set(0, numTilesX * numTilesY);
+            }
+        }
+    }
+
+    /**
+     * Marks the tiles touching the given area
+     * (given in image space, relative to the canvas) as dirty
+     */
+    void invalidateRegion(Rectangle area) {
+        if (allDirty || image == null) {
+            return;
+        }
+        Rectangle r = area.intersection(
+                new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) {
+            return;
+        }
+        int firstTileX = r.x / TILE_SIZE;
+        int lastTileX = (r.x + r.width - 1) / TILE_SIZE;
+        int firstTileY = r.y / TILE_SIZE;
+        int lastTileY = (r.y + r.height - 1) / TILE_SIZE;
+        for (int ty = firstTileY; ty <= lastTileY; ty++) {
+            int rowStart = ty * numTilesX;
+            dirtyTiles.set(rowStart + firstTileX, rowStart + lastTileX + 1);
+            for (BitSet dirtyMip : dirtyMipTiles) {
+                if (dirtyMip != null) {
+                    dirtyMip.set(rowStart + firstTileX, rowStart + lastTileX + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the up-to-date composite image of the given layers,
+     * blending again only the dirty tiles, if possible.
+     */
+    BufferedImage getImage(Canvas canvas, List<Layer> layers) {
+        ensureSize(canvas);
+        update(null, layers);
+        return image;
+    }
+
+    /**
+     * Paints the composite image within the clip of the given
+     * graphics, which must be in image space. Only the tiles
+     * touching the clip are updated, and if the image is
+     * scaled down at least two times, then the given scaling
+     * is achieved mostly by painting a mip level.
+     */
+    void paint(Graphics2D g, Canvas canvas, List<Layer> layers, double scaling) {
+        ensureSize(canvas);
+        Rectangle area = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            area = area.intersection(clip);
+        }
+        if (area.isEmpty()) {
+            return;
+        }
+
+        update(area, layers);
+
+        int level = calcMipLevel(scaling);
+        if (level == 0) {
+            ImageUtils.drawImageWithClipping(g, image);
+            return;
+        }
+
+        BufferedImage mip = updateMipLevels(level, area);
+
+        // the visible part of the mip level, rounded outwards
+        int sx1 = area.x >> level;
+        int sy1 = area.y >> level;
+        int sx2 = Math.min(mip.getWidth(), ceilShift(area.x + area.width, level));
+        int sy2 = Math.min(mip.getHeight(), ceilShift(area.y + area.height, level));
+        g.drawImage(mip,
+                sx1 << level, sy1 << level, sx2 << level, sy2 << level,
+                sx1, sy1, sx2, sy2, null);
+    }
+
+    /**
+     * Returns the mip level that is not smaller than the given scaling,
+     * so that it still has to be scaled down, but only a little.
+     */
+    static int calcMipLevel(double scaling) {
+        int level = 0;
+        while (level < MAX_MIP_LEVEL && scaling * (2 << level) <= 1.0) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int ceilShift(int value, int shift) {
+        return (value + (1 << shift) - 1) >> shift;
+    }
+
+    private void ensureSize(Canvas canvas) {
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            dispose();
+            image = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+            numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+            allDirty = true;
+        }
+    }
+
+    /**
+     * Blends again the dirty tiles touching the given area,
+     * or all the dirty tiles if the area is null. The
+     * other dirty tiles remain dirty.
+     */
+    private void update(Rectangle area, List<Layer> layers) {
+        boolean parallel = canBlendInParallel(layers);
+        if (area != null) {
+            if (!parallel && !canBlendByRegion(layers)) {
+                // everything has to be blended together
+                area = null;
+            } else if (allDirty) {
+                // continue with tracking the individual tiles
+                dirtyTiles.set(0, numTilesX * numTilesY);
+                allDirty = false;
+            }
+        }
+
+        if (parallel && (allDirty || !dirtyTiles.isEmpty())) {
+            // the lazily loaded images are decoded here, using all cores,
+            // rather than in the region tasks, which would do it serially
+            loadVisibleImages(layers);
+        }
+        if (allDirty) {
+            // with a single core the bands would only add overhead
+            if (parallel && ThreadPool.getNumCores() > 1) {
+                blendInParallel(getTileRows(), layers);
+            } else {
+                blendAll(image, layers);
+            }
+        } else if (!dirtyTiles.isEmpty()) {
+            if (parallel) {
+                blendInParallel(takeDirtyRuns(area), layers);
+            } else if (canBlendByRegion(layers)) {
+                blendInPlace(takeDirtyRuns(area), layers);
+            } else {
+                blendAll(image, layers);
+            }
+        }
+
+        allDirty = false;
+        if (area == null) {
+            dirtyTiles.clear();
+        }
+    }
+
+    /**
+     * Adjustment layers and watermarked text layers transform the
+     * whole image bellow them, therefore they can't be used
+     * for a partial update.
+     */
+    private static boolean canBlendByRegion(List<Layer> layers) {
+        for (Layer layer : layers) {
+            if (layer.isVisible() && layer.isAdjustment()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean canBlendInParallel(List<Layer> layers) {
+        for (Layer layer : layers) {
+            if (layer.isVisible() && !layer.canBeAppliedInParallel()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void loadVisibleImages(List<Layer> layers) {
+        for (Layer layer : layers) {
+            if (!layer.isVisible()) {
+                continue;
+            }
+            if (layer instanceof ImageLayer) {
+                ((ImageLayer) layer).getImage();
+            }
+            if (layer.hasMask() && layer.isMaskEnabled()) {
+                layer.getMask().getImage();
+            }
+        }
+    }
+
+    private static void blendAll(BufferedImage target, List<Layer> layers) {
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, target.getWidth(), target.getHeight());
+
+        BufferedImage imageSoFar = target;
+        boolean firstVisibleLayer = true;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+                if (result != null && result != imageSoFar) {
+                    // adjustment layer or watermarking text layer
+                    imageSoFar = result;
+                    g.dispose();
+                    g = imageSoFar.createGraphics();
+                }
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+
+        if (imageSoFar != target) {
+            // the returned image of the last adjustment layer
+            // could be referenced from elsewhere, so it is
+            // copied into the image owned by this cache
+            g = target.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(imageSoFar, 0, 0, null);
+            g.dispose();
+        }
+    }
+
+    /**
+     * Returns the full-width bands of tiles covering the canvas
+     */
+    private List<Rectangle> getTileRows() {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        List<Rectangle> rows = new ArrayList<>(numTilesY);
+        for (int ty = 0; ty < numTilesY; ty++) {
+            int y = ty * TILE_SIZE;
+            rows.add(new Rectangle(0, y, width, Math.min(TILE_SIZE, height - y)));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the areas covered by the dirty tiles touching the given
+     * area (or all dirty tiles if it is null), and marks them as clean.
+     * The horizontally adjacent dirty tiles are merged into one area,
+     * so that each layer is painted once per run of tiles.
+     */
+    private List<Rectangle> takeDirtyRuns(Rectangle area) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int firstTileX = 0;
+        int lastTileX = numTilesX - 1;
+        int firstTileY = 0;
+        int lastTileY = numTilesY - 1;
+        if (area != null) {
+            firstTileX = area.x / TILE_SIZE;
+            lastTileX = (area.x + area.width - 1) / TILE_SIZE;
+            firstTileY = area.y / TILE_SIZE;
+            lastTileY = (area.y + area.height - 1) / TILE_SIZE;
+        }
+
+        List<Rectangle> runs = new ArrayList<>();
+        for (int ty = firstTileY; ty <= lastTileY; ty++) {
+            int rowStart = ty * numTilesX;
+            int rangeEnd = rowStart + lastTileX + 1;
+            int runStart = dirtyTiles.nextSetBit(rowStart + firstTileX);
+            while (runStart != -1 && runStart < rangeEnd) {
+                int runEnd = Math.min(dirtyTiles.nextClearBit(runStart), rangeEnd);
+
+                int x = (runStart - rowStart) * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int runWidth = Math.min((runEnd - runStart) * TILE_SIZE, width - x);
+                int runHeight = Math.min(TILE_SIZE, height - y);
+                runs.add(new Rectangle(x, y, runWidth, runHeight));
+                dirtyTiles.clear(runStart, runEnd);
+
+                runStart = dirtyTiles.nextSetBit(runEnd);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Blends the given regions directly into the cached image,
+     * on the current thread. Used when some layers can't be
+     * applied in parallel, but all of them can be applied by regions.
+     */
+    private void blendInPlace(List<Rectangle> regions, List<Layer> layers) {
+        Graphics2D g = image.createGraphics();
+        for (Rectangle region : regions) {
+            g.setClip(region);
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(region);
+
+            boolean firstVisibleLayer = true;
+            for (Layer layer : layers) {
+                if (layer.isVisible()) {
+                    BufferedImage result = layer.applyLayer(g, image, firstVisibleLayer);
+                    assert result == null || result == image;
+                    firstVisibleLayer = false;
+                }
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * Blends the given (non-overlapping) regions on the {@link ThreadPool}
+     */
+    private void blendInParallel(List<Rectangle> regions, List<Layer> layers) {
+        if (regions.size() == 1) {
+            blendRegion(regions.get(0), layers);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(regions.size());
+        for (Rectangle region : regions) {
+            futures.add(ThreadPool.submit(() -> blendRegion(region, layers)));
+        }
+        ThreadPool.waitFor(futures, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Composites the whole layer stack for the given region
+     * in a temporary image, and then copies the result
+     * into the cached image. Point-wise adjustment layers
+     * are applied only to the temporary image.
+     */
+    private void blendRegion(Rectangle region, List<Layer> layers) {
+        BufferedImage regionImg = new BufferedImage(
+                region.width, region.height, TYPE_INT_ARGB_PRE);
+        BufferedImage imageSoFar = regionImg;
+        Graphics2D g = createRegionGraphics(imageSoFar, region);
+
+        boolean firstVisibleLayer = true;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayerToRegion(
+                        g, imageSoFar, region.x, region.y, firstVisibleLayer);
+                if (result != null && result != imageSoFar) {
+                    // point-wise adjustment layer
+                    imageSoFar = result;
+                    g.dispose();
+                    g = createRegionGraphics(imageSoFar, region);
+                }
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+
+        if (imageSoFar.getType() != TYPE_INT_ARGB_PRE) {
+            // the filter of an adjustment layer returned another image type
+            Graphics2D cg = regionImg.createGraphics();
+            cg.setComposite(AlphaComposite.Src);
+            cg.drawImage(imageSoFar, 0, 0, null);
+            cg.dispose();
+            imageSoFar = regionImg;
+        }
+
+        // the regions are disjoint, so they can be
+        // copied into the shared raster from any thread
+        image.getRaster().setDataElements(region.x, region.y, imageSoFar.getRaster());
+    }
+
+    private static Graphics2D createRegionGraphics(BufferedImage regionImg, Rectangle region) {
+        Graphics2D g = regionImg.createGraphics();
+        g.translate(-region.x, -region.y);
+        g.setClip(region);
+        return g;
+    }
+
+    /**
+     * Brings the tiles of the mip levels up to the given
+     * one up to date within the given area, and returns
+     * the image of the given mip level.
+     */
+    private BufferedImage updateMipLevels(int maxLevel, Rectangle area) {
+        int firstTileX = area.x / TILE_SIZE;
+        int lastTileX = (area.x + area.width - 1) / TILE_SIZE;
+        int firstTileY = area.y / TILE_SIZE;
+        int lastTileY = (area.y + area.height - 1) / TILE_SIZE;
+
+        BufferedImage prev = image;
+        for (int level = 1; level <= maxLevel; level++) {
+            BufferedImage mip = mipLevels[level];
+            if (mip == null) {
+                mip = new BufferedImage(
+                        Math.max(1, (prev.getWidth() + 1) / 2),
+                        Math.max(1, (prev.getHeight() + 1) / 2),
+                        TYPE_INT_ARGB_PRE);
+                mipLevels[level] = mip;
+                dirtyMipTiles[level] = new BitSet();
+                dirtyMipTiles[level].set(0, numTilesX * numTilesY);
+            }
+
+            BitSet dirtyMip = dirtyMipTiles[level];
+            int currentLevel = level;
+            BufferedImage src = prev;
+            BufferedImage dest = mip;
+            ThreadPool.processRows(lastTileY - firstTileY + 1, row -> {
+                int ty = firstTileY + row;
+                for (int tx = firstTileX; tx <= lastTileX; tx++) {
+                    int tileIndex = ty * numTilesX + tx;
+                    // each task reads and clears the bits of its own tile row,
+                    // but BitSet is not thread-safe, so this is synchronized
+                    boolean dirty;
+                    synchronized (dirtyMip) {
+                        dirty = dirtyMip.get(tileIndex);
+                        dirtyMip.clear(tileIndex);
+                    }
+                    if (dirty) {
+                        downsampleTile(src, dest, currentLevel, tx, ty);
+                    }
+                }
+            }, ProgressTracker.NULL_TRACKER);
+            prev = mip;
+        }
+        return prev;
+    }
+
+    /**
+     * Calculates the pixels of the given tile in the given mip level by
+     * averaging 2x2 blocks of the previous level. The premultiplied
+     * channels can be simply averaged.
+     */
+    private static void downsampleTile(BufferedImage src, BufferedImage dest,
+                                       int level, int tx, int ty) {
+        int destWidth = dest.getWidth();
+        int destHeight = dest.getHeight();
+        int x1 = (tx * TILE_SIZE) >> level;
+        int x2 = Math.min(((tx + 1) * TILE_SIZE) >> level, destWidth);
+        int y1 = (ty * TILE_SIZE) >> level;
+        int y2 = Math.min(((ty + 1) * TILE_SIZE) >> level, destHeight);
+
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int[] srcPixels = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+        int[] destPixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+
+        for (int y = y1; y < y2; y++) {
+            int row1 = 2 * y * srcWidth;
+            // the last row/column is repeated for odd sizes
+            int row2 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+            for (int x = x1; x < x2; x++) {
+                int col1 = 2 * x;
+                int col2 = Math.min(2 * x + 1, srcWidth - 1);
+                destPixels[y * destWidth + x] = average(
+                        srcPixels[row1 + col1], srcPixels[row1 + col2],
+                        srcPixels[row2 + col1], srcPixels[row2 + col2]);
+            }
+        }
+    }
+
+    private static int average(int p1, int p2, int p3, int p4) {
+        // red and blue are summed together, alpha and green too
+        long rb = (p1 & 0xFF_00_FFL) + (p2 & 0xFF_00_FFL)
+                + (p3 & 0xFF_00_FFL) + (p4 & 0xFF_00_FFL);
+        long ag = ((p1 >>> 8) & 0xFF_00_FFL) + ((p2 >>> 8) & 0xFF_00_FFL)
+                + ((p3 >>> 8) & 0xFF_00_FFL) + ((p4 >>> 8) & 0xFF_00_FFL);
+        // add 2 for rounding, then divide by 4
+        rb = ((rb + 0x2_00_02) >> 2) & 0xFF_00_FF;
+        ag = ((ag + 0x2_00_02) >> 2) & 0xFF_00_FF;
+        return (int) (ag << 8 | rb);
+    }
+
+    void dispose() {
+        if (image != null) {
+            image.flush();
+            image = null;
+        }
+        for (int i = 0; i < mipLevels.length; i++) {
+            if (mipLevels[i] != null) {
+                mipLevels[i].flush();
+                mipLevels[i] = null;
+            }
+            dirtyMipTiles[i] = null;
+        }
+        dirtyTiles.clear();
+        allDirty = true;
+    }
+}
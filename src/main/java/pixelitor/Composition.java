@@ -90,7 +90,7 @@ public class Composition implements Serializable {
     private transient File file;
     private transient boolean dirty = false;
 
-    private transient BufferedImage compositeImage;
+    private transient CompositeTileCache compositeCache = new CompositeTileCache();
 
     private transient View view;
 
@@ -200,7 +200,7 @@ public class Composition implements Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // init transient variables
-        compositeImage = null; // will be set when needed
+        compositeCache = new CompositeTileCache(); // will be filled when needed
         file = null; // will be set later
         dirty = false;
         view = null; // will be set later
@@ -329,7 +329,7 @@ public class Composition implements Serializable {
 
     public void addNewLayerFromComposite() {
         ImageLayer newLayer = new ImageLayer(this,
-                getCompositeImage(), "Composite");
+                ImageUtils.copyImage(getCompositeImage()), "Composite");
 
         new LayerAdder(this)
                 .withHistory("New Layer from Composite")
@@ -358,7 +358,7 @@ public class Composition implements Serializable {
         }
 
         int numLayers = getNumLayers();
-        BufferedImage bi = getCompositeImage();
+        BufferedImage bi = ImageUtils.copyImage(getCompositeImage());
 
         Layer flattened = new ImageLayer(this, bi, "flattened");
         new LayerAdder(this)
@@ -669,16 +669,47 @@ public class Composition implements Serializable {
 
     public void moveActiveContentRelative(MoveMode mode,
                                           double relImX, double relImY) {
+        Rectangle changedArea = null;
         if (mode.movesTheLayer()) {
             Layer layer = getActiveMaskOrLayer();
+            Rectangle areaBefore = getMovedContentArea(layer);
             layer.moveWhileDragging(relImX, relImY);
+            Rectangle areaAfter = getMovedContentArea(layer);
+            if (areaBefore != null && areaAfter != null) {
+                changedArea = areaBefore.union(areaAfter);
+            }
+        } else {
+            // moving only the selection doesn't change the pixels
+            changedArea = new Rectangle();
         }
         if (mode.movesTheSelection()) {
             if (selection != null) {
                 selection.moveWhileDragging(relImX, relImY);
             }
         }
-        imageChanged();
+        if (changedArea != null) {
+            imageChanged(FULL, changedArea);
+        } else {
+            imageChanged();
+        }
+    }
+
+    /**
+     * Returns the area of the composite image that can be affected
+     * by moving the given layer, or null if it is not known.
+     */
+    private static Rectangle getMovedContentArea(Layer layer) {
+        if (layer instanceof LayerMask) {
+            // the mask can only hide the pixels of its owner
+            layer = layer.getOwner();
+        }
+        if (layer instanceof ImageLayer && !layer.isAdjustment()) {
+            ImageLayer imageLayer = (ImageLayer) layer;
+            BufferedImage image = imageLayer.getImage();
+            return new Rectangle(imageLayer.getTx(), imageLayer.getTy(),
+                    image.getWidth(), image.getHeight());
+        }
+        return null;
     }
 
     public void endMovement(MoveMode mode) {
@@ -834,7 +865,16 @@ public class Composition implements Serializable {
     }
 
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateCompositeCache();
+        // add some pixels for the antialiasing
+        double margin = thickness + 2;
+        double minX = Math.min(start.getImX(), end.getImX()) - margin;
+        double minY = Math.min(start.getImY(), end.getImY()) - margin;
+        double maxX = Math.max(start.getImX(), end.getImX()) + margin;
+        double maxY = Math.max(start.getImY(), end.getImY()) + margin;
+        compositeCache.invalidateRegion(new Rectangle(
+                (int) Math.floor(minX), (int) Math.floor(minY),
+                (int) Math.ceil(maxX - minX) + 1, (int) Math.ceil(maxY - minY) + 1));
+
         if (view != null) { // during reload image it can be null
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
@@ -842,7 +882,12 @@ public class Composition implements Serializable {
     }
 
     public void repaintRegion(PRectangle area) {
-        invalidateCompositeCache();
+        Rectangle2D imArea = area.getIm();
+        if (imArea != null) {
+            compositeCache.invalidateRegion(imArea.getBounds());
+        } else {
+            invalidateCompositeCache();
+        }
         if (view != null) { // during reload image it can be null
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -854,6 +899,7 @@ public class Composition implements Serializable {
             // stop the timer thread
             selection.die();
         }
+        compositeCache.dispose();
     }
 
     public void paintSelection(Graphics2D g) {
@@ -1065,7 +1111,9 @@ public class Composition implements Serializable {
     public void applySelectionClipping(Graphics2D g2) {
         if (selection != null) {
             Shape shape = selection.getShape();
-            g2.setClip(shape);
+            // intersect with the existing clip, which
+            // is set when only a region is composited
+            g2.clip(shape);
         }
     }
 
@@ -1127,7 +1175,9 @@ public class Composition implements Serializable {
         if (paths != null) {
             paths.imCoordsChanged(at);
         }
-        Tools.imCoordsChanged(this, at);
+        if (view != null) { // no tool widgets without a view
+            Tools.imCoordsChanged(this, at);
+        }
     }
 
     /**
@@ -1142,12 +1192,22 @@ public class Composition implements Serializable {
 
     /**
      * Returns the (canvas-sized) composite image.
+     * The returned image is cached and it is updated in place
+     * after local changes, therefore it must be copied if
+     * it is used after the composition changes.
      */
     public BufferedImage getCompositeImage() {
-        if (compositeImage == null) {
-            compositeImage = calculateCompositeImage();
-        }
-        return compositeImage;
+        return compositeCache.getImage(canvas, layerList);
+    }
+
+    /**
+     * Paints the composite image within the clip of the given
+     * image-space graphics, which is scaled with the given scaling.
+     * Only the visible part of the cached image is updated, and
+     * at small zoom levels it is painted from a downsampled copy.
+     */
+    public void paintCompositeImage(Graphics2D g, double scaling) {
+        compositeCache.paint(g, canvas, layerList, scaling);
     }
 
     public void imageChanged() {
@@ -1164,7 +1224,20 @@ public class Composition implements Serializable {
      */
     public void imageChanged(ImageChangeActions actions, boolean sizeChanged) {
         invalidateCompositeCache();
+        imageChangeActions(actions, sizeChanged);
+    }
+
+    /**
+     * Similar to the method above, but only the given area
+     * (relative to the canvas) of the cached composite image
+     * has to be recalculated
+     */
+    public void imageChanged(ImageChangeActions actions, Rectangle changedArea) {
+        compositeCache.invalidateRegion(changedArea);
+        imageChangeActions(actions, false);
+    }
 
+    private void imageChangeActions(ImageChangeActions actions, boolean sizeChanged) {
         if (actions.repaintNeeded()) {
             if (view != null) {
                 view.repaint();
@@ -1178,10 +1251,7 @@ public class Composition implements Serializable {
     }
 
     private void invalidateCompositeCache() {
-        if (compositeImage != null) {
-            compositeImage.flush();
-        }
-        compositeImage = null;
+        compositeCache.invalidateAll();
     }
 
     public boolean isActive() {
@@ -1252,19 +1322,6 @@ public class Composition implements Serializable {
         return true;
     }
 
-    public int calcNumImages() {
-        int count = 0;
-        for (Layer layer : layerList) {
-            if (layer instanceof ImageLayer) {
-                count++;
-            }
-            if (layer.hasMask()) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     public CompletableFuture<Void> saveAsync(SaveSettings saveSettings,
                                              boolean addToRecentMenus) {
         FileFormat format = saveSettings.getFormat();
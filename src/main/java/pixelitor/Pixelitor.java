@@ -19,6 +19,7 @@ package pixelitor;
 
 import com.bric.util.JVM;
 import net.jafama.FastMath;
+import pixelitor.automate.HeadlessBatch;
 import pixelitor.colors.FgBgColors;
 import pixelitor.colors.FillType;
 import pixelitor.filters.Filter;
@@ -42,6 +43,7 @@ import java.awt.event.KeyEvent;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
@@ -80,6 +82,11 @@ public class Pixelitor {
 
         Texts.loadLanguage();
 
+        if (args.length > 0 && args[0].equals(HeadlessBatch.COMMAND_LINE_FLAG)) {
+            // process files from the command line, without a GUI
+            System.exit(HeadlessBatch.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         System.setProperty("com.apple.mrj.application.apple.menu.about.name", "Pixelitor");
 
         if (JVM.isLinux) {
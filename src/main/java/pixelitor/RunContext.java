@@ -41,6 +41,12 @@ public enum RunContext {
      * In this mode there is no GUI, and some objects might be mocked.
      */
     UNIT_TESTS() {
+    },
+    /**
+     * In this mode there is no GUI, the files are processed
+     * from the command line, and the messages go to the console.
+     */
+    HEADLESS_BATCH() {
     };
 
     public static final boolean enableAdjLayers = false;
@@ -76,6 +82,10 @@ public enum RunContext {
         return CURRENT == UNIT_TESTS;
     }
 
+    public static boolean isHeadlessBatch() {
+        return CURRENT == HEADLESS_BATCH;
+    }
+
     public static void setUnitTestingMode() {
         CURRENT = UNIT_TESTS;
         History.setUndoLevels(15);
@@ -17,29 +17,57 @@
 
 package pixelitor;
 
-import com.jhlabs.image.AbstractBufferedImageOp;
 import pixelitor.utils.ProgressTracker;
 
-import java.awt.image.BufferedImage;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
+ *
+ * If the thread waiting for the parallel tasks is interrupted (because
+ * its result is not needed anymore), then the waiting methods return
+ * without waiting for the remaining tasks, and the interrupted
+ * status of the thread is kept, so that the caller can also stop.
  */
 public class ThreadPool {
     private static final int NUM_CORES = Runtime.getRuntime().availableProcessors();
 
+    private static final ThreadLocal<Boolean> workerThread =
+            ThreadLocal.withInitial(() -> false);
+
     private static final ExecutorService executorService =
-            Executors.newFixedThreadPool(NUM_CORES);
+            Executors.newFixedThreadPool(NUM_CORES, ThreadPool::createWorker);
+
+    // the work-stealing pool used for processing the rows of an image
+    private static final ForkJoinPool rowsPool = new ForkJoinPool(NUM_CORES);
+
+    // how often the progress of the row processing is reported
+    private static final int PROGRESS_INTERVAL_MILLIS = 50;
 
     private ThreadPool() {
     }
 
+    private static Thread createWorker(Runnable r) {
+        return Executors.defaultThreadFactory().newThread(() -> {
+            workerThread.set(true);
+            r.run();
+        });
+    }
+
     /**
      * Submits a task that doesn't return anything
      */
@@ -71,7 +99,10 @@ public class ThreadPool {
                 // necessarily the same as the finish order, but
                 // good enough in practice
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
                 e.printStackTrace();
             }
         }
@@ -86,7 +117,8 @@ public class ThreadPool {
                 future.get();
                 pt.unitDone();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return;
             } catch (ExecutionException e) {
                 e.getCause().printStackTrace();
             }
@@ -94,27 +126,149 @@ public class ThreadPool {
     }
 
     /**
-     * Similar to waitFor, but works with futures
-     * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
+     * Processes the given number of rows in parallel, by calling
+     * the given task for each row, and updates the given
+     * {@link ProgressTracker} in the meantime.
+     */
+    public static void processRows(int numRows, IntConsumer rowTask, ProgressTracker pt) {
+        processBands(numRows, (fromY, toY) -> {
+            for (int y = fromY; y < toY; y++) {
+                rowTask.accept(y);
+            }
+        }, pt);
+    }
+
+    /**
+     * Processes the given number of rows in parallel by splitting
+     * them into bands of adjacent rows. The bands are split further
+     * only while there are idle threads that could steal them,
+     * so that the scheduling overhead stays low even for large images.
+     *
+     * The progress is reported only from the calling thread, because
+     * the progress trackers are not thread-safe.
      */
-    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
+    public static void processBands(int numRows, RowBandTask task, ProgressTracker pt) {
         assert pt != null;
+        if (numRows <= 0) {
+            return;
+        }
 
-        try {
-            for (int i = 0; i < futures.length; i++) {
-                var lineFuture = futures[i];
-                int[] linePixels = lineFuture.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
+        AtomicInteger rowsDone = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        int grain = Math.max(1, numRows / (NUM_CORES * 32));
+        RowBand root = new RowBand(task, 0, numRows, grain, rowsDone, cancelled, null);
 
-                pt.unitDone();
+        if (ForkJoinTask.inForkJoinPool()) {
+            // called from a band of another filter: run it
+            // in the same pool, the waiting threads steal work
+            root.invoke();
+            pt.unitsDone(numRows);
+            return;
+        }
+
+        rowsPool.execute(root);
+        int reported = 0;
+        while (true) {
+            try {
+                root.get(PROGRESS_INTERVAL_MILLIS, MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                int done = rowsDone.get();
+                pt.unitsDone(done - reported);
+                reported = done;
+            } catch (InterruptedException e) {
+                // the bands that haven't started yet are skipped
+                cancelled.set(true);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                break;
+            }
+        }
+        pt.unitsDone(numRows - reported);
+    }
+
+    /**
+     * The processing of a band of adjacent rows.
+     */
+    @FunctionalInterface
+    public interface RowBandTask {
+        /**
+         * Processes the rows from fromY (inclusive) to toY (exclusive)
+         */
+        void processRows(int fromY, int toY);
+    }
+
+    private static class RowBand extends RecursiveAction {
+        // if there are more queued tasks than this, then
+        // the band is not split, because others have enough work
+        private static final int MAX_SURPLUS_TASKS = 2;
+
+        private final RowBandTask task;
+        private final int fromY;
+        private final int toY;
+        private final int grain;
+        private final AtomicInteger rowsDone;
+        private final AtomicBoolean cancelled;
+
+        // the previously forked band of the same parent
+        private final RowBand next;
+
+        RowBand(RowBandTask task, int fromY, int toY, int grain,
+                AtomicInteger rowsDone, AtomicBoolean cancelled, RowBand next) {
+            this.task = task;
+            this.fromY = fromY;
+            this.toY = toY;
+            this.grain = grain;
+            this.rowsDone = rowsDone;
+            this.cancelled = cancelled;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) {
+                return;
+            }
+            int hi = toY;
+            RowBand forked = null;
+            while (hi - fromY > grain && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+                int mid = (fromY + hi) >>> 1;
+                forked = new RowBand(task, mid, hi, grain, rowsDone, cancelled, forked);
+                forked.fork();
+                hi = mid;
+            }
+
+            task.processRows(fromY, hi);
+            rowsDone.addAndGet(hi - fromY);
+
+            while (forked != null) {
+                if (forked.tryUnfork()) {
+                    // nobody stole it
+                    forked.compute();
+                } else {
+                    forked.join();
+                }
+                forked = forked.next;
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
         }
     }
 
     public static Executor getExecutor() {
         return executorService;
     }
+
+    public static int getNumCores() {
+        return NUM_CORES;
+    }
+
+    /**
+     * Returns true if the current thread belongs to this pool.
+     * Such threads shouldn't submit new tasks and wait for them,
+     * because this could lead to a deadlock if all threads are waiting.
+     */
+    public static boolean isWorkerThread() {
+        return workerThread.get();
+    }
 }
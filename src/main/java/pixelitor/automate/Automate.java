@@ -17,24 +17,20 @@
 
 package pixelitor.automate;
 
-import pixelitor.Composition;
-import pixelitor.OpenImages;
 import pixelitor.compactions.CompAction;
 import pixelitor.gui.PixelitorWindow;
-import pixelitor.gui.View;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.io.Dirs;
 import pixelitor.io.FileFormat;
 import pixelitor.io.FileUtils;
-import pixelitor.io.IO;
 import pixelitor.io.SaveSettings;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.EventQueue;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
@@ -43,20 +39,18 @@ import static javax.swing.JOptionPane.WARNING_MESSAGE;
  * Utility class with static methods for batch processing
  */
 public class Automate {
-    private static final String OVERWRITE_YES = "Yes";
-    private static final String OVERWRITE_YES_ALL = "Yes, All";
-    private static final String OVERWRITE_NO = "No (Skip)";
+    private static final String OVERWRITE_ALL = "Overwrite All";
+    private static final String OVERWRITE_SKIP = "Skip Existing";
     private static final String OVERWRITE_CANCEL = "Cancel Processing";
 
-    private static volatile boolean overwriteAll = false;
-    private static volatile boolean stopProcessing = false;
-
     private Automate() {
     }
 
     /**
      * Processes each file in the input directory
-     * with the given {@link CompAction}
+     * with the given {@link CompAction}.
+     * The files are processed without opening them in the GUI,
+     * several of them at the same time, see {@link BatchPipeline}.
      */
     public static void processEachFile(CompAction action,
                                        String dialogTitle) {
@@ -71,13 +65,39 @@ public class Automate {
             return;
         }
 
-        stopProcessing = false;
+        // all overwrites are decided at the start, so that
+        // the processing doesn't have to wait for the user
+        var format = FileFormat.getLastOutput();
+        List<File> filesWithExistingOutput = new ArrayList<>();
+        for (File file : inputFiles) {
+            if (calcOutputFile(file, saveDir, format).exists()) {
+                filesWithExistingOutput.add(file);
+            }
+        }
+        if (!filesWithExistingOutput.isEmpty()) {
+            String answer = showOverwriteWarningDialog(
+                    filesWithExistingOutput.size(), inputFiles.size(), saveDir);
+            switch (answer) {
+                case OVERWRITE_ALL:
+                    break;
+                case OVERWRITE_SKIP:
+                    inputFiles.removeAll(filesWithExistingOutput);
+                    if (inputFiles.isEmpty()) {
+                        return;
+                    }
+                    break;
+                case OVERWRITE_CANCEL:
+                    return;
+            }
+        }
+
         var progressMonitor = GUIUtils.createPercentageProgressMonitor(
                 dialogTitle);
         var worker = new SwingWorker<Void, Void>() {
             @Override
             public Void doInBackground() {
-                return processEachFileOutsideTheEDT(inputFiles, action, saveDir, progressMonitor);
+                return processEachFileOutsideTheEDT(inputFiles, action,
+                        saveDir, format, progressMonitor);
             } // end of doInBackground
         };
         worker.execute();
@@ -86,109 +106,44 @@ public class Automate {
     private static Void processEachFileOutsideTheEDT(List<File> inputFiles,
                                                      CompAction action,
                                                      File saveDir,
+                                                     FileFormat format,
                                                      ProgressMonitor progressMonitor) {
         assert !EventQueue.isDispatchThread() : "on EDT";
-        overwriteAll = false;
-
-        for (int i = 0, numFiles = inputFiles.size(); i < numFiles; i++) {
-            if (progressMonitor.isCanceled() || stopProcessing) {
-                break;
-            }
-
-            File file = inputFiles.get(i);
-            progressMonitor.setProgress((int) ((float) i * 100 / numFiles));
 
-            String msg = "Processing " + (i + 1) + " of " + numFiles;
-            progressMonitor.setNote(msg);
-            System.out.println(msg);
+        var progress = new PipelineProgress(inputFiles.size(), progressMonitor);
+        var pipeline = new BatchPipeline(inputFiles, action,
+                file -> new SaveSettings(format, calcOutputFile(file, saveDir, format)),
+                progress);
+        progress.pipeline = pipeline;
 
-            processFile(file, action, saveDir);
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        progressMonitor.close();
-        return null;
-    }
-
-    private static void processFile(File file, CompAction action, File saveDir) {
-        assert !EventQueue.isDispatchThread() : "on EDT";
-        IO.openFileAsync(file)
-                .thenComposeAsync(
-                        comp -> process(comp, action),
-                        EventQueue::invokeLater)
-                .thenComposeAsync(
-                        comp -> saveAndClose(comp, saveDir),
-                        EventQueue::invokeLater)
-                .exceptionally(Messages::showExceptionOnEDT)
-                .join();
-    }
-
-    private static CompletableFuture<Composition> process(Composition comp,
-                                                          CompAction action) {
-        assert EventQueue.isDispatchThread() : "not on EDT";
-        assert comp.getView() != null : "no view for " + comp.getName();
-
-        return action.process(comp);
-    }
-
-    private static CompletableFuture<Void> saveAndClose(Composition comp, File lastSaveDir) {
-        assert EventQueue.isDispatchThread() : "not on EDT";
-
-        View view = comp.getView();
-        assert view != null : "no view for " + comp.getName();
-
-        var format = FileFormat.getLastOutput();
-        File file = calcOutputFile(comp, lastSaveDir, format);
-        CompletableFuture<Void> retVal = null;
+        System.out.println(pipeline.getMetrics());
 
-        // so that it doesn't ask to save again after we just saved it
-        comp.setDirty(false);
-
-        var saveSettings = new SaveSettings(format, file);
-        if (file.exists() && !overwriteAll) {
-            String answer = showOverwriteWarningDialog(file);
-
-            switch (answer) {
-                case OVERWRITE_YES:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    break;
-                case OVERWRITE_YES_ALL:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    overwriteAll = true;
-                    break;
-                case OVERWRITE_NO:
-                    // do nothing
-                    break;
-                case OVERWRITE_CANCEL:
-                    OpenImages.warnAndClose(view);
-                    stopProcessing = true;
-                    return CompletableFuture.completedFuture(null);
-            }
-        } else { // the file does not exist or overwrite all was pressed previously
-            view.paintImmediately();
-            retVal = comp.saveAsync(saveSettings, false);
-        }
-        OpenImages.warnAndClose(view);
-        stopProcessing = false;
-        if (retVal != null) {
-            return retVal;
-        } else {
-            return CompletableFuture.completedFuture(null);
-        }
+        EventQueue.invokeLater(() -> {
+            progressMonitor.close();
+            progress.showFailures();
+        });
+        return null;
     }
 
-    private static File calcOutputFile(Composition comp, File lastSaveDir, FileFormat format) {
-        String inFileName = comp.getFile().getName();
-        String outFileName = FileUtils.replaceExt(inFileName, format.toString());
+    private static File calcOutputFile(File inFile, File lastSaveDir, FileFormat format) {
+        String outFileName = FileUtils.replaceExt(inFile.getName(), format.toString());
         return new File(lastSaveDir, outFileName);
     }
 
-    private static String showOverwriteWarningDialog(File outputFile) {
+    private static String showOverwriteWarningDialog(int numExisting, int numFiles, File saveDir) {
         var optionPane = new JOptionPane(
-                format("File %s already exists. Overwrite?", outputFile),
+                format("%d of the %d output files already exist in %s.",
+                        numExisting, numFiles, saveDir),
                 WARNING_MESSAGE);
 
         optionPane.setOptions(new String[]{
-                OVERWRITE_YES, OVERWRITE_YES_ALL, OVERWRITE_NO, OVERWRITE_CANCEL});
-        optionPane.setInitialValue(OVERWRITE_NO);
+                OVERWRITE_ALL, OVERWRITE_SKIP, OVERWRITE_CANCEL});
+        optionPane.setInitialValue(OVERWRITE_SKIP);
 
         JDialog dialog = optionPane.createDialog(
                 PixelitorWindow.getInstance(), "Warning");
@@ -203,4 +158,57 @@ public class Automate {
         }
         return answer;
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows the progress of the batch processing, and
+     * cancels it if the progress monitor was canceled
+     */
+    private static class PipelineProgress implements BatchPipeline.Listener {
+        private final int numFiles;
+        private final ProgressMonitor progressMonitor;
+        private BatchPipeline pipeline;
+        private int numDone = 0;
+        private Throwable firstFailure;
+
+        private PipelineProgress(int numFiles, ProgressMonitor progressMonitor) {
+            this.numFiles = numFiles;
+            this.progressMonitor = progressMonitor;
+        }
+
+        @Override
+        public void fileFinished(File input, File output) {
+            fileDone();
+        }
+
+        @Override
+        public synchronized void fileFailed(File input, Throwable cause) {
+            System.err.println(input + ": " + cause);
+            if (firstFailure == null) {
+                firstFailure = cause;
+            }
+            fileDone();
+        }
+
+        private synchronized void fileDone() {
+            numDone++;
+            int percent = (int) ((float) numDone * 100 / numFiles);
+            String msg = "Processed " + numDone + " of " + numFiles;
+            EventQueue.invokeLater(() -> {
+                progressMonitor.setProgress(percent);
+                progressMonitor.setNote(msg);
+            });
+            if (progressMonitor.isCanceled()) {
+                pipeline.cancel();
+            }
+        }
+
+        private synchronized void showFailures() {
+            if (firstFailure == null) {
+                return;
+            }
+            Messages.showError("Batch Processing Error", format(
+                    "%d of the %d files could not be processed.%nThe first error was: %s",
+                    pipeline.getNumFailed(), numFiles, firstFailure));
+        }
+    }
+}
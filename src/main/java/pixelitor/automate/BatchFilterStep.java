@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.compactions.CompAction;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.ParamSet;
+import pixelitor.layers.Drawable;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link CompAction} that runs a filter on the active layer
+ * of the batch-processed compositions. Several compositions
+ * can be filtered at the same time, each with its own copy
+ * of the filter. Filters that can't be copied run one at a time.
+ */
+class BatchFilterStep implements CompAction {
+    private final BlockingQueue<Filter> idleFilters;
+
+    // parameter values that are set again for each image,
+    // because the ranges of some parameters depend on the image size
+    private final Map<String, String> paramValues;
+
+    BatchFilterStep(Filter filter) {
+        this(filter, Map.of());
+    }
+
+    BatchFilterStep(Filter filter, Map<String, String> paramValues) {
+        this.paramValues = paramValues;
+
+        List<Filter> filters = createFilterCopies(filter);
+        idleFilters = new ArrayBlockingQueue<>(filters.size());
+        idleFilters.addAll(filters);
+    }
+
+    /**
+     * Returns the copies of the given filter, or only the
+     * filter itself if it can't be copied.
+     */
+    private static List<Filter> createFilterCopies(Filter filter) {
+        int numCopies = ThreadPool.getNumCores();
+        if (numCopies < 2 || !(filter instanceof ParametrizedFilter)) {
+            return List.of(filter);
+        }
+        List<Filter> copies = new ArrayList<>(numCopies);
+        for (int i = 0; i < numCopies; i++) {
+            ParametrizedFilter copy = ((ParametrizedFilter) filter).copy();
+            if (copy == null) {
+                return List.of(filter);
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    @Override
+    public CompletableFuture<Composition> process(Composition comp) {
+        Drawable dr = comp.getActiveDrawableOrThrow();
+        Filter filter = takeIdleFilter();
+        BufferedImage dest;
+        try {
+            if (!paramValues.isEmpty()) {
+                ParamSet paramSet = ((ParametrizedFilter) filter).getParamSet();
+                paramSet.considerImageSize(comp.getCanvasBounds());
+                paramValues.forEach(paramSet::setValueFromText);
+            }
+            dest = filter.transformImage(dr.getImage());
+        } finally {
+            idleFilters.add(filter);
+        }
+        dr.setImage(dest);
+        comp.setDirty(true);
+        return CompletableFuture.completedFuture(comp);
+    }
+
+    private Filter takeIdleFilter() {
+        try {
+            return idleFilters.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the filter", e);
+        }
+    }
+}
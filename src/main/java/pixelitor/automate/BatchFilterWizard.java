@@ -17,14 +17,9 @@
 
 package pixelitor.automate;
 
-import pixelitor.compactions.CompAction;
 import pixelitor.filters.Filter;
-import pixelitor.gui.PixelitorWindow;
 import pixelitor.layers.Drawable;
 
-import java.util.concurrent.CompletableFuture;
-
-import static pixelitor.ChangeReason.BATCH_AUTOMATE;
 import static pixelitor.automate.BatchFilterWizardPage.SELECT_FILTER_AND_DIRS;
 
 /**
@@ -40,14 +35,8 @@ public class BatchFilterWizard extends Wizard {
 
     @Override
     protected void finalAction() {
-        var busyCursorParent = PixelitorWindow.getInstance();
         var dialogTitle = "Batch Filter Progress";
-
-        CompAction batchFilterAction = comp -> {
-            filter.run(comp.getActiveDrawableOrThrow(), BATCH_AUTOMATE, busyCursorParent);
-            return CompletableFuture.completedFuture(comp);
-        };
-        Automate.processEachFile(batchFilterAction, dialogTitle);
+        Automate.processEachFile(new BatchFilterStep(filter), dialogTitle);
     }
 
     @Override
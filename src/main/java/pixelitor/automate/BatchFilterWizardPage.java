@@ -21,6 +21,7 @@ import org.jdesktop.swingx.VerticalLayout;
 import pixelitor.filters.Filter;
 import pixelitor.filters.FilterAction;
 import pixelitor.filters.FilterUtils;
+import pixelitor.filters.gui.AsyncFilterPreview;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.io.FileFormat;
 import pixelitor.layers.Drawable;
@@ -115,6 +116,7 @@ public enum BatchFilterWizardPage implements WizardPage {
         @Override
         public void onWizardCanceled(Drawable dr) {
             // we get here only if the chosen filter is a filter with GUI
+            AsyncFilterPreview.cancel();
             dr.onFilterDialogCanceled();
         }
 
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.compactions.CompAction;
+import pixelitor.io.IO;
+import pixelitor.io.SaveSettings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Batch processes files in three stages (decoding, processing with a
+ * {@link CompAction} and encoding), each with its own worker threads,
+ * so that several files are in flight at once. The stages are connected
+ * by bounded queues, and the decoded images must fit into a memory
+ * budget, which is a fraction of the free heap at the start.
+ */
+class BatchPipeline {
+    // the fraction of the free heap that can be used by the images in flight
+    private static final double HEAP_FRACTION = 0.5;
+
+    // a processed image can need more memory than the decoded one,
+    // because the result of a step is calculated while the source still exists
+    private static final int MEMORY_PER_IMAGE_BYTE = 3;
+
+    // marks the end of the input in a queue
+    private static final Job END = new Job(null, null);
+
+    private final List<File> inputFiles;
+    private final CompAction action;
+    private final Function<File, SaveSettings> outputMapper;
+    private final Listener listener;
+
+    private final Stage decodeStage;
+    private final Stage processStage;
+    private final Stage encodeStage;
+
+    // the memory budget in kilobytes
+    private final int budgetKB;
+    private final Semaphore memoryBudget;
+    private final AtomicInteger nextInput = new AtomicInteger();
+    private final AtomicInteger filesInFlight = new AtomicInteger();
+    private int maxFilesInFlight;
+    private final AtomicInteger numFailed = new AtomicInteger();
+    private volatile boolean canceled = false;
+
+    /**
+     * Receives the results of the files, on the worker threads
+     */
+    interface Listener {
+        void fileFinished(File input, File output);
+
+        void fileFailed(File input, Throwable cause);
+    }
+
+    /**
+     * The output mapper returns the save settings for an input file,
+     * or null if the file should be skipped
+     */
+    BatchPipeline(List<File> inputFiles, CompAction action,
+                  Function<File, SaveSettings> outputMapper, Listener listener) {
+        this.inputFiles = inputFiles;
+        this.action = action;
+        this.outputMapper = outputMapper;
+        this.listener = listener;
+
+        int numWorkers = Math.max(1, ThreadPool.getNumCores() / 2);
+        decodeStage = new Stage("decode", numWorkers);
+        processStage = new Stage("process", numWorkers);
+        encodeStage = new Stage("encode", numWorkers);
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        long freeMemory = runtime.maxMemory() - usedMemory;
+        budgetKB = (int) Math.min(Integer.MAX_VALUE, (long) (freeMemory * HEAP_FRACTION / 1024));
+        memoryBudget = new Semaphore(budgetKB);
+    }
+
+    /**
+     * Processes all files and returns when they are finished
+     * or after cancelling, when the files in flight are dropped.
+     */
+    void run() throws InterruptedException {
+        // each queue can hold a job for each worker of the next stage
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(processStage.numWorkers);
+        BlockingQueue<Job> processed = new ArrayBlockingQueue<>(encodeStage.numWorkers);
+
+        List<Thread> decoders = decodeStage.start(() -> decodeFiles(decoded));
+        List<Thread> processors = processStage.start(() -> processJobs(decoded, processed));
+        List<Thread> encoders = encodeStage.start(() -> encodeJobs(processed));
+
+        joinAll(decoders);
+        endQueue(decoded, processStage.numWorkers);
+        joinAll(processors);
+        endQueue(processed, encodeStage.numWorkers);
+        joinAll(encoders);
+    }
+
+    void cancel() {
+        canceled = true;
+    }
+
+    int getNumFailed() {
+        return numFailed.get();
+    }
+
+    private void decodeFiles(BlockingQueue<Job> decoded) {
+        while (!canceled) {
+            int index = nextInput.getAndIncrement();
+            if (index >= inputFiles.size()) {
+                return;
+            }
+            File input = inputFiles.get(index);
+            SaveSettings saveSettings = outputMapper.apply(input);
+            if (saveSettings == null) {
+                continue; // skipped
+            }
+
+            Job job = new Job(input, saveSettings);
+            try {
+                long startTime = System.nanoTime();
+                job.comp = IO.loadComp(input);
+                if (job.comp == null) {
+                    // some decoding errors are reported while reading
+                    throw new IllegalStateException("Could not load " + input.getName());
+                }
+                decodeStage.fileDone(startTime);
+            } catch (RuntimeException e) {
+                fail(job, e);
+                continue;
+            }
+
+            // wait here if the images in flight use up the memory budget
+            job.memoryKB = Math.min(budgetKB, estimateMemoryKB(job.comp));
+            memoryBudget.acquireUninterruptibly(job.memoryKB);
+            updateFilesInFlight(filesInFlight.incrementAndGet());
+            putUninterruptibly(decoded, job);
+        }
+    }
+
+    private void processJobs(BlockingQueue<Job> decoded, BlockingQueue<Job> processed) {
+        for (Job job = takeUninterruptibly(decoded); job != END; job = takeUninterruptibly(decoded)) {
+            if (canceled) {
+                release(job);
+                continue;
+            }
+            try {
+                long startTime = System.nanoTime();
+                job.comp = action.process(job.comp).join();
+                processStage.fileDone(startTime);
+            } catch (RuntimeException e) {
+                fail(job, e);
+                continue;
+            }
+            putUninterruptibly(processed, job);
+        }
+    }
+
+    private void encodeJobs(BlockingQueue<Job> processed) {
+        for (Job job = takeUninterruptibly(processed); job != END; job = takeUninterruptibly(processed)) {
+            if (canceled) {
+                release(job);
+                continue;
+            }
+            try {
+                long startTime = System.nanoTime();
+                var format = job.saveSettings.getFormat();
+                format.getSaveTask(job.comp, job.saveSettings).run();
+                encodeStage.fileDone(startTime);
+            } catch (RuntimeException e) {
+                fail(job, e);
+                continue;
+            }
+            release(job);
+            listener.fileFinished(job.input, job.saveSettings.getFile());
+        }
+    }
+
+    private void fail(Job job, RuntimeException e) {
+        release(job);
+        numFailed.incrementAndGet();
+        Throwable cause = e instanceof CompletionException && e.getCause() != null
+                ? e.getCause() : e;
+        listener.fileFailed(job.input, cause);
+    }
+
+    private void release(Job job) {
+        job.comp = null;
+        if (job.memoryKB > 0) {
+            memoryBudget.release(job.memoryKB);
+            job.memoryKB = 0;
+            filesInFlight.decrementAndGet();
+        }
+    }
+
+    private synchronized void updateFilesInFlight(int numFiles) {
+        maxFilesInFlight = Math.max(maxFilesInFlight, numFiles);
+    }
+
+    private static int estimateMemoryKB(Composition comp) {
+        var canvas = comp.getCanvas();
+        long bytes = 4L * canvas.getWidth() * canvas.getHeight()
+                * Math.max(1, comp.getNumLayers()) * MEMORY_PER_IMAGE_BYTE;
+        return (int) Math.min(Integer.MAX_VALUE, bytes / 1024 + 1);
+    }
+
+    private static void endQueue(BlockingQueue<Job> queue, int numConsumers) {
+        for (int i = 0; i < numConsumers; i++) {
+            putUninterruptibly(queue, END);
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Job> queue, Job job) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(job);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Job takeUninterruptibly(BlockingQueue<Job> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void joinAll(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Returns the throughput of the stages, the number
+     * of files in flight and the memory budget
+     */
+    String getMetrics() {
+        return String.join("\n",
+                decodeStage.getMetrics(),
+                processStage.getMetrics(),
+                encodeStage.getMetrics(),
+                format("at most %d files in flight, memory budget = %d MB",
+                        maxFilesInFlight, budgetKB / 1024));
+    }
+
+    /**
+     * A file moving through the stages
+     */
+    private static class Job {
+        private final File input;
+        private final SaveSettings saveSettings;
+        private Composition comp;
+        private int memoryKB;
+
+        private Job(File input, SaveSettings saveSettings) {
+            this.input = input;
+            this.saveSettings = saveSettings;
+        }
+    }
+
+    /**
+     * The worker threads and the metrics of a stage
+     */
+    private static class Stage {
+        private final String name;
+        private final int numWorkers;
+        private final AtomicInteger numFiles = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private long startTime;
+        private long endTime;
+
+        private Stage(String name, int numWorkers) {
+            this.name = name;
+            this.numWorkers = numWorkers;
+        }
+
+        private List<Thread> start(Runnable work) {
+            startTime = System.nanoTime();
+            List<Thread> threads = new ArrayList<>(numWorkers);
+            for (int i = 0; i < numWorkers; i++) {
+                Thread thread = new Thread(() -> {
+                    work.run();
+                    workerFinished();
+                }, "[Batch " + name + " " + (i + 1) + "]");
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            return threads;
+        }
+
+        private synchronized void workerFinished() {
+            endTime = Math.max(endTime, System.nanoTime());
+        }
+
+        private void fileDone(long fileStartTime) {
+            busyNanos.addAndGet(System.nanoTime() - fileStartTime);
+            numFiles.incrementAndGet();
+        }
+
+        private synchronized String getMetrics() {
+            int files = numFiles.get();
+            double busyMillis = busyNanos.get() / 1_000_000.0;
+            double seconds = (endTime - startTime) / 1_000_000_000.0;
+            return format("%-7s: %d files, %.1f ms/file, %.1f files/s, workers = %d",
+                    name, files,
+                    files == 0 ? 0.0 : busyMillis / files,
+                    seconds <= 0 ? 0.0 : files / seconds, numWorkers);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.RunContext;
+import pixelitor.compactions.CompAction;
+import pixelitor.compactions.Resize;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterAction;
+import pixelitor.filters.FilterUtils;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.ParamSet;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.io.JpegInfo;
+import pixelitor.io.JpegSettings;
+import pixelitor.io.PngCompression;
+import pixelitor.io.PngSettings;
+import pixelitor.io.SaveSettings;
+import pixelitor.menus.MenuBar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.lang.String.format;
+
+/**
+ * Batch processing from the command line, without a GUI.
+ * The files are loaded without creating views, the steps
+ * (resizing and filters) are applied in the order in which
+ * they are given, and the progress is printed to the standard output.
+ */
+public class HeadlessBatch {
+    public static final String COMMAND_LINE_FLAG = "--batch";
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED_FILES = 1;
+    private static final int EXIT_USAGE_ERROR = 2;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: pixelitor --batch [options] <input files or folders>",
+            "Options:",
+            "  --out <folder>         the output folder (required)",
+            "  --format <format>      the output format: jpg, png, tiff, gif, bmp, ora",
+            "                         or pxc (default: the format of the input file)",
+            "  --quality <0-100>      the JPEG quality",
+            "  --png-compression <fast|balanced|small>",
+            "                         the PNG compression (default: balanced)",
+            "  --overwrite            overwrite the existing output files",
+            "  --resize <W>x<H>       resize to fit into the given size",
+            "  --filter \"<name>[; <param> = <value>]...\"",
+            "                         run the filter with the given parameter values",
+            "  --preset <file>        read options from a file, one option per line",
+            "                         without the leading dashes, for example",
+            "                         \"filter Gaussian Blur; Radius = 5\"",
+            "  --list-filters         print the names of the filters",
+            "The steps (resize and filter) are run in the order they are given.");
+
+    private final List<CompAction> steps = new ArrayList<>();
+    private final List<File> inputFiles = new ArrayList<>();
+    private File outputDir;
+    private FileFormat outputFormat; // null if the input format is kept
+    private JpegInfo jpegInfo = JpegInfo.DEFAULTS;
+    private PngCompression pngCompression = PngCompression.BALANCED;
+    private boolean overwrite = false;
+
+    private HeadlessBatch() {
+    }
+
+    /**
+     * Runs the batch processing described by the given
+     * command-line arguments, and returns the exit code.
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        RunContext.CURRENT = RunContext.HEADLESS_BATCH;
+
+        var batch = new HeadlessBatch();
+        try {
+            if (!batch.parseArgs(args)) {
+                return EXIT_OK; // only information was requested
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Use --batch --help to see the options");
+            return EXIT_USAGE_ERROR;
+        }
+        return batch.processFiles();
+    }
+
+    /**
+     * Returns false if there is nothing to process
+     */
+    private boolean parseArgs(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("No arguments");
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help")) {
+                System.out.println(USAGE);
+                return false;
+            } else if (arg.equals("--list-filters")) {
+                listFilters();
+                return false;
+            } else if (arg.startsWith("--")) {
+                String option = arg.substring(2);
+                if (takesArgument(option)) {
+                    if (i + 1 == args.length) {
+                        throw new IllegalArgumentException("Missing argument for " + arg);
+                    }
+                    i++;
+                    parseOption(option, args[i]);
+                } else {
+                    parseOption(option, null);
+                }
+            } else {
+                addInput(new File(arg));
+            }
+        }
+
+        if (outputDir == null) {
+            throw new IllegalArgumentException("No output folder");
+        }
+        if (inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("No input files");
+        }
+        return true;
+    }
+
+    private static boolean takesArgument(String option) {
+        return !option.equals("overwrite");
+    }
+
+    private void parseOption(String option, String value) {
+        switch (option) {
+            case "out":
+                outputDir = new File(value);
+                if (!outputDir.isDirectory()) {
+                    throw new IllegalArgumentException(outputDir + " is not a folder");
+                }
+                break;
+            case "format":
+                outputFormat = FileFormat.fromExtension(value).orElseThrow(() ->
+                        new IllegalArgumentException("Unknown format: " + value));
+                break;
+            case "quality":
+                int quality = parseInt(value, "quality");
+                if (quality < 0 || quality > 100) {
+                    throw new IllegalArgumentException("The quality must be between 0 and 100");
+                }
+                jpegInfo = new JpegInfo(quality / 100.0f, false);
+                break;
+            case "png-compression":
+                pngCompression = parsePngCompression(value);
+                break;
+            case "overwrite":
+                overwrite = true;
+                break;
+            case "resize":
+                steps.add(parseResize(value));
+                break;
+            case "filter":
+                steps.add(parseFilter(value));
+                break;
+            case "preset":
+                parsePreset(new File(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + option);
+        }
+    }
+
+    private static PngCompression parsePngCompression(String value) {
+        for (PngCompression compression : PngCompression.values()) {
+            if (compression.name().equalsIgnoreCase(value.trim())) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown PNG compression: " + value);
+    }
+
+    private static CompAction parseResize(String value) {
+        String[] size = value.toLowerCase().split("x");
+        if (size.length != 2) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+        int width = parseInt(size[0], "width");
+        int height = parseInt(size[1], "height");
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+        return new Resize(width, height, true);
+    }
+
+    private static int parseInt(String value, String what) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Invalid %s: %s", what, value), e);
+        }
+    }
+
+    /**
+     * Parses a filter specification like "Gaussian Blur; Radius = 5"
+     */
+    private static CompAction parseFilter(String spec) {
+        String[] parts = spec.split(";");
+        Filter filter = findFilter(parts[0].trim());
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].isBlank()) {
+                continue;
+            }
+            String[] nameAndValue = parts[i].split("=", 2);
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException(format(
+                        "Expected <param> = <value> in \"%s\"", parts[i].trim()));
+            }
+            values.put(nameAndValue[0].trim(), nameAndValue[1].trim());
+        }
+
+        if (filter instanceof ParametrizedFilter) {
+            // check the values now, before processing any files
+            ParamSet paramSet = ((ParametrizedFilter) filter).getParamSet();
+            values.forEach(paramSet::setValueFromText);
+        } else if (!values.isEmpty()) {
+            throw new IllegalArgumentException(format(
+                    "The parameters of %s can't be set", filter.getName()));
+        }
+        return new BatchFilterStep(filter, values);
+    }
+
+    private static Filter findFilter(String name) {
+        MenuBar.registerFilters();
+        for (FilterAction action : FilterUtils.getAllFiltersSorted()) {
+            if (action.getName().equalsIgnoreCase(name)
+                    || action.getListName().equalsIgnoreCase(name)) {
+                return action.getFilter();
+            }
+        }
+        throw new IllegalArgumentException(format(
+                "Unknown filter: \"%s\", use --list-filters to see the filters", name));
+    }
+
+    private static void listFilters() {
+        MenuBar.registerFilters();
+        for (FilterAction action : FilterUtils.getAllFiltersSorted()) {
+            System.out.println(action.getListName());
+        }
+    }
+
+    private void parsePreset(File file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the preset " + file, e);
+        }
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] optionAndValue = line.split("\\s+", 2);
+            String option = optionAndValue[0];
+            if (takesArgument(option) && optionAndValue.length < 2) {
+                throw new IllegalArgumentException(format(
+                        "Missing argument for %s in %s", option, file));
+            }
+            parseOption(option, optionAndValue.length > 1 ? optionAndValue[1] : null);
+        }
+    }
+
+    private void addInput(File input) {
+        if (input.isDirectory()) {
+            inputFiles.addAll(FileUtils.listSupportedInputFilesIn(input));
+        } else if (input.isFile()) {
+            inputFiles.add(input);
+        } else {
+            throw new IllegalArgumentException(input + " does not exist");
+        }
+    }
+
+    private int processFiles() {
+        long startTime = System.nanoTime();
+        int numFiles = inputFiles.size();
+        var pipeline = new BatchPipeline(inputFiles, this::createCompAction,
+                this::calcSaveSettings, new ProgressPrinter(numFiles));
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        int numFailed = pipeline.getNumFailed();
+        System.out.println(pipeline.getMetrics());
+        System.out.printf("Processed %d files in %.1f s, %d failed%n",
+                numFiles, seconds, numFailed);
+        return numFailed == 0 ? EXIT_OK : EXIT_FAILED_FILES;
+    }
+
+    /**
+     * Runs the steps one after the other
+     */
+    private CompletableFuture<Composition> createCompAction(Composition comp) {
+        CompletableFuture<Composition> result = CompletableFuture.completedFuture(comp);
+        for (CompAction step : steps) {
+            result = result.thenCompose(step::process);
+        }
+        return result;
+    }
+
+    /**
+     * Returns null if the output file exists and it shouldn't be overwritten
+     */
+    private SaveSettings calcSaveSettings(File input) {
+        FileFormat format = outputFormat;
+        if (format == null) {
+            format = FileFormat.fromFile(input).orElse(FileFormat.PNG);
+        }
+        String outFileName = FileUtils.replaceExt(input.getName(), format.toString());
+        File output = new File(outputDir, outFileName);
+        if (output.exists() && !overwrite) {
+            System.out.println(input.getName() + ": skipped, " + output + " exists");
+            return null;
+        }
+        return createSaveSettings(format, output);
+    }
+
+    private SaveSettings createSaveSettings(FileFormat format, File output) {
+        if (format == FileFormat.JPG) {
+            return new JpegSettings(jpegInfo, output);
+        }
+        if (format == FileFormat.PNG) {
+            return new PngSettings(pngCompression, output);
+        }
+        return new SaveSettings(format, output);
+    }
+
+    /**
+     * Prints a line for each finished file, in the order of finishing
+     */
+    private static class ProgressPrinter implements BatchPipeline.Listener {
+        private final int numFiles;
+        private int numDone = 0;
+
+        private ProgressPrinter(int numFiles) {
+            this.numFiles = numFiles;
+        }
+
+        @Override
+        public synchronized void fileFinished(File input, File output) {
+            numDone++;
+            System.out.printf("[%d/%d] %s -> %s%n", numDone, numFiles, input.getName(), output);
+        }
+
+        @Override
+        public synchronized void fileFailed(File input, Throwable cause) {
+            numDone++;
+            System.out.printf("[%d/%d] %s: failed%n", numDone, numFiles, input.getName());
+            System.err.println(input + ": " + cause);
+        }
+    }
+}
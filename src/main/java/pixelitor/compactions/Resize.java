@@ -83,6 +83,15 @@ public class Resize implements CompAction {
         }
         Dimension targetSize = new Dimension(canvasTargetWidth, canvasTargetHeight);
 
+        if (oldComp.getView() == null) {
+            // processed without a GUI, there is no history and no progress bar
+            return CompletableFuture
+                    .supplyAsync(() -> oldComp.createCopy(true, true),
+                            ThreadPool.getExecutor())
+                    .thenCompose(newComp -> resizeLayers(newComp, targetSize))
+                    .thenApply(newComp -> afterHeadlessResize(newComp, targetSize));
+        }
+
         // The resize runs outside the EDT so that the progress bar animation
         // can update and multiple resizing operations can run in parallel
         var progressHandler = Messages.startProgress("Resizing", -1);
@@ -142,6 +151,13 @@ public class Resize implements CompAction {
         return newComp;
     }
 
+    private static Composition afterHeadlessResize(Composition newComp, Dimension canvasTarget) {
+        Canvas newCanvas = newComp.getCanvas();
+        newComp.imCoordsChanged(createCanvasTransform(canvasTarget, newCanvas), false);
+        newCanvas.changeSize(canvasTarget.width, canvasTarget.height, null);
+        return newComp;
+    }
+
     private static AffineTransform createCanvasTransform(Dimension targetSize, Canvas newCanvas) {
         double sx = targetSize.width / (double) newCanvas.getWidth();
         double sy = targetSize.height / (double) newCanvas.getHeight();
@@ -104,4 +104,9 @@ public class BrightnessContrast extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+}
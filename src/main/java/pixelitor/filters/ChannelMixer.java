@@ -456,4 +456,9 @@ public class ChannelMixer extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+}
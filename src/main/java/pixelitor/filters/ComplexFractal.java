@@ -43,7 +43,7 @@ public abstract class ComplexFractal extends ParametrizedFilter {
     private static final int AA_NONE = 1;
     private static final int AA_2x2 = 2;
 
-    protected final LogZoomParam zoomParam = new LogZoomParam("Log(Zoom)", 200, 200, 1000);
+    protected final LogZoomParam zoomParam = new LogZoomParam("Log(Zoom)", 200, 200, 2000);
     protected final ImagePositionParam zoomCenter;
     protected final RangeParam iterationsParam;
     private final IntChoiceParam colorsParam = new IntChoiceParam("Colors", new Value[]{
@@ -97,6 +97,12 @@ public abstract class ComplexFractal extends ParametrizedFilter {
         }
     }
 
+    @Override
+    public int getMinPixelsForProxyPreview() {
+        // deep zooms with many iterations can be slow even for small images
+        return 250_000;
+    }
+
     protected abstract BufferedImage doTransformAA(BufferedImage src, BufferedImage dest);
 
     protected int[] createColors(int maxIterations) {
@@ -109,32 +109,43 @@ public abstract class Filter implements Serializable {
             } else {
                 dr.filterWithoutDialogFinished(dest, cr, getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
-            Layer layer = (Layer) dr;
-            if (layer instanceof LayerMask) {
-                layer = layer.getOwner();
-            }
-            String msg = String.format(
-                    "Error while running the filter '%s'\n" +
-                            "composition = '%s'\n" +
-                            "layer = '%s' (%s)\n" +
-                            "hasMask = '%s'\n" +
-                            "mask editing = '%b'",
-                    getName(), layer.getComp()
-                            .getName(),
-                    layer.getName(), layer.getClass()
-                            .getSimpleName(),
-                    layer.hasMask(), layer.isMaskEditing());
-
-
-            var ise = new IllegalStateException(msg, e);
-            if (RandomGUITest.isRunning()) {
-                throw ise; // we can debug the exact filter parameters only in RandomGUITest
-            }
-            Messages.showException(ise);
+            handleError(dr, e);
+        }
+    }
+
+    /**
+     * Shows the given error, which was thrown while
+     * running this filter on the given {@link Drawable}
+     */
+    public void handleError(Drawable dr, Throwable e) {
+        if (e instanceof OutOfMemoryError) {
+            Dialogs.showOutOfMemoryDialog((OutOfMemoryError) e);
+            return;
+        }
+
+        Layer layer = (Layer) dr;
+        if (layer instanceof LayerMask) {
+            layer = layer.getOwner();
+        }
+        String msg = String.format(
+                "Error while running the filter '%s'\n" +
+                        "composition = '%s'\n" +
+                        "layer = '%s' (%s)\n" +
+                        "hasMask = '%s'\n" +
+                        "mask editing = '%b'",
+                getName(), layer.getComp()
+                        .getName(),
+                layer.getName(), layer.getClass()
+                        .getSimpleName(),
+                layer.hasMask(), layer.isMaskEditing());
+
+
+        var ise = new IllegalStateException(msg, e);
+        if (RandomGUITest.isRunning()) {
+            throw ise; // we can debug the exact filter parameters only in RandomGUITest
         }
+        Messages.showException(ise);
     }
 
     public BufferedImage transformImage(BufferedImage src) {
@@ -168,6 +179,10 @@ public abstract class Filter implements Serializable {
         this.filterAction = filterAction;
     }
 
+    protected FilterAction getFilterAction() {
+        return filterAction;
+    }
+
     public String getName() {
         if (filterAction != null) {
             return filterAction.getName();
@@ -189,4 +204,24 @@ public abstract class Filter implements Serializable {
     public boolean supportsGray() {
         return true;
     }
+
+    /**
+     * Whether each destination pixel depends only on the color
+     * of the source pixel at the same position (and not on the
+     * neighbouring pixels, the position or the image size).
+     * Such filters can be applied independently to any region
+     * of an image, and the regions can be processed in parallel.
+     */
+    public boolean isPointwise() {
+        return false;
+    }
+
+    /**
+     * The image size (in pixels) above which the preview first
+     * shows a quick, low-resolution result. Slow filters
+     * can override it to give feedback sooner.
+     */
+    public int getMinPixelsForProxyPreview() {
+        return 4_000_000;
+    }
 }
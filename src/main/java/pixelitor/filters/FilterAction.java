@@ -73,11 +73,20 @@ public class FilterAction extends DrawableAction {
 
     private void createFilter() {
         if (filter == null) {
-            filter = filterSupplier.get();
-            filter.setFilterAction(this);
+            filter = createNewFilter();
         }
     }
 
+    /**
+     * Creates a new filter instance (with the default settings),
+     * independent of the one used by this action
+     */
+    public Filter createNewFilter() {
+        Filter newFilter = filterSupplier.get();
+        newFilter.setFilterAction(this);
+        return newFilter;
+    }
+
     public Filter getFilter() {
         createFilter();
         return filter;
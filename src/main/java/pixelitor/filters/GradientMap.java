@@ -78,4 +78,9 @@ public class GradientMap extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+}
@@ -57,8 +57,7 @@ public class JuliaSet extends ComplexFractal {
         filter.setColors(createColors(iterations));
         filter.setMaxIterations(iterations);
 
-        filter.setCy(cParam.getValueAsDPercentage(0));
-        filter.setCx(cParam.getValueAsDPercentage(1));
+        filter.setC(cParam.getValueAsDPercentage(0), cParam.getValueAsDPercentage(1));
 
         return filter.filter(src, dest);
     }
@@ -69,24 +68,17 @@ class JuliaSetImpl extends ComplexFractalImpl {
     private double cy;
 
     protected JuliaSetImpl() {
-        super(JuliaSet.NAME, -2.0f,  2.0f, -1.2f, 1.2f);
+        super(JuliaSet.NAME, -2.0f,  2.0f, -1.2f, 1.2f, false);
     }
 
     @Override
-    public int filterRGB(int x, int y, int rgb) {
-        double zx = cxStart + x * xMultiplier;
-        double zy = cyStart + y * yMultiplier;
-
-        return calcIteratedColor(zx, zy, cx, cy);
+    protected int calcIterations(double zx, double zy) {
+        return iterate(zx, zy, cx, cy);
     }
 
-    public void setCy(double cx) {
+    public void setC(double cx, double cy) {
         this.cx = cx;
-    }
-
-    public void setCx(double cy) {
         this.cy = cy;
+        setConstant(cx, cy);
     }
 }
-
-
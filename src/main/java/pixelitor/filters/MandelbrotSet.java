@@ -51,26 +51,18 @@ public class MandelbrotSet extends ComplexFractal {
 
 class MandelbrotSetImpl extends ComplexFractalImpl {
     protected MandelbrotSetImpl() {
-        super(MandelbrotSet.NAME, -2.2f, 0.7f, -1.2f, 1.2f);
+        super(MandelbrotSet.NAME, -2.2f, 0.7f, -1.2f, 1.2f, true);
     }
 
     @Override
-    public int filterRGB(int x, int y, int rgb) {
-        // start with the complex number (0, 0)
-        double zx = 0;
-        double zy = 0;
-
-        // the complex constant c, mapped from image coordinates
-        double cx = cxStart + x * xMultiplier;
-        double cy = cyStart + y * yMultiplier;
-
+    protected int calcIterations(double cx, double cy) {
         // before going into the escape time algorithm,
         // first two possible shortcuts:
 
         // 1. check if the point is in the period-2 bulb
         if (cx < -0.75 && cx > -1.25 && cy < 0.28 && cy > -0.28) { // approx. check
             if ((cx + 1) * (cx + 1) + cy * cy < 1 / 16.0) { // exact check
-                return colors[0];
+                return 0;
             }
         }
 
@@ -80,12 +72,11 @@ class MandelbrotSetImpl extends ComplexFractalImpl {
             double cy2 = cy * cy;
             double q = cm * cm + cy2;
             if (q * (q + cm) < cy2 / 4.0) { // exact check
-                return colors[0];
+                return 0;
             }
         }
 
-        return calcIteratedColor(zx, zy, cx, cy);
+        // start with the complex number (0, 0)
+        return iterate(0, 0, cx, cy);
     }
 }
-
-
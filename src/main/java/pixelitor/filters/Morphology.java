@@ -22,12 +22,14 @@ import pixelitor.filters.gui.IntChoiceParam.Value;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
 import pixelitor.filters.impl.MorphologyFilter;
-import pixelitor.utils.StatusBarProgressTracker;
 
 import java.awt.image.BufferedImage;
 
+import static pixelitor.filters.impl.MorphologyFilter.OP_CLOSE;
 import static pixelitor.filters.impl.MorphologyFilter.OP_DILATE;
 import static pixelitor.filters.impl.MorphologyFilter.OP_ERODE;
+import static pixelitor.filters.impl.MorphologyFilter.OP_GRADIENT;
+import static pixelitor.filters.impl.MorphologyFilter.OP_OPEN;
 
 /**
  * A morphology filter
@@ -35,10 +37,7 @@ import static pixelitor.filters.impl.MorphologyFilter.OP_ERODE;
 public class Morphology extends ParametrizedFilter {
     public static final String NAME = "Morphology";
 
-    private static final int OP_OPEN = 10;
-    private static final int OP_CLOSE = 11;
-
-    private final RangeParam radius = new RangeParam("Radius", 1, 1, 21);
+    private final RangeParam radius = new RangeParam("Radius", 1, 1, 100);
     private final IntChoiceParam kernel = new IntChoiceParam("Kernel Shape", new Value[]{
             new Value("Diamond", MorphologyFilter.KERNEL_DIAMOND),
             new Value("Square", MorphologyFilter.KERNEL_SQUARE),
@@ -48,6 +47,7 @@ public class Morphology extends ParametrizedFilter {
             new Value("Minimum (Erode)", OP_ERODE),
             new Value("Open (Erode, then Dilate)", OP_OPEN),
             new Value("Close (Dilate, then Erode)", OP_CLOSE),
+            new Value("Gradient (Dilate minus Erode)", OP_GRADIENT),
     });
 
     public Morphology() {
@@ -60,36 +60,10 @@ public class Morphology extends ParametrizedFilter {
     public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
         var filter = new MorphologyFilter(NAME);
 
-        int iterations = radius.getValue();
-        filter.setIterations(iterations);
+        filter.setIterations(radius.getValue());
         filter.setKernel(kernel.getValue());
+        filter.setOp(op.getValue());
 
-        int selectedOp = op.getValue();
-
-        if (selectedOp == OP_DILATE || selectedOp == OP_ERODE) {
-            filter.setOp(selectedOp);
-            dest = filter.filter(src, dest);
-        } else {
-            var pt = new StatusBarProgressTracker(NAME, 2 * iterations);
-            filter.setProgressTracker(pt);
-
-            if (selectedOp == OP_OPEN) {
-                filter.setOp(OP_ERODE);
-                dest = filter.filter(src, dest);
-                filter.setOp(OP_DILATE);
-                dest = filter.filter(dest, dest);
-            } else if (selectedOp == OP_CLOSE) {
-                filter.setOp(OP_DILATE);
-                dest = filter.filter(src, dest);
-                filter.setOp(OP_ERODE);
-                dest = filter.filter(dest, dest);
-            } else {
-                throw new IllegalStateException("selectedOp = " + selectedOp);
-            }
-
-            pt.finished();
-        }
-
-        return dest;
+        return filter.filter(src, dest);
     }
 }
@@ -102,6 +102,28 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
         return paramSet;
     }
 
+    /**
+     * Returns a new instance of this filter with the same settings,
+     * which can run on another thread at the same time as this one,
+     * or null if the settings can't be copied (for example because
+     * the filter has a random seed outside its parameters).
+     */
+    public ParametrizedFilter copy() {
+        FilterAction filterAction = getFilterAction();
+        if (filterAction == null || paramSet.changesHiddenState()) {
+            return null;
+        }
+        Filter newFilter = filterAction.createNewFilter();
+        if (newFilter.getClass() != getClass()) {
+            return null;
+        }
+        var copy = (ParametrizedFilter) newFilter;
+        if (!copy.paramSet.copyValuesFrom(paramSet)) {
+            return null;
+        }
+        return copy;
+    }
+
     public void setAffectedAreaShapes(Shape[] affectedAreaShapes) {
         this.affectedAreaShapes = affectedAreaShapes;
     }
@@ -18,6 +18,7 @@
 package pixelitor.filters;
 
 import pixelitor.OpenImages;
+import pixelitor.filters.gui.AsyncFilterPreview;
 import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.layers.Drawable;
@@ -81,6 +82,9 @@ public class RandomFilterGUI extends FilterGUI {
     }
 
     private void showFilter(Filter newFilter) {
+        // the preview of the previous filter is not needed anymore
+        AsyncFilterPreview.cancel();
+
         if (lastFilterPanel != null) {
             realSettingsPanel.remove(lastFilterPanel);
         }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import pixelitor.filters.gui.IntChoiceParam;
+import pixelitor.filters.gui.IntChoiceParam.Value;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.gui.ShowOriginal;
+import pixelitor.filters.impl.RankFilter;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A median, minimum, maximum or percentile
+ * filter with an adjustable radius
+ */
+public class Rank extends ParametrizedFilter {
+    public static final String NAME = "Median and Rank";
+
+    private static final int TYPE_MEDIAN = 1;
+    private static final int TYPE_MINIMUM = 2;
+    private static final int TYPE_MAXIMUM = 3;
+    private static final int TYPE_PERCENTILE = 4;
+
+    private final RangeParam radius = new RangeParam("Radius", 1, 2, 50);
+    private final IntChoiceParam type = new IntChoiceParam("Type", new Value[]{
+            new Value("Median", TYPE_MEDIAN),
+            new Value("Minimum", TYPE_MINIMUM),
+            new Value("Maximum", TYPE_MAXIMUM),
+            new Value("Percentile", TYPE_PERCENTILE),
+    });
+    private final RangeParam percentile = new RangeParam("Percentile", 0, 50, 100);
+
+    public Rank() {
+        super(ShowOriginal.YES);
+
+        type.setupEnableOtherIf(percentile,
+                v -> v.getValue() == TYPE_PERCENTILE);
+        setParams(radius, type, percentile);
+    }
+
+    @Override
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        var filter = new RankFilter(NAME);
+        filter.setRadius(radius.getValue());
+
+        switch (type.getValue()) {
+            case TYPE_MEDIAN:
+                filter.setPercentile(RankFilter.MEDIAN);
+                break;
+            case TYPE_MINIMUM:
+                filter.setPercentile(RankFilter.MINIMUM);
+                break;
+            case TYPE_MAXIMUM:
+                filter.setPercentile(RankFilter.MAXIMUM);
+                break;
+            case TYPE_PERCENTILE:
+                filter.setPercentile(percentile.getPercentageValF());
+                break;
+            default:
+                throw new IllegalStateException("type = " + type.getValue());
+        }
+
+        return filter.filter(src, dest);
+    }
+}
@@ -152,4 +152,9 @@ public class Threshold extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
 }
@@ -20,24 +20,40 @@ import pd.AnimatedGifEncoder;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * An {@link AnimationWriter} implementation
  * that writes an animated GIF file
  */
 public class AnimGIFWriter implements AnimationWriter {
+    // the number of frames whose colors are used for the global palette
+    private static final int GLOBAL_PALETTE_SAMPLE_FRAMES = 8;
+
     private final AnimatedGifEncoder encoder;
 
     public AnimGIFWriter(File file, int delayMillis) {
+        this(file, delayMillis, false, false);
+    }
+
+    public AnimGIFWriter(File file, int delayMillis,
+                         boolean dither, boolean globalPalette) {
         encoder = new AnimatedGifEncoder();
+        encoder.setFrameDifferencing(true);
+        encoder.setDither(dither);
+        if (globalPalette) {
+            encoder.setGlobalPalette(GLOBAL_PALETTE_SAMPLE_FRAMES);
+        }
         encoder.start(file);
         encoder.setDelay(delayMillis);
         encoder.setRepeat(0);
     }
 
     @Override
-    public void addFrame(BufferedImage image) {
-        encoder.addFrame(image);
+    public void addFrame(BufferedImage image) throws IOException {
+        if (!encoder.addFrame(image)) {
+            throw new IOException("Could not write the GIF frame");
+        }
     }
 
     @Override
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.animation;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * An {@link AnimationWriter} decorator which writes the frames on
+ * a separate thread, so that the next frames can be rendered while
+ * the previous ones are encoded. At most the given number of frames
+ * are waiting, after that {@link #addFrame(BufferedImage)} blocks.
+ */
+class BackgroundAnimationWriter implements AnimationWriter {
+    // signals the writer thread that there are no more frames
+    private static final BufferedImage END_MARKER = new BufferedImage(1, 1, TYPE_INT_ARGB);
+
+    private final AnimationWriter writer;
+    private final BlockingQueue<BufferedImage> queue;
+    private final Thread thread;
+    private volatile Exception error;
+
+    BackgroundAnimationWriter(AnimationWriter writer, int maxWaitingFrames) {
+        this.writer = writer;
+        queue = new ArrayBlockingQueue<>(maxWaitingFrames);
+        thread = new Thread(this::writeFrames, "Animation Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void writeFrames() {
+        try {
+            while (true) {
+                BufferedImage frame = queue.take();
+                if (frame == END_MARKER) {
+                    return;
+                }
+                writer.addFrame(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            error = e;
+            // unblock the rendering thread, the frames are not needed anymore
+            queue.clear();
+        }
+    }
+
+    /**
+     * Queues the given frame for writing. The image must not be
+     * modified later. An exception thrown while writing
+     * an earlier frame is rethrown here.
+     */
+    @Override
+    public void addFrame(BufferedImage image) throws IOException {
+        checkError();
+        try {
+            while (!queue.offer(image, 100, MILLISECONDS)) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer");
+        }
+    }
+
+    /**
+     * Waits until the writer thread finishes. If discardWaiting is true,
+     * then the frames that were not written yet are discarded.
+     * This must be called before {@link #finish()} or {@link #cancel()}.
+     */
+    void waitForWriter(boolean discardWaiting) throws IOException {
+        if (discardWaiting) {
+            queue.clear();
+        }
+        try {
+            // the writer thread could stop because of an error
+            while (thread.isAlive() && !queue.offer(END_MARKER, 100, MILLISECONDS)) {
+                // try again
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer");
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        Exception e = error;
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        writer.cancel();
+    }
+
+    @Override
+    public void finish() {
+        writer.finish();
+    }
+}
@@ -17,6 +17,7 @@
 
 package pixelitor.filters.animation;
 
+import pixelitor.io.PngCompression;
 import pixelitor.io.TrackedIO;
 import pixelitor.utils.Messages;
 
@@ -45,7 +46,8 @@ public class PNGFileSequenceWriter implements AnimationWriter {
         fileSequenceNumber++;
         File outputFile = new File(outputDir, fileName);
 
-        TrackedIO.write(image, "PNG", outputFile);
+        // the fast compression, because there can be many big frames
+        TrackedIO.writePNG(image, outputFile, PngCompression.FAST);
         numWrittenImages++;
     }
 
@@ -17,17 +17,30 @@
 
 package pixelitor.filters.animation;
 
+import pixelitor.ThreadPool;
 import pixelitor.filters.Filter;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.CompositeState;
 import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.String.format;
 import static pixelitor.ChangeReason.TWEEN_PREVIEW;
@@ -36,6 +49,9 @@ import static pixelitor.ChangeReason.TWEEN_PREVIEW;
  * A SwingWorker for rendering the frames of a tween animation
  */
 class RenderTweenFramesTask extends SwingWorker<Void, Void> {
+    // the rendered frames that can wait for the writer thread
+    private static final int MAX_WAITING_FRAMES = 2;
+
     private final TweenAnimation animation;
     private final Drawable dr;
 
@@ -80,11 +96,10 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         int numFrames = animation.getNumFrames();
         ParametrizedFilter filter = animation.getFilter();
 
-        AnimationWriter animationWriter = animation.createAnimationWriter();
+        var animationWriter = new BackgroundAnimationWriter(
+                animation.createAnimationWriter(), MAX_WAITING_FRAMES);
         boolean canceled = false;
 
-        PixelitorWindow busyCursorParent = PixelitorWindow.getInstance();
-
         dr.tweenCalculatingStarted();
 
         int numTotalFrames = numFrames;
@@ -93,40 +108,30 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
             numTotalFrames = 2 * numFrames - 2;
         }
 
-        for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
-            if (isCancelled()) {
-                canceled = true;
-                break;
-            }
-            int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
-            setProgress(percentProgress);
-
-            double time;
-            if (frameNr < numFrames) { // ping: normal animation forwards
-                time = ((double) frameNr) / numFrames;
-            } else { // pong: animating backwards
-                // TODO we are calculating the same frames again
-                // they could be cached somewhere
-                // perhaps in an array of soft references with the
-                // calculated frames or in the case of file sequence
-                // output one could simply make copies of the files.
-                int effectiveFrame = 2 * (numFrames - 1) - frameNr;
-                time = ((double) effectiveFrame) / numFrames;
+        List<ParametrizedFilter> filterCopies = createFilterCopies(filter);
+        try {
+            if (filterCopies.isEmpty()) {
+                renderSequentially(filter, numTotalFrames, animationWriter);
+            } else {
+                renderInParallel(filterCopies, numTotalFrames, animationWriter);
             }
+            canceled = isCancelled();
+        } catch (InterruptedException e) {
+            canceled = true;
+        } catch (ExecutionException e) {
+            canceled = true;
+            Messages.showException(e.getCause());
+        } catch (Exception e) {
+            canceled = true;
+            Messages.showException(e);
+        }
 
-            try {
-                // first render the frame...
-                BufferedImage image = renderFrame(filter, time, busyCursorParent);
-
-                // ...then write the file
-                // TODO ideally while writing out the frame,
-                // the rendering of the next frame should be
-                // started on another thread
-                animationWriter.addFrame(image);
-            } catch (Exception e) {
+        try {
+            animationWriter.waitForWriter(canceled);
+        } catch (IOException e) {
+            if (!canceled) {
                 canceled = true;
                 Messages.showException(e);
-                break;
             }
         }
 
@@ -143,6 +148,140 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         });
     }
 
+    /**
+     * Returns the filters that can render frames at the same time,
+     * or an empty list if the given filter can't be copied.
+     */
+    private static List<ParametrizedFilter> createFilterCopies(ParametrizedFilter filter) {
+        int numCopies = ThreadPool.getNumCores();
+        List<ParametrizedFilter> copies = new ArrayList<>(numCopies);
+        if (numCopies < 2) {
+            return copies;
+        }
+        for (int i = 0; i < numCopies; i++) {
+            ParametrizedFilter copy = filter.copy();
+            if (copy == null) {
+                return List.of();
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Renders the frames one after the other with the filter
+     * used in the wizard, but the writing still runs in the background.
+     */
+    private void renderSequentially(ParametrizedFilter filter, int numTotalFrames,
+                                    AnimationWriter animationWriter) throws IOException {
+        PixelitorWindow busyCursorParent = PixelitorWindow.getInstance();
+
+        for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
+            if (isCancelled()) {
+                return;
+            }
+            setProgress((int) ((100.0 * frameNr) / numTotalFrames));
+
+            double time = calcTime(frameNr);
+            BufferedImage image = renderFrame(filter, time, busyCursorParent);
+            animationWriter.addFrame(image);
+        }
+    }
+
+    /**
+     * Renders the filtered images of several frames at the same time,
+     * each with its own copy of the filter. The finished images are
+     * taken in the frame order, and the number of submitted but not
+     * yet taken images is limited, so that the memory usage is bounded.
+     */
+    private void renderInParallel(List<ParametrizedFilter> filterCopies, int numTotalFrames,
+                                  AnimationWriter animationWriter)
+            throws IOException, InterruptedException, ExecutionException {
+        int numThreads = filterCopies.size();
+        BlockingQueue<ParametrizedFilter> idleFilters = new ArrayBlockingQueue<>(numThreads);
+        idleFilters.addAll(filterCopies);
+        String filterName = filterCopies.get(0).getName();
+
+        BufferedImage[] srcHolder = new BufferedImage[1];
+        GUIUtils.invokeAndWait(() -> srcHolder[0] = dr.getFilterSourceImage());
+        BufferedImage src = srcHolder[0];
+
+        ExecutorService renderers = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "Tween Frame Renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int maxPendingFrames = 2 * numThreads;
+        Deque<Future<BufferedImage>> pendingFrames = new ArrayDeque<>(maxPendingFrames);
+        int nextFrameToSubmit = 0;
+        try {
+            for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
+                while (nextFrameToSubmit < numTotalFrames
+                        && pendingFrames.size() < maxPendingFrames) {
+                    double time = calcTime(nextFrameToSubmit);
+                    pendingFrames.addLast(renderers.submit(() ->
+                            renderFilteredImage(idleFilters, src, time)));
+                    nextFrameToSubmit++;
+                }
+
+                if (isCancelled()) {
+                    return;
+                }
+                setProgress((int) ((100.0 * frameNr) / numTotalFrames));
+
+                BufferedImage filtered = pendingFrames.removeFirst().get();
+                animationWriter.addFrame(showFrame(filtered, filterName));
+            }
+        } finally {
+            for (Future<BufferedImage> future : pendingFrames) {
+                future.cancel(true);
+            }
+            renderers.shutdownNow();
+        }
+    }
+
+    private BufferedImage renderFilteredImage(BlockingQueue<ParametrizedFilter> idleFilters,
+                                              BufferedImage src,
+                                              double time) throws InterruptedException {
+        ParametrizedFilter filter = idleFilters.take();
+        try {
+            filter.getParamSet().setState(animation.tween(time));
+            return filter.transformImage(src);
+        } finally {
+            idleFilters.add(filter);
+        }
+    }
+
+    /**
+     * Shows the given filtered image in the drawable,
+     * and returns a copy of the resulting composite image.
+     */
+    private BufferedImage showFrame(BufferedImage filtered, String filterName) {
+        BufferedImage[] frameHolder = new BufferedImage[1];
+        GUIUtils.invokeAndWait(() -> {
+            dr.changePreviewImage(filtered, filterName, TWEEN_PREVIEW);
+            var comp = dr.getComp();
+            comp.repaint();
+            frameHolder[0] = ImageUtils.copyImage(comp.getCompositeImage());
+        });
+        return frameHolder[0];
+    }
+
+    private double calcTime(int frameNr) {
+        int numFrames = animation.getNumFrames();
+        if (frameNr < numFrames) { // ping: normal animation forwards
+            return ((double) frameNr) / numFrames;
+        }
+        // pong: animating backwards
+        // TODO we are calculating the same frames again
+        // they could be cached somewhere
+        // perhaps in an array of soft references with the
+        // calculated frames or in the case of file sequence
+        // output one could simply make copies of the files.
+        int effectiveFrame = 2 * (numFrames - 1) - frameNr;
+        return ((double) effectiveFrame) / numFrames;
+    }
+
     private BufferedImage renderFrame(ParametrizedFilter filter,
                                       double time,
                                       PixelitorWindow busyCursorParent) {
@@ -163,7 +302,8 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         var comp = dr.getComp();
         comp.repaint();
 
-        return comp.getCompositeImage();
+        // copied, because it's written on another thread
+        return ImageUtils.copyImage(comp.getCompositeImage());
     }
 
     @Override
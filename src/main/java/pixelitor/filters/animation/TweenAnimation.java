@@ -36,6 +36,8 @@ public class TweenAnimation {
     private TweenOutputType outputType;
     private File output; // file or directory
     private boolean pingPong;
+    private boolean ditherGIF;
+    private boolean globalGIFPalette;
 
     public ParametrizedFilter getFilter() {
         return filter;
@@ -65,6 +67,10 @@ public class TweenAnimation {
         this.millisBetweenFrames = millisBetweenFrames;
     }
 
+    int getMillisBetweenFrames() {
+        return millisBetweenFrames;
+    }
+
     public int getNumFrames() {
         return numFrames;
     }
@@ -77,13 +83,16 @@ public class TweenAnimation {
         this.output = output;
     }
 
+    File getOutput() {
+        return output;
+    }
+
     public void setOutputType(TweenOutputType outputType) {
         this.outputType = outputType;
     }
 
     public AnimationWriter createAnimationWriter() {
-        return outputType.createAnimationWriter(
-                output, millisBetweenFrames);
+        return outputType.createAnimationWriter(this);
     }
 
     public CompositeState tween(double time) {
@@ -144,4 +153,20 @@ public class TweenAnimation {
     public boolean isPingPong() {
         return pingPong;
     }
+
+    public void setDitherGIF(boolean ditherGIF) {
+        this.ditherGIF = ditherGIF;
+    }
+
+    boolean isDitherGIF() {
+        return ditherGIF;
+    }
+
+    public void setGlobalGIFPalette(boolean globalGIFPalette) {
+        this.globalGIFPalette = globalGIFPalette;
+    }
+
+    boolean usesGlobalGIFPalette() {
+        return globalGIFPalette;
+    }
 }
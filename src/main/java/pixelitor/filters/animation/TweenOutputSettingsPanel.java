@@ -51,6 +51,8 @@ public class TweenOutputSettingsPanel extends ValidatedPanel
     private JComboBox<Interpolation> ipCB;
     private JComboBox<TweenOutputType> outputTypeCB;
     private final JCheckBox pingPongCB = new JCheckBox();
+    private final JCheckBox ditherCB = new JCheckBox();
+    private final JCheckBox globalPaletteCB = new JCheckBox();
     private final BrowseFilesSupport browseFilesSupport = new BrowseFilesSupport(
             Dirs.getLastSave().getAbsolutePath());
     private JTextField fileNameTF;
@@ -71,6 +73,7 @@ public class TweenOutputSettingsPanel extends ValidatedPanel
         addAnimationLengthSelector(tfLayerUI, gbh);
         addInterpolationSelector(gbh);
         addPingPongSelector(gbh);
+        addGIFSettingsSelector(gbh);
         addFileSelector(tfLayerUI, gbh);
     }
 
@@ -121,13 +124,23 @@ public class TweenOutputSettingsPanel extends ValidatedPanel
         pingPongCB.addActionListener(e -> updateCalculations());
     }
 
+    private void addGIFSettingsSelector(GridBagHelper gbh) {
+        ditherCB.setToolTipText("Use dithering to simulate the colors missing from the GIF palette");
+        gbh.addLabelAndControl("GIF Dithering:", ditherCB);
+
+        globalPaletteCB.setToolTipText("<html>Use a single palette for all frames." +
+                "<br>This is faster and results in a smaller file, but the colors " +
+                "<br>that appear only in the later frames might be inaccurate.");
+        gbh.addLabelAndControl("GIF Global Palette:", globalPaletteCB);
+    }
+
     private void addFileSelector(LayerUI<JTextField> tfLayerUI, GridBagHelper gbh) {
         JPanel filePanel = new JPanel(new FlowLayout());
         filePanel.setBorder(createTitledBorder("Output File/Folder"));
         fileNameTF = browseFilesSupport.getNameTF();
         filePanel.add(new JLayer<>(fileNameTF, tfLayerUI));
         filePanel.add(browseFilesSupport.getBrowseButton());
-        gbh.addOnlyControlToRow(filePanel, 6);
+        gbh.addOnlyControlToRow(filePanel, 8);
     }
 
     private void outputTypeChanged() {
@@ -143,6 +156,9 @@ public class TweenOutputSettingsPanel extends ValidatedPanel
         if (fileNameTF != null) { // not the initial setup
             fileNameTF.repaint();
         }
+        boolean gif = selected == TweenOutputType.ANIM_GIF;
+        ditherCB.setEnabled(gif);
+        globalPaletteCB.setEnabled(gif);
     }
 
     private void updateCalculations() {
@@ -211,6 +227,8 @@ public class TweenOutputSettingsPanel extends ValidatedPanel
         animation.setMillisBetweenFrames((int) (1000.0 / fps));
         animation.setInterpolation((Interpolation) ipCB.getSelectedItem());
         animation.setPingPong(pingPongCB.isSelected());
+        animation.setDitherGIF(ditherCB.isSelected());
+        animation.setGlobalGIFPalette(globalPaletteCB.isSelected());
 
         if (output.isDirectory()) {
             Dirs.setLastSaveIfValid(output);
@@ -30,8 +30,8 @@ import static java.lang.String.format;
 public enum TweenOutputType {
     PNG_FILE_SEQUENCE("PNG File Sequence") {
         @Override
-        AnimationWriter createAnimationWriter(File file, int delayMillis) {
-            return new PNGFileSequenceWriter(file);
+        AnimationWriter createAnimationWriter(TweenAnimation animation) {
+            return new PNGFileSequenceWriter(animation.getOutput());
         }
 
         @Override
@@ -50,8 +50,10 @@ public enum TweenOutputType {
         }
     }, ANIM_GIF("Animated GIF File") {
         @Override
-        AnimationWriter createAnimationWriter(File file, int delayMillis) {
-            return new AnimGIFWriter(file, delayMillis);
+        AnimationWriter createAnimationWriter(TweenAnimation animation) {
+            return new AnimGIFWriter(animation.getOutput(),
+                    animation.getMillisBetweenFrames(),
+                    animation.isDitherGIF(), animation.usesGlobalGIFPalette());
         }
 
         @Override
@@ -76,7 +78,7 @@ public enum TweenOutputType {
         this.guiName = guiName;
     }
 
-    abstract AnimationWriter createAnimationWriter(File file, int delayMillis);
+    abstract AnimationWriter createAnimationWriter(TweenAnimation animation);
 
     /**
      * Returns the error message or null if the argument is OK as output
@@ -22,6 +22,7 @@ import pixelitor.automate.WizardPage;
 import pixelitor.filters.FilterAction;
 import pixelitor.filters.FilterUtils;
 import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.AsyncFilterPreview;
 import pixelitor.filters.gui.ParametrizedFilterGUI;
 import pixelitor.gui.utils.ValidationResult;
 import pixelitor.layers.Drawable;
@@ -88,11 +89,13 @@ public enum TweenWizardPage implements WizardPage {
 
         @Override
         public void onWizardCanceled(Drawable dr) {
+            AsyncFilterPreview.cancel();
             dr.onFilterDialogCanceled();
         }
 
         @Override
         public void finish(Wizard wizard, Drawable dr) {
+            AsyncFilterPreview.cancel();
             getAnimation(wizard).copyInitialStateFromCurrent();
 
             ParametrizedFilterGUI.setResetParams(false);
@@ -128,6 +131,7 @@ public enum TweenWizardPage implements WizardPage {
 
         @Override
         public void onWizardCanceled(Drawable dr) {
+            AsyncFilterPreview.cancel();
             dr.onFilterDialogCanceled();
         }
 
@@ -17,6 +17,7 @@
 
 package pixelitor.filters.convolve;
 
+import com.jhlabs.image.FFTConvolveFilter;
 import org.jdesktop.swingx.combobox.EnumComboBoxModel;
 import pixelitor.filters.FilterAction;
 import pixelitor.filters.gui.FilterGUI;
@@ -25,6 +26,7 @@ import pixelitor.layers.Drawable;
 import pixelitor.utils.Messages;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
 import java.awt.image.ImagingOpException;
 import java.awt.image.Kernel;
 import java.util.Random;
@@ -33,6 +35,10 @@ import java.util.Random;
  * A customizable convolution
  */
 public class Convolve extends FilterWithGUI {
+    // from this size the convolution in the frequency domain is faster,
+    // and it gives the same results as the JHLabs ConvolveFilter
+    private static final int MIN_FFT_SIZE = 9;
+
     private final String filterName;
 
     private final EnumComboBoxModel<ConvolveMethod> convolveMethodModel = new EnumComboBoxModel<>(ConvolveMethod.class);
@@ -40,6 +46,9 @@ public class Convolve extends FilterWithGUI {
     private float[] kernelMatrix;
     private final int size;
 
+    // reused, so that the spectrum of the kernel is cached between the previews
+    private FFTConvolveFilter fftFilter;
+
     private Convolve(int size, String filterName) {
         this.size = size;
         this.filterName = filterName;
@@ -56,7 +65,18 @@ public class Convolve extends FilterWithGUI {
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
         var kernel = new Kernel(size, size, kernelMatrix);
         var convolveMethod = convolveMethodModel.getSelectedItem();
-        var convolveOp = convolveMethod.createConvolveOp(kernel, filterName);
+        BufferedImageOp convolveOp;
+        if (convolveMethod == ConvolveMethod.JHLabs && size >= MIN_FFT_SIZE) {
+            if (fftFilter == null) {
+                fftFilter = new FFTConvolveFilter(filterName);
+                fftFilter.setUseAlpha(false);
+                fftFilter.setConvolveFilterEdges(true);
+            }
+            fftFilter.setKernel(kernel);
+            convolveOp = fftFilter;
+        } else {
+            convolveOp = convolveMethod.createConvolveOp(kernel, filterName);
+        }
         try {
             convolveOp.filter(src, dest);
         } catch (ImagingOpException e) {
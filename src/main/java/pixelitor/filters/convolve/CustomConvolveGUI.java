@@ -130,6 +130,8 @@ public class CustomConvolveGUI extends FilterGUI implements ActionListener {
             init3x3Presets();
         } else if (size == 5) {
             init5x5Presets();
+        } else if (size == 9) {
+            init9x9Presets();
         } else {
             throw new IllegalStateException("size = " + size);
         }
@@ -165,6 +167,37 @@ public class CustomConvolveGUI extends FilterGUI implements ActionListener {
         presetsBox.add(button);
     }
 
+    // the 9x9 presets are calculated, because they would be too long to write out
+    private void init9x9Presets() {
+        int center = size / 2;
+        float[] mean = new float[size * size];
+        float[] disk = new float[size * size];
+        float[] motion = new float[size * size];
+        int numDiskValues = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int i = y * size + x;
+                mean[i] = 1.0f / mean.length;
+                int dx = x - center;
+                int dy = y - center;
+                if (dx * dx + dy * dy <= center * center) {
+                    disk[i] = 1;
+                    numDiskValues++;
+                }
+                if (x + y == size - 1) {
+                    motion[i] = 1.0f / size;
+                }
+            }
+        }
+        for (int i = 0; i < disk.length; i++) {
+            disk[i] /= numDiskValues;
+        }
+
+        initPreset("Mean Blur", mean);
+        initPreset("Disk Blur", disk);
+        initPreset("Motion Blur", motion);
+    }
+
     private void init5x5Presets() {
         initPreset("Diamond Blur", new float[]{
                 0.0f, 0.0f, 0.077f, 0.0f, 0.0f,
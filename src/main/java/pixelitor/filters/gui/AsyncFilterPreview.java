@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.RunContext;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterUtils;
+import pixelitor.gui.utils.GUIUtils;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+import pixelitor.utils.test.RandomGUITest;
+
+import java.awt.AlphaComposite;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.image.BufferedImage.TYPE_CUSTOM;
+import static pixelitor.ChangeReason.PREVIEWING;
+
+/**
+ * Calculates the filter previews on a background thread,
+ * so that the GUI stays responsive while the parameters are adjusted.
+ *
+ * A new preview request cancels the previous one, and the result
+ * of a request is shown only if no newer request was made since then.
+ * For large images a quick preview is calculated first from a
+ * downscaled copy of the image, and it is shown until the
+ * full-resolution preview is ready.
+ *
+ * All the static methods must be called on the EDT.
+ */
+public class AsyncFilterPreview {
+    // the maximal size of the low-resolution preview, which is shown first
+    // for images larger than Filter.getMinPixelsForProxyPreview()
+    private static final int PROXY_PIXELS = 1_000_000;
+
+    // a single thread, so that the same filter object
+    // is never used by two calculations at the same time
+    private static final ExecutorService executor =
+            Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Filter Preview");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // the last request, or null if its result was already shown
+    private static AsyncFilterPreview latest;
+
+    private final Filter filter;
+    private final Drawable dr;
+    private final BufferedImage src;
+    private final long startTime;
+    private Future<?> future;
+
+    // written by the background thread
+    private volatile BufferedImage result;
+    private volatile Throwable error;
+
+    private volatile boolean cancelled = false;
+
+    private AsyncFilterPreview(Filter filter, Drawable dr) {
+        this.filter = filter;
+        this.dr = dr;
+        src = dr.getFilterSourceImage();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Whether the previews are calculated in the background. In the
+     * tests they are calculated synchronously, as it was done before.
+     */
+    static boolean isEnabled() {
+        return !RunContext.isUnitTesting() && !RandomGUITest.isRunning();
+    }
+
+    /**
+     * Starts the calculation of a new preview, and
+     * cancels the calculation of the previous one.
+     */
+    static void start(Filter filter, Drawable dr) {
+        assert EventQueue.isDispatchThread() : "not on EDT";
+
+        cancel();
+        var preview = new AsyncFilterPreview(filter, dr);
+        latest = preview;
+        preview.future = executor.submit(preview::calculate);
+    }
+
+    /**
+     * Cancels the current preview calculation. This must be called
+     * before the previewing of the {@link Drawable} is stopped,
+     * or before other previews are calculated synchronously.
+     */
+    public static void cancel() {
+        if (latest != null) {
+            latest.cancelled = true;
+            latest.future.cancel(true);
+            latest = null;
+        }
+    }
+
+    /**
+     * Waits until the full-resolution version of the last
+     * requested preview is calculated, and shows it. This must be
+     * called before the preview is accepted as the final result.
+     */
+    public static void finish(Component busyCursorParent) {
+        assert EventQueue.isDispatchThread() : "not on EDT";
+
+        AsyncFilterPreview preview = latest;
+        if (preview == null) {
+            return;
+        }
+        GUIUtils.runWithBusyCursor(busyCursorParent, () -> {
+            try {
+                preview.future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // the calculation catches all its errors
+                throw new IllegalStateException(e);
+            }
+        });
+        // the result is shown now, the already
+        // scheduled showing will do nothing
+        preview.showResult();
+    }
+
+    /**
+     * Runs on the background thread
+     */
+    private void calculate() {
+        try {
+            int numPixels = src.getWidth() * src.getHeight();
+            if (numPixels > filter.getMinPixelsForProxyPreview() && src.getType() != TYPE_CUSTOM) {
+                BufferedImage proxyResult = calcProxyResult(numPixels);
+                if (proxyResult != null && !cancelled) {
+                    EventQueue.invokeLater(() -> showProxyResult(proxyResult));
+                }
+            }
+            if (cancelled) {
+                return;
+            }
+            result = filter.transformImage(src);
+        } catch (CancellationException e) {
+            if (!cancelled) {
+                error = e;
+            }
+        } catch (Throwable e) {
+            error = e;
+        }
+        if (!cancelled) {
+            EventQueue.invokeLater(this::showResult);
+        }
+    }
+
+    /**
+     * Runs the filter on a downscaled copy of the source image, and
+     * enlarges the result to the original size. Returns null if the
+     * filter doesn't change the image.
+     */
+    private BufferedImage calcProxyResult(int numPixels) {
+        // at most a quarter of the pixels, otherwise it isn't much faster
+        int proxyPixels = Math.min(PROXY_PIXELS, numPixels / 4);
+        double scale = Math.sqrt(proxyPixels / (double) numPixels);
+        int width = src.getWidth();
+        int height = src.getHeight();
+        BufferedImage proxySrc = ImageUtils.getFasterScaledInstance(src,
+                Math.max(1, (int) (width * scale)),
+                Math.max(1, (int) (height * scale)),
+                VALUE_INTERPOLATION_BILINEAR, true);
+        BufferedImage proxyDest = filter.transformImage(proxySrc);
+        if (proxyDest == proxySrc) {
+            return null;
+        }
+
+        BufferedImage enlarged = ImageUtils.createImageWithSameCM(src);
+        Graphics2D g = enlarged.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(proxyDest, 0, 0, width, height, null);
+        g.dispose();
+        return enlarged;
+    }
+
+    private void showProxyResult(BufferedImage proxyResult) {
+        if (latest != this) {
+            return; // outdated
+        }
+        dr.changePreviewImage(proxyResult, filter.getName(), PREVIEWING);
+    }
+
+    private void showResult() {
+        if (latest != this) {
+            return; // outdated, or already shown by finish()
+        }
+        latest = null;
+
+        if (error != null) {
+            filter.handleError(dr, error);
+            return;
+        }
+
+        dr.changePreviewImage(result, filter.getName(), PREVIEWING);
+
+        long totalTime = (System.nanoTime() - startTime) / 1_000_000;
+        Messages.showPerformanceMessage(filter.getName(), totalTime);
+
+        FilterUtils.setLastFilter(filter);
+    }
+}
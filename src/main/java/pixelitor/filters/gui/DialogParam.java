@@ -85,6 +85,10 @@ public class DialogParam extends AbstractFilterParam {
         }
     }
 
+    FilterParam[] getChildren() {
+        return children;
+    }
+
     @Override
     public CompositeState copyState() {
         return new CompositeState(children);
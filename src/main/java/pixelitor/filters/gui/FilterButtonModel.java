@@ -98,6 +98,16 @@ public class FilterButtonModel implements FilterSetting {
         this.ignoreFinalAnimationSettingMode = ignoreFinalAnimationSettingMode;
     }
 
+    /**
+     * Whether this action changes some state that is not
+     * stored in the filter parameters (for example a random seed).
+     * These are the actions which can't be used in the final
+     * animation settings.
+     */
+    public boolean changesHiddenState() {
+        return !ignoreFinalAnimationSettingMode;
+    }
+
     @Override
     public void setAdjustmentListener(ParamAdjustmentListener listener) {
         adjustmentListener = listener;
@@ -38,6 +38,10 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
 
     @Override
     public void runFilterPreview() {
-        filter.run(dr, PREVIEWING, this);
+        if (AsyncFilterPreview.isEnabled()) {
+            AsyncFilterPreview.start(filter, dr);
+        } else {
+            filter.run(dr, PREVIEWING, this);
+        }
     }
 }
@@ -21,6 +21,7 @@ import pixelitor.filters.Filter;
 import pixelitor.utils.Icons;
 import pixelitor.utils.Utils;
 
+import java.awt.Color;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -198,6 +199,202 @@ public class ParamSet implements Iterable<FilterParam> {
                 });
     }
 
+    /**
+     * Copies the values of all parameters (also the ones that can't be
+     * animated) from the given ParamSet, which must belong to another
+     * instance of the same filter. The filter is not triggered.
+     *
+     * @return false if some value could not be copied
+     */
+    public boolean copyValuesFrom(ParamSet other) {
+        if (other.paramList.size() != paramList.size()) {
+            return false;
+        }
+        for (int i = 0; i < paramList.size(); i++) {
+            if (!copyValue(other.paramList.get(i), paramList.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean copyValue(FilterParam from, FilterParam to) {
+        if (from.getClass() != to.getClass()) {
+            return false;
+        }
+        if (from instanceof DialogParam) {
+            FilterParam[] fromChildren = ((DialogParam) from).getChildren();
+            FilterParam[] toChildren = ((DialogParam) to).getChildren();
+            if (fromChildren.length != toChildren.length) {
+                return false;
+            }
+            for (int i = 0; i < fromChildren.length; i++) {
+                if (!copyValue(fromChildren[i], toChildren[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (from instanceof AngleParam) {
+            // the state would be rounded to whole degrees
+            ((AngleParam) to).setValue(
+                    ((AngleParam) from).getValueInRadians(), false);
+        } else if (from.canBeAnimated()) {
+            to.setState(from.copyState());
+        } else if (from instanceof IntChoiceParam) {
+            ((IntChoiceParam) to).setSelectedItem(
+                    ((IntChoiceParam) from).getSelectedItem(), false);
+        } else if (from instanceof EnumParam) {
+            @SuppressWarnings("rawtypes")
+            EnumParam toEnum = (EnumParam) to;
+            toEnum.setSelectedItem(((EnumParam<?>) from).getSelected(), false);
+        } else if (from instanceof BooleanParam) {
+            ((BooleanParam) to).setValue(
+                    ((BooleanParam) from).isChecked(), false, false);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the value of the parameter with the given name (ignoring the
+     * case, and also looking inside the dialog parameters) from its text
+     * form, as given on the command line. The filter is not triggered.
+     *
+     * @throws IllegalArgumentException if there is no such parameter,
+     *                                  or if the value can't be parsed
+     */
+    public void setValueFromText(String paramName, String value) {
+        FilterParam param = findParam(paramList, paramName.trim());
+        if (param == null) {
+            throw new IllegalArgumentException(String.format(
+                    "No parameter named \"%s\", the parameters are: %s",
+                    paramName, getParamNames(paramList)));
+        }
+        try {
+            setValueFromText(param, value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid value \"%s\" for \"%s\"", value, param.getName()), e);
+        }
+    }
+
+    private static FilterParam findParam(List<FilterParam> params, String name) {
+        for (FilterParam param : params) {
+            if (param.getName().equalsIgnoreCase(name)) {
+                return param;
+            }
+            if (param instanceof DialogParam) {
+                FilterParam child = findParam(
+                        List.of(((DialogParam) param).getChildren()), name);
+                if (child != null) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getParamNames(List<FilterParam> params) {
+        List<String> names = new ArrayList<>();
+        for (FilterParam param : params) {
+            if (param instanceof DialogParam) {
+                names.add(getParamNames(List.of(((DialogParam) param).getChildren())));
+            } else {
+                names.add(param.getName());
+            }
+        }
+        return String.join(", ", names);
+    }
+
+    private static void setValueFromText(FilterParam param, String value) {
+        if (param instanceof RangeParam) {
+            ((RangeParam) param).setValue(Double.parseDouble(value), false);
+        } else if (param instanceof GroupedRangeParam) {
+            // either a single value for all, or comma-separated values
+            GroupedRangeParam grp = (GroupedRangeParam) param;
+            String[] values = value.split(",");
+            if (values.length == 1) {
+                for (int i = 0; i < grp.getNumParams(); i++) {
+                    grp.getRangeParam(i).setValue(Double.parseDouble(values[0]), false);
+                }
+            } else if (values.length == grp.getNumParams()) {
+                grp.setLinked(false);
+                for (int i = 0; i < values.length; i++) {
+                    grp.getRangeParam(i).setValue(Double.parseDouble(values[i].trim()), false);
+                }
+            } else {
+                throw new IllegalArgumentException(String.format(
+                        "\"%s\" needs 1 or %d values", param.getName(), grp.getNumParams()));
+            }
+        } else if (param instanceof AngleParam) {
+            ((AngleParam) param).setValueInDegrees(Double.parseDouble(value), false);
+        } else if (param instanceof BooleanParam) {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException(String.format(
+                        "\"%s\" must be true or false", param.getName()));
+            }
+            ((BooleanParam) param).setValue(Boolean.parseBoolean(value), false, false);
+        } else if (param instanceof ColorParam) {
+            // RRGGBB or AARRGGBB in hexadecimal
+            String hex = value.startsWith("#") ? value.substring(1) : value;
+            int argb = Integer.parseUnsignedInt(hex, 16);
+            boolean hasAlpha = hex.length() > 6;
+            ((ColorParam) param).setColor(new Color(argb, hasAlpha), false);
+        } else if (param instanceof ImagePositionParam) {
+            // relative coordinates, for example "0.5,0.5" for the center
+            String[] coords = value.split(",");
+            if (coords.length != 2) {
+                throw new IllegalArgumentException(String.format(
+                        "\"%s\" needs two relative coordinates", param.getName()));
+            }
+            ((ImagePositionParam) param).setRelativeValues(
+                    Float.parseFloat(coords[0].trim()), Float.parseFloat(coords[1].trim()),
+                    false, false, false);
+        } else if (param instanceof AbstractMultipleChoiceParam) {
+            // the choice with the given name
+            AbstractMultipleChoiceParam<?> choiceParam = (AbstractMultipleChoiceParam<?>) param;
+            List<String> choices = new ArrayList<>();
+            for (int i = 0; i < choiceParam.getSize(); i++) {
+                Object choice = choiceParam.getElementAt(i);
+                if (choice.toString().equalsIgnoreCase(value)) {
+                    selectChoice(choiceParam, i);
+                    return;
+                }
+                choices.add(choice.toString());
+            }
+            throw new IllegalArgumentException(String.format(
+                    "\"%s\" is not a choice of \"%s\", the choices are: %s",
+                    value, param.getName(), String.join(", ", choices)));
+        } else {
+            throw new IllegalArgumentException(String.format(
+                    "\"%s\" can't be set from text", param.getName()));
+        }
+    }
+
+    private static void selectChoice(AbstractMultipleChoiceParam<?> param, int index) {
+        if (param instanceof IntChoiceParam) {
+            IntChoiceParam intChoiceParam = (IntChoiceParam) param;
+            intChoiceParam.setSelectedItem(intChoiceParam.getElementAt(index), false);
+        } else {
+            selectEnumChoice((EnumParam<?>) param, index);
+        }
+    }
+
+    private static <E extends Enum<E>> void selectEnumChoice(EnumParam<E> param, int index) {
+        param.setSelectedItem(param.getElementAt(index), false);
+    }
+
+    /**
+     * Whether some action can change a state of the filter
+     * which is not stored in these parameters
+     */
+    public boolean changesHiddenState() {
+        return Utils.anyMatch(actionList, FilterButtonModel::changesHiddenState);
+    }
+
     /**
      * A ParamSet can be animated if at least
      * one contained filter parameter can be
@@ -17,11 +17,40 @@
 
 package pixelitor.filters.impl;
 
-import com.jhlabs.image.PointFilter;
+import com.jhlabs.image.AbstractBufferedImageOp;
+import pixelitor.ThreadPool;
+import pixelitor.utils.VisibleForTesting;
 
 import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * The rendering engine of the Mandelbrot and Julia sets.
+ *
+ * The image is divided into tiles, which are rendered in parallel.
+ * If all the pixels on the border of a tile have the same number of
+ * iterations, then the interior is filled without iterating it,
+ * otherwise the tile is subdivided (the Mariani-Silver algorithm).
+ * The iteration is stopped early if the orbit becomes periodic.
+ *
+ * At deep zoom levels, where the pixels can't be distinguished with
+ * doubles, the orbits are calculated as perturbations of a high-precision
+ * reference orbit. The reference is rebased to the critical orbit when
+ * the pixel's orbit gets closer to zero than to the reference, so that
+ * a single reference orbit is enough (no glitch correction is needed).
+ */
+public abstract class ComplexFractalImpl extends AbstractBufferedImageOp {
+    private static final int TILE_SIZE = 64;
+
+    // tiles smaller than this are not subdivided further
+    private static final int MIN_TRACED_SIZE = 6;
+
+    // below this pixel size (relative to the coordinates)
+    // the perturbation method is used
+    private static final double MIN_DOUBLE_PIXEL_SIZE = 1.0e-13;
 
-public abstract class ComplexFractalImpl extends PointFilter {
     // the bounds in the complex space
     private final double cxMin;
     private final double cxMax;
@@ -30,6 +59,12 @@ public abstract class ComplexFractalImpl extends PointFilter {
     private final double cxRange;
     private final double cyRange;
 
+    // whether the pixels correspond to the constant c of the
+    // iteration (Mandelbrot set) or to the starting value (Julia sets)
+    private final boolean pixelIsConstant;
+    private double constantX;
+    private double constantY;
+
     // the actual start in the complex space,
     // taking the zooming into account
     protected double cxStart;
@@ -48,13 +83,24 @@ public abstract class ComplexFractalImpl extends PointFilter {
 
     protected int[] colors;
 
-    protected ComplexFractalImpl(String filterName, double cxMin, double cxMax, double cyMin, double cyMax) {
+    // orbits closer than this to an earlier point are considered periodic
+    private double periodicityTolerance;
+
+    private boolean borderTracing = true;
+    private Boolean forcedPerturbation;
+
+    // reused between the frames of a zoom animation
+    private ReferenceOrbit reference;
+
+    protected ComplexFractalImpl(String filterName, double cxMin, double cxMax,
+                                 double cyMin, double cyMax, boolean pixelIsConstant) {
         super(filterName);
 
         this.cxMin = cxMin;
         this.cxMax = cxMax;
         this.cyMin = cyMin;
         this.cyMax = cyMax;
+        this.pixelIsConstant = pixelIsConstant;
 
         cxRange = cxMax - cxMin;
         cyRange = cyMax - cyMin;
@@ -62,11 +108,17 @@ public abstract class ComplexFractalImpl extends PointFilter {
 
     @Override
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        if (dst == null) {
+            dst = createCompatibleDestImage(src, null);
+        }
+
         double zoomedRangeCX = cxRange / zoom;
         double zoomedRangeCY = cyRange / zoom;
 
-        xMultiplier = zoomedRangeCX / src.getWidth();
-        yMultiplier = zoomedRangeCY / src.getHeight();
+        xMultiplier = zoomedRangeCX / width;
+        yMultiplier = zoomedRangeCY / height;
 
         // the zoom center in the "C-space"
         double zoomCenterCX = cxMin + zoomCenterX * cxRange;
@@ -95,19 +147,77 @@ public abstract class ComplexFractalImpl extends PointFilter {
             cyStart =  cyZoomedMin;
         }
 
-        return super.filter(src, dst);
-    }
+        double pixelSize = Math.min(xMultiplier, yMultiplier);
+        periodicityTolerance = Math.min(1.0e-13, pixelSize * 1.0e-3);
+
+        double magnitude = Math.max(1, Math.abs(zoomCenterCX) + Math.abs(zoomCenterCY));
+        boolean perturbation = forcedPerturbation != null
+                ? forcedPerturbation
+                : pixelSize < MIN_DOUBLE_PIXEL_SIZE * magnitude;
+        if (perturbation) {
+            // the exact center of the view, also if it was adjusted
+            BigDecimal centerX = new BigDecimal(cxMin)
+                    .add(new BigDecimal(zoomCenterX).multiply(new BigDecimal(cxRange)))
+                    .add(new BigDecimal(cxStart - cxZoomedMin));
+            BigDecimal centerY = new BigDecimal(cyMin)
+                    .add(new BigDecimal(zoomCenterY).multiply(new BigDecimal(cyRange)))
+                    .add(new BigDecimal(cyStart - cyZoomedMin));
+            // enough digits to distinguish the pixels, and some more
+            int digits = 20 + (int) Math.ceil(-Math.log10(pixelSize / magnitude));
+            if (reference == null || !reference.isUsableFor(centerX, centerY, digits)) {
+                reference = new ReferenceOrbit(centerX, centerY, digits);
+            }
+        }
+        ReferenceOrbit usedReference = perturbation ? reference : null;
+
+        int[] iterations = new int[width * height];
+        Arrays.fill(iterations, -1);
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
 
-    protected int calcIteratedColor(double zx, double zy, double cx, double cy) {
-        int it = iterate(zx, zy, cx, cy, maxIterations);
-        return colors[it];
+        pt = createProgressTracker(tilesX * tilesY);
+        ThreadPool.processRows(tilesX * tilesY, tile -> {
+            int x0 = (tile % tilesX) * TILE_SIZE;
+            int y0 = (tile / tilesX) * TILE_SIZE;
+            var renderer = new TileRenderer(iterations, width, height, usedReference);
+            renderer.render(x0, y0,
+                    Math.min(width, x0 + TILE_SIZE),
+                    Math.min(height, y0 + TILE_SIZE));
+        }, pt);
+        finishProgressTracker();
+
+        int[] pixels = new int[iterations.length];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = colors[iterations[i]];
+        }
+        setRGB(dst, 0, 0, width, height, pixels);
+        return dst;
     }
 
-    private static int iterate(double x, double y, double cx, double cy, int maxIt) {
-        int it = maxIt;
+    /**
+     * Calculates the number of iterations left when the orbit escaped
+     * (zero if it didn't) for the given point of the complex plane,
+     * using doubles. This is also the index of the color.
+     */
+    protected abstract int calcIterations(double x, double y);
+
+    /**
+     * The escape time algorithm with periodicity checking.
+     */
+    protected int iterate(double x, double y, double cx, double cy) {
+        int it = maxIterations;
         double x2 = 0;
         double y2 = 0;
         double xy;
+
+        // the orbit is compared with a saved point, and the
+        // saved point is updated at increasing intervals
+        double savedX = x;
+        double savedY = y;
+        int saveInterval = 8;
+        int sinceSave = 0;
+        double tolerance = periodicityTolerance;
+
         while (x2 + y2 <= 4 && it > 0) {
             it--;
             xy = x * y;
@@ -115,26 +225,245 @@ public abstract class ComplexFractalImpl extends PointFilter {
             y2 = y * y;
             x = x2 - y2 + cx;
             y = xy + xy + cy;
+
+            if (Math.abs(x - savedX) < tolerance && Math.abs(y - savedY) < tolerance) {
+                // periodic, it will never escape
+                return 0;
+            }
+            if (++sinceSave == saveInterval) {
+                savedX = x;
+                savedY = y;
+                sinceSave = 0;
+                saveInterval *= 2;
+            }
         }
         return it;
     }
 
-    private static int iterateUnOpt(double x, double y, double cx, double cy, int maxIt) {
-        int it = maxIt;
-        while (x * x + y * y < 4 && it > 0) {
+    /**
+     * The same as {@link #iterate}, but the orbit is calculated as the
+     * sum of the reference orbit and a small delta. The deltas are
+     * relative to the center of the view.
+     */
+    private int iteratePerturbed(ReferenceOrbit ref, double dx, double dy) {
+        // in the Mandelbrot set the delta of the starting value is zero,
+        // in Julia sets the delta of the constant is zero
+        double dcx = pixelIsConstant ? dx : 0;
+        double dcy = pixelIsConstant ? dy : 0;
+        if (pixelIsConstant) {
+            dx = 0;
+            dy = 0;
+        }
+
+        double[] refX = ref.startX;
+        double[] refY = ref.startY;
+        int refLength = ref.startLength;
+        int m = 0;
+
+        int it = maxIterations;
+        double prevMagnitude = 0;
+        double savedX = refX[0] + dx;
+        double savedY = refY[0] + dy;
+        int saveInterval = 8;
+        int sinceSave = 0;
+        double tolerance = periodicityTolerance;
+
+        while (prevMagnitude <= 4 && it > 0) {
             it--;
-            double xTmp = x * x - y * y + cx;
-            double yTmp = 2.0 * x * y + cy;
-            if (x == xTmp && y == yTmp) {
-                it = 0;
-                break;
+            double zx = refX[m] + dx;
+            double zy = refY[m] + dy;
+            prevMagnitude = zx * zx + zy * zy;
+
+            if (m == refLength - 1 || prevMagnitude < dx * dx + dy * dy) {
+                // rebase to the critical orbit, which starts at zero
+                dx = zx;
+                dy = zy;
+                refX = ref.criticalX;
+                refY = ref.criticalY;
+                refLength = ref.criticalLength;
+                m = 0;
+            }
+
+            double rx = refX[m];
+            double ry = refY[m];
+            double newDx = 2 * (rx * dx - ry * dy) + dx * dx - dy * dy + dcx;
+            double newDy = 2 * (rx * dy + ry * dx) + 2 * dx * dy + dcy;
+            dx = newDx;
+            dy = newDy;
+            m++;
+
+            double x = refX[m] + dx;
+            double y = refY[m] + dy;
+            if (Math.abs(x - savedX) < tolerance && Math.abs(y - savedY) < tolerance) {
+                return 0;
+            }
+            if (++sinceSave == saveInterval) {
+                savedX = x;
+                savedY = y;
+                sinceSave = 0;
+                saveInterval *= 2;
             }
-            y = yTmp;
-            x = xTmp;
         }
         return it;
     }
 
+    /**
+     * Renders one tile, filling the areas with uniform borders.
+     */
+    private class TileRenderer {
+        private final int[] iterations;
+        private final int width;
+        private final int height;
+        private final ReferenceOrbit ref;
+
+        TileRenderer(int[] iterations, int width, int height, ReferenceOrbit ref) {
+            this.iterations = iterations;
+            this.width = width;
+            this.height = height;
+            this.ref = ref;
+        }
+
+        /**
+         * Renders the pixels from (x0, y0) inclusive to (x1, y1) exclusive.
+         */
+        void render(int x0, int y0, int x1, int y1) {
+            if (!borderTracing || x1 - x0 < MIN_TRACED_SIZE || y1 - y0 < MIN_TRACED_SIZE) {
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        calc(x, y);
+                    }
+                }
+                return;
+            }
+
+            int first = calc(x0, y0);
+            boolean uniform = true;
+            for (int x = x0; x < x1; x++) {
+                uniform &= calc(x, y0) == first;
+                uniform &= calc(x, y1 - 1) == first;
+            }
+            for (int y = y0 + 1; y < y1 - 1; y++) {
+                uniform &= calc(x0, y) == first;
+                uniform &= calc(x1 - 1, y) == first;
+            }
+
+            if (uniform) {
+                for (int y = y0 + 1; y < y1 - 1; y++) {
+                    int offset = y * width;
+                    Arrays.fill(iterations, offset + x0 + 1, offset + x1 - 1, first);
+                }
+                return;
+            }
+
+            // the already calculated border pixels are not calculated again
+            int midX = (x0 + x1) / 2;
+            int midY = (y0 + y1) / 2;
+            render(x0, y0, midX, midY);
+            render(midX, y0, x1, midY);
+            render(x0, midY, midX, y1);
+            render(midX, midY, x1, y1);
+        }
+
+        private int calc(int x, int y) {
+            int index = y * width + x;
+            int it = iterations[index];
+            if (it < 0) {
+                if (ref == null) {
+                    it = calcIterations(cxStart + x * xMultiplier, cyStart + y * yMultiplier);
+                } else {
+                    it = iteratePerturbed(ref,
+                            (x - width / 2.0) * xMultiplier,
+                            (y - height / 2.0) * yMultiplier);
+                }
+                iterations[index] = it;
+            }
+            return it;
+        }
+    }
+
+    /**
+     * The orbit of the center of the view, calculated with high
+     * precision, and the orbit of zero (the critical point)
+     * with the same constant. In the Mandelbrot set they are the same.
+     */
+    private class ReferenceOrbit {
+        private final BigDecimal centerX;
+        private final BigDecimal centerY;
+        private final int digits;
+        private final int iterations;
+        private final double constX;
+        private final double constY;
+
+        private final double[] startX;
+        private final double[] startY;
+        private final int startLength;
+        private final double[] criticalX;
+        private final double[] criticalY;
+        private final int criticalLength;
+
+        ReferenceOrbit(BigDecimal centerX, BigDecimal centerY, int digits) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.digits = digits;
+            iterations = maxIterations;
+            constX = constantX;
+            constY = constantY;
+
+            MathContext mc = new MathContext(digits);
+            startX = new double[maxIterations + 2];
+            startY = new double[maxIterations + 2];
+            if (pixelIsConstant) {
+                startLength = calcOrbit(BigDecimal.ZERO, BigDecimal.ZERO,
+                        centerX, centerY, mc, startX, startY);
+                criticalX = startX;
+                criticalY = startY;
+                criticalLength = startLength;
+            } else {
+                BigDecimal cx = new BigDecimal(constantX);
+                BigDecimal cy = new BigDecimal(constantY);
+                startLength = calcOrbit(centerX, centerY, cx, cy, mc, startX, startY);
+                criticalX = new double[maxIterations + 2];
+                criticalY = new double[maxIterations + 2];
+                criticalLength = calcOrbit(BigDecimal.ZERO, BigDecimal.ZERO,
+                        cx, cy, mc, criticalX, criticalY);
+            }
+        }
+
+        /**
+         * Stores the orbit until it escapes (including the first escaped
+         * value), but at least two values, and returns their number.
+         */
+        private int calcOrbit(BigDecimal x, BigDecimal y, BigDecimal cx, BigDecimal cy,
+                              MathContext mc, double[] outX, double[] outY) {
+            int length = 0;
+            while (length < outX.length) {
+                double dx = x.doubleValue();
+                double dy = y.doubleValue();
+                outX[length] = dx;
+                outY[length] = dy;
+                length++;
+                if (length >= 2 && dx * dx + dy * dy > 4) {
+                    break;
+                }
+                BigDecimal x2 = x.multiply(x, mc);
+                BigDecimal y2 = y.multiply(y, mc);
+                BigDecimal xy = x.multiply(y, mc);
+                x = x2.subtract(y2, mc).add(cx, mc);
+                y = xy.add(xy, mc).add(cy, mc);
+            }
+            return length;
+        }
+
+        boolean isUsableFor(BigDecimal x, BigDecimal y, int neededDigits) {
+            return digits >= neededDigits
+                    && iterations == maxIterations
+                    && constX == constantX
+                    && constY == constantY
+                    && centerX.compareTo(x) == 0
+                    && centerY.compareTo(y) == 0;
+        }
+    }
+
     public void setZoom(double zoom) {
         this.zoom = zoom;
     }
@@ -151,4 +480,27 @@ public abstract class ComplexFractalImpl extends PointFilter {
     public void setMaxIterations(int maxIterations) {
         this.maxIterations = maxIterations;
     }
+
+    /**
+     * Sets the constant c of the iteration, if the pixels
+     * correspond to the starting values
+     */
+    protected void setConstant(double constantX, double constantY) {
+        this.constantX = constantX;
+        this.constantY = constantY;
+    }
+
+    @VisibleForTesting
+    public void setBorderTracing(boolean borderTracing) {
+        this.borderTracing = borderTracing;
+    }
+
+    /**
+     * If not null, then the perturbation method is used (or not)
+     * independently of the zoom level
+     */
+    @VisibleForTesting
+    public void setForcedPerturbation(Boolean forcedPerturbation) {
+        this.forcedPerturbation = forcedPerturbation;
+    }
 }
@@ -18,18 +18,39 @@
 package pixelitor.filters.impl;
 
 import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
 import pixelitor.filters.Morphology;
 
 import java.awt.Rectangle;
 
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
 /**
  * The implementation of the {@link Morphology} filter.
+ *
+ * The minimum and maximum are calculated with the van Herk/Gil-Werman
+ * algorithm, which needs only three comparisons per pixel for
+ * a line of any length. The square is separated into a horizontal
+ * and a vertical line, and the diamond is decomposed into two
+ * diagonal lines and one or two 3x3 crosses, so the running time
+ * doesn't depend on the radius.
+ *
+ * The minimum and maximum are special cases of the {@link RankFilter},
+ * but the square kernel doesn't use it: its sliding histograms need
+ * O(radius) work per pixel, and it has no diamond kernel.
+ *
+ * The static methods work on single-channel planes,
+ * so that they can be used also for masks.
  */
 public class MorphologyFilter extends WholeImageFilter {
+    // the radius of the kernel
     private int iterations = 1;
 
     public static final int OP_ERODE = 1;
     public static final int OP_DILATE = 2;
+    public static final int OP_OPEN = 10;
+    public static final int OP_CLOSE = 11;
+    public static final int OP_GRADIENT = 12;
     private int op;
 
     public static final int KERNEL_DIAMOND = 3;
@@ -48,94 +69,291 @@ public class MorphologyFilter extends WholeImageFilter {
         this.op = op;
     }
 
+    /**
+     * Sets the radius of the kernel. The result is the same
+     * as iterating the 3x3 version this many times.
+     */
     public void setIterations(int iterations) {
         this.iterations = iterations;
     }
 
     @Override
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int[] outPixels = new int[width * height];
-        int numPixels = inPixels.length;
-        short[] inA = new short[numPixels];
-        short[] inR = new short[numPixels];
-        short[] inG = new short[numPixels];
-        short[] inB = new short[numPixels];
-
-        pt = createProgressTracker(iterations);
-        for (int it = 0; it < iterations; it++) {
-            if (it > 0) {
-                System.arraycopy(outPixels, 0, inPixels, 0, numPixels);
-            }
-            for (int i = 0; i < numPixels; i++) {
-                int rgb = inPixels[i];
-                inA[i] = (short) ((rgb >> 24) & 0xff);
-                inR[i] = (short) ((rgb >> 16) & 0xff);
-                inG[i] = (short) ((rgb >> 8) & 0xff);
-                inB[i] = (short) (rgb & 0xff);
-            }
-
-            int index = 0;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    short a = 0xff;
-                    short r = 0xff;
-                    short g = 0xff;
-                    short b = 0xff;
-
-                    if (op == OP_DILATE) {
-                        r = 0;
-                        g = 0;
-                        b = 0;
-                    }
+        int numPixels = width * height;
+        byte[][] planes = new byte[4][numPixels];
+        for (int i = 0; i < numPixels; i++) {
+            int rgb = inPixels[i];
+            planes[0][i] = (byte) (rgb >>> 24);
+            planes[1][i] = (byte) (rgb >>> 16);
+            planes[2][i] = (byte) (rgb >>> 8);
+            planes[3][i] = (byte) rgb;
+        }
 
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int iy = y + dy;
-                        if (0 <= iy && iy < height) {
-                            int xOffset = iy * width;
-                            for (int dx = -1; dx <= 1; dx++) {
-                                if (kernel == KERNEL_DIAMOND) {
-                                    if (dx == dy && dx != 0) {
-                                        continue;
-                                    }
-                                    if (dx == -dy && dx != 0) {
-                                        continue;
-                                    }
-                                }
-
-                                int ix = x + dx;
-                                if (0 <= ix && ix < width) {
-                                    int comparedIndex = xOffset + ix;
-
-                                    if (op == OP_ERODE) {
-                                        a = min(a, inA[comparedIndex]);
-                                        r = min(r, inR[comparedIndex]);
-                                        g = min(g, inG[comparedIndex]);
-                                        b = min(b, inB[comparedIndex]);
-                                    } else {
-                                        a = max(a, inA[comparedIndex]);
-                                        r = max(r, inR[comparedIndex]);
-                                        g = max(g, inG[comparedIndex]);
-                                        b = max(b, inB[comparedIndex]);
-                                    }
-                                }
-                            }
-                        }
+        boolean twoSteps = op == OP_OPEN || op == OP_CLOSE || op == OP_GRADIENT;
+        pt = createProgressTracker(twoSteps ? 8 : 4);
+        for (byte[] plane : planes) {
+            switch (op) {
+                case OP_ERODE:
+                    erode(plane, width, height, iterations, kernel);
+                    break;
+                case OP_DILATE:
+                    dilate(plane, width, height, iterations, kernel);
+                    break;
+                case OP_OPEN:
+                    erode(plane, width, height, iterations, kernel);
+                    pt.unitDone();
+                    dilate(plane, width, height, iterations, kernel);
+                    break;
+                case OP_CLOSE:
+                    dilate(plane, width, height, iterations, kernel);
+                    pt.unitDone();
+                    erode(plane, width, height, iterations, kernel);
+                    break;
+                case OP_GRADIENT:
+                    byte[] eroded = plane.clone();
+                    erode(eroded, width, height, iterations, kernel);
+                    pt.unitDone();
+                    dilate(plane, width, height, iterations, kernel);
+                    for (int i = 0; i < numPixels; i++) {
+                        plane[i] = (byte) ((plane[i] & 0xFF) - (eroded[i] & 0xFF));
                     }
-                    outPixels[index++] = a << 24 | r << 16 | g << 8 | b;
-                }
+                    break;
+                default:
+                    throw new IllegalStateException("op = " + op);
             }
             pt.unitDone();
         }
+
+        // the dilation always made the pixels opaque,
+        // and the gradient would be transparent in flat areas
+        boolean opaque = op == OP_DILATE || op == OP_GRADIENT;
+        int[] outPixels = new int[numPixels];
+        for (int i = 0; i < numPixels; i++) {
+            int a = opaque ? 0xFF : planes[0][i] & 0xFF;
+            outPixels[i] = a << 24
+                    | (planes[1][i] & 0xFF) << 16
+                    | (planes[2][i] & 0xFF) << 8
+                    | (planes[3][i] & 0xFF);
+        }
         finishProgressTracker();
         return outPixels;
     }
 
-    private static short min(short a, short b) {
-        return (a <= b) ? a : b;
+    /**
+     * Replaces each value of the plane with the maximum within the given
+     * radius. Only the values inside the plane are taken into account.
+     */
+    public static void dilate(byte[] plane, int width, int height, int radius, int kernel) {
+        if (radius <= 0) {
+            return;
+        }
+        if (kernel == KERNEL_SQUARE) {
+            dilateSquare(plane, width, height, radius);
+        } else if (kernel == KERNEL_DIAMOND) {
+            dilateDiamond(plane, width, height, radius);
+        } else {
+            throw new IllegalArgumentException("kernel = " + kernel);
+        }
+    }
+
+    /**
+     * Replaces each value of the plane with the minimum within the given
+     * radius. Only the values inside the plane are taken into account.
+     */
+    public static void erode(byte[] plane, int width, int height, int radius, int kernel) {
+        // the minimum is the inverted maximum of the inverted values
+        invert(plane);
+        dilate(plane, width, height, radius, kernel);
+        invert(plane);
+    }
+
+    private static void invert(byte[] plane) {
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = (byte) ~plane[i];
+        }
+    }
+
+    private static void dilateSquare(byte[] plane, int width, int height, int radius) {
+        dilateRows(plane, width, height, radius);
+
+        // the columns are processed as the rows of the transposed plane
+        byte[] transposed = new byte[plane.length];
+        transpose(plane, transposed, width, height);
+        dilateRows(transposed, height, width, radius);
+        transpose(transposed, plane, height, width);
+    }
+
+    private static void dilateRows(byte[] plane, int width, int height, int radius) {
+        ThreadPool.processBands(height, (fromY, toY) -> {
+            var lineMax = new LineMax(width, radius);
+            for (int y = fromY; y < toY; y++) {
+                lineMax.process(plane, y * width, 1, width);
+            }
+        }, NULL_TRACKER);
+    }
+
+    private static void transpose(byte[] src, byte[] dest, int width, int height) {
+        // in blocks, so that both the reads and the writes are cache-friendly
+        int blockSize = 64;
+        int numBlockRows = (height + blockSize - 1) / blockSize;
+        ThreadPool.processRows(numBlockRows, blockRow -> {
+            int y0 = blockRow * blockSize;
+            int y1 = Math.min(height, y0 + blockSize);
+            for (int x0 = 0; x0 < width; x0 += blockSize) {
+                int x1 = Math.min(width, x0 + blockSize);
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        dest[x * height + y] = src[y * width + x];
+                    }
+                }
+            }
+        }, NULL_TRACKER);
+    }
+
+    /**
+     * The diamond with the radius 2k+1 is the sum of two diagonal lines
+     * of the radius k (which cover every second pixel of the diamond
+     * with the radius 2k) and of a 3x3 cross. For even radii a second
+     * cross is added. The plane is padded with zeros, so that the
+     * intermediate results are correct also near the edges.
+     */
+    private static void dilateDiamond(byte[] plane, int width, int height, int radius) {
+        int lineRadius = (radius - 1) / 2;
+        int numCrosses = radius - 2 * lineRadius;
+
+        int paddedWidth = width + 2 * radius;
+        int paddedHeight = height + 2 * radius;
+        byte[] padded = new byte[paddedWidth * paddedHeight];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(plane, y * width,
+                    padded, (y + radius) * paddedWidth + radius, width);
+        }
+
+        if (lineRadius > 0) {
+            dilateDiagonals(padded, paddedWidth, paddedHeight, lineRadius, true);
+            dilateDiagonals(padded, paddedWidth, paddedHeight, lineRadius, false);
+        }
+        byte[] tmp = new byte[padded.length];
+        for (int i = 0; i < numCrosses; i++) {
+            dilateCross(padded, tmp, paddedWidth, paddedHeight);
+            byte[] swap = padded;
+            padded = tmp;
+            tmp = swap;
+        }
+
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(padded, (y + radius) * paddedWidth + radius,
+                    plane, y * width, width);
+        }
+    }
+
+    private static void dilateDiagonals(byte[] plane, int width, int height,
+                                        int radius, boolean descending) {
+        // each diagonal starts either in the first row or in the
+        // first (for the descending ones) or last column
+        int numDiagonals = width + height - 1;
+        int maxLength = Math.min(width, height);
+        ThreadPool.processBands(numDiagonals, (from, to) -> {
+            var lineMax = new LineMax(maxLength, radius);
+            for (int d = from; d < to; d++) {
+                int startX;
+                int startY;
+                if (d < width) {
+                    startX = d;
+                    startY = 0;
+                } else {
+                    startX = descending ? 0 : width - 1;
+                    startY = d - width + 1;
+                }
+                int length;
+                int step;
+                if (descending) {
+                    length = Math.min(width - startX, height - startY);
+                    step = width + 1;
+                } else {
+                    length = Math.min(startX + 1, height - startY);
+                    step = width - 1;
+                }
+                lineMax.process(plane, startY * width + startX, step, length);
+            }
+        }, NULL_TRACKER);
+    }
+
+    private static void dilateCross(byte[] src, byte[] dest, int width, int height) {
+        ThreadPool.processRows(height, y -> {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = rowStart + x;
+                int max = src[i] & 0xFF;
+                if (x > 0) {
+                    max = Math.max(max, src[i - 1] & 0xFF);
+                }
+                if (x < width - 1) {
+                    max = Math.max(max, src[i + 1] & 0xFF);
+                }
+                if (y > 0) {
+                    max = Math.max(max, src[i - width] & 0xFF);
+                }
+                if (y < height - 1) {
+                    max = Math.max(max, src[i + width] & 0xFF);
+                }
+                dest[i] = (byte) max;
+            }
+        }, NULL_TRACKER);
     }
 
-    private static short max(short a, short b) {
-        return (a >= b) ? a : b;
+    /**
+     * Calculates the running maximum along a line with the van
+     * Herk/Gil-Werman algorithm. The line is divided into blocks
+     * with the size of the window, and every window is covered
+     * by the suffix of a block and the prefix of the next one.
+     */
+    private static class LineMax {
+        private final int radius;
+        private final int[] values;
+        private final int[] prefixMax;
+        private final int[] suffixMax;
+
+        LineMax(int maxLength, int radius) {
+            this.radius = radius;
+            // the line is padded with zeros on both sides
+            int paddedLength = maxLength + 2 * radius;
+            values = new int[paddedLength];
+            prefixMax = new int[paddedLength];
+            suffixMax = new int[paddedLength];
+        }
+
+        void process(byte[] data, int start, int step, int length) {
+            int paddedLength = length + 2 * radius;
+            for (int i = 0; i < length; i++) {
+                values[radius + i] = data[start + i * step] & 0xFF;
+            }
+            for (int i = 0; i < radius; i++) {
+                values[i] = 0;
+                values[radius + length + i] = 0;
+            }
+
+            int windowSize = 2 * radius + 1;
+            for (int blockStart = 0; blockStart < paddedLength; blockStart += windowSize) {
+                int blockEnd = Math.min(blockStart + windowSize, paddedLength);
+                int max = 0;
+                for (int i = blockStart; i < blockEnd; i++) {
+                    max = Math.max(max, values[i]);
+                    prefixMax[i] = max;
+                }
+                max = 0;
+                for (int i = blockEnd - 1; i >= blockStart; i--) {
+                    max = Math.max(max, values[i]);
+                    suffixMax[i] = max;
+                }
+            }
+
+            // the window of the pixel i is [i, i + 2 * radius] in the padded line
+            for (int i = 0; i < length; i++) {
+                int max = Math.max(suffixMax[i], prefixMax[i + 2 * radius]);
+                data[start + i * step] = (byte) max;
+            }
+        }
     }
 
     @Override
@@ -143,4 +361,3 @@ public class MorphologyFilter extends WholeImageFilter {
         return "Blur/Minimum";
     }
 }
-
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
+import pixelitor.filters.Rank;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The implementation of the {@link Rank} filter: each channel
+ * of a pixel is replaced by the given percentile (for example
+ * the median, the minimum or the maximum) of the channel values
+ * in the square neighbourhood of the pixel.
+ *
+ * The values are counted in histograms, which are updated
+ * incrementally as the neighbourhood slides along a row
+ * (Huang's algorithm), so the running time grows only linearly
+ * with the radius. The rows are processed in parallel.
+ */
+public class RankFilter extends WholeImageFilter {
+    public static final float MINIMUM = 0.0f;
+    public static final float MEDIAN = 0.5f;
+    public static final float MAXIMUM = 1.0f;
+
+    // the 256 levels of a channel are grouped into 16 coarse
+    // bins, so that a percentile can be found in at most 32 steps
+    private static final int COARSE_SHIFT = 4;
+    private static final int NUM_COARSE_BINS = 256 >> COARSE_SHIFT;
+
+    private int radius = 1;
+    private float percentile = MEDIAN;
+
+    public RankFilter(String filterName) {
+        super(filterName);
+    }
+
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Sets the percentile as a value between 0 (minimum) and 1 (maximum)
+     */
+    public void setPercentile(float percentile) {
+        this.percentile = percentile;
+    }
+
+    @Override
+    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+        int[] outPixels = new int[width * height];
+
+        pt = createProgressTracker(height);
+        ThreadPool.processBands(height, (fromY, toY) ->
+                filterRows(fromY, toY, width, height, inPixels, outPixels), pt);
+        finishProgressTracker();
+
+        return outPixels;
+    }
+
+    private void filterRows(int fromY, int toY, int width, int height,
+                            int[] inPixels, int[] outPixels) {
+        // the histograms of the alpha, red, green and blue channels
+        int[] hist = new int[4 * 256];
+        int[] coarse = new int[4 * NUM_COARSE_BINS];
+
+        for (int y = fromY; y < toY; y++) {
+            // at the edges only the pixels inside the image are counted
+            int minY = Math.max(0, y - radius);
+            int maxY = Math.min(height - 1, y + radius);
+
+            Arrays.fill(hist, 0);
+            Arrays.fill(coarse, 0);
+            int lastX = Math.min(width - 1, radius);
+            for (int x = 0; x <= lastX; x++) {
+                updateColumn(hist, coarse, inPixels, width, x, minY, maxY, 1);
+            }
+            int numRows = maxY - minY + 1;
+            int numCols = lastX + 1;
+
+            int index = y * width;
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    int addedX = x + radius;
+                    if (addedX < width) {
+                        updateColumn(hist, coarse, inPixels, width, addedX, minY, maxY, 1);
+                        numCols++;
+                    }
+                    int removedX = x - radius - 1;
+                    if (removedX >= 0) {
+                        updateColumn(hist, coarse, inPixels, width, removedX, minY, maxY, -1);
+                        numCols--;
+                    }
+                }
+
+                int rank = Math.round(percentile * (numRows * numCols - 1));
+                int a = findValue(hist, coarse, 0, rank);
+                int r = findValue(hist, coarse, 1, rank);
+                int g = findValue(hist, coarse, 2, rank);
+                int b = findValue(hist, coarse, 3, rank);
+                outPixels[index++] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    private static void updateColumn(int[] hist, int[] coarse, int[] pixels,
+                                     int width, int x, int minY, int maxY, int delta) {
+        for (int y = minY; y <= maxY; y++) {
+            int rgb = pixels[y * width + x];
+            int a = rgb >>> 24;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
+
+            hist[a] += delta;
+            hist[256 + r] += delta;
+            hist[512 + g] += delta;
+            hist[768 + b] += delta;
+
+            coarse[a >> COARSE_SHIFT] += delta;
+            coarse[NUM_COARSE_BINS + (r >> COARSE_SHIFT)] += delta;
+            coarse[2 * NUM_COARSE_BINS + (g >> COARSE_SHIFT)] += delta;
+            coarse[3 * NUM_COARSE_BINS + (b >> COARSE_SHIFT)] += delta;
+        }
+    }
+
+    /**
+     * Returns the channel value with the given (zero-based)
+     * rank in the sorted values of the neighbourhood
+     */
+    private static int findValue(int[] hist, int[] coarse, int channel, int rank) {
+        int coarseStart = channel * NUM_COARSE_BINS;
+        int bin = 0;
+        int count = coarse[coarseStart];
+        while (count <= rank) {
+            bin++;
+            count += coarse[coarseStart + bin];
+        }
+        // the value is in this coarse bin, step back to its start
+        count -= coarse[coarseStart + bin];
+
+        int histStart = channel * 256;
+        int value = bin << COARSE_SHIFT;
+        count += hist[histStart + value];
+        while (count <= rank) {
+            value++;
+            count += hist[histStart + value];
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Noise/Median and Rank";
+    }
+}
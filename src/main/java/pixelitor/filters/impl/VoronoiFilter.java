@@ -18,8 +18,10 @@
 package pixelitor.filters.impl;
 
 import com.jhlabs.image.PointFilter;
+import pixelitor.ThreadPool;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Metric;
+import pixelitor.utils.PointGrid;
 import pixelitor.utils.ReseedSupport;
 import pixelitor.utils.Shapes;
 
@@ -30,6 +32,7 @@ import java.util.Random;
 
 import static java.awt.RenderingHints.KEY_ANTIALIASING;
 import static java.awt.RenderingHints.VALUE_ANTIALIAS_ON;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
 
 /**
  * Voronoi Diagram filter implementation
@@ -39,6 +42,7 @@ public class VoronoiFilter extends PointFilter {
     private int[] xCoords;
     private int[] yCoords;
     private int[] colors;
+    private PointGrid pointGrid;
     private Metric metric;
     private boolean useImageColors;
 
@@ -85,6 +89,14 @@ public class VoronoiFilter extends PointFilter {
             }
         }
 
+        float[] xs = new float[numPoints];
+        float[] ys = new float[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            xs[i] = xCoords[i];
+            ys[i] = yCoords[i];
+        }
+        pointGrid = PointGrid.create(xs, ys, 0, 0, src.getWidth(), src.getHeight(), 1);
+
         return super.filter(src, dst);
     }
 
@@ -107,40 +119,14 @@ public class VoronoiFilter extends PointFilter {
 
     @Override
     public int filterRGB(int x, int y, int rgb) {
-        int closestPointIndex = 0;
-        double fromHereToClosestSoFar = Double.POSITIVE_INFINITY;
-
-        // naive brute-force search, but quite fast, because
-        // it doesn't calculate square roots for the distance
-        // TODO use a faster algorithm
-        for (int i = 0; i < numPoints; i++) {
-            double fromHereToPointI = metric.distanceInt(
-                    xCoords[i], x, yCoords[i], y);
-            if (fromHereToPointI < fromHereToClosestSoFar) {
-                closestPointIndex = i;
-                fromHereToClosestSoFar = fromHereToPointI;
-            }
-        }
-
-        return colors[closestPointIndex];
+        return colors[pointGrid.findNearest(x, y, metric)];
     }
 
     /**
      * Finds the nearest point with double precision. Used for AA
      */
     private int nearestSiteDouble(double x, double y) {
-        int closestPointIndex = 0;
-        double fromHereToClosestSoFar = Double.POSITIVE_INFINITY;
-
-        for (int i = 0; i < numPoints; i++) {
-            double fromHereToPointI = metric.distanceDouble(
-                    xCoords[i], x, yCoords[i], y);
-            if (fromHereToPointI < fromHereToClosestSoFar) {
-                closestPointIndex = i;
-                fromHereToClosestSoFar = fromHereToPointI;
-            }
-        }
-        return closestPointIndex;
+        return pointGrid.findNearest(x, y, metric);
     }
 
     /**
@@ -198,18 +184,21 @@ public class VoronoiFilter extends PointFilter {
         int[] pixelsCopy = new int[pixels.length];
         System.arraycopy(pixels, 0, pixelsCopy, 0, pixels.length);
 
-        for (int i = 0; i < pixels.length; i++) {
-            // only pixels at the edges are supersampled
-            boolean edge;
-            try {
-                edge = isEdge(pixelsCopy, i, width);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                edge = false;
+        int height = imgSoFar.getHeight();
+        ThreadPool.processRows(height, y -> {
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                // only pixels at the edges are supersampled
+                boolean edge;
+                try {
+                    edge = isEdge(pixelsCopy, i, width);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    edge = false;
+                }
+
+                if (edge) {
+                    pixels[i] = calcSuperSampledColor(i, width);
+                }
             }
-
-            if(edge) {
-                pixels[i] = calcSuperSampledColor(i, width);
-            }
-        }
+        }, NULL_TRACKER);
     }
 }
@@ -74,4 +74,9 @@ public class Levels extends FilterWithGUI {
     public boolean supportsGray() {
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
+}
@@ -182,4 +182,9 @@ public class ColorBalance extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointwise() {
+        return true;
+    }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.utils.VisibleForTesting;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Keeps the {@link PixelBackup}s of the history in memory while
+ * their total size fits in a byte budget. Beyond that, the least
+ * recently used backups are compressed and moved into a temporary
+ * swap file on a background thread, and they are loaded back
+ * (for example by an undo) when they are needed again.
+ *
+ * All the methods are synchronized on the class, but the
+ * compression and the writing happen outside the lock.
+ */
+class BackupStore {
+    private static final ThreadFactory threadFactory = r -> {
+        Thread thread = new Thread(r, "[History swap thread]");
+        thread.setDaemon(true);
+        return thread;
+    };
+    private static final ExecutorService swapExecutor
+            = Executors.newSingleThreadExecutor(threadFactory);
+
+    private static long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    // the backups that are in memory, in the order of their last use
+    private static final Set<PixelBackup> inMemory = new LinkedHashSet<>();
+    private static long bytesInMemory = 0;
+
+    // the in-memory bytes of the backups that are being swapped out
+    private static long bytesBeingSwapped = 0;
+
+    private static FileChannel swapFile;
+    private static long swapFileEnd = 0;
+    private static int numSwappedBackups = 0;
+
+    // set if the swap file can't be used
+    private static boolean swapDisabled = false;
+
+    private BackupStore() {
+    }
+
+    static synchronized void add(PixelBackup backup) {
+        inMemory.add(backup);
+        bytesInMemory += backup.getNumBytes();
+        trimToBudget(null);
+    }
+
+    /**
+     * Makes sure that the pixels of the given backup are in memory,
+     * and marks it as the most recently used one
+     */
+    static synchronized void ensureInMemory(PixelBackup backup) {
+        if (backup.disposed) {
+            throw new IllegalStateException("disposed backup");
+        }
+        if (backup.swapRequested) {
+            // it will stay in memory
+            backup.swapRequested = false;
+            bytesBeingSwapped -= backup.getNumBytes();
+        }
+
+        if (backup.isInMemory()) {
+            // move it to the end of the LRU order
+            inMemory.remove(backup);
+            inMemory.add(backup);
+            return;
+        }
+
+        backup.swappedIn(read(backup.swapPosition, backup.swapLength));
+        inMemory.add(backup);
+        bytesInMemory += backup.getNumBytes();
+        trimToBudget(backup);
+    }
+
+    /**
+     * Forgets the given backup, and returns its image if it was in memory
+     */
+    static synchronized BufferedImage remove(PixelBackup backup) {
+        if (backup.disposed) {
+            return null;
+        }
+        backup.disposed = true;
+        if (backup.swapRequested) {
+            backup.swapRequested = false;
+            bytesBeingSwapped -= backup.getNumBytes();
+        }
+
+        BufferedImage img = null;
+        if (backup.isInMemory()) {
+            img = backup.getImageInMemory();
+            inMemory.remove(backup);
+            bytesInMemory -= backup.getNumBytes();
+        }
+        if (backup.swapPosition != -1) {
+            swapSpaceFreed();
+        }
+        return img;
+    }
+
+    /**
+     * Starts swapping out the least recently used backups until
+     * the rest fits in the memory budget. The given backup
+     * (if not null) is kept in memory, because it is used right now.
+     */
+    private static void trimToBudget(PixelBackup keep) {
+        if (swapDisabled) {
+            return;
+        }
+        List<PixelBackup> toSwap = new ArrayList<>();
+        Iterator<PixelBackup> it = inMemory.iterator();
+        while (bytesInMemory - bytesBeingSwapped > memoryBudget && it.hasNext()) {
+            PixelBackup backup = it.next();
+            if (backup == keep || backup.swapRequested || !backup.canBeSwapped()) {
+                continue;
+            }
+            backup.swapRequested = true;
+            bytesBeingSwapped += backup.getNumBytes();
+            toSwap.add(backup);
+        }
+
+        for (PixelBackup backup : toSwap) {
+            if (backup.swapPosition != -1) {
+                // it was loaded back, but the copy in the swap file is still valid
+                finishSwapOut(backup, backup.swapPosition, backup.swapLength);
+            } else {
+                Raster source = backup.getSwapSource();
+                swapExecutor.execute(() -> swapOut(backup, source));
+            }
+        }
+    }
+
+    // runs on the swap thread
+    private static void swapOut(PixelBackup backup, Raster source) {
+        synchronized (BackupStore.class) {
+            if (!backup.swapRequested) {
+                // used or disposed since the request
+                return;
+            }
+        }
+
+        byte[] compressed = backup.compress(source);
+
+        long position;
+        synchronized (BackupStore.class) {
+            try {
+                position = allocate(compressed.length);
+            } catch (IOException e) {
+                swapFailed(backup, e);
+                return;
+            }
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(compressed);
+            while (buffer.hasRemaining()) {
+                swapFile.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            synchronized (BackupStore.class) {
+                swapSpaceFreed();
+                swapFailed(backup, e);
+            }
+            return;
+        }
+
+        synchronized (BackupStore.class) {
+            if (!backup.swapRequested) {
+                // used or disposed while it was written
+                swapSpaceFreed();
+                return;
+            }
+            finishSwapOut(backup, position, compressed.length);
+        }
+    }
+
+    private static void finishSwapOut(PixelBackup backup, long position, int length) {
+        long numBytes = backup.getNumBytes();
+        backup.swapRequested = false;
+        bytesBeingSwapped -= numBytes;
+        inMemory.remove(backup);
+        bytesInMemory -= numBytes;
+        backup.swappedOut(position, length);
+    }
+
+    private static void swapFailed(PixelBackup backup, IOException e) {
+        e.printStackTrace();
+        // keep everything in memory from now on
+        swapDisabled = true;
+        if (backup.swapRequested) {
+            backup.swapRequested = false;
+            bytesBeingSwapped -= backup.getNumBytes();
+        }
+    }
+
+    /**
+     * Reserves space for a swapped backup, and returns its position.
+     * The swap file space is not reused individually, but the file
+     * is truncated when none of the swapped backups is needed anymore.
+     */
+    private static long allocate(int length) throws IOException {
+        if (swapFile == null) {
+            File file = File.createTempFile("pixelitor_history", ".swap");
+            file.deleteOnExit();
+            swapFile = FileChannel.open(file.toPath(), READ, WRITE, DELETE_ON_CLOSE);
+        }
+        long position = swapFileEnd;
+        swapFileEnd += length;
+        numSwappedBackups++;
+        return position;
+    }
+
+    private static byte[] read(long position, int length) {
+        byte[] compressed = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        try {
+            while (buffer.hasRemaining()) {
+                if (swapFile.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of the history swap file");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed;
+    }
+
+    private static void swapSpaceFreed() {
+        numSwappedBackups--;
+        if (numSwappedBackups == 0 && swapFile != null) {
+            try {
+                swapFile.truncate(0);
+                swapFileEnd = 0;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static synchronized void setMemoryBudget(long newBudget) {
+        memoryBudget = newBudget;
+        trimToBudget(null);
+    }
+
+    @VisibleForTesting
+    static synchronized long getBytesInMemory() {
+        return bytesInMemory;
+    }
+
+    /**
+     * Waits until the already requested swapping finishes
+     */
+    @VisibleForTesting
+    static void waitForSwapping() {
+        try {
+            swapExecutor.submit(() -> {
+            }).get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
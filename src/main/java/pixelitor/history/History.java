@@ -89,6 +89,10 @@ public class History {
             return;
         }
 
+        if (edit instanceof ImageEdit) {
+            ((ImageEdit) edit).shareUnchangedTiles();
+        }
+
         var comp = edit.getComp();
 
         if (edit.makesDirty()) {
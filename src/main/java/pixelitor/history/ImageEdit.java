@@ -24,14 +24,18 @@ import pixelitor.utils.debug.DebugNode;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
  */
 public class ImageEdit extends FadeableEdit {
     private final boolean ignoreSelection;
-    private SoftReference<BufferedImage> imgRef;
+    private PixelBackup backup;
+
+    // replaces the full backup if the edit changed only some tiles
+    private TiledBackup tiledBackup;
+
     protected Drawable dr;
 
     private final boolean canRepeat;
@@ -47,8 +51,8 @@ public class ImageEdit extends FadeableEdit {
 
 //        Utils.debugImage(backupImage, "Backup for " + name);
         
-        // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
+        // the backup can be moved to the swap file if there are many edits
+        backup = PixelBackup.of(backupImage);
         this.dr = dr;
         this.canRepeat = canRepeat;
 
@@ -68,11 +72,40 @@ public class ImageEdit extends FadeableEdit {
         return edit;
     }
 
+    /**
+     * Replaces the full backup with the tiles that differ from the
+     * current image, if this saves memory. Called when the edit is
+     * added to the history, when the drawable already contains
+     * the result of the edit.
+     */
+    void shareUnchangedTiles() {
+        if (embedded || backup == null) {
+            return;
+        }
+        TiledBackup tiled = TiledBackup.create(backup.getImage(), getCurrentImage());
+        if (tiled != null) {
+            backup.dispose(true);
+            backup = null;
+            tiledBackup = tiled;
+        }
+    }
+
+    private BufferedImage getCurrentImage() {
+        if (ignoreSelection) {
+            return dr.getImage();
+        } else {
+            return dr.getSelectedSubImage(false);
+        }
+    }
+
     // the backup should never be identical to the active image
     // otherwise the backup might be also edited
     private void checkBackupDifferentFromActive() {
+        if (backup == null) {
+            return;
+        }
         BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        if (layerImage == backup.getImage()) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -99,21 +132,26 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages()  {
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage == null) {
-            return false;
+        if (tiledBackup != null) {
+            return swapTiles();
         }
 
-        BufferedImage tmp;
-        if (ignoreSelection) {
-            tmp = dr.getImage();
-        } else {
-            tmp = dr.getSelectedSubImage(false);
+        BufferedImage backupImage;
+        try {
+            backupImage = backup.getImage();
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
         }
+
+        BufferedImage tmp = getCurrentImage();
         dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
+        // the old backup image is used by the drawable now
+        backup.dispose(false);
+
         // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        backup = PixelBackup.of(tmp);
 
         if(!embedded) {
             comp.imageChanged();
@@ -124,24 +162,46 @@ public class ImageEdit extends FadeableEdit {
         return true;
     }
 
+    private boolean swapTiles() {
+        try {
+            tiledBackup.swapWith(getCurrentImage());
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        // the image was changed in place
+        dr.imageChangedInPlaceForUndoRedo();
+
+        if (!embedded) {
+            comp.imageChanged();
+            dr.updateIconImage();
+        }
+        return true;
+    }
+
     @Override
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage != null) {
-            backupImage.flush();
+        if (backup != null) {
+            backup.dispose(true);
+            backup = null;
+        }
+        if (tiledBackup != null) {
+            tiledBackup.dispose();
+            tiledBackup = null;
         }
-
-        imgRef = null;
         dr = null;
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if(imgRef != null) {
-            // this still could be null
-            return imgRef.get();
+        if (backup != null) {
+            return backup.getImage();
+        }
+        if (tiledBackup != null) {
+            return tiledBackup.createImage(getCurrentImage());
         }
         return null;
     }
@@ -155,10 +215,12 @@ public class ImageEdit extends FadeableEdit {
     public DebugNode getDebugNode() {
         var node = super.getDebugNode();
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("backup image width", img.getWidth());
-            node.addInt("backup image height", img.getHeight());
+        if (backup != null) {
+            node.addInt("backup image width", backup.getWidth());
+            node.addInt("backup image height", backup.getHeight());
+        } else if (tiledBackup != null) {
+            node.addInt("backup image width", tiledBackup.getWidth());
+            node.addInt("backup image height", tiledBackup.getHeight());
         }
 
         return node;
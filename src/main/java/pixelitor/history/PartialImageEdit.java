@@ -29,7 +29,7 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
 
 import static java.lang.String.format;
 
@@ -40,7 +40,7 @@ import static java.lang.String.format;
 public class PartialImageEdit extends FadeableEdit {
     private final Rectangle saveRect;
     private final boolean canRepeat;
-    private SoftReference<Raster> backupRasterRef;
+    private PixelBackup backup;
 
     private final Drawable dr;
 
@@ -54,7 +54,7 @@ public class PartialImageEdit extends FadeableEdit {
         this.saveRect = saveRect;
 
         Raster backupRaster = image.getData(this.saveRect);
-        backupRasterRef = new SoftReference<>(backupRaster);
+        backup = PixelBackup.of(backupRaster);
 
 //        EventQueue.invokeLater(() -> Utils.debugRaster(backupRaster, "Partial Image"));
     }
@@ -81,8 +81,11 @@ public class PartialImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapRasters() {
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) {
+        Raster backupRaster;
+        try {
+            backupRaster = backup.getRaster();
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
             return false;
         }
 
@@ -104,7 +107,8 @@ public class PartialImageEdit extends FadeableEdit {
             throw e;
         }
 
-        backupRasterRef = new SoftReference<>(tmpRaster);
+        backup.dispose(false);
+        backup = PixelBackup.of(tmpRaster);
 
         comp.imageChanged();
         dr.updateIconImage();
@@ -138,7 +142,8 @@ public class PartialImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        backupRasterRef = null;
+        backup.dispose(false);
+        backup = null;
     }
 
     @Override
@@ -148,13 +153,10 @@ public class PartialImageEdit extends FadeableEdit {
 
     @Override
     public BufferedImage getBackupImage() {
-        if (backupRasterRef == null) { // died
-            return null;
-        }
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) { // soft reference lost
+        if (backup == null) { // died
             return null;
         }
+        Raster backupRaster = backup.getRaster();
 
         // recreate the full image as if it was backed up entirely
         // because Fade expects to fade images of equal size
@@ -179,10 +181,9 @@ public class PartialImageEdit extends FadeableEdit {
 
         int width = -1;
         int height = -1;
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster != null) {
-            width = backupRaster.getWidth();
-            height = backupRaster.getHeight();
+        if (backup != null) {
+            width = backup.getWidth();
+            height = backup.getHeight();
         }
 
         node.addInt("backup image width", width);
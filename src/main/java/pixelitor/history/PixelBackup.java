@@ -0,0 +1,292 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static java.awt.image.DataBuffer.TYPE_BYTE;
+import static java.awt.image.DataBuffer.TYPE_INT;
+
+/**
+ * The backup pixels of an edit: either a whole image or a raster.
+ * The pixels are managed by the {@link BackupStore}, which can
+ * move them into the swap file and load them back when needed.
+ */
+public class PixelBackup {
+    // the color model if a whole image is backed up, null for rasters
+    private final ColorModel colorModel;
+
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+
+    // the following fields are guarded by the BackupStore lock
+
+    // the pixels, or null if they are only in the swap file
+    private BufferedImage image;
+    private Raster raster;
+
+    // remembers the pixel layout while the pixels are only in the swap file
+    private SampleModel swappedSampleModel;
+
+    // the location in the swap file, or -1 if not swapped out
+    long swapPosition = -1;
+    int swapLength;
+
+    boolean swapRequested;
+    boolean disposed;
+
+    private PixelBackup(BufferedImage image, Raster raster) {
+        this.image = image;
+        this.raster = raster;
+        if (image != null) {
+            colorModel = image.getColorModel();
+            minX = 0;
+            minY = 0;
+            width = image.getWidth();
+            height = image.getHeight();
+        } else {
+            colorModel = null;
+            minX = raster.getMinX();
+            minY = raster.getMinY();
+            width = raster.getWidth();
+            height = raster.getHeight();
+        }
+    }
+
+    /**
+     * Creates a backup of a whole image. The image should not be changed afterwards.
+     */
+    public static PixelBackup of(BufferedImage image) {
+        PixelBackup backup = new PixelBackup(image, null);
+        BackupStore.add(backup);
+        return backup;
+    }
+
+    /**
+     * Creates a backup of a raster. The raster should not be changed afterwards.
+     */
+    public static PixelBackup of(Raster raster) {
+        PixelBackup backup = new PixelBackup(null, raster);
+        BackupStore.add(backup);
+        return backup;
+    }
+
+    /**
+     * Returns the backed up image, loading it from the swap file if necessary.
+     */
+    public BufferedImage getImage() {
+        assert colorModel != null;
+        synchronized (BackupStore.class) {
+            BackupStore.ensureInMemory(this);
+            return image;
+        }
+    }
+
+    /**
+     * Returns the backed up raster, loading it from the swap file if necessary.
+     */
+    public Raster getRaster() {
+        assert colorModel == null;
+        synchronized (BackupStore.class) {
+            BackupStore.ensureInMemory(this);
+            return raster;
+        }
+    }
+
+    /**
+     * Releases the memory and the swap file space of this backup.
+     * If flush is true, then the in-memory image is also flushed,
+     * otherwise it can be still used by the caller.
+     */
+    public void dispose(boolean flush) {
+        BufferedImage img = BackupStore.remove(this);
+        if (flush && img != null) {
+            img.flush();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    boolean isInMemory() {
+        return image != null || raster != null;
+    }
+
+    BufferedImage getImageInMemory() {
+        return image;
+    }
+
+    /**
+     * Returns the size of the uncompressed pixels in bytes
+     */
+    long getNumBytes() {
+        SampleModel sm = getSampleModel();
+        long elementBytes = DataBuffer.getDataTypeSize(sm.getDataType()) / 8;
+        return (long) width * height * sm.getNumDataElements() * elementBytes;
+    }
+
+    /**
+     * Returns true if the pixels can be moved to the swap file
+     */
+    boolean canBeSwapped() {
+        int transferType = getSampleModel().getTransferType();
+        return transferType == TYPE_INT || transferType == TYPE_BYTE;
+    }
+
+    private SampleModel getSampleModel() {
+        if (image != null) {
+            return image.getSampleModel();
+        }
+        if (raster != null) {
+            return raster.getSampleModel();
+        }
+        return swappedSampleModel;
+    }
+
+    /**
+     * Returns the compressed pixels of the given source (the
+     * result of getSwapSource). Called without holding the store
+     * lock, therefore it doesn't access the mutable fields.
+     */
+    byte[] compress(Raster source) {
+        Object data = source.getDataElements(source.getMinX(), source.getMinY(),
+                width, height, null);
+        byte[] bytes;
+        int bytesPerPixel;
+        if (data instanceof int[]) {
+            int[] ints = (int[]) data;
+            ByteBuffer buffer = ByteBuffer.allocate(ints.length * 4);
+            buffer.asIntBuffer().put(ints);
+            bytes = buffer.array();
+            bytesPerPixel = 4 * ints.length / (width * height);
+        } else {
+            bytes = (byte[]) data;
+            bytesPerPixel = bytes.length / (width * height);
+        }
+
+        // replaces each byte with the difference from the same channel
+        // of the previous pixel, which makes smooth areas compress better
+        int rowBytes = width * bytesPerPixel;
+        for (int rowStart = 0; rowStart < bytes.length; rowStart += rowBytes) {
+            for (int i = rowStart + rowBytes - 1; i >= rowStart + bytesPerPixel; i--) {
+                bytes[i] -= bytes[i - bytesPerPixel];
+            }
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        var bos = new ByteArrayOutputStream(bytes.length / 8);
+        try (var dos = new DeflaterOutputStream(bos, deflater, 1 << 16)) {
+            dos.write(bytes);
+        } catch (IOException e) {
+            // can't happen with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns the raster that is compressed when the backup is swapped out
+     */
+    Raster getSwapSource() {
+        return image != null ? image.getRaster() : raster;
+    }
+
+    /**
+     * Called by the store when the pixels were written to the swap file
+     */
+    void swappedOut(long position, int length) {
+        swappedSampleModel = getSampleModel().createCompatibleSampleModel(width, height);
+        swapPosition = position;
+        swapLength = length;
+        image = null;
+        raster = null;
+    }
+
+    /**
+     * Called by the store with the compressed
+     * pixels that were read from the swap file
+     */
+    void swappedIn(byte[] compressed) {
+        SampleModel sm = swappedSampleModel;
+        int bytesPerPixel = sm.getNumDataElements()
+                * DataBuffer.getDataTypeSize(sm.getDataType()) / 8;
+        byte[] bytes = new byte[width * height * bytesPerPixel];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("truncated history backup");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+
+        int rowBytes = width * bytesPerPixel;
+        for (int rowStart = 0; rowStart < bytes.length; rowStart += rowBytes) {
+            for (int i = rowStart + bytesPerPixel; i < rowStart + rowBytes; i++) {
+                bytes[i] += bytes[i - bytesPerPixel];
+            }
+        }
+
+        WritableRaster restored = Raster.createWritableRaster(sm, new Point(minX, minY));
+        if (sm.getTransferType() == TYPE_INT) {
+            int[] ints = new int[bytes.length / 4];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+            restored.setDataElements(minX, minY, width, height, ints);
+        } else {
+            restored.setDataElements(minX, minY, width, height, bytes);
+        }
+
+        if (colorModel != null) {
+            image = new BufferedImage(colorModel, restored,
+                    colorModel.isAlphaPremultiplied(), null);
+        } else {
+            raster = restored;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The backup of an {@link ImageEdit} that keeps only the tiles
+ * changed by the edit. The unchanged tiles are shared with the
+ * current image of the drawable, so they don't use extra memory,
+ * and undo/redo swaps only the changed tiles in place.
+ */
+class TiledBackup {
+    static final int TILE_SIZE = 128;
+
+    // if more tiles changed, then the full backup is kept
+    private static final double MAX_CHANGED_RATIO = 0.75;
+
+    private final int width;
+    private final int height;
+
+    // horizontal runs of changed tiles
+    private final List<PixelBackup> runs;
+
+    private TiledBackup(int width, int height, List<PixelBackup> runs) {
+        this.width = width;
+        this.height = height;
+        this.runs = runs;
+    }
+
+    /**
+     * Compares the image before and after an edit, and returns the
+     * tiled backup of the changed areas, or null if this wouldn't
+     * save memory or the images are not comparable.
+     */
+    static TiledBackup create(BufferedImage before, BufferedImage after) {
+        int width = before.getWidth();
+        int height = before.getHeight();
+        if (width != after.getWidth() || height != after.getHeight()
+                || before.getType() != after.getType()
+                || before.getType() == BufferedImage.TYPE_CUSTOM
+                || before.getRaster().getDataBuffer() == after.getRaster().getDataBuffer()) {
+            return null;
+        }
+
+        List<Rectangle> changed = findChangedRuns(before, after);
+        long changedArea = 0;
+        for (Rectangle r : changed) {
+            changedArea += (long) r.width * r.height;
+        }
+        if (changedArea > MAX_CHANGED_RATIO * width * height) {
+            return null;
+        }
+
+        List<PixelBackup> runs = new ArrayList<>(changed.size());
+        for (Rectangle r : changed) {
+            runs.add(PixelBackup.of(before.getData(r)));
+        }
+        return new TiledBackup(width, height, runs);
+    }
+
+    /**
+     * Returns the areas of the changed tiles, where the
+     * horizontally adjacent ones are merged into one area
+     */
+    private static List<Rectangle> findChangedRuns(BufferedImage a, BufferedImage b) {
+        int width = a.getWidth();
+        int height = a.getHeight();
+        int elemsPerPixel = a.getRaster().getNumDataElements();
+        List<Rectangle> runs = new ArrayList<>();
+
+        // reused for all bands (they can be bigger than necessary)
+        Object rowsA = null;
+        Object rowsB = null;
+        for (int y = 0; y < height; y += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - y);
+            rowsA = a.getRaster().getDataElements(0, y, width, tileHeight, rowsA);
+            rowsB = b.getRaster().getDataElements(0, y, width, tileHeight, rowsB);
+
+            int runStart = -1;
+            for (int x = 0; x < width; x += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - x);
+                boolean tileChanged = false;
+                for (int row = 0; row < tileHeight && !tileChanged; row++) {
+                    int from = (row * width + x) * elemsPerPixel;
+                    int to = from + tileWidth * elemsPerPixel;
+                    tileChanged = !rangeEquals(rowsA, rowsB, from, to);
+                }
+
+                if (tileChanged && runStart == -1) {
+                    runStart = x;
+                } else if (!tileChanged && runStart != -1) {
+                    runs.add(new Rectangle(runStart, y, x - runStart, tileHeight));
+                    runStart = -1;
+                }
+            }
+            if (runStart != -1) {
+                runs.add(new Rectangle(runStart, y, width - runStart, tileHeight));
+            }
+        }
+        return runs;
+    }
+
+    private static boolean rangeEquals(Object a, Object b, int from, int to) {
+        if (a instanceof int[]) {
+            return Arrays.equals((int[]) a, from, to, (int[]) b, from, to);
+        } else if (a instanceof byte[]) {
+            return Arrays.equals((byte[]) a, from, to, (byte[]) b, from, to);
+        } else if (a instanceof short[]) {
+            return Arrays.equals((short[]) a, from, to, (short[]) b, from, to);
+        }
+        throw new IllegalStateException("unexpected transfer type: " + a.getClass());
+    }
+
+    /**
+     * Swaps the backed up tiles with the corresponding tiles
+     * of the given image, which is changed in place
+     */
+    void swapWith(BufferedImage current) {
+        assert current.getWidth() == width && current.getHeight() == height;
+
+        for (int i = 0; i < runs.size(); i++) {
+            PixelBackup run = runs.get(i);
+            Raster backupRaster = run.getRaster();
+            Raster currentRaster = current.getData(backupRaster.getBounds());
+            current.setData(backupRaster);
+
+            run.dispose(false);
+            runs.set(i, PixelBackup.of(currentRaster));
+        }
+    }
+
+    /**
+     * Recreates the full backup image from the given current image
+     */
+    BufferedImage createImage(BufferedImage current) {
+        BufferedImage img = ImageUtils.copyImage(current);
+        for (PixelBackup run : runs) {
+            img.setData(run.getRaster());
+        }
+        return img;
+    }
+
+    void dispose() {
+        for (PixelBackup run : runs) {
+            run.dispose(false);
+        }
+        runs.clear();
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static java.awt.image.BufferedImage.*;
+
+/**
+ * Writes and reads the pixels of images as bands of rows, where
+ * each band is compressed independently, so that the compression
+ * and the decompression can run in parallel on the {@link ThreadPool}.
+ * The pixels are transferred with bulk array operations.
+ *
+ * The layout of one image is: width, height, image type,
+ * rows per chunk (all ints), followed by the chunks, each of them
+ * being an int (the compressed length) followed by the deflated bytes.
+ *
+ * When reading, the compressed chunks are validated and kept in
+ * memory, and an image is decoded when it is first needed.
+ */
+class ChunkedImageCodec {
+    // the approximate uncompressed size of a chunk
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    // limits the memory used by the compressed
+    // chunks that are waiting to be written
+    private static final int MAX_CHUNKS_IN_FLIGHT = 2 * ThreadPool.getNumCores() + 2;
+
+    private ChunkedImageCodec() {
+    }
+
+    static int countChunks(BufferedImage img) {
+        int rowsPerChunk = calcRowsPerChunk(img.getWidth(), bytesPerPixel(writtenType(img)));
+        return (img.getHeight() + rowsPerChunk - 1) / rowsPerChunk;
+    }
+
+    /**
+     * Writes the given images. The chunks are compressed in parallel,
+     * but they are written in order by the calling thread, which also
+     * updates the given tracker once per chunk.
+     */
+    static void write(DataOutputStream out, List<BufferedImage> images,
+                      ProgressTracker pt) throws IOException {
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        for (BufferedImage img : images) {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            int type = writtenType(img);
+            int rowsPerChunk = calcRowsPerChunk(width, bytesPerPixel(type));
+
+            // the header can be written only after the
+            // chunks of the previous image were written
+            writeCompletedChunks(out, inFlight, 0, pt);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(type);
+            out.writeInt(rowsPerChunk);
+
+            for (int y = 0; y < height; y += rowsPerChunk) {
+                int startY = y;
+                int numRows = Math.min(rowsPerChunk, height - y);
+                inFlight.add(ThreadPool.submit2(() ->
+                        compressRows(img, type, startY, numRows)));
+                writeCompletedChunks(out, inFlight, MAX_CHUNKS_IN_FLIGHT, pt);
+            }
+        }
+        writeCompletedChunks(out, inFlight, 0, pt);
+    }
+
+    /**
+     * Writes the oldest chunks until at most maxRemaining are in flight
+     */
+    private static void writeCompletedChunks(DataOutputStream out,
+                                             Deque<Future<byte[]>> inFlight,
+                                             int maxRemaining,
+                                             ProgressTracker pt) throws IOException {
+        while (inFlight.size() > maxRemaining) {
+            byte[] compressed = getResult(inFlight.removeFirst());
+            out.writeInt(compressed.length);
+            out.write(compressed);
+            pt.unitDone();
+        }
+    }
+
+    private static byte[] compressRows(BufferedImage img, int type,
+                                       int startY, int numRows) throws IOException {
+        int width = img.getWidth();
+        byte[] raw;
+        if (type == TYPE_BYTE_GRAY) {
+            raw = (byte[]) img.getRaster().getDataElements(
+                    0, startY, width, numRows, null);
+        } else {
+            int[] pixels;
+            if (type == img.getType()) {
+                pixels = (int[]) img.getRaster().getDataElements(
+                        0, startY, width, numRows, null);
+            } else {
+                // an unusual image type, saved as TYPE_INT_ARGB
+                pixels = img.getRGB(0, startY, width, numRows, null, 0, width);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(pixels.length * 4);
+            buffer.asIntBuffer().put(pixels);
+            raw = buffer.array();
+        }
+
+        Deflater deflater = new Deflater();
+        var bos = new ByteArrayOutputStream(raw.length / 4);
+        try (var dos = new DeflaterOutputStream(bos, deflater, 1 << 16)) {
+            dos.write(raw);
+        } finally {
+            deflater.end();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads the chunks of the given number of images, starting
+     * at the given file position, without decompressing them.
+     * The compressed chunks are copied into heap arrays, so that
+     * the file isn't needed after this returns, and the returned
+     * loaders decode them only when they are called.
+     * The headers and the chunk index are validated here, so that
+     * a corrupt file is detected when it is opened.
+     */
+    static List<Supplier<BufferedImage>> index(FileChannel channel, long position,
+                                               int numImages) throws IOException {
+        long fileSize = channel.size();
+        List<Supplier<BufferedImage>> loaders = new ArrayList<>(numImages);
+        ByteBuffer header = ByteBuffer.allocate(16);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        for (int i = 0; i < numImages; i++) {
+            readFully(channel, header, position);
+            int width = header.getInt();
+            int height = header.getInt();
+            int type = header.getInt();
+            int rowsPerChunk = header.getInt();
+            if (bytesPerPixel(type) == 0 || width <= 0 || height <= 0 || rowsPerChunk <= 0
+                    || (long) width * rowsPerChunk * bytesPerPixel(type) > Integer.MAX_VALUE) {
+                throw new IOException("invalid image header");
+            }
+            position += 16;
+
+            int numChunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+            byte[][] chunks = new byte[numChunks][];
+            for (int c = 0; c < numChunks; c++) {
+                readFully(channel, lengthBuffer, position);
+                int length = lengthBuffer.getInt();
+                position += 4;
+                if (length < 2 || length > fileSize - position) {
+                    throw new IOException("invalid chunk length " + length
+                            + " in image " + i + ", chunk " + c);
+                }
+                byte[] chunk = new byte[length];
+                readFully(channel, ByteBuffer.wrap(chunk), position);
+                if (!isZlibHeader(chunk[0], chunk[1])) {
+                    throw new IOException("invalid chunk data in image "
+                            + i + ", chunk " + c);
+                }
+                chunks[c] = chunk;
+                position += length;
+            }
+
+            loaders.add(new CompressedImage(chunks, width, height, type, rowsPerChunk));
+        }
+        return loaders;
+    }
+
+    /**
+     * Checks the first two bytes of a deflated chunk (RFC 1950)
+     */
+    private static boolean isZlibHeader(byte cmf, byte flg) {
+        return (cmf & 0x0F) == 8 // the deflate method
+                && ((cmf & 0xFF) << 8 | (flg & 0xFF)) % 31 == 0
+                && (flg & 0x20) == 0; // no preset dictionary
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer,
+                                  long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * The compressed chunks of an image read from a file
+     */
+    private static class CompressedImage implements Supplier<BufferedImage> {
+        private final byte[][] chunks;
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int rowsPerChunk;
+
+        CompressedImage(byte[][] chunks, int width, int height,
+                        int type, int rowsPerChunk) {
+            this.chunks = chunks;
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.rowsPerChunk = rowsPerChunk;
+        }
+
+        @Override
+        public BufferedImage get() {
+            BufferedImage img = new BufferedImage(width, height, type);
+            int numChunks = chunks.length;
+
+            if (numChunks == 1 || ThreadPool.isWorkerThread()) {
+                for (int c = 0; c < numChunks; c++) {
+                    decompressChunk(img, c);
+                }
+                return img;
+            }
+
+            List<Future<?>> futures = new ArrayList<>(numChunks);
+            for (int c = 0; c < numChunks; c++) {
+                int chunk = c;
+                futures.add(ThreadPool.submit(() -> decompressChunk(img, chunk)));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    getResult(future);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return img;
+        }
+
+        private void decompressChunk(BufferedImage img, int chunk) {
+            int startY = chunk * rowsPerChunk;
+            decompressRows(chunks[chunk], img, startY, Math.min(rowsPerChunk, height - startY));
+        }
+    }
+
+    private static void decompressRows(byte[] compressed, BufferedImage img,
+                                       int startY, int numRows) {
+        int width = img.getWidth();
+        int type = img.getType();
+        byte[] raw = new byte[width * numRows * bytesPerPixel(type)];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("truncated image data");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+
+        WritableRaster raster = img.getRaster();
+        if (type == TYPE_BYTE_GRAY) {
+            raster.setDataElements(0, startY, width, numRows, raw);
+        } else {
+            int[] pixels = new int[width * numRows];
+            ByteBuffer.wrap(raw).asIntBuffer().get(pixels);
+            raster.setDataElements(0, startY, width, numRows, pixels);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the image type used in the file for the given image
+     */
+    private static int writtenType(BufferedImage img) {
+        int type = img.getType();
+        if (bytesPerPixel(type) == 0) {
+            return TYPE_INT_ARGB;
+        }
+        return type;
+    }
+
+    /**
+     * Returns the number of bytes used for a pixel of the
+     * given type, or 0 if the type isn't directly supported
+     */
+    private static int bytesPerPixel(int type) {
+        switch (type) {
+            case TYPE_INT_ARGB:
+            case TYPE_INT_ARGB_PRE:
+            case TYPE_INT_RGB:
+            case TYPE_INT_BGR:
+                return 4;
+            case TYPE_BYTE_GRAY:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int calcRowsPerChunk(int width, int bytesPerPixel) {
+        return Math.max(1, CHUNK_BYTES / (width * bytesPerPixel));
+    }
+}
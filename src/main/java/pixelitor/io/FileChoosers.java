@@ -43,6 +43,10 @@ public class FileChoosers {
     private static JFileChooser openChooser;
     private static SaveFileChooser saveChooser;
 
+    // the PNG compression chosen in the save chooser,
+    // also used when a PNG file is saved without it
+    private static PngCompression pngCompression = PngCompression.BALANCED;
+
     public static final FileFilter jpegFilter = new FileNameExtensionFilter("JPEG files", "jpg", "jpeg");
     private static final FileFilter pngFilter = new FileNameExtensionFilter("PNG files", "png");
     private static final FileFilter bmpFilter = new FileNameExtensionFilter("BMP files", "bmp");
@@ -105,11 +109,47 @@ public class FileChoosers {
             saveChooser.setDialogTitle("Save As");
 
             setDefaultSaveExtensions();
+            addPngCompressionChooser(saveChooser);
         } else {
             saveChooser.setCurrentDirectory(lastSaveDir);
         }
     }
 
+    /**
+     * Adds the choice of the PNG compression preset, which
+     * is shown only while the PNG file filter is selected.
+     */
+    private static void addPngCompressionChooser(JFileChooser chooser) {
+        var compressionCB = new JComboBox<>(PngCompression.values());
+        compressionCB.setName("pngCompression");
+        compressionCB.setSelectedItem(pngCompression);
+        compressionCB.addActionListener(e ->
+                pngCompression = (PngCompression) compressionCB.getSelectedItem());
+
+        var p = new JPanel(new BorderLayout(0, 5));
+        p.add(new JLabel("PNG Compression:"), BorderLayout.NORTH);
+        p.add(compressionCB, CENTER);
+        var accessory = new JPanel(new BorderLayout());
+        accessory.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
+        accessory.add(p, BorderLayout.NORTH);
+
+        accessory.setVisible(chooser.getFileFilter() == pngFilter);
+        chooser.addPropertyChangeListener(JFileChooser.FILE_FILTER_CHANGED_PROPERTY,
+                e -> accessory.setVisible(e.getNewValue() == pngFilter));
+        chooser.setAccessory(accessory);
+    }
+
+    /**
+     * Returns the settings for saving in the given format
+     * without any format-specific information from the user
+     */
+    static SaveSettings createSaveSettings(FileFormat format, File file) {
+        if (format == FileFormat.PNG) {
+            return new PngSettings(pngCompression, file);
+        }
+        return new SaveSettings(format, file);
+    }
+
     public static void openAsync() {
         initOpenChooser();
 
@@ -182,7 +222,7 @@ public class FileChoosers {
             JpegInfo jpegInfo = (JpegInfo) extraInfo;
             settings = new JpegSettings(jpegInfo, file);
         } else {
-            settings = new SaveSettings(format, file);
+            settings = createSaveSettings(format, file);
         }
 
         comp.saveAsync(settings, true);
@@ -23,6 +23,8 @@ import pixelitor.utils.Utils;
 import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -44,8 +46,12 @@ public enum FileFormat {
         @Override
         public CompletableFuture<Composition> readFrom(File file) {
             return CompletableFuture.supplyAsync(
-                    Utils.toSupplier(() -> PXCFormat.read(file)),
-                    IOThread.getExecutor());
+                    () -> read(file), IOThread.getExecutor());
+        }
+
+        @Override
+        public Composition read(File file) {
+            return Utils.toSupplier(() -> PXCFormat.read(file)).get();
         }
     }, ORA(true, true) {
         @Override
@@ -56,8 +62,12 @@ public enum FileFormat {
         @Override
         public CompletableFuture<Composition> readFrom(File file) {
             return CompletableFuture.supplyAsync(
-                    Utils.toSupplier(() -> OpenRaster.read(file)),
-                    IOThread.getExecutor());
+                    () -> read(file), IOThread.getExecutor());
+        }
+
+        @Override
+        public Composition read(File file) {
+            return Utils.toSupplier(() -> OpenRaster.read(file)).get();
         }
     };
 
@@ -80,6 +90,20 @@ public enum FileFormat {
         return readSimpleFrom(file);
     }
 
+    /**
+     * Loads a composition on the current thread, without using the
+     * IO thread, so several files can be loaded at the same time.
+     */
+    public Composition read(File file) {
+        // overwritten for multi-layered formats
+        BufferedImage img = TrackedIO.uncheckedRead(file);
+        if (img == null) {
+            throw new UncheckedIOException(new IOException(String.format(
+                    "Could not load \"%s\" as an image file.", file.getName())));
+        }
+        return Composition.fromImage(img, file, null);
+    }
+
     /**
      * Loads a composition from a file with a single-layer image format
      */
@@ -62,6 +62,14 @@ public class IO {
         return format.readFrom(file);
     }
 
+    /**
+     * Loads a composition on the current thread, see {@link FileFormat#read(File)}
+     */
+    public static Composition loadComp(File file) {
+        FileFormat format = FileFormat.fromFile(file).orElse(FileFormat.JPG);
+        return format.read(file);
+    }
+
     public static BufferedImage handleDecodingError(File file,
                                                      BufferedImage img,
                                                      Throwable e) {
@@ -123,7 +131,7 @@ public class IO {
             }
             Optional<FileFormat> fileFormat = FileFormat.fromFile(file);
             if(fileFormat.isPresent()) {
-                SaveSettings saveSettings = new SaveSettings(fileFormat.get(), file);
+                SaveSettings saveSettings = FileChoosers.createSaveSettings(fileFormat.get(), file);
                 comp.saveAsync(saveSettings, true);
                 return true;
             } else {
@@ -148,6 +156,9 @@ public class IO {
             if (format == FileFormat.JPG) {
                 JpegSettings settings = JpegSettings.from(saveSettings);
                 JpegOutput.save(image, settings.getJpegInfo(), selectedFile);
+            } else if (format == FileFormat.PNG) {
+                PngSettings settings = PngSettings.from(saveSettings);
+                TrackedIO.writePNG(image, selectedFile, settings.getCompression());
             } else {
                 TrackedIO.write(image, format.toString(), selectedFile);
             }
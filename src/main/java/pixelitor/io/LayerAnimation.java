@@ -77,6 +77,7 @@ public class LayerAnimation {
 
     private void export(File f) {
         AnimatedGifEncoder e = new AnimatedGifEncoder();
+        e.setFrameDifferencing(true);
         e.start(f);
         e.setDelay(delayMillis);
         e.setRepeat(0);
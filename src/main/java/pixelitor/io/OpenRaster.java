@@ -24,6 +24,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import pixelitor.Composition;
+import pixelitor.ThreadPool;
 import pixelitor.layers.BlendingMode;
 import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
@@ -35,6 +36,10 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -46,13 +51,32 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 /**
  * OpenRaster file format support.
  * Only image layers are saved as the format does not cover other layer types.
+ * The PNG images of the layers are encoded and decoded in parallel,
+ * but they are written into the archive in the original order.
  */
 public class OpenRaster {
     private static final String MERGED_IMAGE_NAME = "mergedimage.png";
+    private static final String THUMBNAIL_NAME = "Thumbnails/thumbnail.png";
+    private static final int THUMBNAIL_SIZE = 256;
+
+    // the maximal number of PNG images that are being encoded or decoded,
+    // or are waiting in memory (in encoded form) to be written or decoded
+    private static volatile int maxImagesInFlight = 2 * ThreadPool.getNumCores();
 
     private OpenRaster() {
     }
 
+    /**
+     * Limits the memory used while writing or reading
+     * files with many layers, see {@link #maxImagesInFlight}.
+     */
+    public static void setMaxImagesInFlight(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max = " + max);
+        }
+        maxImagesInFlight = max;
+    }
+
     public static void uncheckedWrite(Composition comp, File outFile, boolean addMergedImage) {
         try {
             write(comp, outFile, addMergedImage);
@@ -62,61 +86,58 @@ public class OpenRaster {
     }
 
     public static void write(Composition comp, File outFile, boolean addMergedImage) throws IOException {
-        ProgressTracker pt = new StatusBarProgressTracker("Writing " + outFile.getName(), 100);
-
-        FileOutputStream fos = new FileOutputStream(outFile);
-        ZipOutputStream zos = new ZipOutputStream(fos);
-
         String stackXML = format("<?xml version='1.0' encoding='UTF-8'?>\n" +
                 "<image w=\"%d\" h=\"%d\">\n" +
                 "<stack>\n", comp.getCanvasWidth(), comp.getCanvasHeight());
 
-        int numLayers = comp.getNumLayers();
-        int numImageLayers = comp.getNumImageLayers();
-        if (addMergedImage) {
-            numImageLayers++;
-        }
-        double workRatio = 1.0 / numImageLayers;
+        List<String> entryNames = new ArrayList<>();
+        List<Callable<byte[]>> encoders = new ArrayList<>();
 
         // Reverse iteration: in stack.xml the first element in a stack is the uppermost.
+        int numLayers = comp.getNumLayers();
         for (int i = numLayers - 1; i >= 0; i--) {
             Layer layer = comp.getLayer(i);
             if (layer instanceof ImageLayer) {
                 ImageLayer imageLayer = (ImageLayer) layer;
-                ProgressTracker spt = new SubtaskProgressTracker(workRatio, pt);
-                stackXML += writeLayer(imageLayer, i, zos, spt);
+                stackXML += createLayerXML(imageLayer, i);
+                entryNames.add(format("data/%d.png", i));
+                BufferedImage image = imageLayer.getImage();
+                encoders.add(() -> TrackedIO.writeToByteArray(image, "PNG"));
             }
         }
 
         if (addMergedImage) {
-            zos.putNextEntry(new ZipEntry(MERGED_IMAGE_NAME));
-            ProgressTracker subTaskTracker = new SubtaskProgressTracker(workRatio, pt);
             BufferedImage img = comp.getCompositeImage();
-            TrackedIO.writeToStream(img, zos, "PNG", subTaskTracker);
-            zos.closeEntry();
+            entryNames.add(MERGED_IMAGE_NAME);
+            encoders.add(() -> TrackedIO.writeToByteArray(img, "PNG"));
+            entryNames.add(THUMBNAIL_NAME);
+            encoders.add(() -> TrackedIO.writeToByteArray(
+                    ImageUtils.createThumbnail(img, THUMBNAIL_SIZE, null), "PNG"));
         }
 
         stackXML += "</stack>\n</image>";
 
-        // write the stack.xml file
-        zos.putNextEntry(new ZipEntry("stack.xml"));
-        zos.write(stackXML.getBytes(UTF_8));
-        zos.closeEntry();
+        ProgressTracker pt = new StatusBarProgressTracker(
+                "Writing " + outFile.getName(), entryNames.size());
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(outFile))) {
+            writeEncodedEntries(zos, entryNames, encoders, pt);
 
-        // write the mimetype
-        zos.putNextEntry(new ZipEntry("mimetype"));
-        zos.write("image/openraster".getBytes(UTF_8));
-        zos.closeEntry();
-        zos.close();
+            // write the stack.xml file
+            zos.putNextEntry(new ZipEntry("stack.xml"));
+            zos.write(stackXML.getBytes(UTF_8));
+            zos.closeEntry();
+
+            // write the mimetype
+            zos.putNextEntry(new ZipEntry("mimetype"));
+            zos.write("image/openraster".getBytes(UTF_8));
+            zos.closeEntry();
+        }
 
         pt.finished();
     }
 
-    private static String writeLayer(ImageLayer layer,
-                                     int layerIndex,
-                                     ZipOutputStream zos,
-                                     ProgressTracker pt) throws IOException {
-        String stackXML = format(Locale.ENGLISH,
+    private static String createLayerXML(ImageLayer layer, int layerIndex) {
+        return format(Locale.ENGLISH,
                 "<layer name=\"%s\" visibility=\"%s\" composite-op=\"%s\" " +
                         "opacity=\"%f\" src=\"data/%d.png\" x=\"%d\" y=\"%d\"/>\n",
                 layer.getName(),
@@ -126,26 +147,44 @@ public class OpenRaster {
                 layerIndex,
                 layer.getTx(),
                 layer.getTy());
-        ZipEntry entry = new ZipEntry(format("data/%d.png", layerIndex));
-        zos.putNextEntry(entry);
-        BufferedImage image = layer.getImage();
+    }
 
-        TrackedIO.writeToStream(image, zos, "PNG", pt);
+    /**
+     * Encodes the images on the thread pool, and writes them
+     * into the archive in the given order as soon as they are ready.
+     */
+    private static void writeEncodedEntries(ZipOutputStream zos,
+                                            List<String> entryNames,
+                                            List<Callable<byte[]>> encoders,
+                                            ProgressTracker pt) throws IOException {
+        int maxPending = maxImagesInFlight;
+        Deque<Future<byte[]>> pending = new ArrayDeque<>(maxPending);
+        int nextToSubmit = 0;
+        try {
+            for (String entryName : entryNames) {
+                while (nextToSubmit < encoders.size() && pending.size() < maxPending) {
+                    pending.addLast(ThreadPool.submit2(encoders.get(nextToSubmit)));
+                    nextToSubmit++;
+                }
+                byte[] png = getResult(pending.removeFirst());
 
-        zos.closeEntry();
-        return stackXML;
+                zos.putNextEntry(new ZipEntry(entryName));
+                zos.write(png);
+                zos.closeEntry();
+                pt.unitDone();
+            }
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+        }
     }
 
     public static Composition read(File file) throws IOException, ParserConfigurationException, SAXException {
         String stackXML = null;
-        ProgressTracker pt = new StatusBarProgressTracker("Reading " + file.getName(), 100);
-        Map<String, BufferedImage> images = new HashMap<>();
+        Map<String, BufferedImage> images = new ConcurrentHashMap<>();
         try (ZipFile zipFile = new ZipFile(file)) {
-            // first iterate to count the image files...
-            int numImageFiles = countNumImageFiles(zipFile);
-            double workRatio = 1.0 / numImageFiles;
-
-            // ...then iterate again to actually read the files
+            List<ZipEntry> imageEntries = new ArrayList<>();
             Enumeration<? extends ZipEntry> fileEntries = zipFile.entries();
             while (fileEntries.hasMoreElements()) {
                 ZipEntry entry = fileEntries.nextElement();
@@ -153,15 +192,15 @@ public class OpenRaster {
 
                 if (name.equalsIgnoreCase("stack.xml")) {
                     stackXML = extractString(zipFile.getInputStream(entry));
-                } else if (name.equalsIgnoreCase(MERGED_IMAGE_NAME)) {
-                    // no need for that
-                } else if (FileUtils.hasPNGExtension(name)) {
-                    ProgressTracker spt = new SubtaskProgressTracker(workRatio, pt);
-                    InputStream stream = zipFile.getInputStream(entry);
-                    BufferedImage image = TrackedIO.readFromStream(stream, spt);
-                    images.put(name, image);
+                } else if (isLayerImage(name)) {
+                    imageEntries.add(entry);
                 }
             }
+
+            ProgressTracker pt = new StatusBarProgressTracker(
+                    "Reading " + file.getName(), imageEntries.size());
+            readDecodedEntries(zipFile, imageEntries, images, pt);
+            pt.finished();
         }
 
         if (stackXML == null) {
@@ -198,7 +237,9 @@ public class OpenRaster {
             String layerY = element.getAttribute("y");
 
             BufferedImage image = images.get(layerImageSource);
-            image = ImageUtils.toSysCompatibleImage(image);
+            if (image == null) {
+                throw new IllegalStateException("No image found for " + layerImageSource);
+            }
 
             if (layerVisibility == null || layerVisibility.isEmpty()) {
                 //workaround: paint.net exported files use "visible" attribute instead of "visibility"
@@ -222,22 +263,78 @@ public class OpenRaster {
             comp.addLayerInInitMode(layer);
         }
 
-        pt.finished();
-
         return comp;
     }
 
-    private static int countNumImageFiles(ZipFile zipFile) {
-        Enumeration<? extends ZipEntry> fileEntries = zipFile.entries();
-        int numImageFiles = 0;
-        while (fileEntries.hasMoreElements()) {
-            ZipEntry entry = fileEntries.nextElement();
-            String name = entry.getName().toLowerCase();
-            if (name.endsWith("png") && !name.equals(MERGED_IMAGE_NAME)) {
-                numImageFiles++;
+    private static boolean isLayerImage(String entryName) {
+        // the merged image and the thumbnail are not needed
+        return FileUtils.hasPNGExtension(entryName)
+                && !entryName.equalsIgnoreCase(MERGED_IMAGE_NAME)
+                && !entryName.startsWith("Thumbnails/");
+    }
+
+    /**
+     * Reads the compressed images from the archive one after the other,
+     * and decodes them on the thread pool. The number of images
+     * that are read but not yet decoded is limited.
+     */
+    private static void readDecodedEntries(ZipFile zipFile,
+                                           List<ZipEntry> imageEntries,
+                                           Map<String, BufferedImage> images,
+                                           ProgressTracker pt) throws IOException {
+        int maxPending = maxImagesInFlight;
+        Deque<Future<?>> pending = new ArrayDeque<>(maxPending);
+        try {
+            for (ZipEntry entry : imageEntries) {
+                if (pending.size() == maxPending) {
+                    getResult(pending.removeFirst());
+                    pt.unitDone();
+                }
+                String name = entry.getName();
+                byte[] png;
+                try (InputStream stream = zipFile.getInputStream(entry)) {
+                    png = stream.readAllBytes();
+                }
+                pending.addLast(ThreadPool.submit2(() -> {
+                    BufferedImage image = TrackedIO.readFromByteArray(png);
+                    if (image == null) {
+                        throw new IOException("Could not decode " + name);
+                    }
+                    // the conversion can also run in parallel
+                    images.put(name, ImageUtils.toSysCompatibleImage(image));
+                    return null;
+                }));
+            }
+            while (!pending.isEmpty()) {
+                getResult(pending.removeFirst());
+                pt.unitDone();
+            }
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new IOException(cause);
         }
-        return numImageFiles;
     }
 
     private static Document loadXMLFromString(String xml)
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019 Laszlo Balazs-Csiki and Contributors
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
  *
  * This file is part of Pixelitor. Pixelitor is free software: you
  * can redistribute it and/or modify it under the terms of the GNU
@@ -21,10 +21,15 @@ import pixelitor.Composition;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
-import pixelitor.utils.SubtaskProgressTracker;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -35,33 +40,53 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.nio.file.StandardOpenOption.READ;
 import static pixelitor.utils.ImageUtils.getPixelsAsArray;
 
 /**
  * PXC file format support.
+ *
+ * Since version 4, the pixels of the layer images and masks are not
+ * stored in the Java serialization stream of the composition (where
+ * only their indexes are written), but after it, in independently
+ * deflated chunks (see {@link ChunkedImageCodec}). When such a file
+ * is opened, only the composition is deserialized, and the
+ * compressed images are decoded when they are first used.
+ * Version 3 files can still be read.
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
+
+    // The state of the serialization is thread-confined,
+    // because the batch processing can read and write
+    // several files at the same time.
 
-    // tracks the reading-writing of the whole file
-    private static ProgressTracker mainPT;
+    // the images collected while the composition is serialized
+    private static final ThreadLocal<List<BufferedImage>> imagesToWrite = new ThreadLocal<>();
 
-    private static double workRatioForOneImage;
+    // the loaders of the indexed images while the composition
+    // is deserialized, or null if a version 3 file is read
+    private static final ThreadLocal<List<Supplier<BufferedImage>>> imageLoaders = new ThreadLocal<>();
 
     private PXCFormat() {
     }
 
     public static Composition read(File file) throws NotPxcFormatException {
         long fileSize = file.length();
-        mainPT = new StatusBarProgressTracker(
+        ProgressTracker mainPT = new StatusBarProgressTracker(
                 "Reading " + file.getName(), (int) fileSize);
         Composition comp = null;
         try (InputStream is = new ProgressTrackingInputStream(
-                new FileInputStream(file), mainPT)) {
+                new BufferedInputStream(new FileInputStream(file)), mainPT)) {
             int firstByte = is.read();
             int secondByte = is.read();
             if (firstByte == 0xAB && secondByte == 0xC4) {
@@ -85,20 +110,19 @@ public class PXCFormat {
                         .getName() + " is in an obsolete pxc format, " +
                         "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
             }
-            if (versionByte > 3) {
+            if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
                 throw new NotPxcFormatException(file.getName() + " has unknown version byte " + versionByte);
             }
 
-            try (GZIPInputStream gs = new GZIPInputStream(is)) {
-                try (ObjectInput ois = new ObjectInputStream(gs)) {
-                    comp = (Composition) ois.readObject();
-                    mainPT.finished();
-                    mainPT = null;
-                    
-                    // file is transient in Composition because the pxc file can be renamed
-                    comp.setFile(file);
-                }
+            if (versionByte == 3) {
+                comp = readV3(is);
+            } else {
+                comp = readV4(file);
             }
+            mainPT.finished();
+
+            // file is transient in Composition because the pxc file can be renamed
+            comp.setFile(file);
         } catch (IOException | ClassNotFoundException e) {
             Messages.showException(e);
         }
@@ -106,89 +130,111 @@ public class PXCFormat {
         return comp;
     }
 
-    public static void write(Composition comp, File f) {
-        mainPT = new StatusBarProgressTracker(
-                "Writing " + f.getName(), 100);
-        int numImages = comp.calcNumImages();
-        if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
-        } else {
-            workRatioForOneImage = -1;
+    private static Composition readV3(InputStream is) throws IOException, ClassNotFoundException {
+        try (GZIPInputStream gs = new GZIPInputStream(is)) {
+            try (ObjectInput ois = new ObjectInputStream(gs)) {
+                return (Composition) ois.readObject();
+            }
         }
-        try (FileOutputStream fos = new FileOutputStream(f)) {
-            fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
-
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
-                }
+    }
+
+    private static Composition readV4(File file) throws IOException, ClassNotFoundException {
+        byte[] compBytes;
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            // skip the identification and version bytes
+            DataInputStream dis = new DataInputStream(
+                    Channels.newInputStream(channel.position(3)));
+            compBytes = new byte[dis.readInt()];
+            dis.readFully(compBytes);
+            int numImages = dis.readInt();
+
+            // the compressed chunks are copied, the file isn't needed later
+            imageLoaders.set(ChunkedImageCodec.index(channel, channel.position(), numImages));
+        }
+        try (ObjectInput ois = new ObjectInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(compBytes)))) {
+            return (Composition) ois.readObject();
+        } finally {
+            imageLoaders.remove();
+        }
+    }
+
+    public static void write(Composition comp, File f) {
+        ProgressTracker mainPT;
+        try {
+            // serializing the composition only collects the
+            // images, their pixels are written after it.
+            // This also decodes the lazily loaded images.
+            List<BufferedImage> images = new ArrayList<>();
+            imagesToWrite.set(images);
+            var compBytes = new ByteArrayOutputStream();
+            try (ObjectOutput oos = new ObjectOutputStream(new GZIPOutputStream(compBytes))) {
+                oos.writeObject(comp);
+            }
+
+            int numChunks = 0;
+            for (BufferedImage img : images) {
+                numChunks += ChunkedImageCodec.countChunks(img);
+            }
+            mainPT = new StatusBarProgressTracker(
+                    "Writing " + f.getName(), numChunks);
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(f)))) {
+                out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+                out.writeInt(compBytes.size());
+                compBytes.writeTo(out);
+                out.writeInt(images.size());
+                ChunkedImageCodec.write(out, images, mainPT);
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            imagesToWrite.remove();
         }
         mainPT.finished();
-        mainPT = null;
     }
 
+    /**
+     * Only writes the index of the image, the pixels
+     * are written after the serialized composition.
+     */
     public static void serializeImage(ObjectOutputStream out,
                                       BufferedImage img) throws IOException {
         assert img != null;
-        int imgType = img.getType();
-        int imgWidth = img.getWidth();
-        int imgHeight = img.getHeight();
-
-        out.writeInt(imgWidth);
-        out.writeInt(imgHeight);
-        out.writeInt(imgType);
-
-        ProgressTracker pt = getImageTracker();
+        List<BufferedImage> images = imagesToWrite.get();
+        out.writeInt(images.size());
+        images.add(img);
+    }
 
-        if (imgType == TYPE_BYTE_GRAY) {
-            ImageIO.write(img, "PNG", out);
-        } else {
-            int[] pixels = getPixelsAsArray(img);
-            int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
-            for (int pixel : pixels) {
-                out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
-            }
+    /**
+     * Returns the loader of the next image. For version 3 files
+     * the image is already decoded, and the progress tracking
+     * is done at the InputStream level, not here.
+     */
+    public static Supplier<BufferedImage> deserializeImage(ObjectInputStream in) throws IOException {
+        List<Supplier<BufferedImage>> loaders = imageLoaders.get();
+        if (loaders != null) {
+            return loaders.get(in.readInt());
         }
-    }
 
-    // when deserializing, the progress tracking
-    // is done at the InputStream level, not here
-    public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
+        // version 3: the pixels are in the serialization stream
         int width = in.readInt();
         int height = in.readInt();
         int type = in.readInt();
 
+        BufferedImage img;
         if (type == TYPE_BYTE_GRAY) {
-            return ImageIO.read(in);
+            img = ImageIO.read(in);
         } else {
-            BufferedImage img = new BufferedImage(width, height, type);
+            img = new BufferedImage(width, height, type);
             int[] pixels = getPixelsAsArray(img);
 
             int length = pixels.length;
             for (int i = 0; i < length; i++) {
                 pixels[i] = in.readInt();
             }
-            return img;
-        }
-    }
-
-    private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
-            return ProgressTracker.NULL_TRACKER;
-        } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
         }
+        return () -> img;
     }
 }
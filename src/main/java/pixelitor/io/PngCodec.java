@@ -0,0 +1,618 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.SubtaskProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * A PNG encoder for images with packed int pixels, and a decoder
+ * for the common 8-bit RGB and RGBA images. Other images are
+ * handled by ImageIO.
+ *
+ * The encoder filters the rows and deflates the bands of the
+ * filtered data in parallel. Like in pigz, each band is deflated
+ * separately, with the end of the previous band as the dictionary,
+ * and the bands are joined into a single zlib stream.
+ */
+public class PngCodec {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IHDR = chunkType("IHDR");
+    private static final int IDAT = chunkType("IDAT");
+    private static final int IEND = chunkType("IEND");
+    // chunks that could change the decoded pixels
+    private static final int ICCP = chunkType("iCCP");
+    private static final int TRNS = chunkType("tRNS");
+
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    // the uncompressed size of the bands that are deflated in parallel
+    private static final int BAND_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private PngCodec() {
+    }
+
+    private static int chunkType(String name) {
+        byte[] bytes = name.getBytes(US_ASCII);
+        return (bytes[0] << 24) | (bytes[1] << 16) | (bytes[2] << 8) | bytes[3];
+    }
+
+    /**
+     * Returns true if the given image can be written by this encoder
+     */
+    public static boolean canEncode(BufferedImage img) {
+        int type = img.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE && type != TYPE_INT_RGB) {
+            return false;
+        }
+        WritableRaster raster = img.getRaster();
+        if (raster.getParent() != null
+                || raster.getDataBuffer().getOffset() != 0
+                || ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                .getScanlineStride() != img.getWidth()) {
+            return false; // a sub-image
+        }
+        long filteredSize = (4L * img.getWidth() + 1) * img.getHeight();
+        return filteredSize < Integer.MAX_VALUE - 8;
+    }
+
+    /**
+     * Writes the given image, which must be accepted by {@link #canEncode}.
+     * The progress tracker is advanced by 100 units.
+     */
+    public static void write(BufferedImage img, OutputStream os,
+                             PngCompression compression,
+                             ProgressTracker pt) throws IOException {
+        assert canEncode(img);
+
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        boolean premultiplied = img.isAlphaPremultiplied();
+        boolean alpha = img.getColorModel().hasAlpha() && !isOpaque(pixels);
+        int bytesPerPixel = alpha ? 4 : 3;
+        int stride = width * bytesPerPixel + 1; // with the filter type byte
+
+        byte[] filtered = new byte[stride * height];
+        boolean adaptive = compression.hasAdaptiveFilter();
+        // processBands doesn't report the failed bands,
+        // so the finished rows are counted here
+        AtomicInteger rowsFiltered = new AtomicInteger();
+        ThreadPool.processBands(height, (fromY, toY) -> {
+                    filterRows(pixels, width, fromY, toY, bytesPerPixel,
+                            premultiplied, adaptive, filtered);
+                    rowsFiltered.addAndGet(toY - fromY);
+                },
+                ProgressTracker.NULL_TRACKER);
+        checkInterrupted();
+        if (rowsFiltered.get() != height) {
+            throw new IOException("Could not filter the PNG data");
+        }
+
+        int numBands = (filtered.length + BAND_SIZE - 1) / BAND_SIZE;
+        byte[][] deflated = new byte[numBands][];
+        long[] checksums = new long[numBands];
+        int level = compression.getDeflateLevel();
+        ThreadPool.processRows(numBands, band ->
+                        deflateBand(filtered, band, numBands, level, deflated, checksums),
+                new SubtaskProgressTracker(100.0 / numBands, pt));
+        checkInterrupted();
+
+        for (byte[] bandData : deflated) {
+            if (bandData == null) {
+                throw new IOException("Could not deflate the PNG data");
+            }
+        }
+        long adler = checksums[0];
+        for (int band = 1; band < numBands; band++) {
+            int bandLength = Math.min(BAND_SIZE, filtered.length - band * BAND_SIZE);
+            adler = combineAdler32(adler, checksums[band], bandLength);
+        }
+
+        var out = new DataOutputStream(os);
+        out.write(SIGNATURE);
+
+        var ihdr = new ByteArrayOutputStream(13);
+        var header = new DataOutputStream(ihdr);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8); // bit depth
+        header.writeByte(alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        header.writeByte(0); // compression method
+        header.writeByte(0); // filter method
+        header.writeByte(0); // no interlace
+        writeChunk(out, IHDR, ihdr.toByteArray());
+
+        for (int band = 0; band < numBands; band++) {
+            byte[] data = deflated[band];
+            if (band == 0) {
+                data = concat(zlibHeader(level), data);
+            }
+            if (band == numBands - 1) {
+                data = concat(data, new byte[]{
+                        (byte) (adler >>> 24), (byte) (adler >>> 16),
+                        (byte) (adler >>> 8), (byte) adler});
+            }
+            writeChunk(out, IDAT, data);
+        }
+        writeChunk(out, IEND, new byte[0]);
+        out.flush();
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("interrupted while encoding the PNG");
+        }
+    }
+
+    private static boolean isOpaque(int[] pixels) {
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void filterRows(int[] pixels, int width, int fromY, int toY,
+                                   int bytesPerPixel, boolean premultiplied,
+                                   boolean adaptive, byte[] filtered) {
+        int rowLength = width * bytesPerPixel;
+        byte[] prev = new byte[rowLength]; // all zeros for the first row
+        byte[] cur = new byte[rowLength];
+        if (fromY > 0) {
+            toBytes(pixels, (fromY - 1) * width, width, bytesPerPixel, premultiplied, prev);
+        }
+        for (int y = fromY; y < toY; y++) {
+            toBytes(pixels, y * width, width, bytesPerPixel, premultiplied, cur);
+            int filterType = adaptive
+                    ? chooseFilter(cur, prev, bytesPerPixel)
+                    : FILTER_SUB;
+            filterRow(filterType, cur, prev, bytesPerPixel, filtered, y * (rowLength + 1));
+
+            byte[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+    }
+
+    private static void toBytes(int[] pixels, int offset, int width,
+                                int bytesPerPixel, boolean premultiplied, byte[] row) {
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int argb = pixels[offset + x];
+            if (premultiplied) {
+                argb = unpremultiply(argb);
+            }
+            row[i] = (byte) (argb >>> 16);
+            row[i + 1] = (byte) (argb >>> 8);
+            row[i + 2] = (byte) argb;
+            if (bytesPerPixel == 4) {
+                row[i + 3] = (byte) (argb >>> 24);
+            }
+            i += bytesPerPixel;
+        }
+    }
+
+    private static int unpremultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xFF || a == 0) {
+            return a == 0 ? 0 : argb;
+        }
+        int r = Math.min(255, (((argb >>> 16) & 0xFF) * 255 + a / 2) / a);
+        int g = Math.min(255, (((argb >>> 8) & 0xFF) * 255 + a / 2) / a);
+        int b = Math.min(255, ((argb & 0xFF) * 255 + a / 2) / a);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Chooses the filter with the smallest sum of absolute
+     * differences, which is the heuristic recommended by the PNG spec
+     */
+    private static int chooseFilter(byte[] cur, byte[] prev, int bpp) {
+        long none = 0;
+        long sub = 0;
+        long up = 0;
+        long avg = 0;
+        long paeth = 0;
+        for (int i = 0; i < cur.length; i++) {
+            int x = cur[i] & 0xFF;
+            int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            avg += Math.abs((byte) (x - ((a + b) >> 1)));
+            paeth += Math.abs((byte) (x - paethPredictor(a, b, c)));
+        }
+        int best = FILTER_NONE;
+        long bestSum = none;
+        if (sub < bestSum) {
+            best = FILTER_SUB;
+            bestSum = sub;
+        }
+        if (up < bestSum) {
+            best = FILTER_UP;
+            bestSum = up;
+        }
+        if (avg < bestSum) {
+            best = FILTER_AVERAGE;
+            bestSum = avg;
+        }
+        if (paeth < bestSum) {
+            best = FILTER_PAETH;
+        }
+        return best;
+    }
+
+    private static void filterRow(int filterType, byte[] cur, byte[] prev,
+                                  int bpp, byte[] dest, int offset) {
+        dest[offset] = (byte) filterType;
+        offset++;
+        for (int i = 0; i < cur.length; i++) {
+            int x = cur[i] & 0xFF;
+            int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int predicted;
+            switch (filterType) {
+                case FILTER_SUB:
+                    predicted = a;
+                    break;
+                case FILTER_UP:
+                    predicted = b;
+                    break;
+                case FILTER_AVERAGE:
+                    predicted = (a + b) >> 1;
+                    break;
+                case FILTER_PAETH:
+                    int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    predicted = paethPredictor(a, b, c);
+                    break;
+                default:
+                    predicted = 0;
+            }
+            dest[offset + i] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void deflateBand(byte[] filtered, int band, int numBands, int level,
+                                    byte[][] deflated, long[] checksums) {
+        int offset = band * BAND_SIZE;
+        int length = Math.min(BAND_SIZE, filtered.length - offset);
+        boolean last = band == numBands - 1;
+
+        var deflater = new Deflater(level, true);
+        if (offset > 0) {
+            int dictionaryLength = Math.min(DICTIONARY_SIZE, offset);
+            deflater.setDictionary(filtered, offset - dictionaryLength, dictionaryLength);
+        }
+        deflater.setInput(filtered, offset, length);
+        if (last) {
+            deflater.finish();
+        }
+
+        byte[] out = new byte[length / 2 + 64];
+        int outLength = 0;
+        while (true) {
+            if (outLength == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            int space = out.length - outLength;
+            // a sync flush ends the band at a byte boundary, so that the next band can follow it
+            int written = deflater.deflate(out, outLength, space,
+                    last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            outLength += written;
+            if (last ? deflater.finished() : written < space) {
+                break;
+            }
+        }
+        deflater.end();
+
+        var adler = new Adler32();
+        adler.update(filtered, offset, length);
+        checksums[band] = adler.getValue();
+        deflated[band] = Arrays.copyOf(out, outLength);
+    }
+
+    /**
+     * Returns the Adler-32 checksum of two concatenated
+     * blocks, like adler32_combine in zlib
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static byte[] zlibHeader(int level) {
+        // deflate with a 32K window, and the level
+        // hint, so that the header is a multiple of 31
+        int flags;
+        if (level < 2) {
+            flags = 0x01;
+        } else if (level < 6) {
+            flags = 0x5E;
+        } else if (level == 6) {
+            flags = 0x9C;
+        } else {
+            flags = 0xDA;
+        }
+        return new byte[]{0x78, (byte) flags};
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static void writeChunk(DataOutputStream out, int type, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.writeInt(type);
+        out.write(data);
+
+        var crc = new CRC32();
+        crc.update(type >>> 24);
+        crc.update(type >>> 16);
+        crc.update(type >>> 8);
+        crc.update(type);
+        crc.update(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Decodes an 8-bit RGB or RGBA image without interlacing and without
+     * the chunks that require color conversion. Returns null for other
+     * images, which should be decoded from the start by ImageIO.
+     * The progress tracker is advanced by 100 units.
+     */
+    public static BufferedImage read(InputStream is, ProgressTracker pt) throws IOException {
+        var in = new DataInputStream(is);
+        byte[] signature = new byte[SIGNATURE.length];
+        if (in.readNBytes(signature, 0, signature.length) != signature.length
+                || !Arrays.equals(signature, SIGNATURE)) {
+            return null;
+        }
+        if (in.readInt() != 13 || in.readInt() != IHDR) {
+            return null;
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int bitDepth = in.readUnsignedByte();
+        int colorType = in.readUnsignedByte();
+        in.readUnsignedByte(); // compression method, always 0
+        in.readUnsignedByte(); // filter method, always 0
+        int interlace = in.readUnsignedByte();
+        in.readInt(); // CRC
+        if (bitDepth != 8 || interlace != 0
+                || (colorType != COLOR_TYPE_RGB && colorType != COLOR_TYPE_RGBA)
+                || width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // skip the chunks before the image data
+        while (true) {
+            int length = in.readInt();
+            int type = in.readInt();
+            if (type == IDAT) {
+                var idat = new IdatInputStream(in, length);
+                return decodeRows(new InflaterInputStream(idat, new Inflater(), 65536),
+                        width, height, colorType == COLOR_TYPE_RGBA ? 4 : 3, pt);
+            }
+            if (type == ICCP || type == TRNS || type == IEND) {
+                return null;
+            }
+            skipFully(in, length + 4L); // also the CRC
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long numBytes) throws IOException {
+        while (numBytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(numBytes, Integer.MAX_VALUE));
+            if (skipped == 0) {
+                in.readByte(); // throws an EOFException at the end
+                skipped = 1;
+            }
+            numBytes -= skipped;
+        }
+    }
+
+    private static BufferedImage decodeRows(InputStream inflated, int width, int height,
+                                            int bpp, ProgressTracker pt) throws IOException {
+        var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        int[] pixels = ImageUtils.getPixelsAsArray(img);
+        var in = new DataInputStream(inflated);
+        int rowLength = width * bpp;
+        byte[] prev = new byte[rowLength];
+        byte[] cur = new byte[rowLength];
+        var rowTracker = new SubtaskProgressTracker(100.0 / height, pt);
+        for (int y = 0; y < height; y++) {
+            int filterType = in.readUnsignedByte();
+            in.readFully(cur);
+            unfilterRow(filterType, cur, prev, bpp);
+
+            int offset = y * width;
+            for (int x = 0, i = 0; x < width; x++, i += bpp) {
+                int alpha = bpp == 4 ? cur[i + 3] & 0xFF : 0xFF;
+                pixels[offset + x] = alpha << 24
+                        | (cur[i] & 0xFF) << 16
+                        | (cur[i + 1] & 0xFF) << 8
+                        | (cur[i + 2] & 0xFF);
+            }
+
+            byte[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+            rowTracker.unitDone();
+        }
+        return img;
+    }
+
+    private static void unfilterRow(int filterType, byte[] cur, byte[] prev, int bpp) throws IOException {
+        int length = cur.length;
+        switch (filterType) {
+            case FILTER_NONE:
+                break;
+            case FILTER_SUB:
+                for (int i = bpp; i < length; i++) {
+                    cur[i] += cur[i - bpp];
+                }
+                break;
+            case FILTER_UP:
+                for (int i = 0; i < length; i++) {
+                    cur[i] += prev[i];
+                }
+                break;
+            case FILTER_AVERAGE:
+                for (int i = 0; i < bpp; i++) {
+                    cur[i] += (prev[i] & 0xFF) >> 1;
+                }
+                for (int i = bpp; i < length; i++) {
+                    cur[i] += ((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >> 1;
+                }
+                break;
+            case FILTER_PAETH:
+                for (int i = 0; i < bpp; i++) {
+                    cur[i] += prev[i];
+                }
+                for (int i = bpp; i < length; i++) {
+                    cur[i] += paethPredictor(cur[i - bpp] & 0xFF,
+                            prev[i] & 0xFF, prev[i - bpp] & 0xFF);
+                }
+                break;
+            default:
+                throw new IOException("Unknown PNG filter type " + filterType);
+        }
+    }
+
+    /**
+     * The data of the consecutive IDAT chunks as a single stream
+     */
+    private static class IdatInputStream extends FilterInputStream {
+        private final DataInputStream in;
+        private int remaining;
+
+        private IdatInputStream(DataInputStream in, int firstLength) {
+            super(in);
+            this.in = in;
+            remaining = firstLength;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (remaining == 0) {
+                in.readInt(); // the CRC of the previous chunk
+                int length = in.readInt();
+                if (in.readInt() != IDAT) {
+                    remaining = -1;
+                    return false;
+                }
+                remaining = length;
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            remaining--;
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated PNG data");
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+/**
+ * The compression presets of the PNG encoder, see {@link PngCodec}
+ */
+public enum PngCompression {
+    /**
+     * Fast deflating and the cheap "Sub" row filter,
+     * for example for exporting many animation frames
+     */
+    FAST("Fast", 1, false),
+    /**
+     * The default: the row filters are chosen separately for each row
+     */
+    BALANCED("Balanced", 4, true),
+    /**
+     * The smallest files, but slower than the others
+     */
+    SMALL("Small", 9, true);
+
+    private final String displayName;
+    private final int deflateLevel;
+    private final boolean adaptiveFilter;
+
+    PngCompression(String displayName, int deflateLevel, boolean adaptiveFilter) {
+        this.displayName = displayName;
+        this.deflateLevel = deflateLevel;
+        this.adaptiveFilter = adaptiveFilter;
+    }
+
+    int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    boolean hasAdaptiveFilter() {
+        return adaptiveFilter;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -32,10 +32,17 @@ import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -55,6 +62,34 @@ public class TrackedIO {
     public static void write(BufferedImage img,
                              String formatName,
                              File file) throws IOException {
+        if (formatName.equalsIgnoreCase("PNG")) {
+            writePNG(img, file, PngCompression.BALANCED);
+            return;
+        }
+        writeWithImageIO(img, formatName, file);
+    }
+
+    /**
+     * Writes a PNG file with the built-in encoder, or with ImageIO
+     * for the images that the built-in encoder doesn't support
+     */
+    public static void writePNG(BufferedImage img,
+                                File file,
+                                PngCompression compression) throws IOException {
+        if (!PngCodec.canEncode(img)) {
+            writeWithImageIO(img, "PNG", file);
+            return;
+        }
+        ProgressTracker pt = new StatusBarProgressTracker("Writing " + file.getName(), 100);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536)) {
+            PngCodec.write(img, out, compression, pt);
+        }
+        pt.finished();
+    }
+
+    private static void writeWithImageIO(BufferedImage img,
+                                         String formatName,
+                                         File file) throws IOException {
         ProgressTracker pt = new StatusBarProgressTracker("Writing " + file.getName(), 100);
         try (ImageOutputStream ios = ImageIO.createImageOutputStream(file)) {
             if (ios != null) {
@@ -85,6 +120,24 @@ public class TrackedIO {
         }
     }
 
+    /**
+     * Encodes the image into a byte array, buffering only in memory,
+     * so that several images can be encoded at the same time
+     * without temporary files.
+     */
+    public static byte[] writeToByteArray(BufferedImage img,
+                                          String formatName) throws IOException {
+        var out = new ByteArrayOutputStream();
+        if (formatName.equalsIgnoreCase("PNG") && PngCodec.canEncode(img)) {
+            PngCodec.write(img, out, PngCompression.BALANCED, ProgressTracker.NULL_TRACKER);
+            return out.toByteArray();
+        }
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writeToIOS(img, ios, formatName, ProgressTracker.NULL_TRACKER);
+        }
+        return out.toByteArray();
+    }
+
     private static void writeToIOS(BufferedImage img,
                                    ImageOutputStream ios,
                                    String formatName,
@@ -146,6 +199,16 @@ public class TrackedIO {
         ProgressTracker pt = new StatusBarProgressTracker(
             "Reading " + file.getName(), 100);
 
+        if (FileUtils.hasPNGExtension(file.getName())) {
+            // the common PNG files are decoded faster without ImageIO
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 65536)) {
+                BufferedImage img = PngCodec.read(in, pt);
+                if (img != null) {
+                    return img;
+                }
+            }
+        }
+
         BufferedImage image;
         try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
             image = readFromIIS(iis, pt);
@@ -162,6 +225,23 @@ public class TrackedIO {
         return image;
     }
 
+    /**
+     * Decodes an image from a byte array, the counterpart of
+     * {@link #writeToByteArray(BufferedImage, String)}.
+     * Returns null if the format is not recognized.
+     */
+    public static BufferedImage readFromByteArray(byte[] bytes) throws IOException {
+        BufferedImage img = PngCodec.read(
+                new ByteArrayInputStream(bytes), ProgressTracker.NULL_TRACKER);
+        if (img != null) {
+            return img;
+        }
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(bytes))) {
+            return readFromIIS(iis, ProgressTracker.NULL_TRACKER);
+        }
+    }
+
     public static BufferedImage readFromIIS(ImageInputStream iis,
                                             ProgressTracker pt) throws IOException {
         assert !EventQueue.isDispatchThread();
@@ -79,6 +79,11 @@ public class AdjustmentLayer extends Layer {
         return filter.transformImage(src);
     }
 
+    @Override
+    public boolean canBeAppliedInParallel() {
+        return filter.isPointwise();
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         throw new UnsupportedOperationException();
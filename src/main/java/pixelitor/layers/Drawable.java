@@ -51,6 +51,8 @@ public interface Drawable {
 
     void changeImageForUndoRedo(BufferedImage img, boolean ignoreSelection);
 
+    void imageChangedInPlaceForUndoRedo();
+
     BufferedImage getImageForFilterDialogs();
 
     TmpDrawingLayer createTmpDrawingLayer(Composite c, boolean softSelection);
@@ -30,6 +30,7 @@ import pixelitor.tools.Tools;
 import pixelitor.utils.*;
 import pixelitor.utils.test.Assertions;
 
+import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -39,6 +40,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
@@ -76,6 +78,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     protected transient BufferedImage image = null;
 
+    /**
+     * Decodes the image when it is first needed, if it
+     * was lazily loaded from a file. Null if the image is in memory.
+     */
+    private transient volatile Supplier<BufferedImage> imageLoader;
+
     /**
      * The image shown during filter previews.
      */
@@ -219,7 +227,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
-        PXCFormat.serializeImage(out, image);
+        PXCFormat.serializeImage(out, getImage());
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -232,7 +240,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
         trimmedBoundingBox = null;
 
         in.defaultReadObject();
-        setImage(PXCFormat.deserializeImage(in));
+
+        // the pixels are decoded only when the layer is
+        // first painted, filtered or edited, and
+        // for hidden layers maybe never
+        imageLoader = PXCFormat.deserializeImage(in);
         imageContentChanged = false;
     }
 
@@ -267,7 +279,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public ImageLayer duplicate(boolean compCopy) {
-        BufferedImage imageCopy = copyImage(image);
+        BufferedImage imageCopy = copyImage(getImage());
         if (imageCopy == null) {
             // there was an out of memory error
             return null;
@@ -286,9 +298,33 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getImage() {
+        if (imageLoader != null) {
+            loadImage();
+        }
         return image;
     }
 
+    public boolean isImageLoaded() {
+        return imageLoader == null;
+    }
+
+    // synchronized because the layers can be
+    // painted from several threads at the same time
+    private synchronized void loadImage() {
+        // also checks the image, because imageRefChanged()
+        // can call getImage() while the loader is still set
+        if (imageLoader == null || image != null) {
+            return;
+        }
+        image = imageLoader.get();
+        imageRefChanged();
+        imageLoader = null;
+
+        if (getUI() != null) {
+            SwingUtilities.invokeLater(this::updateIconImage);
+        }
+    }
+
     @Override
     public BufferedImage getFilterSourceImage() {
         if (filterSourceImage == null) {
@@ -303,16 +339,17 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     @Override
     public BufferedImage getSelectedSubImage(boolean copyIfNoSelection) {
+        BufferedImage img = getImage();
         var selection = comp.getSelection();
         if (selection == null) { // no selection => return full image
             if (copyIfNoSelection) {
-                return copyImage(image);
+                return copyImage(img);
             }
-            return image;
+            return img;
         }
 
         // there is selection
-        return ImageUtils.getSelectionSizedPartFrom(image,
+        return ImageUtils.getSelectionSizedPartFrom(img,
                 selection, getTx(), getTy());
     }
 
@@ -322,26 +359,28 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     @Override
     public BufferedImage getImageForFilterDialogs() {
+        BufferedImage img = getImage();
         var selection = comp.getSelection();
         if (selection == null) {
-            return image;
+            return img;
         }
 
         Rectangle selBounds = selection.getShapeBounds(1);
 
-        assert image.getRaster().getBounds().contains(selBounds) :
-                "image bounds = " + image.getRaster().getBounds()
+        assert img.getRaster().getBounds().contains(selBounds) :
+                "image bounds = " + img.getRaster().getBounds()
                         + ", selection bounds = " + selBounds;
 
-        return image.getSubimage(
+        return img.getSubimage(
                 selBounds.x, selBounds.y,
                 selBounds.width, selBounds.height);
     }
 
     @Override
     public BufferedImage getCanvasSizedSubImage() {
+        BufferedImage img = getImage();
         if (!isBigLayer()) {
-            return image;
+            return img;
         }
 
         int x = -getTx();
@@ -357,14 +396,14 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         BufferedImage subImage;
         try {
-            subImage = image.getSubimage(x, y, canvasWidth, canvasHeight);
+            subImage = img.getSubimage(x, y, canvasWidth, canvasHeight);
         } catch (RasterFormatException e) {
             System.out.printf("ImageLayer.getCanvasSizedSubImage x = %d, y = %d, " +
                             "canvasWidth = %d, canvasHeight = %d, " +
                             "imageWidth = %d, imageHeight = %d%n",
                     x, y, canvasWidth, canvasHeight,
-                    image.getWidth(), image.getHeight());
-            WritableRaster raster = image.getRaster();
+                    img.getWidth(), img.getHeight());
+            WritableRaster raster = img.getRaster();
 
             System.out.printf("ImageLayer.getCanvasSizedSubImage " +
                             "minX = %d, minY = %d, width = %d, height=%d %n",
@@ -397,7 +436,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         switch (state) {
             case NORMAL:
-                visibleImage = image;
+                visibleImage = getImage();
                 break;
             case PREVIEW:
                 assert previewImage != null : "no preview image in state " + state;
@@ -405,7 +444,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 break;
             case SHOW_ORIGINAL:
                 assert previewImage != null : "no preview image in state " + state;
-                visibleImage = image;
+                visibleImage = getImage();
                 break;
             default:
                 throw new IllegalStateException("state = " + state);
@@ -435,7 +474,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     private void setImageWithSelection(BufferedImage newImage, boolean isUndoRedo) {
-        image = replaceSelectedRegion(image, newImage, isUndoRedo);
+        image = replaceSelectedRegion(getImage(), newImage, isUndoRedo);
         imageRefChanged();
 
         comp.imageChanged(INVALIDATE_CACHE);
@@ -501,6 +540,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public void setImage(BufferedImage newImage) {
         BufferedImage oldRef = image;
         image = requireNonNull(newImage);
+        imageLoader = null;
         imageRefChanged();
 
         assert Assertions.checkRasterMinimum(newImage);
@@ -517,7 +557,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Replaces the image with history and icon update
      */
     public void replaceImage(BufferedImage newImage, String editName) {
-        BufferedImage oldImage = image;
+        BufferedImage oldImage = getImage();
         setImage(newImage);
 
         History.add(new ImageEdit(editName, comp, this, oldImage, true, false));
@@ -537,11 +577,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // the image reference, because when we draw into the preview image, we would
             // also draw on the real image, and after cancel we would still have the
             // changed version.
-            previewImage = copyImage(image);
+            previewImage = copyImage(getImage());
         } else {
             // if there is no selection, then there is no problem, because
             // the previewImage reference will be overwritten
-            previewImage = image;
+            previewImage = getImage();
         }
         setState(PREVIEW);
     }
@@ -566,16 +606,22 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert state == PREVIEW || state == SHOW_ORIGINAL;
         assert previewImage != null;
 
+        ImageEdit edit = null;
         if (imageContentChanged) {
-            var edit = new ImageEdit(filterName, comp, this,
+            edit = new ImageEdit(filterName, comp, this,
                     getSelectedSubImage(true),
                     false, true);
-            History.add(edit);
         }
 
         image = previewImage;
         imageRefChanged();
 
+        if (edit != null) {
+            // added only now, because the history
+            // compares the backup with the new image
+            History.add(edit);
+        }
+
         if (imageContentChanged) {
             updateIconImage();
             invalidateTrimCache();
@@ -624,7 +670,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
                         filterName, cr, getClass().getSimpleName());
         assert img != null;
 
-        if (img == image) {
+        BufferedImage currentImage = getImage();
+        if (img == currentImage) {
             // this can happen if a filter with preview decides that no
             // change is necessary and returns the src
 
@@ -633,8 +680,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // it still can happen that the image needs to be repainted
             // because the preview image can be different from the image
             // (the user does something, but then resets the params to a do-nothing state)
-            boolean shouldRefresh = image != previewImage;
-            previewImage = image;
+            boolean shouldRefresh = currentImage != previewImage;
+            previewImage = currentImage;
 
             if (shouldRefresh) {
                 imageRefChanged();
@@ -654,7 +701,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         comp.setDirty(true);
 
         // A filter without dialog should never return the original image...
-        if (transformedImage == image) {
+        if (transformedImage == getImage()) {
             // ...unless "Repeat Last" starts a filter with settings
             // without a dialog
             if (cr != REPEAT_LAST) {
@@ -677,7 +724,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         // at this point we are sure that the image changed,
         // considering that a filter without dialog was running
-        if (imageForUndo == image) {
+        if (imageForUndo == getImage()) {
             throw new IllegalStateException("imageForUndo == image");
         }
         assert imageForUndo != null;
@@ -697,7 +744,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public void changeImageForUndoRedo(BufferedImage img, boolean ignoreSelection) {
         requireNonNull(img);
-        assert img != image; // simple filters always change something
+        assert img != getImage(); // simple filters always change something
         assert state == NORMAL;
 
         if (ignoreSelection) {
@@ -707,13 +754,29 @@ public class ImageLayer extends ContentLayer implements Drawable {
         }
     }
 
+    /**
+     * Called after undo/redo changed the pixels of the image
+     * in place, without replacing the image reference
+     */
+    @Override
+    public void imageChangedInPlaceForUndoRedo() {
+        assert state == NORMAL;
+
+        filterSourceImage = null;
+        imageRefChanged();
+        comp.imageChanged(INVALIDATE_CACHE);
+        invalidateTrimCache();
+        Tools.editedObjectChanged(this);
+    }
+
     /**
      * Returns the image bounds relative to the canvas
      */
     public Rectangle getImageBounds() {
+        BufferedImage img = getImage();
         return new Rectangle(
                 translationX, translationY,
-                image.getWidth(), image.getHeight());
+                img.getWidth(), img.getHeight());
     }
 
     private void invalidateTrimCache() {
@@ -744,11 +807,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public int getMouseHitPixelAtPoint(Point p) {
         int x = p.x - translationX;
         int y = p.y - translationY;
-        if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
+        BufferedImage img = getImage();
+        if (x >= 0 && y >= 0 && x < img.getWidth() && y < img.getHeight()) {
             if (hasMask() && getMask().isMaskEnabled()) {
                 int maskPixel = getMask().getMouseHitPixelAtPoint(p);
                 if (maskPixel != 0) {
-                    int imagePixel = image.getRGB(x, y);
+                    int imagePixel = img.getRGB(x, y);
                     float maskAlpha = (maskPixel & 0xff) / 255.0f;
                     int imageAlpha = (imagePixel >> 24) & 0xff;
                     int layerAlpha = (int) (imageAlpha * maskAlpha);
@@ -756,7 +820,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 }
             }
 
-            return image.getRGB(x, y);
+            return img.getRGB(x, y);
         }
 
         return 0x00000000;
@@ -781,7 +845,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             Graphics2D g = bi.createGraphics();
             int drawX = current.x - target.x;
             int drawY = current.y - target.y;
-            g.drawImage(image, drawX, drawY, null);
+            g.drawImage(getImage(), drawX, drawY, null);
             g.dispose();
 
             translationX = target.x - canvasBounds.x;
@@ -795,7 +859,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void flip(Flip.Direction direction) {
-        var imageTransform = direction.createImageTransform(image);
+        BufferedImage img = getImage();
+        var imageTransform = direction.createImageTransform(img);
         int txAbs = -getTx();
         int tyAbs = -getTy();
         int newTxAbs;
@@ -803,10 +868,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        int imageWidth = img.getWidth();
+        int imageHeight = img.getHeight();
 
-        BufferedImage dest = ImageUtils.createImageWithSameCM(image);
+        BufferedImage dest = ImageUtils.createImageWithSameCM(img);
         Graphics2D g2 = dest.createGraphics();
 
         if (direction == HORIZONTAL) {
@@ -818,7 +883,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         }
 
         g2.setTransform(imageTransform);
-        g2.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+        g2.drawImage(img, 0, 0, imageWidth, imageHeight, null);
         g2.dispose();
 
         setTranslation(-newTxAbs, -newTyAbs);
@@ -835,8 +900,9 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int newTxAbs = 0;
         int newTyAbs = 0;
 
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        BufferedImage img = getImage();
+        int imageWidth = img.getWidth();
+        int imageHeight = img.getHeight();
 
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
@@ -853,15 +919,15 @@ public class ImageLayer extends ContentLayer implements Drawable {
             newTyAbs = imageHeight - canvasHeight - tyAbs;
         }
 
-        BufferedImage dest = angle.createDestImage(image);
+        BufferedImage dest = angle.createDestImage(img);
 
         Graphics2D g2 = dest.createGraphics();
         // nearest neighbor should be ok for 90, 180, 270 degrees
         g2.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 
-        g2.setTransform(angle.createImageTransform(image));
+        g2.setTransform(angle.createImageTransform(img));
 
-        g2.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+        g2.drawImage(img, 0, 0, imageWidth, imageHeight, null);
         g2.dispose();
 
         setTranslation(-newTxAbs, -newTyAbs);
@@ -901,25 +967,26 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int cropX = (int) (cropRect.getX() - getTx());
         int cropY = (int) (cropRect.getY() - getTy());
 
+        BufferedImage img = getImage();
         if (!deleteCroppedPixels) {
             assert allowGrowing;
 
             boolean imageCoversNewCanvas =
                     cropX >= 0
                             && cropY >= 0
-                            && cropX + cropWidth <= image.getWidth()
-                            && cropY + cropHeight <= image.getHeight();
+                            && cropX + cropWidth <= img.getWidth()
+                            && cropY + cropHeight <= img.getHeight();
             if (imageCoversNewCanvas) {
                 // no need to change the image, just set the translation
                 super.crop(cropRect, false, allowGrowing);
             } else {
                 // the image still has to be enlarged, but the translation will not be zero
                 int westEnlargement = Math.max(0, -cropX);
-                int newWidth = westEnlargement + Math.max(image.getWidth(), cropX + cropWidth);
+                int newWidth = westEnlargement + Math.max(img.getWidth(), cropX + cropWidth);
                 int northEnlargement = Math.max(0, -cropY);
-                int newHeight = northEnlargement + Math.max(image.getHeight(), cropY + cropHeight);
+                int newHeight = northEnlargement + Math.max(img.getHeight(), cropY + cropHeight);
 
-                BufferedImage newImage = ImageUtils.crop(image,
+                BufferedImage newImage = ImageUtils.crop(img,
                         -westEnlargement, -northEnlargement,
                         newWidth, newHeight);
                 setImage(newImage);
@@ -937,7 +1004,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert deleteCroppedPixels;
 
         // this method call can also grow the image
-        BufferedImage newImage = ImageUtils.crop(image, cropX, cropY, cropWidth, cropHeight);
+        BufferedImage newImage = ImageUtils.crop(img, cropX, cropY, cropWidth, cropHeight);
         setImage(newImage);
         setTranslation(0, 0);
     }
@@ -958,18 +1025,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Returns true if something was changed.
      */
     public boolean toCanvasSize() {
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        BufferedImage img = getImage();
+        int imageWidth = img.getWidth();
+        int imageHeight = img.getHeight();
         int canvasWidth = comp.getCanvasWidth();
         int canvasHeight = comp.getCanvasHeight();
 
         if (imageWidth > canvasWidth || imageHeight > canvasHeight) {
-            BufferedImage newImage = ImageUtils.crop(image,
+            BufferedImage newImage = ImageUtils.crop(img,
                     -getTx(), -getTy(), canvasWidth, canvasHeight);
 
-            BufferedImage tmp = image;
             setImage(newImage);
-            tmp.flush();
+            img.flush();
 
             setTranslation(0, 0);
             return true;
@@ -1031,7 +1098,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         if (tmpDrawingLayer == null) {
             return;
         }
-        Graphics2D g = image.createGraphics();
+        Graphics2D g = getImage().createGraphics();
 
         tmpDrawingLayer.paintOn(g, -getTx(), -getTy());
         g.dispose();
@@ -1071,11 +1138,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         int newTx = 0, newTy = 0; // used only for big layers
 
+        BufferedImage img = getImage();
         if (bigLayer) {
             double horRatio = newSize.getWidth() / comp.getCanvasWidth();
             double verRatio = newSize.getHeight() / comp.getCanvasHeight();
-            imgTargetWidth = (int) (image.getWidth() * horRatio);
-            imgTargetHeight = (int) (image.getHeight() * verRatio);
+            imgTargetWidth = (int) (img.getWidth() * horRatio);
+            imgTargetHeight = (int) (img.getHeight() * verRatio);
 
             newTx = (int) (getTx() * horRatio);
             newTy = (int) (getTy() * verRatio);
@@ -1093,7 +1161,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                     ", tx = " + getTx() + ", ty = " + getTy()
                             + ", imgTargetWidth = " + imgTargetWidth + ", imgTargetHeight = " + imgTargetHeight
                             + ", newWidth = " + newSize.getWidth() + ", newHeight() = " + newSize.getHeight()
-                            + ", imgWidth = " + image.getWidth() + ", imgHeight = " + image.getHeight()
+                            + ", imgWidth = " + img.getWidth() + ", imgHeight = " + img.getHeight()
                             + ", canvasWidth = " + comp.getCanvasWidth() + ", canvasHeight = " + comp.getCanvasHeight()
                             + ", horRatio = " + horRatio + ", verRatio = " + verRatio;
         }
@@ -1101,7 +1169,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int finalTx = newTx;
         int finalTy = newTy;
         return ImageUtils
-                .resizeAsync(image, imgTargetWidth, imgTargetHeight)
+                .resizeAsync(img, imgTargetWidth, imgTargetHeight)
                 .thenAcceptAsync(resizedImg -> {
                     setImage(resizedImg);
                     if (bigLayer) {
@@ -1119,6 +1187,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return !canvasBounds.contains(layerBounds);
     }
 
+    @Override
+    public boolean canBeAppliedInParallel() {
+        // the shapes tool paints from a single thread
+        return !Tools.isShapesDrawing();
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         BufferedImage visibleImage = getVisibleImage();
@@ -1190,7 +1264,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void debugImages() {
-        Utils.debugImage(image, "image");
+        Utils.debugImage(getImage(), "image");
         if (previewImage != null) {
             Utils.debugImage(previewImage, "previewImage");
         } else {
@@ -1206,7 +1280,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void updateIconImage() {
-        if(ui != null) {
+        // not loaded images get their icon after loading
+        if (ui != null && isImageLoaded()) {
             ui.updateLayerIconImageAsync(this);
         }
     }
@@ -1217,12 +1292,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public BufferedImage applyLayerMask(boolean addToHistory) {
         // the image reference will not be replaced
-        BufferedImage oldImage = copyImage(image);
+        BufferedImage img = getImage();
+        BufferedImage oldImage = copyImage(img);
 
         LayerMask oldMask = mask;
         MaskViewMode oldMode = comp.getView().getMaskViewMode();
 
-        mask.applyToImage(image);
+        mask.applyToImage(img);
         deleteMask(false);
 
         if (addToHistory) {
@@ -1245,19 +1321,21 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     public String toDebugCanvasString() {
+        BufferedImage img = getImage();
         return "{canvasWidth=" + comp.getCanvasWidth()
                 + ", canvasHeight=" + comp.getCanvasHeight()
                 + ", tx=" + translationX
                 + ", ty=" + translationY
-                + ", imgWidth=" + image.getWidth()
-                + ", imgHeight=" + image.getHeight()
+                + ", imgWidth=" + img.getWidth()
+                + ", imgHeight=" + img.getHeight()
                 + '}';
     }
 
     @Override
     public String toString() {
+        BufferedImage img = getImage();
         return getClass().getSimpleName()
-                + "{img=" + image.getWidth() + "x" + image.getHeight()
+                + "{img=" + img.getWidth() + "x" + img.getHeight()
                 + ", state=" + state
                 + ", super=" + super.toString()
                 + '}';
@@ -456,6 +456,15 @@ public abstract class Layer implements Serializable {
         }
     }
 
+    /**
+     * Returns true if this layer transforms the image of the
+     * layers bellow it (adjustment layers and watermarked
+     * text layers) instead of simply painting over it.
+     */
+    public boolean isAdjustment() {
+        return isAdjustment;
+    }
+
     private boolean useMask() {
         return mask != null && maskEnabled;
     }
@@ -472,7 +481,7 @@ public abstract class Layer implements Serializable {
                                     BufferedImage imageSoFar,
                                     boolean firstVisibleLayer) {
         if (isAdjustment) { // adjustment layer or watermarked text layer
-            return adjustImageWithMasksAndBlending(imageSoFar, firstVisibleLayer);
+            return adjustImageWithMasksAndBlending(imageSoFar, 0, 0, firstVisibleLayer);
         } else {
             if (!useMask()) {
                 setupDrawingComposite(g, firstVisibleLayer);
@@ -484,6 +493,32 @@ public abstract class Layer implements Serializable {
         return null;
     }
 
+    /**
+     * Similar to applyLayer, but the given image contains only the
+     * region of the composite image that starts at the given canvas
+     * coordinates. The given Graphics2D must be translated and
+     * clipped according to this region.
+     */
+    public BufferedImage applyLayerToRegion(Graphics2D g,
+                                            BufferedImage regionSoFar,
+                                            int regionX, int regionY,
+                                            boolean firstVisibleLayer) {
+        if (isAdjustment) {
+            return adjustImageWithMasksAndBlending(regionSoFar,
+                    regionX, regionY, firstVisibleLayer);
+        }
+        return applyLayer(g, regionSoFar, firstVisibleLayer);
+    }
+
+    /**
+     * Returns true if this layer can be applied to separate regions
+     * of the composite image (see applyLayerToRegion) on several
+     * threads at the same time.
+     */
+    public boolean canBeAppliedInParallel() {
+        return false;
+    }
+
     // used by the non-adjustment stuff
     // This method assumes that the composite of the graphics is already
     // set up according to the transparency and blending mode
@@ -495,11 +530,23 @@ public abstract class Layer implements Serializable {
      * translations are taken into account
      */
     private void paintLayerOnGraphicsWithMask(Graphics2D g, boolean firstVisibleLayer) {
+        // if only a region of the composite is updated, then
+        // the masked image can be restricted to that region
+        Rectangle area = comp.getCanvasBounds();
+        Rectangle clipBounds = g.getClipBounds();
+        if (clipBounds != null) {
+            area = area.intersection(clipBounds);
+            if (area.isEmpty()) {
+                return;
+            }
+        }
+
         // 1. create the masked image
         // TODO the masked image should be cached
         BufferedImage maskedImage = new BufferedImage(
-                comp.getCanvasWidth(), comp.getCanvasHeight(), TYPE_INT_ARGB);
+                area.width, area.height, TYPE_INT_ARGB);
         Graphics2D mig = maskedImage.createGraphics();
+        mig.translate(-area.x, -area.y);
         paintLayerOnGraphics(mig, firstVisibleLayer);
         mig.setComposite(DstIn);
         mig.drawImage(mask.getTransparencyImage(),
@@ -509,20 +556,22 @@ public abstract class Layer implements Serializable {
         // 2. paint the masked image onto the graphics
 //            g.drawImage(maskedImage, getTx(), getTy(), null);
         setupDrawingComposite(g, firstVisibleLayer);
-        g.drawImage(maskedImage, 0, 0, null);
+        g.drawImage(maskedImage, area.x, area.y, null);
     }
 
     /**
-     * Used by adjustment layers and watermarked text layers
+     * Used by adjustment layers and watermarked text layers.
+     * The given image starts at the given canvas coordinates.
      */
     private BufferedImage adjustImageWithMasksAndBlending(BufferedImage imgSoFar,
+                                                          int imgX, int imgY,
                                                           boolean isFirstVisibleLayer) {
         if (isFirstVisibleLayer) {
             return imgSoFar; // there's nothing we can do
         }
         BufferedImage transformed = actOnImageFromLayerBellow(imgSoFar);
         if (useMask()) {
-            mask.applyToImage(transformed);
+            mask.applyToImage(transformed, imgX, imgY);
         }
         if (!useMask() && isNormalAndOpaque()) {
             return transformed;
@@ -81,15 +81,24 @@ public class LayerMask extends ImageLayer {
     }
 
     public void applyToImage(BufferedImage in) {
+        applyToImage(in, 0, 0);
+    }
+
+    /**
+     * Applies the mask to an image that covers
+     * the canvas starting at the given coordinates
+     */
+    public void applyToImage(BufferedImage in, int inX, int inY) {
         Graphics2D g = in.createGraphics();
         g.setComposite(DstIn);
-        g.drawImage(getTransparencyImage(), 0, 0, null);
+        g.drawImage(getTransparencyImage(), -inX, -inY, null);
         g.dispose();
     }
 
     public void updateFromBWImage() {
-        assert image.getType() == TYPE_BYTE_GRAY;
-        assert image.getColorModel() != TRANSPARENCY_COLOR_MODEL;
+        BufferedImage img = getImage();
+        assert img.getType() == TYPE_BYTE_GRAY;
+        assert img.getColorModel() != TRANSPARENCY_COLOR_MODEL;
 
         // The transparency image shares the raster data with the BW image,
         // but interprets the bytes differently.
@@ -131,7 +140,8 @@ public class LayerMask extends ImageLayer {
     @Override
     public void updateIconImage() {
         LayerUI ui = getUI();
-        if (ui != null) { // can be null while deserializing
+        // the UI can be null while deserializing
+        if (ui != null && isImageLoaded()) {
             ui.updateLayerIconImageAsync(this);
         }
     }
@@ -141,7 +151,7 @@ public class LayerMask extends ImageLayer {
      * to the given layer
      */
     public LayerMask duplicate(Layer owner) {
-        BufferedImage maskImageCopy = ImageUtils.copyImage(image);
+        BufferedImage maskImageCopy = ImageUtils.copyImage(getImage());
 
         LayerMask d = new LayerMask(comp, maskImageCopy, owner,
                 getTx(), getTy());
@@ -187,16 +197,19 @@ public class LayerMask extends ImageLayer {
 
     public BufferedImage getTransparencyImage() {
         if (!owner.isMaskEditing() || !Tools.isShapesDrawing()) {
-            // simple case
+            // simple case, but the transparency image
+            // is created only when the image is loaded
+            getImage();
             return transparencyImage;
         } else { // drawing with the shapes tool while in Ctrl-3 mode
 
             // Create a temporary image that shows how the image would look like
             // if the shapes tool would draw directly into the mask image
+            BufferedImage img = getImage();
             BufferedImage tmp = new BufferedImage(
-                    image.getWidth(), image.getHeight(), TYPE_BYTE_GRAY);
+                    img.getWidth(), img.getHeight(), TYPE_BYTE_GRAY);
             Graphics2D tmpG = tmp.createGraphics();
-            tmpG.drawImage(image, 0, 0, null);
+            tmpG.drawImage(img, 0, 0, null);
             Tools.SHAPES.paintOverActiveLayer(tmpG, comp);
             tmpG.dispose();
 
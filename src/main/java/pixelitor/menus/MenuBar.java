@@ -120,6 +120,19 @@ public class MenuBar extends JMenuBar {
         add(createHelpMenu(pw));
     }
 
+    /**
+     * Registers the filters of the Color and Filter menus in
+     * {@link FilterUtils} without creating a menu bar,
+     * for example when running without a GUI
+     */
+    public static void registerFilters() {
+        if (FilterUtils.getAllFiltersSorted().length > 0) {
+            return; // already registered
+        }
+        createColorMenu();
+        createFilterMenu();
+    }
+
     private static JMenu createFileMenu(PixelitorWindow pw) {
         PMenu fileMenu = new PMenu("File", 'F');
 
@@ -832,6 +845,7 @@ public class MenuBar extends JMenuBar {
         sub.buildFilter(JHMedian.NAME, JHMedian::new)
                 .noGUI()
                 .add();
+        sub.addFilter(Rank.NAME, Rank::new);
 
         sub.addSeparator();
 
@@ -953,6 +967,7 @@ public class MenuBar extends JMenuBar {
 
         sub.addFilter(Convolve.createFilterAction(3));
         sub.addFilter(Convolve.createFilterAction(5));
+        sub.addFilter(Convolve.createFilterAction(9));
 
         sub.addSeparator();
 
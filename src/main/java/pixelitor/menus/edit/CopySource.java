@@ -75,7 +75,9 @@ public enum CopySource {
     }, COMPOSITE {
         @Override
         Result<BufferedImage, String> getImage(Composition comp) {
-            return createImageWithSelectedPixels(comp.getCompositeImage(), comp);
+            // copied, because the cached composite image can change later
+            BufferedImage composite = ImageUtils.copyImage(comp.getCompositeImage());
+            return createImageWithSelectedPixels(composite, comp);
         }
 
         @Override
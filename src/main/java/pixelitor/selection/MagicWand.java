@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.selection;
+
+import pixelitor.Composition;
+import pixelitor.layers.Drawable;
+import pixelitor.tools.util.PMouseEvent;
+import pixelitor.utils.FloodFill;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Shapes;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+
+/**
+ * A click with the magic wand, which selects the pixels that are
+ * similar to the clicked pixel and connected to it. The pixels
+ * of the active layer are used, or the composite image
+ * if the active layer has no pixels.
+ */
+public class MagicWand {
+    private final Composition comp;
+    private final double x;
+    private final double y;
+    private final int tolerance;
+
+    public MagicWand(PMouseEvent e, int tolerance) {
+        comp = e.getComp();
+        x = e.getImX();
+        y = e.getImY();
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns the outline of the found pixels relative to the canvas,
+     * or an empty shape if the click was outside the image.
+     */
+    public Shape createShape() {
+        BufferedImage image;
+        int tx = 0;
+        int ty = 0;
+        Drawable dr = comp.getActiveDrawable();
+        if (dr != null) {
+            image = dr.getImage();
+            tx = dr.getTx();
+            ty = dr.getTy();
+        } else {
+            image = comp.getCompositeImage();
+        }
+
+        int imgX = (int) Math.floor(x) - tx;
+        int imgY = (int) Math.floor(y) - ty;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (imgX < 0 || imgX >= width || imgY < 0 || imgY >= height) {
+            return new Rectangle();
+        }
+
+        int[] pixels = ImageUtils.getPixelsAsArray(image);
+        FloodFill region = FloodFill.connected(pixels, width, height,
+                imgX, imgY, tolerance);
+
+        Rectangle bounds = region.getBounds();
+        return Shapes.outlineOfMask(region.toMask(), bounds.width, bounds.height,
+                bounds.x + tx, bounds.y + ty);
+    }
+}
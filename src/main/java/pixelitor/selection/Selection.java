@@ -31,6 +31,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 
 import static java.awt.BasicStroke.CAP_BUTT;
@@ -54,6 +55,9 @@ public class Selection {
     private static final float DASH_LENGTH = 4.0f;
     private static final float[] MARCHING_ANTS_DASH = {DASH_LENGTH, DASH_LENGTH};
 
+    // shapes with more segments are modified in rasterized form
+    private static final int MAX_SEGMENTS_FOR_AREAS = 1000;
+
     // if true, then the "marching ants" are not marching
     private boolean frozen = false;
 
@@ -232,14 +236,19 @@ public class Selection {
     }
 
     public void modify(SelectionModifyType type, float amount) {
-        BasicStroke outlineStroke = new BasicStroke(amount);
-        Shape outlineShape = outlineStroke.createStrokedShape(shape);
+        Shape backupShape = shape;
+        if (isComplex(shape)) {
+            // the area calculations would be too slow
+            shape = type.modifyRasterized(shape, amount);
+        } else {
+            BasicStroke outlineStroke = new BasicStroke(amount);
+            Shape outlineShape = outlineStroke.createStrokedShape(shape);
 
-        Area oldArea = new Area(shape);
-        Area outlineArea = new Area(outlineShape);
+            Area oldArea = new Area(shape);
+            Area outlineArea = new Area(outlineShape);
 
-        Shape backupShape = shape;
-        shape = type.modify(oldArea, outlineArea);
+            shape = type.modify(oldArea, outlineArea);
+        }
 
         var comp = view.getComp();
         boolean notEmpty = clipToCanvasSize(comp);
@@ -252,6 +261,17 @@ public class Selection {
         }
     }
 
+    private static boolean isComplex(Shape shape) {
+        int numSegments = 0;
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+            numSegments++;
+            if (numSegments > MAX_SEGMENTS_FOR_AREAS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Shape transform(AffineTransform at) {
         Shape backupShape = shape;
         shape = at.createTransformedShape(shape);
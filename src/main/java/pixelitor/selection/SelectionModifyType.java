@@ -18,10 +18,16 @@
 package pixelitor.selection;
 
 import pixelitor.filters.gui.EnumParam;
+import pixelitor.filters.impl.MorphologyFilter;
+import pixelitor.utils.Shapes;
 
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Area;
 
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_DIAMOND;
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_SQUARE;
+
 /**
  * The "Type" in the "Modify Selection" dialog
  */
@@ -32,29 +38,63 @@ public enum SelectionModifyType {
             previous.add(outlineShape);
             return previous;
         }
+
+        @Override
+        byte[] modifyMask(byte[] mask, int width, int height, int radius) {
+            grow(mask, width, height, radius);
+            return mask;
+        }
     }, CONTRACT("Contract") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             previous.subtract(outlineShape);
             return previous;
         }
+
+        @Override
+        byte[] modifyMask(byte[] mask, int width, int height, int radius) {
+            shrink(mask, width, height, radius);
+            return mask;
+        }
     }, BORDER("Border") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             return outlineShape;
         }
+
+        @Override
+        byte[] modifyMask(byte[] mask, int width, int height, int radius) {
+            byte[] shrunk = mask.clone();
+            shrink(shrunk, width, height, radius);
+            grow(mask, width, height, radius);
+            return subtract(mask, shrunk);
+        }
     }, BORDER_OUT("Border Outwards Only") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             outlineShape.subtract(previous);
             return outlineShape;
         }
+
+        @Override
+        byte[] modifyMask(byte[] mask, int width, int height, int radius) {
+            byte[] grown = mask.clone();
+            grow(grown, width, height, radius);
+            return subtract(grown, mask);
+        }
     }, BORDER_IN("Border Inwards Only") {
         @Override
         public Shape modify(Area previous, Area outlineShape) {
             previous.intersect(outlineShape);
             return previous;
         }
+
+        @Override
+        byte[] modifyMask(byte[] mask, int width, int height, int radius) {
+            byte[] shrunk = mask.clone();
+            shrink(shrunk, width, height, radius);
+            return subtract(mask, shrunk);
+        }
     };
 
     private final String guiName;
@@ -69,6 +109,51 @@ public enum SelectionModifyType {
      */
     public abstract Shape modify(Area previous, Area outlineShape);
 
+    /**
+     * Does the same as {@link #modify(Area, Area)}, but on a rasterized
+     * version of the shape. This is much faster for complex
+     * shapes, but the result follows the pixel grid.
+     */
+    public Shape modifyRasterized(Shape shape, float amount) {
+        // the stroked outline extends half of its width on both sides
+        int radius = Math.max(1, Math.round(amount / 2));
+
+        Rectangle area = shape.getBounds();
+        area.grow(radius + 1, radius + 1);
+        byte[] mask = Shapes.rasterize(shape, area);
+        byte[] result = modifyMask(mask, area.width, area.height, radius);
+        return Shapes.outlineOfMask(result, area.width, area.height, area.x, area.y);
+    }
+
+    /**
+     * Calculates the new mask from the given one, where 0 means
+     * unselected and 255 means selected. The given mask can be modified.
+     */
+    abstract byte[] modifyMask(byte[] mask, int width, int height, int radius);
+
+    /**
+     * Dilates with an octagon, which is a good approximation
+     * of the round outline of the stroke
+     */
+    private static void grow(byte[] mask, int width, int height, int radius) {
+        int squareRadius = Math.round(radius * 0.414f);
+        MorphologyFilter.dilate(mask, width, height, squareRadius, KERNEL_SQUARE);
+        MorphologyFilter.dilate(mask, width, height, radius - squareRadius, KERNEL_DIAMOND);
+    }
+
+    private static void shrink(byte[] mask, int width, int height, int radius) {
+        int squareRadius = Math.round(radius * 0.414f);
+        MorphologyFilter.erode(mask, width, height, squareRadius, KERNEL_SQUARE);
+        MorphologyFilter.erode(mask, width, height, radius - squareRadius, KERNEL_DIAMOND);
+    }
+
+    private static byte[] subtract(byte[] mask, byte[] removed) {
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] &= ~removed[i];
+        }
+        return mask;
+    }
+
     public static EnumParam<SelectionModifyType> asParam() {
         return new EnumParam<>("Type", SelectionModifyType.class);
     }
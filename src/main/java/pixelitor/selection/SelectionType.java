@@ -92,6 +92,12 @@ public enum SelectionType {
                 return gp;
             }
         }
+    }, MAGIC_WAND("Magic Wand", false) {
+        @Override
+        public Shape createShape(Object mouseInfo, Shape oldShape) {
+            MagicWand wand = (MagicWand) mouseInfo;
+            return wand.createShape();
+        }
     };
 
     private final String guiName;
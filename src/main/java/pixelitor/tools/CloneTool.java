@@ -199,7 +199,9 @@ public class CloneTool extends BlendingModeBrushTool {
         int dx = 0;
         int dy = 0;
         if (sampleAllLayers) {
-            sourceImage = comp.getCompositeImage();
+            // copied, because the cached composite image
+            // is updated while cloning into the same composition
+            sourceImage = ImageUtils.copyImage(comp.getCompositeImage());
         } else {
             Drawable dr = comp.getActiveDrawableOrThrow();
             sourceImage = dr.getImage();
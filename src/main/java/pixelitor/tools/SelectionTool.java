@@ -22,7 +22,9 @@ import pixelitor.Composition;
 import pixelitor.ConsistencyChecks;
 import pixelitor.OpenImages;
 import pixelitor.RunContext;
+import pixelitor.filters.gui.RangeParam;
 import pixelitor.gui.View;
+import pixelitor.gui.utils.SliderSpinner;
 import pixelitor.selection.*;
 import pixelitor.tools.util.ArrowKey;
 import pixelitor.tools.util.DragDisplayType;
@@ -34,6 +36,8 @@ import pixelitor.utils.debug.DebugNode;
 
 import javax.swing.*;
 
+import static pixelitor.filters.gui.FilterSetting.EnabledReason.APP_LOGIC;
+import static pixelitor.gui.utils.SliderSpinner.TextPosition.WEST;
 import static pixelitor.selection.ShapeCombination.*;
 
 /**
@@ -53,18 +57,24 @@ public class SelectionTool extends DragTool {
             "simply drag around the area that you want to select. " +
             "<b>Shift-drag</b> adds to an existing selection, " +
             "<b>Alt-drag</b> removes from it, <b>Shift-Alt-drag</b> intersects.";
+    private static final String MAGIC_WAND_HELP_TEXT = "<html>Magic Wand selection: " +
+            "<b>click</b> to select the similar colored area of the active layer. " +
+            "<b>Shift</b> adds to an existing selection, " +
+            "<b>Alt</b> removes from it, <b>Shift+Alt</b> intersects.";
 
     private boolean altMeansSubtract = false;
     private ShapeCombination originalShapeCombination;
 
     private SelectionBuilder selectionBuilder;
     private boolean polygonal = false;
+    private boolean magicWand = false;
     private boolean displayWidthHeight = true;
 
     private final EnumComboBoxModel<SelectionType> typeModel
             = new EnumComboBoxModel<>(SelectionType.class);
     private final EnumComboBoxModel<ShapeCombination> interactionModel
             = new EnumComboBoxModel<>(ShapeCombination.class);
+    private final RangeParam toleranceParam = new RangeParam("Tolerance", 0, 20, 255);
 
     SelectionTool() {
         super("Selection", 'M', "selection_tool_icon.png",
@@ -80,6 +90,10 @@ public class SelectionTool extends DragTool {
         typeCB.addActionListener(e -> selectionTypeChanged());
         settingsPanel.addComboBox("Type:", typeCB, "typeCB");
 
+        // only used by the magic wand
+        toleranceParam.setEnabled(false, APP_LOGIC);
+        settingsPanel.add(new SliderSpinner(toleranceParam, WEST, false));
+
         settingsPanel.addSeparator();
 
         var interactionCB = new JComboBox<ShapeCombination>(interactionModel);
@@ -99,10 +113,14 @@ public class SelectionTool extends DragTool {
 
         SelectionType type = getSelectionType();
         polygonal = type == SelectionType.POLYGONAL_LASSO;
+        magicWand = type == SelectionType.MAGIC_WAND;
         displayWidthHeight = type.displayWidthHeight();
+        toleranceParam.setEnabled(magicWand, APP_LOGIC);
 
         if (polygonal) {
             Messages.showInStatusBar(POLY_HELP_TEXT);
+        } else if (magicWand) {
+            Messages.showInStatusBar(MAGIC_WAND_HELP_TEXT);
         } else if (type == SelectionType.LASSO) {
             Messages.showInStatusBar(FREEHAND_HELP_TEXT);
         } else {
@@ -112,7 +130,7 @@ public class SelectionTool extends DragTool {
 
     @Override
     public void dragStarted(PMouseEvent e) {
-        if (polygonal) {
+        if (polygonal || magicWand) {
             return; // ignore mouse pressed
         }
 
@@ -124,7 +142,7 @@ public class SelectionTool extends DragTool {
 
     @Override
     public void ongoingDrag(PMouseEvent e) {
-        if (polygonal) {
+        if (polygonal || magicWand) {
             return; // ignore dragging
         }
         if (selectionBuilder == null) {
@@ -144,6 +162,10 @@ public class SelectionTool extends DragTool {
 
     @Override
     public void dragFinished(PMouseEvent e) {
+        if (magicWand) {
+            magicWandClicked(e);
+            return;
+        }
         if (userDrag.isClick() && !polygonal) { // will be handled by mouseClicked
             restoreInteraction();
             return;
@@ -188,6 +210,21 @@ public class SelectionTool extends DragTool {
         }
     }
 
+    private void magicWandClicked(PMouseEvent e) {
+        var comp = e.getComp();
+        setupInteractionWithKeyModifiers(e);
+        selectionBuilder = new SelectionBuilder(getSelectionType(),
+                getCurrentInteraction(), comp);
+        restoreInteraction();
+
+        selectionBuilder.updateBuiltSelection(
+                new MagicWand(e, toleranceParam.getValue()), comp);
+        selectionBuilder.combineShapes(comp);
+        stopBuildingSelection();
+
+        altMeansSubtract = false;
+    }
+
     private void notPolygonalDragFinished(PMouseEvent e) {
         var comp = e.getComp();
         restoreInteraction();
@@ -205,6 +242,9 @@ public class SelectionTool extends DragTool {
     @Override
     public void mouseClicked(PMouseEvent e) {
         var comp = e.getComp();
+        if (magicWand) {
+            return; // handled in mouse released
+        }
         if (polygonal) {
             if (selectionBuilder != null && e.getClickCount() > 1) {
                 // finish polygonal for double-click
@@ -248,7 +288,8 @@ public class SelectionTool extends DragTool {
 
     @Override
     public void altPressed() {
-        if (!altDown && !altMeansSubtract && userDrag != null && userDrag.isDragging()) {
+        if (!altDown && !altMeansSubtract && userDrag != null && userDrag.isDragging()
+                && selectionBuilder != null) {
             userDrag.setStartFromCenter(true);
             var comp = OpenImages.getActiveComp();
             selectionBuilder.updateBuiltSelection(userDrag.toImDrag(), comp);
@@ -258,7 +299,8 @@ public class SelectionTool extends DragTool {
 
     @Override
     public void altReleased() {
-        if (!altMeansSubtract && userDrag != null && userDrag.isDragging()) {
+        if (!altMeansSubtract && userDrag != null && userDrag.isDragging()
+                && selectionBuilder != null) {
             userDrag.setStartFromCenter(false);
             var comp = OpenImages.getActiveComp();
             selectionBuilder.updateBuiltSelection(userDrag.toImDrag(), comp);
@@ -370,6 +412,7 @@ public class SelectionTool extends DragTool {
 
         node.addString("type", getSelectionType().toString());
         node.addString("interaction", getCurrentInteraction().toString());
+        node.addInt("tolerance", toleranceParam.getValue());
 
         return node;
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+/**
+ * A non-GUI message handler for the headless batch processing,
+ * which prints the messages to the standard output and error streams
+ */
+public class ConsoleMessageHandler implements MessageHandler {
+    @Override
+    public void showInStatusBar(String msg) {
+        System.out.println(stripHTML(msg));
+    }
+
+    @Override
+    public ProgressHandler startProgress(String msg, int max) {
+        // the batch processing reports the progress per file
+        return ProgressHandler.EMPTY;
+    }
+
+    @Override
+    public void showInfo(String title, String msg) {
+        System.out.println(title + ": " + stripHTML(msg));
+    }
+
+    @Override
+    public void showError(String title, String msg) {
+        System.err.println(title + ": " + stripHTML(msg));
+    }
+
+    @Override
+    public void showNotImageLayerError() {
+        showError("Error", "The active layer is not an image layer");
+    }
+
+    @Override
+    public void showNotDrawableError() {
+        showError("Error", "The active layer is not an image layer or mask");
+    }
+
+    @Override
+    public void showException(Throwable e) {
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showException(Throwable e, Thread t) {
+        System.err.println("Exception in the thread " + t.getName());
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showExceptionOnEDT(Throwable e) {
+        // there is no need to switch threads
+        e.printStackTrace();
+    }
+
+    private static String stripHTML(String msg) {
+        return msg.replaceAll("<br>", " ").replaceAll("<[^>]*>", "");
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.ThreadPool;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The set of pixels found by a flood fill, stored as one bit per pixel.
+ * The pixels are only searched here, so that the callers can back up
+ * the affected area before changing anything.
+ *
+ * Each row starts at a new word, so the rows can be
+ * processed in parallel without sharing words.
+ */
+public class FloodFill {
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final long[] bits;
+
+    // null if no pixel was found
+    private Rectangle bounds;
+
+    private FloodFill(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        bits = new long[wordsPerRow * height];
+    }
+
+    /**
+     * Finds the pixels that are similar to the pixel at (x, y) and
+     * are connected to it horizontally or vertically. Uses the
+     * "Scanline fill" algorithm described at
+     * http://en.wikipedia.org/wiki/Flood_fill
+     */
+    public static FloodFill connected(int[] pixels, int width, int height,
+                                      int x, int y, int tolerance) {
+        var region = new FloodFill(width, height);
+        int seedRGB = pixels[x + y * width];
+
+        // the points to be inspected later, packed as pixel indices
+        var stack = new IntStack();
+        stack.push(x + y * width);
+
+        while (!stack.isEmpty()) {
+            int index = stack.pop();
+            int py = index / width;
+            int px = index - py * width;
+            if (region.contains(px, py)) {
+                // it was pushed both from above and below
+                continue;
+            }
+
+            // find the last similar points to the left and to the right
+            int offset = py * width;
+            int minX = px;
+            while (minX > 0 && !region.contains(minX - 1, py)
+                    && isSimilar(pixels[minX - 1 + offset], seedRGB, tolerance)) {
+                minX--;
+            }
+            int maxX = px;
+            while (maxX < width - 1 && !region.contains(maxX + 1, py)
+                    && isSimilar(pixels[maxX + 1 + offset], seedRGB, tolerance)) {
+                maxX++;
+            }
+
+            region.addSpan(py, minX, maxX);
+
+            if (py > 0) {
+                region.pushSeeds(stack, pixels, py - 1, minX, maxX, seedRGB, tolerance);
+            }
+            if (py < height - 1) {
+                region.pushSeeds(stack, pixels, py + 1, minX, maxX, seedRGB, tolerance);
+            }
+        }
+
+        region.calcBounds();
+        return region;
+    }
+
+    /**
+     * Looks for new points to be inspected later in the given
+     * row, between minX and maxX. If there are multiple similar points
+     * that are horizontal neighbours, only one of them is pushed.
+     */
+    private void pushSeeds(IntStack stack, int[] pixels, int y,
+                           int minX, int maxX, int seedRGB, int tolerance) {
+        boolean pointsInLine = false;
+        int offset = y * width;
+        for (int x = minX; x <= maxX; x++) {
+            boolean shouldBeAdded = !contains(x, y)
+                    && isSimilar(pixels[x + offset], seedRGB, tolerance);
+
+            if (!pointsInLine && shouldBeAdded) {
+                stack.push(x + offset);
+                pointsInLine = true;
+            } else if (pointsInLine && !shouldBeAdded) {
+                pointsInLine = false;
+            }
+        }
+    }
+
+    /**
+     * Finds all the pixels of the image that are similar to the given color.
+     * The rows are searched in parallel.
+     */
+    public static FloodFill global(int[] pixels, int width, int height,
+                                   int rgb, int tolerance) {
+        var region = new FloodFill(width, height);
+        long[] bits = region.bits;
+        int wordsPerRow = region.wordsPerRow;
+
+        ThreadPool.processBands(height, (fromY, toY) -> {
+            for (int y = fromY; y < toY; y++) {
+                int offset = y * width;
+                int wordOffset = y * wordsPerRow;
+                for (int x = 0; x < width; x++) {
+                    if (isSimilar(pixels[x + offset], rgb, tolerance)) {
+                        bits[wordOffset + (x >>> 6)] |= 1L << x;
+                    }
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+
+        region.calcBounds();
+        return region;
+    }
+
+    private void addSpan(int y, int minX, int maxX) {
+        int wordOffset = y * wordsPerRow;
+        for (int x = minX; x <= maxX; x++) {
+            bits[wordOffset + (x >>> 6)] |= 1L << x;
+        }
+    }
+
+    public boolean contains(int x, int y) {
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    private void calcBounds() {
+        int minX = width;
+        int maxX = -1;
+        int minY = height;
+        int maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int wordOffset = y * wordsPerRow;
+            for (int i = 0; i < wordsPerRow; i++) {
+                long word = bits[wordOffset + i];
+                if (word != 0) {
+                    minX = Math.min(minX, i * 64 + Long.numberOfTrailingZeros(word));
+                    maxX = Math.max(maxX, i * 64 + 63 - Long.numberOfLeadingZeros(word));
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+        }
+        if (maxY != -1) {
+            bounds = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        }
+    }
+
+    public boolean isEmpty() {
+        return bounds == null;
+    }
+
+    /**
+     * Returns the bounding rectangle of the found pixels,
+     * or null if no pixel was found.
+     */
+    public Rectangle getBounds() {
+        return bounds == null ? null : new Rectangle(bounds);
+    }
+
+    /**
+     * Sets the found pixels to the given color. The pixels array can
+     * also cover only a part of the searched image: it has the given
+     * scanline width and it starts at (originX, originY),
+     * but it has to contain the bounds of the found pixels.
+     */
+    public void fill(int[] pixels, int scanWidth, int originX, int originY, int rgb) {
+        if (bounds == null) {
+            return;
+        }
+        int fromWord = bounds.x >>> 6;
+        int toWord = (bounds.x + bounds.width - 1) >>> 6;
+        ThreadPool.processRows(bounds.height, row -> {
+            int y = bounds.y + row;
+            int wordOffset = y * wordsPerRow;
+            int offset = (y - originY) * scanWidth - originX;
+            for (int i = fromWord; i <= toWord; i++) {
+                long word = bits[wordOffset + i];
+                while (word != 0) {
+                    int x = i * 64 + Long.numberOfTrailingZeros(word);
+                    pixels[x + offset] = rgb;
+                    word &= word - 1; // clear the lowest set bit
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Returns the found pixels within their bounds as a mask,
+     * where 0 means outside and 255 means inside, in the format
+     * expected by {@link Shapes#outlineOfMask}.
+     */
+    public byte[] toMask() {
+        if (bounds == null) {
+            return new byte[0];
+        }
+        byte[] mask = new byte[bounds.width * bounds.height];
+        for (int row = 0; row < bounds.height; row++) {
+            int y = bounds.y + row;
+            int offset = row * bounds.width - bounds.x;
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                if (contains(x, y)) {
+                    mask[x + offset] = (byte) 255;
+                }
+            }
+        }
+        return mask;
+    }
+
+    public static boolean isSimilar(int color1, int color2, int tolerance) {
+        if (color1 == color2) {
+            return true;
+        }
+
+        int a1 = (color1 >>> 24) & 0xFF;
+        int r1 = (color1 >>> 16) & 0xFF;
+        int g1 = (color1 >>> 8) & 0xFF;
+        int b1 = color1 & 0xFF;
+
+        int a2 = (color2 >>> 24) & 0xFF;
+        int r2 = (color2 >>> 16) & 0xFF;
+        int g2 = (color2 >>> 8) & 0xFF;
+        int b2 = color2 & 0xFF;
+
+        return (r2 <= r1 + tolerance) && (r2 >= r1 - tolerance) &&
+                (g2 <= g1 + tolerance) && (g2 >= g1 - tolerance) &&
+                (b2 <= b1 + tolerance) && (b2 >= b1 - tolerance) &&
+                (a2 <= a1 + tolerance) && (a2 >= a1 - tolerance);
+    }
+
+    /**
+     * A growable stack of ints, so that no objects
+     * are allocated for the pushed points.
+     */
+    private static class IntStack {
+        private int[] values = new int[256];
+        private int size = 0;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -62,11 +62,15 @@ public class ImageUtils {
     public static final double DEG_315_IN_RADIANS = Math.PI / 4;
     private static final Color CHECKERBOARD_GRAY = new Color(200, 200, 200);
 
-    private static final GraphicsConfiguration graphicsConfiguration = GraphicsEnvironment
-            .getLocalGraphicsEnvironment()
-            .getDefaultScreenDevice()
-            .getDefaultConfiguration();
-    private static final ColorModel defaultColorModel = graphicsConfiguration.getColorModel();
+    // null in headless mode, where there is no screen
+    private static final GraphicsConfiguration graphicsConfiguration =
+            GraphicsEnvironment.isHeadless() ? null : GraphicsEnvironment
+                    .getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice()
+                    .getDefaultConfiguration();
+    private static final ColorModel defaultColorModel = graphicsConfiguration == null
+            ? ColorModel.getRGBdefault()
+            : graphicsConfiguration.getColorModel();
 
     private ImageUtils() {
     }
@@ -84,8 +88,8 @@ public class ImageUtils {
             return input;
         }
 
-        BufferedImage output = graphicsConfiguration
-                .createCompatibleImage(input.getWidth(), input.getHeight(), TRANSLUCENT);
+        BufferedImage output = createSysCompatibleImage(
+                input.getWidth(), input.getHeight());
         Graphics2D g = output.createGraphics();
         g.drawImage(input, 0, 0, null);
         g.dispose();
@@ -100,6 +104,9 @@ public class ImageUtils {
     public static BufferedImage createSysCompatibleImage(int width, int height) {
         assert width > 0 && height > 0;
 
+        if (graphicsConfiguration == null) {
+            return new BufferedImage(width, height, TYPE_INT_ARGB);
+        }
         return graphicsConfiguration.createCompatibleImage(width, height, TRANSLUCENT);
     }
 
@@ -34,6 +34,8 @@ public class Messages {
         try {
             if (RunContext.isUnitTesting()) {
                 msgHandler = new TestMessageHandler();
+            } else if (RunContext.isHeadlessBatch()) {
+                msgHandler = new ConsoleMessageHandler();
             } else {
                 msgHandler = new GUIMessageHandler();
             }
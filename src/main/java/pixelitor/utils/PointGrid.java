@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+/**
+ * A spatial index which sorts points into the cells of a uniform grid,
+ * so that the points near a location can be found without looking
+ * at all of them. The points of each cell are stored contiguously.
+ */
+public class PointGrid {
+    private final float minX;
+    private final float minY;
+    private final float cellSize;
+    private final int cols;
+    private final int rows;
+
+    // the points of a cell are from cellStart[cell] to cellStart[cell + 1]
+    private final int[] cellStart;
+    // the original indices and the coordinates, sorted by cell
+    private final int[] indices;
+    private final float[] xs;
+    private final float[] ys;
+
+    /**
+     * Creates a grid for points inside the given rectangle (points
+     * outside it are put into the nearest edge cell, which is
+     * only allowed if {@link #findNearest} won't be used),
+     * with about the given number of points in each cell.
+     */
+    public static PointGrid create(float[] xs, float[] ys, float minX, float minY,
+                                   float width, float height, float pointsPerCell) {
+        // whole numbers, so that the cell boundaries are exact
+        float cellArea = width * height * pointsPerCell / Math.max(1, xs.length);
+        float cellSize = Math.max(1.0f, (float) Math.ceil(Math.sqrt(cellArea)));
+        int cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        int rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        int[] cells = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            int col = toCell(xs[i], minX, cellSize, cols);
+            int row = toCell(ys[i], minY, cellSize, rows);
+            cells[i] = col + row * cols;
+        }
+        return new PointGrid(xs, ys, cells, minX, minY, cellSize, cols, rows);
+    }
+
+    /**
+     * Creates a grid with unit cells, where the cell of each point is given
+     * explicitly as col + row * cols. The coordinates are stored
+     * as they are, and they can be relative to their cells, but
+     * then {@link #findNearest} can't be used.
+     */
+    public PointGrid(int cols, int rows, int[] cells, float[] xs, float[] ys) {
+        this(xs, ys, cells, 0, 0, 1, cols, rows);
+    }
+
+    private PointGrid(float[] xs, float[] ys, int[] cells,
+                      float minX, float minY, float cellSize, int cols, int rows) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+
+        // counting sort by cell
+        int numPoints = xs.length;
+        cellStart = new int[cols * rows + 1];
+        for (int cell : cells) {
+            cellStart[cell + 1]++;
+        }
+        for (int i = 0; i < cols * rows; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        int[] nextSlot = new int[cols * rows];
+        System.arraycopy(cellStart, 0, nextSlot, 0, nextSlot.length);
+
+        indices = new int[numPoints];
+        this.xs = new float[numPoints];
+        this.ys = new float[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            int slot = nextSlot[cells[i]]++;
+            indices[slot] = i;
+            this.xs[slot] = xs[i];
+            this.ys[slot] = ys[i];
+        }
+    }
+
+    private static int toCell(double coord, float min, float cellSize, int numCells) {
+        int cell = (int) Math.floor((coord - min) / cellSize);
+        return Math.max(0, Math.min(numCells - 1, cell));
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the position of the first point of the given cell.
+     */
+    public int getCellStart(int cell) {
+        return cellStart[cell];
+    }
+
+    /**
+     * Returns the position after the last point of the given cell.
+     */
+    public int getCellEnd(int cell) {
+        return cellStart[cell + 1];
+    }
+
+    public float getX(int pos) {
+        return xs[pos];
+    }
+
+    public float getY(int pos) {
+        return ys[pos];
+    }
+
+    /**
+     * Returns the index of the point at the given position in the original arrays.
+     */
+    public int getIndex(int pos) {
+        return indices[pos];
+    }
+
+    /**
+     * Returns the original index of the nearest point according to the
+     * given metric, or -1 if there are no points. If several points are
+     * equally near, the one with the smallest index is returned, like
+     * in a brute-force search.
+     *
+     * The rings of cells around the cell of the location are searched
+     * until the nearest point found so far is nearer than anything
+     * outside the searched area could be. This works for all metrics,
+     * because none of them is smaller than the Chebyshev distance.
+     */
+    public int findNearest(double x, double y, Metric metric) {
+        int cx = toCell(x, minX, cellSize, cols);
+        int cy = toCell(y, minY, cellSize, rows);
+
+        int bestIndex = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ; ring++) {
+            int x0 = cx - ring;
+            int x1 = cx + ring;
+            int y0 = cy - ring;
+            int y1 = cy + ring;
+            for (int row = Math.max(0, y0); row <= Math.min(rows - 1, y1); row++) {
+                boolean fullRow = row == y0 || row == y1;
+                // only the first and last cells of the inner rows are in the ring
+                int step = fullRow ? 1 : x1 - x0;
+                for (int col = x0; col <= x1; col += step) {
+                    if (col < 0 || col >= cols) {
+                        continue;
+                    }
+                    int cell = col + row * cols;
+                    for (int pos = cellStart[cell]; pos < cellStart[cell + 1]; pos++) {
+                        double dist = metric.distanceDouble(xs[pos], x, ys[pos], y);
+                        int index = indices[pos];
+                        if (dist < bestDist || (dist == bestDist && index < bestIndex)) {
+                            bestDist = dist;
+                            bestIndex = index;
+                        }
+                    }
+                }
+            }
+
+            boolean allSearched = x0 <= 0 && y0 <= 0 && x1 >= cols - 1 && y1 >= rows - 1;
+            if (allSearched) {
+                return bestIndex;
+            }
+            if (bestIndex != -1) {
+                // the minimal Chebyshev distance of the points outside
+                // the searched block (there are none beyond the grid edges)
+                double gap = Double.POSITIVE_INFINITY;
+                if (x0 > 0) {
+                    gap = Math.min(gap, x - (minX + (double) x0 * cellSize));
+                }
+                if (x1 < cols - 1) {
+                    gap = Math.min(gap, minX + (x1 + 1.0) * cellSize - x);
+                }
+                if (y0 > 0) {
+                    gap = Math.min(gap, y - (minY + (double) y0 * cellSize));
+                }
+                if (y1 < rows - 1) {
+                    gap = Math.min(gap, minY + (y1 + 1.0) * cellSize - y);
+                }
+                if (metric.distanceDouble(gap, 0, 0, 0) > bestDist) {
+                    return bestIndex;
+                }
+            }
+        }
+    }
+}
@@ -35,6 +35,8 @@ import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.util.Arrays;
 import java.util.List;
 
@@ -45,6 +47,7 @@ import static java.awt.geom.PathIterator.SEG_CUBICTO;
 import static java.awt.geom.PathIterator.SEG_LINETO;
 import static java.awt.geom.PathIterator.SEG_MOVETO;
 import static java.awt.geom.PathIterator.SEG_QUADTO;
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
 /**
  * Static shape-related utility methods
@@ -1445,4 +1448,110 @@ public class Shapes {
         }
         return new Rectangle(x, y, width, height);
     }
+
+    /**
+     * Returns the pixels of the given area that are inside the
+     * shape as a mask, where 0 means outside and 255 means inside
+     */
+    public static byte[] rasterize(Shape shape, Rectangle area) {
+        BufferedImage img = new BufferedImage(area.width, area.height, TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        g.translate(-area.x, -area.y);
+        g.setColor(WHITE);
+        g.fill(shape);
+        g.dispose();
+        return ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+    }
+
+    // the directions of the pixel edges, in clockwise order
+    private static final int EAST = 0;
+    private static final int SOUTH = 1;
+    private static final int WEST = 2;
+    private static final int NORTH = 3;
+
+    // right, straight, left
+    private static final int[] TURNS = {1, 0, 3};
+
+    /**
+     * The inverse of {@link #rasterize(Shape, Rectangle)}: returns the
+     * outline of the nonzero pixels of the mask as a shape
+     * consisting of horizontal and vertical lines. The mask
+     * is placed at the given offset.
+     */
+    public static Shape outlineOfMask(byte[] mask, int width, int height, int offsetX, int offsetY) {
+        // the outgoing pixel edges of the pixel corners as bit flags,
+        // directed so that the inside of the mask is on the right
+        int stride = width + 1;
+        byte[] edges = new byte[stride * (height + 1)];
+        for (int y = 0; y <= height; y++) {
+            for (int x = 0; x <= width; x++) {
+                boolean in = x < width && y < height && mask[y * width + x] != 0;
+                boolean up = x < width && y > 0 && mask[(y - 1) * width + x] != 0;
+                boolean left = x > 0 && y < height && mask[y * width + x - 1] != 0;
+                if (in && !up) {
+                    edges[y * stride + x] |= 1 << EAST;
+                } else if (up && !in) {
+                    edges[y * stride + x + 1] |= 1 << WEST;
+                }
+                if (in && !left) {
+                    edges[(y + 1) * stride + x] |= 1 << NORTH;
+                } else if (left && !in) {
+                    edges[y * stride + x] |= 1 << SOUTH;
+                }
+            }
+        }
+
+        GeneralPath outline = new GeneralPath();
+        for (int start = 0; start < edges.length; start++) {
+            if (edges[start] != 0) {
+                traceLoop(edges, stride, start, outline, offsetX, offsetY);
+            }
+        }
+        return outline;
+    }
+
+    private static void traceLoop(byte[] edges, int stride, int start,
+                                  GeneralPath outline, int offsetX, int offsetY) {
+        int startDir = Integer.numberOfTrailingZeros(edges[start]);
+        outline.moveTo(start % stride + offsetX, start / stride + offsetY);
+
+        int vertex = start;
+        int dir = startDir;
+        while (true) {
+            edges[vertex] &= ~(1 << dir);
+            switch (dir) {
+                case EAST:
+                    vertex++;
+                    break;
+                case SOUTH:
+                    vertex += stride;
+                    break;
+                case WEST:
+                    vertex--;
+                    break;
+                default:
+                    vertex -= stride;
+            }
+
+            // where two loops touch at a corner, always
+            // turning right keeps them separate
+            int nextDir = -1;
+            for (int turn : TURNS) {
+                int candidate = (dir + turn) % 4;
+                if ((edges[vertex] & (1 << candidate)) != 0
+                        || (vertex == start && candidate == startDir)) {
+                    nextDir = candidate;
+                    break;
+                }
+            }
+            if (vertex == start && nextDir == startDir) {
+                break;
+            }
+            if (nextDir != dir) {
+                outline.lineTo(vertex % stride + offsetX, vertex / stride + offsetY);
+                dir = nextDir;
+            }
+        }
+        outline.closePath();
+    }
 }
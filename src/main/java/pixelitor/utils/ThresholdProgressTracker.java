@@ -18,10 +18,15 @@
 package pixelitor.utils;
 
 import java.awt.EventQueue;
+import java.util.concurrent.CancellationException;
 
 /**
  * An abstract superclass for progress tracking classes which
  * show progress information after a time threshold has been exceeded.
+ *
+ * If the tracked thread is interrupted, then the progress reporting
+ * is finished and a {@link CancellationException} is thrown
+ * in order to stop the computation as early as possible.
  */
 public abstract class ThresholdProgressTracker implements ProgressTracker {
     private static final int THRESHOLD_MILLIS = 200;
@@ -54,6 +59,11 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
     }
 
     private void update() {
+        if (!runningOnEDT && Thread.currentThread().isInterrupted()) {
+            finished();
+            throw new CancellationException();
+        }
+
         if (!showingProgress) {
             double millis = System.currentTimeMillis() - startTime;
             if (millis > THRESHOLD_MILLIS) {
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.composite;
+
+import com.jhlabs.composite.RGBComposite.RGBCompositeContext;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import pixelitor.layers.BlendingMode;
+
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("RGBComposite tests")
+public class RGBCompositeTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+
+    /**
+     * The int[] fast path must give exactly the same
+     * result as the generic path of the other image types
+     */
+    @ParameterizedTest
+    @EnumSource(BlendingMode.class)
+    void packedSameAsGeneric(BlendingMode mode) {
+        for (float opacity : new float[]{1.0f, 0.6f}) {
+            Composite composite = mode.getComposite(opacity);
+            if (!(composite instanceof RGBComposite)) {
+                return;
+            }
+
+            BufferedImage src = createRandomImage(1);
+            BufferedImage dst = createRandomImage(2);
+
+            int[] packedResult = compose(composite, src, dst, TYPE_INT_ARGB);
+            int[] genericResult = compose(composite, src, dst, TYPE_4BYTE_ABGR);
+
+            assertThat(packedResult).isEqualTo(genericResult);
+        }
+    }
+
+    @Test
+    void channelwiseOperations() {
+        checkChannelwise(RGBCompositeContext::min, Math::min);
+        checkChannelwise(RGBCompositeContext::max, Math::max);
+        checkChannelwise(RGBCompositeContext::difference, (a, b) -> Math.abs(a - b));
+        checkChannelwise(RGBCompositeContext::addSaturated, (a, b) -> Math.min(255, a + b));
+        checkChannelwise(RGBCompositeContext::subtractSaturated, (a, b) -> Math.max(0, a - b));
+        checkChannelwise(RGBCompositeContext::average, (a, b) -> (a + b) / 2);
+    }
+
+    private static void checkChannelwise(IntBinaryOperator packed, IntBinaryOperator channel) {
+        Random rand = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            // the edge values are more likely
+            int a = i < 256 ? i * 0x01_01_01 : rand.nextInt();
+            int b = i < 256 ? 0xFF_FF_FF - a : rand.nextInt();
+
+            int expected = 0;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int result = channel.applyAsInt((a >> shift) & 0xFF, (b >> shift) & 0xFF);
+                expected |= result << shift;
+            }
+            assertThat(packed.applyAsInt(a, b)).isEqualTo(expected);
+        }
+    }
+
+    private static int[] compose(Composite composite, BufferedImage src,
+                                 BufferedImage dst, int type) {
+        BufferedImage typedSrc = convert(src, type);
+        BufferedImage typedDst = convert(dst, type);
+
+        CompositeContext context = composite.createContext(
+                typedSrc.getColorModel(), typedDst.getColorModel(), null);
+        context.compose(typedSrc.getRaster(), typedDst.getRaster(), typedDst.getRaster());
+        context.dispose();
+
+        return typedDst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static BufferedImage convert(BufferedImage img, int type) {
+        BufferedImage converted = new BufferedImage(WIDTH, HEIGHT, type);
+        int[] pixels = img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        converted.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        return converted;
+    }
+
+    // a mix of opaque, transparent and semi-transparent pixels
+    private static BufferedImage createRandomImage(long seed) {
+        Random rand = new Random(seed);
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = rand.nextInt(0x1_00_00_00);
+                int alpha;
+                switch (rand.nextInt(3)) {
+                    case 0:
+                        alpha = 255;
+                        break;
+                    case 1:
+                        alpha = 0;
+                        break;
+                    default:
+                        alpha = rand.nextInt(256);
+                }
+                img.setRGB(x, y, alpha << 24 | rgb);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pixelitor.utils.ProgressTracker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CellularFilter tests")
+public class CellularFilterTest {
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 90;
+
+    /**
+     * The cached feature points must give the same result
+     * as creating them again for each pixel
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {CellularFilter.GR_RANDOM, CellularFilter.GR_SQUARE,
+            CellularFilter.GR_HEXAGONAL, CellularFilter.GR_OCTAGONAL, CellularFilter.GR_TRIANGULAR})
+    void sameAsWithoutCache(int gridType) {
+        var filter = new CellularFilter("test");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setGridType(gridType);
+        filter.setRandomness(0.3f);
+        filter.setScale(10);
+        filter.setStretch(1.5f);
+        filter.setAngle(0.7f);
+        filter.setF1(0.8f);
+        filter.setF2(0.3f);
+        filter.setF3(-0.1f);
+
+        int[] src = new int[WIDTH * HEIGHT];
+        int[] result = filter.filterPixels(WIDTH, HEIGHT, src, null);
+
+        // outside filterPixels the points are not cached
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int expected = filter.getPixel(x, y, src, WIDTH, HEIGHT);
+                assertThat(result[y * WIDTH + x]).isEqualTo(expected);
+            }
+        }
+    }
+}
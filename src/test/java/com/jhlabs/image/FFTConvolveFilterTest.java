@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FFTConvolveFilter tests")
+public class FFTConvolveFilterTest {
+    @ParameterizedTest
+    @CsvSource({"53,31,3,3", "53,31,5,7", "53,31,1,9", "53,31,31,31", "300,200,31,31", "20,10,41,41"})
+    void sameAsDirectConvolution(int width, int height, int kernelWidth, int kernelHeight) {
+        Random rand = new Random(42);
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt();
+        }
+        float[] kernel = new float[kernelWidth * kernelHeight];
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = (rand.nextFloat() * 2 - 0.5f) / kernel.length;
+        }
+
+        var filter = new FFTConvolveFilter("test");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setKernel(kernel, kernelWidth, kernelHeight);
+        int[] result = new int[src.length];
+        filter.convolve(src, result, width, height);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = convolvePixel(src, width, height, kernel, kernelWidth, kernelHeight, x, y);
+                int actual = result[y * width + x];
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = ((actual >>> shift) & 0xFF) - ((expected >>> shift) & 0xFF);
+                    assertThat(Math.abs(diff)).isLessThanOrEqualTo(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Away from the edges the result must be the same as that of the
+     * ConvolveFilter, which handles the edges in a slightly different way
+     */
+    @Test
+    void sameAsConvolveFilterInside() {
+        int width = 70;
+        int height = 50;
+        int size = 11;
+        Random rand = new Random(42);
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt();
+        }
+        float[] kernel = new float[size * size];
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = rand.nextFloat() * 2.0f / kernel.length;
+        }
+
+        var convolveFilter = new ConvolveFilter(new Kernel(size, size, kernel), "test");
+        convolveFilter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        int[] expected = new int[src.length];
+        convolveFilter.convolve(convolveFilter.getKernel(), src, expected, width, height,
+                false, ConvolveFilter.CLAMP_EDGES);
+
+        var fftFilter = new FFTConvolveFilter("test");
+        fftFilter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        fftFilter.setKernel(convolveFilter.getKernel());
+        fftFilter.setUseAlpha(false);
+        int[] result = new int[src.length];
+        fftFilter.convolve(src, result, width, height);
+
+        for (int y = size / 2; y < height - size / 2; y++) {
+            for (int x = size / 2; x < width - size / 2; x++) {
+                int i = y * width + x;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = ((result[i] >>> shift) & 0xFF) - ((expected[i] >>> shift) & 0xFF);
+                    assertThat(Math.abs(diff)).isLessThanOrEqualTo(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * With the edges in the ConvolveFilter way, the results must
+     * be the same as those of the ConvolveFilter everywhere
+     */
+    @ParameterizedTest
+    @CsvSource({"70,50,11,true", "53,31,31,false", "300,200,31,true", "20,10,41,true"})
+    void sameAsConvolveFilterWithEdges(int width, int height, int size, boolean alpha) {
+        Random rand = new Random(42);
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt();
+        }
+        float[] kernel = new float[size * size];
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = (rand.nextFloat() * 2 - 0.5f) / kernel.length;
+        }
+
+        var convolveFilter = new ConvolveFilter(new Kernel(size, size, kernel), "test");
+        convolveFilter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        int[] expected = new int[src.length];
+        convolveFilter.convolve(convolveFilter.getKernel(), src, expected, width, height,
+                alpha, ConvolveFilter.CLAMP_EDGES);
+
+        var fftFilter = new FFTConvolveFilter("test");
+        fftFilter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        fftFilter.setKernel(convolveFilter.getKernel());
+        fftFilter.setUseAlpha(alpha);
+        fftFilter.setConvolveFilterEdges(true);
+        int[] result = new int[src.length];
+        fftFilter.convolve(src, result, width, height);
+
+        for (int i = 0; i < src.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = ((result[i] >>> shift) & 0xFF) - ((expected[i] >>> shift) & 0xFF);
+                assertThat(Math.abs(diff)).isLessThanOrEqualTo(1);
+            }
+        }
+    }
+
+    private static int convolvePixel(int[] src, int width, int height,
+                                     float[] kernel, int kernelWidth, int kernelHeight,
+                                     int x, int y) {
+        float[] sums = new float[4];
+        for (int ky = 0; ky < kernelHeight; ky++) {
+            int sy = ImageMath.clamp(y + ky - kernelHeight / 2, 0, height - 1);
+            for (int kx = 0; kx < kernelWidth; kx++) {
+                int sx = ImageMath.clamp(x + kx - kernelWidth / 2, 0, width - 1);
+                int rgb = src[sy * width + sx];
+                float f = kernel[ky * kernelWidth + kx];
+                for (int c = 0; c < 4; c++) {
+                    sums[c] += f * ((rgb >>> (8 * c)) & 0xFF);
+                }
+            }
+        }
+        int result = 0;
+        for (int c = 0; c < 4; c++) {
+            result |= PixelUtils.clamp(Math.round(sums[c])) << (8 * c);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("GaussianFilter tests")
+public class GaussianFilterTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    /**
+     * The recursive approximation used for large radii must
+     * be close to the result of the exact kernel
+     */
+    @ParameterizedTest
+    @ValueSource(floats = {GaussianFilter.RECURSIVE_MIN_RADIUS, 20, 35, 80})
+    void recursiveSameAsKernel(float radius) {
+        int[] src = createTestPixels();
+
+        int[] kernelResult = src.clone();
+        int[] tmp = new int[src.length];
+        Kernel kernel = GaussianFilter.makeKernel(radius);
+        GaussianFilter.convolveAndTranspose(kernel, kernelResult, tmp, WIDTH, HEIGHT,
+                true, true, false, ConvolveFilter.CLAMP_EDGES, ProgressTracker.NULL_TRACKER);
+        GaussianFilter.convolveAndTranspose(kernel, tmp, kernelResult, HEIGHT, WIDTH,
+                true, false, true, ConvolveFilter.CLAMP_EDGES, ProgressTracker.NULL_TRACKER);
+
+        int[] recursiveResult = src.clone();
+        var rg = new GaussianFilter.RecursiveGaussian(radius / 3);
+        rg.blurAndTranspose(recursiveResult, tmp, WIDTH, HEIGHT,
+                true, true, false, ProgressTracker.NULL_TRACKER);
+        rg.blurAndTranspose(tmp, recursiveResult, HEIGHT, WIDTH,
+                true, false, true, ProgressTracker.NULL_TRACKER);
+
+        int maxDiff = 0;
+        long sumDiff = 0;
+        for (int i = 0; i < src.length; i++) {
+            // compared in premultiplied form, because the color
+            // of the almost transparent pixels is not important
+            int[] expected = premultiply(kernelResult[i]);
+            int[] actual = premultiply(recursiveResult[i]);
+            for (int c = 0; c < 4; c++) {
+                int diff = Math.abs(expected[c] - actual[c]);
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+        }
+        // the kernel is cut at 3 sigma, so small differences are expected everywhere
+        assertThat(maxDiff).isLessThanOrEqualTo(6);
+        assertThat(sumDiff / (4.0 * src.length)).isLessThan(1.0);
+    }
+
+    @Test
+    void recursiveKeepsUniformImage() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF_20_80_E0);
+        int[] tmp = new int[pixels.length];
+
+        var rg = new GaussianFilter.RecursiveGaussian(50);
+        rg.blurAndTranspose(pixels, tmp, WIDTH, HEIGHT,
+                true, true, false, ProgressTracker.NULL_TRACKER);
+        rg.blurAndTranspose(tmp, pixels, HEIGHT, WIDTH,
+                true, false, true, ProgressTracker.NULL_TRACKER);
+
+        for (int pixel : pixels) {
+            assertThat(pixel).isEqualTo(0xFF_20_80_E0);
+        }
+    }
+
+    private static int[] premultiply(int argb) {
+        int a = argb >>> 24;
+        return new int[]{a,
+                ((argb >> 16) & 0xFF) * a / 255,
+                ((argb >> 8) & 0xFF) * a / 255,
+                (argb & 0xFF) * a / 255};
+    }
+
+    // random shapes with sharp edges and varying transparency
+    private static int[] createTestPixels() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        // the left part is transparent, the right part is half-transparent
+        g.setColor(new Color(255, 255, 255, 128));
+        g.fillRect(WIDTH / 2, 0, WIDTH / 2, HEIGHT);
+        Random rand = new Random(42);
+        for (int i = 0; i < 30; i++) {
+            g.setColor(new Color(rand.nextInt(256), rand.nextInt(256),
+                    rand.nextInt(256), rand.nextInt(256)));
+            g.fillRect(rand.nextInt(WIDTH), rand.nextInt(HEIGHT),
+                    rand.nextInt(WIDTH / 2), rand.nextInt(HEIGHT / 2));
+        }
+        g.dispose();
+        return img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+}
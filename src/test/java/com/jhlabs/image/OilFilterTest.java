@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("OilFilter tests")
+public class OilFilterTest {
+    private static final int WIDTH = 53;
+    private static final int HEIGHT = 31;
+
+    /**
+     * The sliding histogram must give the same result as
+     * calculating the histogram separately for each pixel
+     */
+    @ParameterizedTest
+    @CsvSource({"1,1,256", "3,2,26", "7,7,101", "40,3,5"})
+    void sameAsFullHistogram(int rangeX, int rangeY, int levels) {
+        int[] src = createTestPixels();
+
+        var filter = new OilFilter("test");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setRangeX(rangeX);
+        filter.setRangeY(rangeY);
+        filter.setLevels(levels);
+        int[] result = filter.filterPixels(WIDTH, HEIGHT, src, null);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int expected = calcPixel(src, x, y, rangeX, rangeY, levels);
+                assertThat(result[y * WIDTH + x]).isEqualTo(expected);
+            }
+        }
+    }
+
+    private static int calcPixel(int[] src, int x, int y, int rangeX, int rangeY, int levels) {
+        int[] histogram = new int[levels];
+        int[] rTotal = new int[levels];
+        int[] gTotal = new int[levels];
+        int[] bTotal = new int[levels];
+        for (int ny = Math.max(0, y - rangeY); ny <= Math.min(HEIGHT - 1, y + rangeY); ny++) {
+            for (int nx = Math.max(0, x - rangeX); nx <= Math.min(WIDTH - 1, x + rangeX); nx++) {
+                int rgb = src[ny * WIDTH + nx];
+                int r = (rgb >> 16) & 0xff;
+                int g = (rgb >> 8) & 0xff;
+                int b = rgb & 0xff;
+                int bin = (r + g + b) / 3 * levels / 256;
+                histogram[bin]++;
+                rTotal[bin] += r;
+                gTotal[bin] += g;
+                bTotal[bin] += b;
+            }
+        }
+
+        int maxIndex = 0;
+        int curMax = 0;
+        for (int i = 0; i < levels; i++) {
+            if (histogram[i] > curMax) {
+                curMax = histogram[i];
+                maxIndex = i;
+            }
+        }
+        return (src[y * WIDTH + x] & 0xff000000)
+                | (rTotal[maxIndex] / curMax) << 16
+                | (gTotal[maxIndex] / curMax) << 8
+                | (bTotal[maxIndex] / curMax);
+    }
+
+    // few distinct colors, so that there are many ties in the histogram
+    private static int[] createTestPixels() {
+        Random rand = new Random(42);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = rand.nextInt(256) << 24
+                    | rand.nextInt(4) * 0x40_40_40
+                    | rand.nextInt(0x10_10_10);
+        }
+        return pixels;
+    }
+}
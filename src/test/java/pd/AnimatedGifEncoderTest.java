@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("AnimatedGifEncoder tests")
+public class AnimatedGifEncoderTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 45;
+    private static final int NUM_FRAMES = 12;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * The decoded frames must be close to the original ones
+     * with all combinations of the encoder settings
+     */
+    @ParameterizedTest
+    @CsvSource({
+            "false,false,0",
+            "true,false,0",
+            "true,true,0",
+            "true,false,4",
+            "true,true,4",
+            "false,false,20",
+    })
+    void roundTrip(boolean differencing, boolean dither, int globalPaletteFrames) throws IOException {
+        File file = tempDir.resolve("test.gif").toFile();
+
+        var encoder = new AnimatedGifEncoder();
+        encoder.setFrameDifferencing(differencing);
+        encoder.setDither(dither);
+        encoder.setGlobalPalette(globalPaletteFrames);
+        assertThat(encoder.start(file)).isTrue();
+        encoder.setDelay(100);
+        encoder.setRepeat(0);
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            assertThat(encoder.addFrame(createFrame(i))).isTrue();
+        }
+        assertThat(encoder.finish()).isTrue();
+
+        var gif = GifDecoder.read(Files.readAllBytes(file.toPath()));
+        assertThat(gif.getWidth()).isEqualTo(WIDTH);
+        assertThat(gif.getHeight()).isEqualTo(HEIGHT);
+        assertThat(gif.getFrameCount()).isEqualTo(NUM_FRAMES);
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            assertThat(gif.getDelay(i)).isEqualTo(10);
+            double error = calcMeanError(createFrame(i), gif.getFrame(i));
+            assertThat(error).isLessThan(dither ? 12.0 : 6.0);
+        }
+    }
+
+    /**
+     * Only the changed part of the frames should be written
+     */
+    @ParameterizedTest
+    @CsvSource({"0", "4"})
+    void differencingMakesFileSmaller(int globalPaletteFrames) throws IOException {
+        long fullSize = writeFrames(false, globalPaletteFrames);
+        long diffSize = writeFrames(true, globalPaletteFrames);
+        assertThat(diffSize).isLessThan(fullSize);
+    }
+
+    private long writeFrames(boolean differencing, int globalPaletteFrames) throws IOException {
+        File file = tempDir.resolve("size-" + differencing + ".gif").toFile();
+        var encoder = new AnimatedGifEncoder();
+        encoder.setFrameDifferencing(differencing);
+        encoder.setGlobalPalette(globalPaletteFrames);
+        encoder.start(file);
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            encoder.addFrame(createFrame(i));
+        }
+        encoder.finish();
+        return file.length();
+    }
+
+    // a static gradient background with a moving square,
+    // every second frame is the same as the previous one
+    private static BufferedImage createFrame(int index) {
+        int pos = index / 2;
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int gray = 4 * ((x + y) % 64);
+                img.setRGB(x, y, gray << 16 | gray << 8 | 200);
+            }
+        }
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(230, 40, 20));
+        g.fillRect(5 * pos, 3 * pos, 10, 8);
+        g.dispose();
+        return img;
+    }
+
+    private static double calcMeanError(BufferedImage expected, BufferedImage actual) {
+        long sum = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    sum += Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF));
+                }
+            }
+        }
+        return sum / (3.0 * WIDTH * HEIGHT);
+    }
+}
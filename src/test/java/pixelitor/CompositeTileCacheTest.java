@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.filters.Invert;
+import pixelitor.layers.AdjustmentLayer;
+import pixelitor.layers.ImageLayer;
+import pixelitor.tools.move.MoveMode;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static pixelitor.Composition.ImageChangeActions.REPAINT;
+import static pixelitor.layers.BlendingMode.MULTIPLY;
+import static pixelitor.layers.LayerMaskAddType.REVEAL_ALL;
+
+@DisplayName("Composite tile cache tests")
+public class CompositeTileCacheTest {
+    // big enough for several tiles in both directions
+    private static final int WIDTH = 2 * CompositeTileCache.TILE_SIZE + 100;
+    private static final int HEIGHT = 2 * CompositeTileCache.TILE_SIZE + 50;
+
+    private Composition comp;
+    private ImageLayer upperLayer;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp(WIDTH, HEIGHT);
+        Random rand = new Random(42);
+
+        var lowerLayer = TestHelper.createImageLayer(comp, createRandomImage(rand), "lower");
+        upperLayer = TestHelper.createImageLayer(comp, createRandomImage(rand), "upper");
+        comp.addLayerInInitMode(lowerLayer);
+        comp.addLayerInInitMode(upperLayer);
+
+        upperLayer.setBlendingMode(MULTIPLY, false);
+        upperLayer.setOpacity(0.8f, false);
+        upperLayer.addMask(REVEAL_ALL);
+    }
+
+    @Test
+    void regionChange() {
+        BufferedImage cached = comp.getCompositeImage();
+
+        Rectangle changed = new Rectangle(300, 20, 40, 300);
+        Graphics2D g = upperLayer.getImage().createGraphics();
+        g.setColor(Color.GREEN);
+        g.fill(changed);
+        g.dispose();
+        comp.imageChanged(REPAINT, changed);
+
+        // updated in place
+        assertSame(cached, comp.getCompositeImage());
+        assertSameAsFullComposite();
+    }
+
+    @Test
+    void maskChange() {
+        comp.getCompositeImage();
+
+        Rectangle changed = new Rectangle(5, 200, 500, 20);
+        Graphics2D g = upperLayer.getMask().getImage().createGraphics();
+        g.setColor(Color.BLACK);
+        g.fill(changed);
+        g.dispose();
+        upperLayer.getMask().updateFromBWImage();
+        comp.imageChanged(REPAINT, changed);
+
+        assertSameAsFullComposite();
+    }
+
+    @Test
+    void layerMovement() {
+        comp.getCompositeImage();
+
+        comp.startMovement(MoveMode.MOVE_LAYER_ONLY, false);
+        comp.moveActiveContentRelative(MoveMode.MOVE_LAYER_ONLY, 70, -30);
+        assertSameAsFullComposite();
+
+        comp.moveActiveContentRelative(MoveMode.MOVE_LAYER_ONLY, -300, 10);
+        assertSameAsFullComposite();
+    }
+
+    @Test
+    void pointwiseAdjustmentLayer() {
+        AdjustmentLayer invert = TestHelper.createAdjustmentLayer(comp, "Invert", new Invert());
+        comp.addLayerInInitMode(invert);
+        invert.addMask(REVEAL_ALL);
+        Graphics2D g = invert.getMask().getImage().createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(100, 100, 300, 300);
+        g.dispose();
+        invert.getMask().updateFromBWImage();
+
+        comp.imageChanged();
+        assertSameAsFullComposite();
+
+        Rectangle changed = new Rectangle(250, 250, 30, 30);
+        g = upperLayer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fill(changed);
+        g.dispose();
+        comp.imageChanged(REPAINT, changed);
+        assertSameAsFullComposite();
+    }
+
+    @Test
+    void paintingVisibleArea() {
+        comp.getCompositeImage();
+
+        // one change inside and one outside the painted area
+        Rectangle visible = new Rectangle(10, 10, 200, 150);
+        Rectangle changedInside = new Rectangle(50, 50, 20, 20);
+        Rectangle changedOutside = new Rectangle(400, 400, 20, 20);
+        Graphics2D g = upperLayer.getImage().createGraphics();
+        g.setColor(Color.BLUE);
+        g.fill(changedInside);
+        g.fill(changedOutside);
+        g.dispose();
+        comp.imageChanged(REPAINT, changedInside.union(changedOutside));
+
+        BufferedImage painted = paint(comp, visible, 1.0);
+        int[] expected = getPixels(comp.calculateCompositeImage());
+        int[] actual = getPixels(painted);
+        for (int y = visible.y; y < visible.y + visible.height; y++) {
+            for (int x = visible.x; x < visible.x + visible.width; x++) {
+                int i = y * WIDTH + x;
+                if (expected[i] != actual[i]) {
+                    throw new AssertionError(String.format(
+                            "x = %d, y = %d, expected = %08X, actual = %08X",
+                            x, y, expected[i], actual[i]));
+                }
+            }
+        }
+
+        // the tiles outside the painted area are updated later
+        assertSameAsFullComposite();
+    }
+
+    @Test
+    void mipLevelsAfterChange() {
+        Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+        paint(comp, all, 0.1);
+
+        Rectangle changed = new Rectangle(270, 30, 60, 250);
+        Graphics2D g = upperLayer.getImage().createGraphics();
+        g.setColor(Color.YELLOW);
+        g.fill(changed);
+        g.dispose();
+        comp.imageChanged(REPAINT, changed);
+
+        for (double scaling : new double[]{0.5, 0.3, 0.1}) {
+            BufferedImage updated = paint(comp, all, scaling);
+
+            // a new cache calculates all mip levels from scratch
+            CompositeTileCache freshCache = new CompositeTileCache();
+            BufferedImage fresh = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D fg = createScaledGraphics(fresh, all, scaling);
+            freshCache.paint(fg, comp.getCanvas(), comp.getLayers(), scaling);
+            fg.dispose();
+            freshCache.dispose();
+
+            assertArrayEquals(getPixels(fresh), getPixels(updated));
+        }
+    }
+
+    @Test
+    void calcMipLevel() {
+        assertEquals(0, CompositeTileCache.calcMipLevel(2.0));
+        assertEquals(0, CompositeTileCache.calcMipLevel(1.0));
+        assertEquals(0, CompositeTileCache.calcMipLevel(0.7));
+        assertEquals(1, CompositeTileCache.calcMipLevel(0.5));
+        assertEquals(1, CompositeTileCache.calcMipLevel(0.3));
+        assertEquals(3, CompositeTileCache.calcMipLevel(0.125));
+        assertEquals(CompositeTileCache.MAX_MIP_LEVEL, CompositeTileCache.calcMipLevel(0.001));
+    }
+
+    /**
+     * Paints the composition like the view does, and returns the
+     * result, which is image-sized, but only the top-left part
+     * is used if the scaling is less than one
+     */
+    private static BufferedImage paint(Composition comp, Rectangle clip, double scaling) {
+        var img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = createScaledGraphics(img, clip, scaling);
+        comp.paintCompositeImage(g, scaling);
+        g.dispose();
+        return img;
+    }
+
+    private static Graphics2D createScaledGraphics(BufferedImage img, Rectangle clip, double scaling) {
+        Graphics2D g = img.createGraphics();
+        g.scale(scaling, scaling);
+        g.clip(clip);
+        return g;
+    }
+
+    private void assertSameAsFullComposite() {
+        int[] expected = getPixels(comp.calculateCompositeImage());
+        int[] cached = getPixels(comp.getCompositeImage());
+        assertArrayEquals(expected, cached);
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static BufferedImage createRandomImage(Random rand) {
+        var img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, rand.nextInt());
+            }
+        }
+        return img;
+    }
+}
@@ -19,17 +19,29 @@ package pixelitor;
 
 import org.junit.jupiter.api.*;
 import pixelitor.io.IO;
+import pixelitor.io.NotPxcFormatException;
 import pixelitor.io.OpenRaster;
 import pixelitor.io.PXCFormat;
 import pixelitor.layers.*;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.zip.ZipFile;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
 
 @DisplayName("Composition I/O tests")
@@ -118,6 +130,83 @@ public class CompositionIOTest {
         }
     }
 
+    @Test
+    void writeReadPXCLazily() throws IOException, NotPxcFormatException {
+        // big enough to be written in several chunks
+        int width = 700;
+        int height = 900;
+        var comp = TestHelper.createEmptyComp(width, height);
+        Random rand = new Random(42);
+        var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, rand.nextInt());
+            }
+        }
+        var layer = TestHelper.createImageLayer(comp, img, "layer 1");
+        comp.addLayerInInitMode(layer);
+        layer.addMask(LayerMaskAddType.REVEAL_ALL);
+        BufferedImage maskImg = layer.getMask().getImage();
+        Graphics2D g = maskImg.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillOval(100, 100, 400, 600);
+        g.dispose();
+
+        var hiddenLayer = TestHelper.createImageLayer(comp, img, "hidden");
+        hiddenLayer.setVisible(false, false);
+        comp.addLayerInInitMode(hiddenLayer);
+
+        File tmp = File.createTempFile("pix_tmp", ".pxc");
+        PXCFormat.write(comp, tmp);
+        Composition readComp = PXCFormat.read(tmp);
+        tmp.delete();
+
+        // the images are decoded only when needed
+        var readLayer = (ImageLayer) readComp.getLayer(0);
+        var readHiddenLayer = (ImageLayer) readComp.getLayer(1);
+        assertFalse(readLayer.isImageLoaded());
+        readComp.getCompositeImage();
+        assertTrue(readLayer.isImageLoaded());
+        assertFalse(readHiddenLayer.isImageLoaded());
+
+        assertPixelsEqual(img, readLayer.getImage());
+        assertPixelsEqual(maskImg, readLayer.getMask().getImage());
+        assertPixelsEqual(img, readHiddenLayer.getImage());
+    }
+
+    @Test
+    void truncatedPXCIsDetectedWhenOpened() throws IOException {
+        var comp = TestHelper.createEmptyComp(700, 900);
+        var img = new BufferedImage(700, 900, BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(42);
+        for (int y = 0; y < 900; y++) {
+            for (int x = 0; x < 700; x++) {
+                img.setRGB(x, y, rand.nextInt());
+            }
+        }
+        comp.addLayerInInitMode(TestHelper.createImageLayer(comp, img, "layer 1"));
+
+        File tmp = File.createTempFile("pix_tmp", ".pxc");
+        PXCFormat.write(comp, tmp);
+        try (var raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(raf.length() - 1000);
+        }
+
+        // the test message handler rethrows the exception as an AssertionError
+        AssertionError e = assertThrows(AssertionError.class, () -> PXCFormat.read(tmp));
+        assertTrue(e.getCause() instanceof IOException);
+        tmp.delete();
+    }
+
+    private static void assertPixelsEqual(BufferedImage expected, BufferedImage actual) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertEquals(expected.getType(), actual.getType());
+        assertArrayEquals(
+                expected.getRGB(0, 0, width, height, null, 0, width),
+                actual.getRGB(0, 0, width, height, null, 0, width));
+    }
+
     @Test
     void readWriteORA() throws IOException {
         Consumer<Layer> extraCheck = secondLayer ->
@@ -139,6 +228,53 @@ public class CompositionIOTest {
         tmp.delete();
     }
 
+    @Test
+    void writeReadORAWithManyLayers() throws Exception {
+        int width = 53;
+        int height = 41;
+        int numLayers = 12;
+        var comp = TestHelper.createEmptyComp(width, height);
+        Random rand = new Random(42);
+        List<BufferedImage> images = new ArrayList<>();
+        for (int i = 0; i < numLayers; i++) {
+            var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    // opaque, because the translucent pixels can change
+                    // slightly in the premultiplied system-compatible images
+                    img.setRGB(x, y, 0xFF_00_00_00 | rand.nextInt());
+                }
+            }
+            images.add(img);
+            comp.addLayerInInitMode(TestHelper.createImageLayer(comp, img, "layer " + i));
+        }
+
+        // fewer images in flight than layers, so that
+        // the encoding and decoding has to wait
+        OpenRaster.setMaxImagesInFlight(3);
+        File tmp = File.createTempFile("pix_tmp", ".ora");
+        try {
+            OpenRaster.write(comp, tmp, true);
+            try (var zipFile = new ZipFile(tmp)) {
+                assertThat(zipFile.getEntry("mergedimage.png")).isNotNull();
+                assertThat(zipFile.getEntry("Thumbnails/thumbnail.png")).isNotNull();
+            }
+
+            Composition readComp = OpenRaster.read(tmp);
+            assertThat(readComp)
+                    .numLayersIs(numLayers)
+                    .canvasSizeIs(width, height);
+            for (int i = 0; i < numLayers; i++) {
+                var layer = (ImageLayer) readComp.getLayer(i);
+                assertEquals("layer " + i, layer.getName());
+                assertPixelsEqual(images.get(i), layer.getImage());
+            }
+        } finally {
+            OpenRaster.setMaxImagesInFlight(2 * ThreadPool.getNumCores());
+            tmp.delete();
+        }
+    }
+
     private static void checkSingleLayerRead(File f) {
         var future = IO.loadCompAsync(f);
         checkAsyncReadResult(future);
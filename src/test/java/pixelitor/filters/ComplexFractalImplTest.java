@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pixelitor.filters.impl.ComplexFractalImpl;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("ComplexFractalImpl tests")
+public class ComplexFractalImplTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int MAX_ITERATIONS = 300;
+
+    @ParameterizedTest
+    @ValueSource(doubles = {1.0, 30.0, 1.0e5})
+    void borderTracingMandelbrot(double zoom) {
+        var filter = createMandelbrot(zoom);
+        int[] traced = render(filter);
+        filter.setBorderTracing(false);
+        int[] full = render(filter);
+
+        // thin filaments can be missed, but they must be rare
+        assertThat(countDifferences(traced, full)).isLessThan(traced.length / 100);
+        assertThat(countDifferences(full, calcBruteForce(zoom))).isLessThan(full.length / 200);
+    }
+
+    @Test
+    void borderTracingJulia() {
+        var filter = new JuliaSetImpl();
+        init(filter, 3.0);
+        filter.setC(-0.7, 0.27);
+        int[] traced = render(filter);
+        filter.setBorderTracing(false);
+        int[] full = render(filter);
+
+        assertThat(countDifferences(traced, full)).isLessThan(traced.length / 100);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {1.0, 1.0e3, 1.0e8})
+    void perturbationMandelbrot(double zoom) {
+        var filter = createMandelbrot(zoom);
+        filter.setBorderTracing(false);
+        int[] direct = render(filter);
+        filter.setForcedPerturbation(true);
+        int[] perturbed = render(filter);
+
+        // rounding errors can change the results near the boundary
+        assertThat(countDifferences(direct, perturbed)).isLessThan(direct.length / 50);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {1.0, 1.0e3, 1.0e8})
+    void perturbationJulia(double zoom) {
+        var filter = new JuliaSetImpl();
+        init(filter, zoom);
+        filter.setC(-0.7, 0.27);
+        filter.setBorderTracing(false);
+        int[] direct = render(filter);
+        filter.setForcedPerturbation(true);
+        int[] perturbed = render(filter);
+
+        assertThat(countDifferences(direct, perturbed)).isLessThan(direct.length / 50);
+    }
+
+    /**
+     * Beyond the precision of doubles the perturbation
+     * method is used automatically
+     */
+    @Test
+    void deepZoom() {
+        var filter = createMandelbrot(1.0e18);
+        // a Misiurewicz point, where the details don't need many iterations,
+        // converted with the same float bounds as in the implementation
+        double x = -0.10109636384562;
+        double y = 0.95628651080914;
+        filter.setZoomCenter(
+                (x - (double) -2.2f) / ((double) 0.7f - (double) -2.2f),
+                (y - (double) -1.2f) / ((double) 1.2f - (double) -1.2f));
+        int[] result = render(filter);
+
+        long numDistinct = Arrays.stream(result).distinct().count();
+        assertThat(numDistinct).isGreaterThan(20);
+    }
+
+    private static MandelbrotSetImpl createMandelbrot(double zoom) {
+        var filter = new MandelbrotSetImpl();
+        init(filter, zoom);
+        return filter;
+    }
+
+    // in the "Seahorse Valley", so that the deep zooms are not uniform
+    private static final double CENTER_X = (-0.743643887037151 + 2.2) / 2.9;
+    private static final double CENTER_Y = (0.131825904205330 + 1.2) / 2.4;
+
+    private static void init(ComplexFractalImpl filter, double zoom) {
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setZoom(zoom);
+        filter.setZoomCenter(CENTER_X, CENTER_Y);
+        filter.setMaxIterations(MAX_ITERATIONS);
+
+        // the colors are the iteration counts
+        int[] colors = new int[MAX_ITERATIONS + 1];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = i;
+        }
+        filter.setColors(colors);
+    }
+
+    private static int[] render(ComplexFractalImpl filter) {
+        BufferedImage src = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage dst = filter.filter(src, null);
+        return dst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static int countDifferences(int[] a, int[] b) {
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The Mandelbrot set with the simple escape time
+     * algorithm, without any optimizations
+     */
+    private static int[] calcBruteForce(double zoom) {
+        // the same bounds as in the implementation
+        double minX = -2.2f;
+        double minY = -1.2f;
+        double fullRangeX = 0.7f - minX;
+        double fullRangeY = 1.2f - minY;
+
+        double rangeX = fullRangeX / zoom;
+        double rangeY = fullRangeY / zoom;
+        // the view is moved back inside the default range
+        double startX = Math.max(minX, Math.min(minX + fullRangeX - rangeX,
+                minX + CENTER_X * fullRangeX - rangeX / 2));
+        double startY = Math.max(minY, Math.min(minY + fullRangeY - rangeY,
+                minY + CENTER_Y * fullRangeY - rangeY / 2));
+
+        int[] result = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double cx = startX + x * (rangeX / WIDTH);
+                double cy = startY + y * (rangeY / HEIGHT);
+                double zx = 0;
+                double zy = 0;
+                int it = MAX_ITERATIONS;
+                double prevMagnitude = 0;
+                while (prevMagnitude <= 4 && it > 0) {
+                    it--;
+                    prevMagnitude = zx * zx + zy * zy;
+                    double newZx = zx * zx - zy * zy + cx;
+                    zy = 2 * zx * zy + cy;
+                    zx = newZx;
+                }
+                result[y * WIDTH + x] = it;
+            }
+        }
+        return result;
+    }
+}
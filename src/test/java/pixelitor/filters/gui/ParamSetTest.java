@@ -21,9 +21,14 @@ import org.junit.jupiter.api.*;
 import pixelitor.filters.ParamTest;
 import pixelitor.utils.ReseedSupport;
 
+import java.awt.Color;
 import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
 
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 @DisplayName("ParamSet tests")
@@ -92,6 +97,87 @@ public class ParamSetTest {
         verify(adjustmentListener, never()).paramAdjusted();
     }
 
+    @Test
+    void copyValuesFrom() {
+        ParamSet source = createParamsWithoutText();
+        source.randomize();
+        ParamSet copy = createParamsWithoutText();
+        ParamAdjustmentListener copyListener = mock(ParamAdjustmentListener.class);
+        copy.setAdjustmentListener(copyListener);
+
+        assertThat(copy.copyValuesFrom(source)).isTrue();
+
+        List<FilterParam> sourceParams = source.getParams();
+        List<FilterParam> copiedParams = copy.getParams();
+        for (int i = 0; i < sourceParams.size(); i++) {
+            assertThat(copiedParams.get(i).getParamValue())
+                    .isEqualTo(sourceParams.get(i).getParamValue());
+        }
+        verify(copyListener, never()).paramAdjusted();
+
+        // the value of a text param can't be copied without a GUI
+        assertThat(new ParamSet(ParamTest.getTestParams())
+                .copyValuesFrom(new ParamSet(ParamTest.getTestParams()))).isFalse();
+    }
+
+    @Test
+    void changesHiddenState() {
+        // because of the reseed action
+        assertThat(params.changesHiddenState()).isTrue();
+        assertThat(createParamsWithoutText().changesHiddenState()).isFalse();
+    }
+
+    private static ParamSet createParamsWithoutText() {
+        return new ParamSet(Arrays.stream(ParamTest.getTestParams())
+                .filter(param -> !(param instanceof TextParam))
+                .collect(toList()))
+                .addCommonActions();
+    }
+
+    @Test
+    void setValueFromText() {
+        params.setValueFromText("rangeparam", "42");
+        params.setValueFromText(" Extra Param ", "300");
+        params.setValueFromText("ImagePositionParam", "0.25, 0.75");
+        params.setValueFromText("IntChoiceParam", "Value 2");
+        params.setValueFromText("ColorParam", "#FF0000");
+        params.setValueFromText("AngleParam", "90");
+        params.setValueFromText("BooleanParam", "true");
+
+        assertThat(getParam(RangeParam.class, "RangeParam").getValue()).isEqualTo(42);
+        // limited to the maximum
+        assertThat(extraParam.getValue()).isEqualTo(200);
+        var positionParam = getParam(ImagePositionParam.class, "ImagePositionParam");
+        assertThat(positionParam.getRelativeX()).isEqualTo(0.25f);
+        assertThat(positionParam.getRelativeY()).isEqualTo(0.75f);
+        assertThat(getParam(IntChoiceParam.class, "IntChoiceParam")
+                .getSelectedItem().getValue()).isEqualTo(2);
+        assertThat(getParam(ColorParam.class, "ColorParam").getColor()).isEqualTo(Color.RED);
+        assertThat(getParam(AngleParam.class, "AngleParam").getValueInDegrees()).isEqualTo(90);
+        assertThat(getParam(BooleanParam.class, "BooleanParam").isChecked()).isTrue();
+
+        verify(adjustmentListener, never()).paramAdjusted();
+
+        assertThatThrownBy(() -> params.setValueFromText("Missing", "1"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> params.setValueFromText("RangeParam", "x"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> params.setValueFromText("IntChoiceParam", "value 3"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> params.setValueFromText("BooleanParam", "yes"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> params.setValueFromText("TextParam", "text"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private <T extends FilterParam> T getParam(Class<T> type, String name) {
+        return params.getParams().stream()
+                .filter(param -> param.getName().equals(name))
+                .map(type::cast)
+                .findFirst()
+                .orElseThrow();
+    }
+
     @Test
     void hasGradient() {
         assertThat(params.hasGradient()).isTrue();
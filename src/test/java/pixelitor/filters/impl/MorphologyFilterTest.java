@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_DIAMOND;
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_SQUARE;
+
+@DisplayName("MorphologyFilter tests")
+public class MorphologyFilterTest {
+    private static final int WIDTH = 41;
+    private static final int HEIGHT = 27;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 7, 12, 50})
+    void sameAsBruteForce(int radius) {
+        byte[] src = createRandomPlane();
+        for (int kernel : new int[]{KERNEL_SQUARE, KERNEL_DIAMOND}) {
+            byte[] dilated = src.clone();
+            MorphologyFilter.dilate(dilated, WIDTH, HEIGHT, radius, kernel);
+            assertThat(dilated).isEqualTo(calcBruteForce(src, radius, kernel, true));
+
+            byte[] eroded = src.clone();
+            MorphologyFilter.erode(eroded, WIDTH, HEIGHT, radius, kernel);
+            assertThat(eroded).isEqualTo(calcBruteForce(src, radius, kernel, false));
+        }
+    }
+
+    /**
+     * The result must be the same as iterating the
+     * 3x3 kernel, which was done in earlier versions
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {KERNEL_SQUARE, KERNEL_DIAMOND})
+    void sameAsIterating(int kernel) {
+        byte[] src = createRandomPlane();
+        int radius = 6;
+
+        byte[] result = src.clone();
+        MorphologyFilter.dilate(result, WIDTH, HEIGHT, radius, kernel);
+
+        byte[] expected = src;
+        for (int i = 0; i < radius; i++) {
+            expected = calcBruteForce(expected, 1, kernel, true);
+        }
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {MorphologyFilter.OP_ERODE, MorphologyFilter.OP_DILATE,
+            MorphologyFilter.OP_OPEN, MorphologyFilter.OP_CLOSE, MorphologyFilter.OP_GRADIENT})
+    void operationsOnPixels(int op) {
+        Random rand = new Random(42);
+        int[] src = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt();
+        }
+
+        var filter = new MorphologyFilter("test");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setKernel(KERNEL_SQUARE);
+        filter.setIterations(3);
+        filter.setOp(op);
+        int[] result = filter.filterPixels(WIDTH, HEIGHT, src, null);
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            byte[] channel = new byte[src.length];
+            for (int i = 0; i < src.length; i++) {
+                channel[i] = (byte) (src[i] >>> shift);
+            }
+            byte[] expected = calcOp(channel, op);
+            for (int i = 0; i < src.length; i++) {
+                int actual = (result[i] >>> shift) & 0xFF;
+                if (shift == 24 && (op == MorphologyFilter.OP_DILATE
+                        || op == MorphologyFilter.OP_GRADIENT)) {
+                    assertThat(actual).isEqualTo(0xFF);
+                } else {
+                    assertThat(actual).isEqualTo(expected[i] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private static byte[] calcOp(byte[] channel, int op) {
+        switch (op) {
+            case MorphologyFilter.OP_ERODE:
+                return calcBruteForce(channel, 3, KERNEL_SQUARE, false);
+            case MorphologyFilter.OP_DILATE:
+                return calcBruteForce(channel, 3, KERNEL_SQUARE, true);
+            case MorphologyFilter.OP_OPEN:
+                return calcBruteForce(calcBruteForce(channel, 3, KERNEL_SQUARE, false),
+                        3, KERNEL_SQUARE, true);
+            case MorphologyFilter.OP_CLOSE:
+                return calcBruteForce(calcBruteForce(channel, 3, KERNEL_SQUARE, true),
+                        3, KERNEL_SQUARE, false);
+            case MorphologyFilter.OP_GRADIENT:
+                byte[] dilated = calcBruteForce(channel, 3, KERNEL_SQUARE, true);
+                byte[] eroded = calcBruteForce(channel, 3, KERNEL_SQUARE, false);
+                byte[] gradient = new byte[channel.length];
+                for (int i = 0; i < channel.length; i++) {
+                    gradient[i] = (byte) ((dilated[i] & 0xFF) - (eroded[i] & 0xFF));
+                }
+                return gradient;
+            default:
+                throw new IllegalStateException("op = " + op);
+        }
+    }
+
+    private static byte[] calcBruteForce(byte[] src, int radius, int kernel, boolean max) {
+        byte[] result = new byte[src.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int extreme = max ? 0 : 255;
+                for (int ny = Math.max(0, y - radius); ny <= Math.min(HEIGHT - 1, y + radius); ny++) {
+                    for (int nx = Math.max(0, x - radius); nx <= Math.min(WIDTH - 1, x + radius); nx++) {
+                        if (kernel == KERNEL_DIAMOND
+                                && Math.abs(nx - x) + Math.abs(ny - y) > radius) {
+                            continue;
+                        }
+                        int v = src[ny * WIDTH + nx] & 0xFF;
+                        extreme = max ? Math.max(extreme, v) : Math.min(extreme, v);
+                    }
+                }
+                result[y * WIDTH + x] = (byte) extreme;
+            }
+        }
+        return result;
+    }
+
+    private static byte[] createRandomPlane() {
+        Random rand = new Random(42);
+        byte[] plane = new byte[WIDTH * HEIGHT];
+        rand.nextBytes(plane);
+        return plane;
+    }
+}
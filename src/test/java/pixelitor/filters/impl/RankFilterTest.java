@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("RankFilter tests")
+public class RankFilterTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 30})
+    void sameAsSorting(int radius) {
+        int[] src = createRandomPixels();
+        for (float percentile : new float[]{0.0f, 0.25f, 0.5f, 0.9f, 1.0f}) {
+            var filter = new RankFilter("test");
+            filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+            filter.setRadius(radius);
+            filter.setPercentile(percentile);
+            int[] result = filter.filterPixels(WIDTH, HEIGHT, src, null);
+
+            int[] expected = calcBySorting(src, radius, percentile);
+            assertThat(result).isEqualTo(expected);
+        }
+    }
+
+    private static int[] calcBySorting(int[] src, int radius, float percentile) {
+        int[] result = new int[src.length];
+        int[][] values = new int[4][];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int minX = Math.max(0, x - radius);
+                int maxX = Math.min(WIDTH - 1, x + radius);
+                int minY = Math.max(0, y - radius);
+                int maxY = Math.min(HEIGHT - 1, y + radius);
+                int count = (maxX - minX + 1) * (maxY - minY + 1);
+
+                for (int c = 0; c < 4; c++) {
+                    values[c] = new int[count];
+                }
+                int i = 0;
+                for (int ny = minY; ny <= maxY; ny++) {
+                    for (int nx = minX; nx <= maxX; nx++) {
+                        int rgb = src[ny * WIDTH + nx];
+                        for (int c = 0; c < 4; c++) {
+                            values[c][i] = (rgb >>> (24 - 8 * c)) & 0xFF;
+                        }
+                        i++;
+                    }
+                }
+
+                int rank = Math.round(percentile * (count - 1));
+                int rgb = 0;
+                for (int c = 0; c < 4; c++) {
+                    Arrays.sort(values[c]);
+                    rgb |= values[c][rank] << (24 - 8 * c);
+                }
+                result[y * WIDTH + x] = rgb;
+            }
+        }
+        return result;
+    }
+
+    // few distinct values, so that there are many equal values
+    private static int[] createRandomPixels() {
+        Random rand = new Random(42);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = rand.nextInt(8) * 0x24_00_00_00
+                    | rand.nextInt(0x1_00_00_00);
+        }
+        return pixels;
+    }
+}
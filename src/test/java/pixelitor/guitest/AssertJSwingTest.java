@@ -1812,6 +1812,9 @@ public class AssertJSwingTest {
                 "Find Horizontal Edges", "Find Vertical Edges",
                 "Find Diagonal Edges", "Find Diagonal Edges 2", "Sharpen",
                 "Do Nothing", "Randomize");
+        testFilterWithDialog("Custom 9x9 Convolution", Randomize.NO,
+                Reseed.NO, ShowOriginal.NO, "Mean Blur", "Disk Blur", "Motion Blur",
+                "Do Nothing", "Randomize");
 
         testFilterWithDialog("Channel to Transparency", Randomize.YES, Reseed.NO, ShowOriginal.YES);
         testNoDialogFilter("Invert Transparency");
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.*;
+import pixelitor.TestHelper;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BackupStore tests")
+@TestMethodOrder(MethodOrderer.Random.class)
+public class BackupStoreTest {
+    private static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @AfterEach
+    void afterEachTest() {
+        BackupStore.setMemoryBudget(DEFAULT_BUDGET);
+    }
+
+    @Test
+    void imageSwappedOutAndIn() {
+        for (int type : new int[]{TYPE_INT_ARGB, TYPE_BYTE_GRAY}) {
+            BufferedImage img = createRandomImage(type);
+            int[] expected = getPixels(img);
+
+            PixelBackup backup = PixelBackup.of(img);
+            swapOutEverything();
+            assertThat(backup.isInMemory()).isFalse();
+
+            BufferedImage restored = backup.getImage();
+            assertThat(restored.getType()).isEqualTo(type);
+            assertThat(getPixels(restored)).isEqualTo(expected);
+            backup.dispose(true);
+        }
+    }
+
+    @Test
+    void rasterSwappedOutAndIn() {
+        BufferedImage img = createRandomImage(TYPE_INT_ARGB);
+        Rectangle area = new Rectangle(10, 20, 40, 30);
+        Raster raster = img.getData(area);
+
+        PixelBackup backup = PixelBackup.of(raster);
+        swapOutEverything();
+        assertThat(backup.isInMemory()).isFalse();
+
+        Raster restored = backup.getRaster();
+        assertThat(restored.getBounds()).isEqualTo(area);
+        int[] expected = raster.getPixels(area.x, area.y, area.width, area.height, (int[]) null);
+        int[] actual = restored.getPixels(area.x, area.y, area.width, area.height, (int[]) null);
+        assertThat(actual).isEqualTo(expected);
+        backup.dispose(false);
+    }
+
+    @Test
+    void leastRecentlyUsedSwappedFirst() {
+        PixelBackup first = PixelBackup.of(createRandomImage(TYPE_INT_ARGB));
+        PixelBackup second = PixelBackup.of(createRandomImage(TYPE_INT_ARGB));
+        first.getImage(); // now the second one is the least recently used
+
+        BackupStore.setMemoryBudget(first.getNumBytes());
+        BackupStore.waitForSwapping();
+
+        assertThat(first.isInMemory()).isTrue();
+        assertThat(second.isInMemory()).isFalse();
+
+        first.dispose(true);
+        second.dispose(true);
+    }
+
+    private static void swapOutEverything() {
+        BackupStore.setMemoryBudget(0);
+        BackupStore.waitForSwapping();
+        assertThat(BackupStore.getBytesInMemory()).isZero();
+    }
+
+    private static BufferedImage createRandomImage(int type) {
+        Random rand = new Random(42);
+        BufferedImage img = new BufferedImage(100, 80, type);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                // some smooth areas and some noise
+                int value = x < 50 ? 0xFF_30_60_90 + y : rand.nextInt();
+                img.setRGB(x, y, value);
+            }
+        }
+        return img;
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        int width = img.getWidth();
+        return img.getRGB(0, 0, width, img.getHeight(), null, 0, width);
+    }
+}
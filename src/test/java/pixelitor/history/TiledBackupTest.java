@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.layers.ImageLayer;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("TiledBackup tests")
+public class TiledBackupTest {
+    private static final int SIZE = 5 * TiledBackup.TILE_SIZE + 20;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void smallChange() {
+        BufferedImage before = createRandomImage();
+        BufferedImage after = ImageUtils.copyImage(before);
+        Graphics2D g = after.createGraphics();
+        g.setColor(Color.RED);
+        // touches two tiles horizontally and one vertically
+        g.fillRect(TiledBackup.TILE_SIZE - 5, 10, 20, 20);
+        g.dispose();
+
+        TiledBackup backup = TiledBackup.create(before, after);
+        assertThat(backup).isNotNull();
+
+        BufferedImage edited = ImageUtils.copyImage(after);
+        assertThat(getPixels(backup.createImage(edited))).isEqualTo(getPixels(before));
+
+        // undo
+        backup.swapWith(edited);
+        assertThat(getPixels(edited)).isEqualTo(getPixels(before));
+
+        // redo
+        backup.swapWith(edited);
+        assertThat(getPixels(edited)).isEqualTo(getPixels(after));
+
+        backup.dispose();
+    }
+
+    @Test
+    void mostlyChanged() {
+        BufferedImage before = createRandomImage();
+        BufferedImage after = ImageUtils.copyImage(before);
+        Graphics2D g = after.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, SIZE, SIZE - 10);
+        g.dispose();
+
+        assertThat(TiledBackup.create(before, after)).isNull();
+    }
+
+    /**
+     * Undo and redo change the layer image in place, but the
+     * cached trim bounds of the layer must still be updated
+     */
+    @Test
+    void undoRedoUpdatesTrimBounds() {
+        History.clear();
+        Composition comp = TestHelper.createEmptyComp(SIZE, SIZE);
+        BufferedImage img = new BufferedImage(SIZE, SIZE, TYPE_INT_ARGB);
+        fillRect(img, 10, 10, 20, 20);
+        ImageLayer layer = TestHelper.createImageLayer(comp, img, "layer");
+        comp.addLayerInInitMode(layer);
+        Rectangle bounds = new Rectangle(10, 10, 20, 20);
+        assertThat(layer.getEffectiveBoundingBox()).isEqualTo(bounds);
+
+        BufferedImage backup = ImageUtils.copyImage(img);
+        fillRect(img, 300, 300, 20, 20);
+        History.add(new ImageEdit("Test", comp, layer, backup, true, false));
+        Rectangle editedBounds = new Rectangle(10, 10, 310, 310);
+        assertThat(layer.getImage()).isSameAs(img);
+
+        History.undo();
+        assertThat(layer.getImage()).isSameAs(img); // changed in place
+        assertThat(layer.getEffectiveBoundingBox()).isEqualTo(bounds);
+
+        History.redo();
+        assertThat(layer.getImage()).isSameAs(img);
+        assertThat(layer.getEffectiveBoundingBox()).isEqualTo(editedBounds);
+
+        History.clear();
+    }
+
+    private static void fillRect(BufferedImage img, int x, int y, int width, int height) {
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(x, y, width, height);
+        g.dispose();
+    }
+
+    private static BufferedImage createRandomImage() {
+        Random rand = new Random(42);
+        BufferedImage img = new BufferedImage(SIZE, SIZE, TYPE_INT_ARGB);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                img.setRGB(x, y, rand.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return img.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+}
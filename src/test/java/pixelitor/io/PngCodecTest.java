@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import pixelitor.utils.ProgressTracker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_INDEXED;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+@DisplayName("PngCodec tests")
+public class PngCodecTest {
+    // big enough to be deflated in several bands
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    /**
+     * The written files must be readable by ImageIO, and
+     * the fast decoder must give the same pixels
+     */
+    @ParameterizedTest
+    @EnumSource(PngCompression.class)
+    void roundTrip(PngCompression compression) throws IOException {
+        BufferedImage[] images = {
+                createTestImage(TYPE_INT_ARGB, false),
+                createTestImage(TYPE_INT_ARGB, true),
+                createTestImage(TYPE_INT_RGB, true),
+                createTestImage(TYPE_INT_ARGB_PRE, true),
+        };
+        for (BufferedImage img : images) {
+            assertThat(PngCodec.canEncode(img)).isTrue();
+
+            var out = new ByteArrayOutputStream();
+            PngCodec.write(img, out, compression, ProgressTracker.NULL_TRACKER);
+            byte[] png = out.toByteArray();
+
+            assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(png)));
+            assertSamePixels(img, PngCodec.read(
+                    new ByteArrayInputStream(png), ProgressTracker.NULL_TRACKER));
+        }
+    }
+
+    /**
+     * Translucent premultiplied images are unpremultiplied before writing,
+     * which can differ by one level from the unpremultiplication of getRGB
+     */
+    @ParameterizedTest
+    @EnumSource(PngCompression.class)
+    void translucentPremultipliedRoundTrip(PngCompression compression) throws IOException {
+        BufferedImage img = createTestImage(TYPE_INT_ARGB_PRE, false);
+        assertThat(PngCodec.canEncode(img)).isTrue();
+
+        var out = new ByteArrayOutputStream();
+        PngCodec.write(img, out, compression, ProgressTracker.NULL_TRACKER);
+        byte[] png = out.toByteArray();
+
+        assertSimilarPixels(img, ImageIO.read(new ByteArrayInputStream(png)));
+        assertSimilarPixels(img, PngCodec.read(
+                new ByteArrayInputStream(png), ProgressTracker.NULL_TRACKER));
+    }
+
+    /**
+     * The ancillary chunks before the image data (like gAMA and sRGB)
+     * are skipped, and the image data can be split into several chunks
+     */
+    @Test
+    void readsAncillaryChunksAndSplitImageData() throws IOException {
+        BufferedImage img = createTestImage(TYPE_INT_ARGB, false);
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(img, "PNG", out);
+
+        byte[] gama = {0, 0, (byte) 0xB1, (byte) 0x8F}; // gamma = 1/2.2
+        byte[] srgb = {0}; // perceptual rendering intent
+        byte[] png = rewriteChunks(out.toByteArray(), gama, srgb, 1000);
+
+        // check that the file really has these chunks
+        List<String> types = readChunkTypes(png);
+        assertThat(types).startsWith("IHDR", "gAMA", "sRGB", "IDAT", "IDAT");
+        assertThat(types).endsWith("IDAT", "IEND");
+
+        assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(png)));
+        assertSamePixels(img, PngCodec.read(
+                new ByteArrayInputStream(png), ProgressTracker.NULL_TRACKER));
+    }
+
+    @Test
+    void readsImageIOFiles() throws IOException {
+        BufferedImage img = createTestImage(TYPE_INT_ARGB, false);
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(img, "PNG", out);
+
+        assertSamePixels(img, PngCodec.read(
+                new ByteArrayInputStream(out.toByteArray()), ProgressTracker.NULL_TRACKER));
+    }
+
+    @Test
+    void leavesOtherImagesToImageIO() throws IOException {
+        var indexed = new BufferedImage(10, 10, TYPE_BYTE_INDEXED);
+        assertThat(PngCodec.canEncode(indexed)).isFalse();
+        BufferedImage subImage = createTestImage(TYPE_INT_RGB, true).getSubimage(1, 1, 5, 5);
+        assertThat(PngCodec.canEncode(subImage)).isFalse();
+
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(indexed, "PNG", out);
+        assertThat(PngCodec.read(new ByteArrayInputStream(out.toByteArray()),
+                ProgressTracker.NULL_TRACKER)).isNull();
+    }
+
+    @Test
+    void interruptedWriteFails() {
+        BufferedImage img = createTestImage(TYPE_INT_ARGB, false);
+        var out = new ByteArrayOutputStream();
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> PngCodec.write(img, out,
+                    PngCompression.FAST, ProgressTracker.NULL_TRACKER))
+                    .isInstanceOf(InterruptedIOException.class);
+        } finally {
+            // clears the flag even if the write didn't fail
+            Thread.interrupted();
+        }
+        assertThat(out.size()).isZero();
+    }
+
+    @Test
+    void combineAdler32() {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        int split = 70_001;
+
+        var whole = new Adler32();
+        whole.update(data);
+        var first = new Adler32();
+        first.update(data, 0, split);
+        var second = new Adler32();
+        second.update(data, split, data.length - split);
+
+        long combined = PngCodec.combineAdler32(
+                first.getValue(), second.getValue(), data.length - split);
+        assertThat(combined).isEqualTo(whole.getValue());
+    }
+
+    private static BufferedImage createTestImage(int type, boolean opaque) {
+        var img = new BufferedImage(WIDTH, HEIGHT, type);
+        Random rand = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // gradients with some noise, so that all row filters are used
+                int v = (x * 3 + y * 2) & 0xFF;
+                int rgb = v << 16 | ((v + rand.nextInt(8)) & 0xFF) << 8 | rand.nextInt(256);
+                int alpha = opaque ? 0xFF : rand.nextInt(256);
+                img.setRGB(x, y, alpha << 24 | rgb);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Returns a copy of the given PNG file with the given gAMA and sRGB
+     * chunks after the header, and with the image data re-split
+     * into IDAT chunks of the given maximum length
+     */
+    private static byte[] rewriteChunks(byte[] png, byte[] gama, byte[] srgb,
+                                        int maxIdatLength) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(png));
+        var out = new ByteArrayOutputStream();
+        var dout = new DataOutputStream(out);
+        dout.write(in.readNBytes(8)); // signature
+
+        var imageData = new ByteArrayOutputStream();
+        while (true) {
+            byte[] data = new byte[in.readInt()];
+            String type = new String(in.readNBytes(4), US_ASCII);
+            in.readFully(data);
+            in.readInt(); // CRC
+
+            if (type.equals("IHDR")) {
+                writeChunk(dout, type, data);
+                writeChunk(dout, "gAMA", gama);
+                writeChunk(dout, "sRGB", srgb);
+            } else if (type.equals("IDAT")) {
+                imageData.write(data);
+            } else if (type.equals("IEND")) {
+                byte[] allData = imageData.toByteArray();
+                for (int start = 0; start < allData.length; start += maxIdatLength) {
+                    int end = Math.min(allData.length, start + maxIdatLength);
+                    writeChunk(dout, "IDAT", Arrays.copyOfRange(allData, start, end));
+                }
+                writeChunk(dout, type, data);
+                return out.toByteArray();
+            } else {
+                writeChunk(dout, type, data);
+            }
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(US_ASCII);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        var crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static List<String> readChunkTypes(byte[] png) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(png));
+        in.skipNBytes(8);
+        List<String> types = new ArrayList<>();
+        while (in.available() > 0) {
+            int length = in.readInt();
+            types.add(new String(in.readNBytes(4), US_ASCII));
+            in.skipNBytes(length + 4L);
+        }
+        return types;
+    }
+
+    private static void assertSimilarPixels(BufferedImage expected, BufferedImage actual) {
+        assertThat(actual).isNotNull();
+        int[] expectedPixels = expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        int[] actualPixels = actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            int e = expectedPixels[i];
+            int a = actualPixels[i];
+            int alpha = e >>> 24;
+            assertThat(a >>> 24).isEqualTo(alpha);
+            if (alpha == 0) {
+                continue; // the color of transparent pixels is undefined
+            }
+            for (int shift = 0; shift <= 16; shift += 8) {
+                assertThat((a >> shift) & 0xFF)
+                        .isCloseTo((e >> shift) & 0xFF, within(1));
+            }
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertThat(actual).isNotNull();
+        assertThat(actual.getWidth()).isEqualTo(WIDTH);
+        assertThat(actual.getHeight()).isEqualTo(HEIGHT);
+        assertThat(actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH))
+                .isEqualTo(expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.manual;
+
+import pixelitor.Composition;
+import pixelitor.filters.Invert;
+import pixelitor.layers.AdjustmentLayer;
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static pixelitor.Composition.ImageChangeActions.INVALIDATE_CACHE;
+
+/**
+ * Compares the single-threaded full recomposite with the parallel
+ * tiled one. The number of used cores can be changed with the
+ * -XX:ActiveProcessorCount=N JVM option to see how it scales.
+ *
+ * Arguments (all optional): width, height, number of layers
+ */
+public class TestCompositePerformance {
+    private static final int NUM_WARMUP_RUNS = 3;
+    private static final int NUM_MEASURED_RUNS = 10;
+
+    private static final BlendingMode[] MODES = {
+            BlendingMode.NORMAL, BlendingMode.MULTIPLY,
+            BlendingMode.SCREEN, BlendingMode.OVERLAY};
+
+    private TestCompositePerformance() {
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        int numLayers = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Composition comp = createComp(width, height, numLayers);
+        System.out.printf("%dx%d, %d layers + 1 adjustment layer, %d cores%n",
+                width, height, numLayers,
+                Runtime.getRuntime().availableProcessors());
+
+        double serial = measure(comp::calculateCompositeImage);
+        System.out.printf("single-threaded: %.1f ms%n", serial);
+
+        double tiled = measure(() -> {
+            comp.imageChanged(INVALIDATE_CACHE);
+            comp.getCompositeImage();
+        });
+        System.out.printf("parallel tiles:  %.1f ms (speedup = %.2f)%n",
+                tiled, serial / tiled);
+        System.exit(0);
+    }
+
+    private static Composition createComp(int width, int height, int numLayers) {
+        Composition comp = Composition.createEmpty(width, height);
+        comp.setName("Composite Performance Test");
+        Random rand = new Random(42);
+        for (int i = 0; i < numLayers; i++) {
+            var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = new int[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[x] = rand.nextInt();
+                }
+                img.setRGB(0, y, width, 1, pixels, 0, width);
+            }
+            var layer = new ImageLayer(comp, img, "layer " + i);
+            layer.setBlendingMode(MODES[i % MODES.length], false);
+            comp.addLayerInInitMode(layer);
+        }
+        comp.addLayerInInitMode(new AdjustmentLayer(comp, "invert", new Invert()));
+        return comp;
+    }
+
+    /**
+     * Returns the average run time in milliseconds
+     */
+    private static double measure(Runnable task) {
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            task.run();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < NUM_MEASURED_RUNS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - startTime) / 1_000_000.0 / NUM_MEASURED_RUNS;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.manual;
+
+import com.jhlabs.image.CellularFilter;
+import com.jhlabs.image.GaussianFilter;
+import com.jhlabs.image.KaleidoscopeFilter;
+import com.jhlabs.image.MotionBlurFilter;
+import com.jhlabs.image.PointFilter;
+import com.jhlabs.image.TransformFilter;
+import pixelitor.TestHelper;
+import pixelitor.filters.Clouds;
+import pixelitor.filters.ValueNoise;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.util.Random;
+
+/**
+ * Measures the filters that process the image rows in parallel
+ * through the thread pool, in order to see the scheduling overhead.
+ * The number of used cores can be changed with the
+ * -XX:ActiveProcessorCount=N JVM option.
+ *
+ * Arguments (all optional): width, height
+ */
+public class TestRowSchedulingPerformance {
+    private static final int NUM_WARMUP_RUNS = 3;
+    private static final int NUM_MEASURED_RUNS = 10;
+
+    private TestRowSchedulingPerformance() {
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        TestHelper.setUnitTestingMode();
+
+        BufferedImage src = createImage(width, height);
+        BufferedImage dest = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        System.out.printf("%dx%d, %d cores%n", width, height,
+                Runtime.getRuntime().availableProcessors());
+
+        measure("Point (invert)", () -> createInvert().filter(src, dest));
+        measure("Transform (kaleidoscope)", () -> {
+            var f = new KaleidoscopeFilter("Kaleidoscope");
+            f.setEdgeAction(TransformFilter.REPEAT_EDGE_PIXELS);
+            f.setProgressTracker(ProgressTracker.NULL_TRACKER);
+            f.filter(src, dest);
+        });
+        measure("Gaussian (radius = 20)", () -> {
+            var f = new GaussianFilter("Gaussian");
+            f.setRadius(20);
+            f.setProgressTracker(ProgressTracker.NULL_TRACKER);
+            f.filter(src, dest);
+        });
+        measure("Motion blur", () -> {
+            var f = new MotionBlurFilter("Motion Blur");
+            f.setDistance(30);
+            f.setProgressTracker(ProgressTracker.NULL_TRACKER);
+            f.filter(src, dest);
+        });
+        measure("Cellular", () -> {
+            var f = new CellularFilter("Cellular");
+            f.setGridType(CellularFilter.GR_RANDOM);
+            f.setProgressTracker(ProgressTracker.NULL_TRACKER);
+            f.filter(src, dest);
+        });
+        measure("Clouds", () -> Clouds.renderClouds(dest, 100, 0.5f,
+                Color.BLACK, Color.WHITE, ProgressTracker.NULL_TRACKER));
+        ValueNoise valueNoise = new ValueNoise();
+        measure("Value noise", () -> valueNoise.transformImage(src));
+
+        System.exit(0);
+    }
+
+    private static void measure(String name, Runnable task) {
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_MEASURED_RUNS; i++) {
+            task.run();
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0 / NUM_MEASURED_RUNS;
+        System.out.printf("%-25s %8.1f ms%n", name, millis);
+    }
+
+    private static BufferedImageOp createInvert() {
+        var f = new PointFilter("Invert") {
+            @Override
+            public int filterRGB(int x, int y, int rgb) {
+                return rgb ^ 0x00_FF_FF_FF;
+            }
+        };
+        f.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        return f;
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(42);
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[x] = 0xFF_00_00_00 | rand.nextInt(0xFF_FF_FF);
+            }
+            img.setRGB(0, y, width, 1, pixels, 0, width);
+        }
+        return img;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.selection;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import pixelitor.utils.Shapes;
+
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("SelectionModifyType tests")
+public class SelectionModifyTypeTest {
+    /**
+     * The rasterized version may differ from the vector
+     * version only in the pixels along the edges
+     */
+    @ParameterizedTest
+    @EnumSource(SelectionModifyType.class)
+    void rasterizedSimilarToVector(SelectionModifyType type) {
+        Shape shape = new Ellipse2D.Double(30, 40, 200, 120);
+        float amount = 20;
+
+        Shape outline = new BasicStroke(amount).createStrokedShape(shape);
+        Shape vectorResult = type.modify(new Area(shape), new Area(outline));
+        Shape rasterResult = type.modifyRasterized(shape, amount);
+
+        Rectangle area = new Rectangle(0, 0, 300, 220);
+        byte[] expected = Shapes.rasterize(vectorResult, area);
+        byte[] actual = Shapes.rasterize(rasterResult, area);
+
+        int numSelected = 0;
+        int numDifferent = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != 0) {
+                numSelected++;
+            }
+            if (expected[i] != actual[i]) {
+                numDifferent++;
+            }
+        }
+        assertThat(numSelected).isGreaterThan(1000);
+        // the perimeter of the ellipse is about 520 pixels,
+        // and the border types have two edges
+        assertThat(numDifferent).isLessThan(600);
+    }
+}
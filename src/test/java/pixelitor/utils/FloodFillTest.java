@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FloodFill tests")
+public class FloodFillTest {
+    // wider than two words of the bitset
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 37;
+
+    @ParameterizedTest
+    @CsvSource({"0,0,0", "75,18,0", "149,36,40", "64,10,80", "3,30,255"})
+    void connectedSameAsBruteForce(int x, int y, int tolerance) {
+        int[] pixels = createTestPixels();
+        FloodFill region = FloodFill.connected(pixels, WIDTH, HEIGHT, x, y, tolerance);
+
+        boolean[] expected = calcConnected(pixels, x, y, tolerance);
+        assertSameRegion(region, expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0,0", "75,40", "149,255"})
+    void globalSameAsBruteForce(int x, int tolerance) {
+        int[] pixels = createTestPixels();
+        int rgb = pixels[x];
+        FloodFill region = FloodFill.global(pixels, WIDTH, HEIGHT, rgb, tolerance);
+
+        boolean[] expected = new boolean[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            expected[i] = FloodFill.isSimilar(pixels[i], rgb, tolerance);
+        }
+        assertSameRegion(region, expected);
+    }
+
+    @Test
+    void fillPartOfImage() {
+        int[] pixels = createTestPixels();
+        FloodFill region = FloodFill.connected(pixels, WIDTH, HEIGHT, 70, 20, 60);
+        Rectangle bounds = region.getBounds();
+
+        // fill a copy of only the bounds
+        int[] part = new int[bounds.width * bounds.height];
+        region.fill(part, bounds.width, bounds.x, bounds.y, 0xFF_12_34_56);
+
+        byte[] mask = region.toMask();
+        for (int i = 0; i < part.length; i++) {
+            if (mask[i] != 0) {
+                assertThat(part[i]).isEqualTo(0xFF_12_34_56);
+            } else {
+                assertThat(part[i]).isZero();
+            }
+        }
+    }
+
+    private static void assertSameRegion(FloodFill region, boolean[] expected) {
+        int minX = WIDTH;
+        int minY = HEIGHT;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = expected[x + y * WIDTH];
+                assertThat(region.contains(x, y)).isEqualTo(inside);
+                if (inside) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        assertThat(region.getBounds()).isEqualTo(
+                new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+
+        Rectangle bounds = region.getBounds();
+        byte[] mask = region.toMask();
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                boolean inside = expected[bounds.x + x + (bounds.y + y) * WIDTH];
+                assertThat(mask[x + y * bounds.width] != 0).isEqualTo(inside);
+            }
+        }
+    }
+
+    // a breadth-first search with one object per pixel
+    private static boolean[] calcConnected(int[] pixels, int x, int y, int tolerance) {
+        int seedRGB = pixels[x + y * WIDTH];
+        boolean[] found = new boolean[pixels.length];
+        var queue = new ArrayDeque<Integer>();
+        found[x + y * WIDTH] = true;
+        queue.add(x + y * WIDTH);
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            int px = index % WIDTH;
+            int py = index / WIDTH;
+            int[][] neighbors = {{px - 1, py}, {px + 1, py}, {px, py - 1}, {px, py + 1}};
+            for (int[] n : neighbors) {
+                if (n[0] < 0 || n[0] >= WIDTH || n[1] < 0 || n[1] >= HEIGHT) {
+                    continue;
+                }
+                int nIndex = n[0] + n[1] * WIDTH;
+                if (!found[nIndex] && FloodFill.isSimilar(pixels[nIndex], seedRGB, tolerance)) {
+                    found[nIndex] = true;
+                    queue.add(nIndex);
+                }
+            }
+        }
+        return found;
+    }
+
+    // blobs of a few colors with some noise, so
+    // that the regions have complicated shapes
+    private static int[] createTestPixels() {
+        Random rand = new Random(42);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int level = ((x / 9 + y / 5) % 3 + rand.nextInt(2)) * 60;
+                pixels[x + y * WIDTH] = 0xFF_00_00_00
+                        | level << 16 | level << 8 | rand.nextInt(30);
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("PointGrid tests")
+public class PointGridTest {
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 117;
+
+    @ParameterizedTest
+    @EnumSource(Metric.class)
+    void sameAsBruteForce(Metric metric) {
+        Random rand = new Random(42);
+        for (int numPoints : new int[]{1, 2, 7, 100, 1000}) {
+            float[] xs = new float[numPoints];
+            float[] ys = new float[numPoints];
+            for (int i = 0; i < numPoints; i++) {
+                // on a coarse lattice, so that there are many ties
+                xs[i] = 7 * rand.nextInt(WIDTH / 7);
+                ys[i] = 7 * rand.nextInt(HEIGHT / 7);
+            }
+            PointGrid grid = PointGrid.create(xs, ys, 0, 0, WIDTH, HEIGHT, 2);
+
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertThat(grid.findNearest(x, y, metric))
+                            .isEqualTo(findNearest(xs, ys, x, y, metric));
+                }
+            }
+            // also outside the grid and between the pixels
+            for (int i = 0; i < 1000; i++) {
+                double x = rand.nextDouble() * (WIDTH + 20) - 10;
+                double y = rand.nextDouble() * (HEIGHT + 20) - 10;
+                assertThat(grid.findNearest(x, y, metric))
+                        .isEqualTo(findNearest(xs, ys, x, y, metric));
+            }
+        }
+    }
+
+    private static int findNearest(float[] xs, float[] ys, double x, double y, Metric metric) {
+        int nearest = -1;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            double dist = metric.distanceDouble(xs[i], x, ys[i], y);
+            if (dist < minDist) {
+                minDist = dist;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+}
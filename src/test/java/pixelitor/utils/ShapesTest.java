@@ -32,6 +32,7 @@ import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Random;
 
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
 import static pixelitor.tools.pen.AnchorPointType.SYMMETRIC;
@@ -183,4 +184,27 @@ public class ShapesTest {
         Rectangle rectOut = Shapes.toPositiveRect(rect);
         assertThat(rectOut).isEqualTo(rectExcepted);
     }
-}
\ No newline at end of file
+
+    @Test
+    void outlineOfMask() {
+        int width = 30;
+        int height = 20;
+        Random rand = new Random(42);
+        byte[] mask = new byte[width * height];
+        for (int i = 0; i < mask.length; i++) {
+            // random noise, with many pixels touching only at a corner
+            mask[i] = rand.nextBoolean() ? (byte) 255 : 0;
+        }
+
+        Shape outline = Shapes.outlineOfMask(mask, width, height, 5, 7);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean inMask = mask[y * width + x] != 0;
+                assertThat(outline.contains(x + 5.5, y + 7.5)).isEqualTo(inMask);
+            }
+        }
+        Rectangle area = new Rectangle(5, 7, width, height);
+        assertThat(Shapes.rasterize(outline, area)).isEqualTo(mask);
+    }
+}